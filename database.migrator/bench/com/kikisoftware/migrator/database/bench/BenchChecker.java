@@ -0,0 +1,97 @@
+package com.kikisoftware.migrator.database.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+
+import com.kikisoftware.migrator.database.DataChecker;
+import com.kikisoftware.migrator.database.IllegalParameterToBeContinuedException;
+
+/**
+ * ベンチマーク用のDataChecker実装。LatencyDriverのbench_srcとbench_dstをidで突き合わせ、全列を比較する。
+ * @author kikisoftware
+ */
+public class BenchChecker extends DataChecker {
+	static {
+		log_ = Logger.getLogger(BenchChecker.class);
+	}
+
+	private final String sourceSqlPath;
+	private final String destinationSqlPath;
+	private final String[] columns;
+	private final String[] values;
+	private long id;
+	private long destinationId;
+
+	/**
+	 * コンストラクタ。チェックモードはコンフィグのcheck.modeに従う
+	 * @param sourceSqlPath チェック元SQLを保存したファイルパス (NotNull)
+	 * @param destinationSqlPath 比較対象SQLを保存したファイルパス (NotNull)
+	 * @param width id以外の列の数
+	 * @throws Exception 初期化に失敗した場合
+	 */
+	public BenchChecker(String sourceSqlPath, String destinationSqlPath, int width) throws Exception{
+		super();
+		setKeyColumn("id");
+		this.sourceSqlPath = sourceSqlPath;
+		this.destinationSqlPath = destinationSqlPath;
+		this.columns = BenchTable.getColumns(width);
+		this.values = new String[width];
+	}
+
+	@Override
+	protected String getCheckCountSql(){
+		return "SELECT COUNT(*) cnt FROM " + BenchTable.SOURCE;
+	}
+
+	@Override
+	protected String getSelectSourceFilePath(){
+		return sourceSqlPath;
+	}
+
+	@Override
+	protected String getSelectDestinationFilePath(){
+		return destinationSqlPath;
+	}
+
+	@Override
+	protected Connection getCheckSourceConnection() throws SQLException{
+		return DriverManager.getConnection(LatencyDriver.URL_PREFIX + BenchTable.SOURCE);
+	}
+
+	@Override
+	protected Connection getCheckDestinationConnection() throws SQLException{
+		return DriverManager.getConnection(LatencyDriver.URL_PREFIX + BenchTable.DESTINATION);
+	}
+
+	@Override
+	protected void prepareSelect(ResultSet srs, PreparedStatement ps) throws SQLException{
+		id = srs.getLong("id");
+		for(int i = 0; i < columns.length; i++)values[i] = srs.getString(columns[i]);
+		ps.setLong(1, id);
+	}
+
+	@Override
+	protected void checkDatas(ResultSet drs) throws SQLException, IllegalParameterToBeContinuedException{
+		destinationId = drs.getLong("id");
+		if(destinationId!=id)throw new IllegalParameterToBeContinuedException("idが一致しません。");
+		for(int i = 0; i < columns.length; i++){
+			String value = drs.getString(columns[i]);
+			if(value==null ? values[i]!=null : !value.equals(values[i]))throw new IllegalParameterToBeContinuedException(columns[i] + "が一致しません。");
+		}
+	}
+
+	@Override
+	protected String getIdentifierSource(){
+		return "id=" + id;
+	}
+
+	@Override
+	protected String getIdentifierDestination(){
+		return "id=" + destinationId;
+	}
+}
@@ -0,0 +1,101 @@
+package com.kikisoftware.migrator.database.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+
+import com.kikisoftware.migrator.database.ColumnMapping;
+import com.kikisoftware.migrator.database.Consts.COLUMN_TYPE;
+import com.kikisoftware.migrator.database.IllegalParameterToBeContinuedException;
+import com.kikisoftware.migrator.database.Migrator;
+
+/**
+ * ベンチマーク用のMigrator実装。LatencyDriverのbench_srcからbench_dstへ、idとc1～cNの列をそのまま移行する。
+ * @author kikisoftware
+ */
+public class BenchMigrator extends Migrator {
+	static {
+		log_ = Logger.getLogger(BenchMigrator.class);
+	}
+
+	private final String sqlPath;
+	private final String[] columns;
+	private final boolean mapping;
+	private long id;
+
+	/**
+	 * コンストラクタ
+	 * @param mode トランザクションモード (NotNull)
+	 * @param batch バッチ更新サイズ。トランザクションモードがByRecordの場合は1になる
+	 * @param sqlPath 元データ取得用SQLを保存したファイルパス (NotNull)
+	 * @param width id以外の列の数
+	 * @param mapping ColumnMappingで値をセットする場合true。falseなら列名で取得する
+	 * @throws Exception 初期化に失敗した場合
+	 */
+	public BenchMigrator(TRANSACTION_MODE mode, int batch, String sqlPath, int width, boolean mapping) throws Exception{
+		super();
+		setTransactionMode(mode);
+		if(mode!=TRANSACTION_MODE.ByRecord)batchSize = batch;
+		this.sqlPath = sqlPath;
+		this.columns = BenchTable.getColumns(width);
+		this.mapping = mapping;
+	}
+
+	@Override
+	protected void doOtherProcess(ResultSet rs, Connection con){
+	}
+
+	@Override
+	protected String getExecSelectCountSql(){
+		return "SELECT COUNT(*) cnt FROM " + BenchTable.SOURCE;
+	}
+
+	@Override
+	protected String getExecSelectFilePath(){
+		return sqlPath;
+	}
+
+	@Override
+	protected String getInsertString(){
+		return BenchTable.getInsertSql(BenchTable.DESTINATION, columns);
+	}
+
+	@Override
+	protected ColumnMapping getColumnMapping(){
+		if(!mapping)return null;
+		ColumnMapping columnMapping = new ColumnMapping().map(1, "id", COLUMN_TYPE.Long);
+		for(int i = 0; i < columns.length; i++)columnMapping.map(i + 2, columns[i]);
+		return columnMapping;
+	}
+
+	@Override
+	protected void setParameters(ResultSet rs, PreparedStatement ps) throws SQLException, IllegalParameterToBeContinuedException{
+		if(mapping){
+			super.setParameters(rs, ps);
+			id = rs.getLong(1);
+			return;
+		}
+		id = rs.getLong("id");
+		ps.setLong(1, id);
+		for(int i = 0; i < columns.length; i++)ps.setString(i + 2, rs.getString(columns[i]));
+	}
+
+	@Override
+	protected Connection getInsertSourceConnection() throws SQLException{
+		return DriverManager.getConnection(LatencyDriver.URL_PREFIX + BenchTable.SOURCE);
+	}
+
+	@Override
+	protected Connection getInsertTargetConnection() throws SQLException{
+		return DriverManager.getConnection(LatencyDriver.URL_PREFIX + BenchTable.DESTINATION);
+	}
+
+	@Override
+	protected String getIdentifier(){
+		return "id=" + id;
+	}
+}
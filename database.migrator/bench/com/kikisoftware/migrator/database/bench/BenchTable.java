@@ -0,0 +1,84 @@
+package com.kikisoftware.migrator.database.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.kikisoftware.migrator.database.Consts;
+
+/**
+ * ベンチマークで使う擬似テーブルの名前と、SQLの組み立てをまとめる
+ * @author kikisoftware
+ */
+public class BenchTable {
+	/** 移行元テーブル名 **/
+	public static final String SOURCE = "bench_src";
+	/** 移行先テーブル名 **/
+	public static final String DESTINATION = "bench_dst";
+
+	private BenchTable(){
+	}
+
+	/**
+	 * @param width id以外の列の数
+	 * @return id以外の列名（c1～cN）
+	 */
+	public static String[] getColumns(int width){
+		String[] columns = new String[width];
+		for(int i = 0; i < width; i++)columns[i] = "c" + (i + 1);
+		return columns;
+	}
+
+	/**
+	 * idと指定の列を取得するSELECT文を返す
+	 * @param table テーブル名 (NotNull)
+	 * @param columns id以外の列名 (NotNull)
+	 * @param condition WHERE句の条件 (NotNull)
+	 * @return SELECT文
+	 */
+	public static String getSelectSql(String table, String[] columns, String condition){
+		StringBuilder sb = new StringBuilder("SELECT id");
+		for(String column : columns)sb.append(", ").append(column);
+		return sb.append(" FROM ").append(table).append(" WHERE ").append(condition).toString();
+	}
+
+	/**
+	 * idと指定の列を取得するSELECT文を、キー範囲プレースホルダを条件として返す
+	 * @param table テーブル名 (NotNull)
+	 * @param columns id以外の列名 (NotNull)
+	 * @return SELECT文
+	 */
+	public static String getRangeSelectSql(String table, String[] columns){
+		return getSelectSql(table, columns, Consts.SQL_KEY_RANGE_PLACEHOLDER);
+	}
+
+	/**
+	 * idと指定の列に挿入するINSERT文を返す
+	 * @param table テーブル名 (NotNull)
+	 * @param columns id以外の列名 (NotNull)
+	 * @return INSERT文
+	 */
+	public static String getInsertSql(String table, String[] columns){
+		StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (id");
+		for(String column : columns)sb.append(", ").append(column);
+		sb.append(") VALUES (?");
+		for(int i = 0; i < columns.length; i++)sb.append(", ?");
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * SQLをファイルに書き出す
+	 * @param dir 出力先ディレクトリ (NotNull)
+	 * @param name ファイル名 (NotNull)
+	 * @param sql SQL (NotNull)
+	 * @return 書き出したファイルのパス
+	 * @throws IOException 書き込みに失敗した場合
+	 */
+	public static String writeSql(Path dir, String name, String sql) throws IOException{
+		Path path = dir.resolve(name);
+		Files.write(path, sql.getBytes(StandardCharsets.UTF_8));
+		path.toFile().deleteOnExit();
+		return path.toString();
+	}
+}
@@ -0,0 +1,518 @@
+package com.kikisoftware.migrator.database.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ベンチマーク用の、応答時間を指定できる擬似JDBCドライバー。URLはjdbc:latency:任意の名前。
+ * 実際のデータベースの代わりに、idが1からrowsまでのテーブルを持つものとして振る舞う。
+ * 列はid（BIGINT）とc1～cN（VARCHAR）で、文字列の値は列ごとに固定の文字列を返し、
+ * ドライバー自体のメモリ割り当てが計測値に混ざらないようにする。
+ * SELECTはSQL中の「id &gt;= n」「id &lt; n」「id &gt; n」「id &lt;= n」「LIMIT n」「id = ?」「IN (?, ...)」を解釈し、
+ * COUNT(を含む場合は件数（BIT_XORを含む場合はチェックサムも）、minkeyを含む場合はキーの最小値と最大値を返す。
+ * 挿入・更新は件数を数えるだけで、データは保持しない。
+ * 各操作では指定のマイクロ秒数だけ待つ。クエリ実行・フェッチサイズごとの追加取得・更新の実行・1行ごとの書き込み・コミットに
+ * それぞれ待ち時間を設定でき、ネットワーク往復とサーバー処理の重さを模擬する。
+ * java.lang.reflect.Proxyで実装しているため、引数のボクシング分の割り当ては計測値に含まれる。
+ * @author kikisoftware
+ */
+public class LatencyDriver implements Driver {
+	/** 接続URLの接頭辞 **/
+	public static final String URL_PREFIX = "jdbc:latency:";
+
+	private static final Pattern GE = Pattern.compile("\\bid\\s*>=\\s*(-?\\d+)");
+	private static final Pattern GT = Pattern.compile("\\bid\\s*>\\s*(-?\\d+)");
+	private static final Pattern LE = Pattern.compile("\\bid\\s*<=\\s*(-?\\d+)");
+	private static final Pattern LT = Pattern.compile("\\bid\\s*<\\s*(-?\\d+)");
+	private static final Pattern LIMIT = Pattern.compile("\\bLIMIT\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern EQ_PARAM = Pattern.compile("\\bid\\s*=\\s*\\?");
+
+	private static volatile long rows = 100000;
+	private static volatile int width = 8;
+	private static volatile String[] values = createValues(8, 32);
+	private static volatile long queryMicros = 0;
+	private static volatile long fetchMicros = 0;
+	private static volatile long executeMicros = 0;
+	private static volatile long rowMicros = 0;
+	private static volatile long commitMicros = 0;
+
+	private static final AtomicLong connects = new AtomicLong();
+	private static final AtomicLong queries = new AtomicLong();
+	private static final AtomicLong fetches = new AtomicLong();
+	private static final AtomicLong executes = new AtomicLong();
+	private static final AtomicLong writtenRows = new AtomicLong();
+	private static final AtomicLong commits = new AtomicLong();
+
+	static {
+		try {
+			DriverManager.registerDriver(new LatencyDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * 擬似テーブルの形を設定する
+	 * @param rowCount 行数
+	 * @param columnCount id以外の文字列列の数
+	 * @param valueLength 文字列列の値の文字数
+	 */
+	public static void setTable(long rowCount, int columnCount, int valueLength){
+		rows = rowCount;
+		width = columnCount;
+		values = createValues(columnCount, valueLength);
+	}
+
+	/**
+	 * 各操作の待ち時間（マイクロ秒）を設定する
+	 * @param query クエリ実行1回あたり
+	 * @param fetch フェッチサイズ分の行を追加取得する1回あたり
+	 * @param execute 更新・バッチ実行1回あたり
+	 * @param row 書き込み1行あたり
+	 * @param commit コミット1回あたり
+	 */
+	public static void setLatency(long query, long fetch, long execute, long row, long commit){
+		queryMicros = query;
+		fetchMicros = fetch;
+		executeMicros = execute;
+		rowMicros = row;
+		commitMicros = commit;
+	}
+
+	/**
+	 * 操作回数の集計を0に戻す
+	 */
+	public static void resetStats(){
+		connects.set(0);
+		queries.set(0);
+		fetches.set(0);
+		executes.set(0);
+		writtenRows.set(0);
+		commits.set(0);
+	}
+
+	/**
+	 * @return 書き込まれた行数（ロールバック分も含む）
+	 */
+	public static long getWrittenRows(){
+		return writtenRows.get();
+	}
+
+	/**
+	 * @return 操作回数の集計を表す文字列
+	 */
+	public static String getStats(){
+		return "connect=" + connects.get() + " query=" + queries.get() + " fetch=" + fetches.get()
+				+ " execute=" + executes.get() + " rows=" + writtenRows.get() + " commit=" + commits.get();
+	}
+
+	private static String[] createValues(int columnCount, int valueLength){
+		String[] created = new String[columnCount];
+		for(int i = 0; i < columnCount; i++){
+			char[] chars = new char[valueLength];
+			Arrays.fill(chars, (char)('a' + i % 26));
+			created[i] = new String(chars);
+		}
+		return created;
+	}
+
+	/**
+	 * 指定のマイクロ秒数だけ待つ。短い待ちはスリープの精度が足りないため空回りで待つ
+	 */
+	private static void pause(long micros){
+		if(micros<=0)return;
+		long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+		if(micros>2000)LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros - 1000));
+		while(System.nanoTime()<deadline){}
+	}
+
+	private static Object defaultValue(Class<?> type){
+		if(type==boolean.class)return Boolean.FALSE;
+		if(type==int.class)return Integer.valueOf(0);
+		if(type==long.class)return Long.valueOf(0);
+		if(type==short.class)return Short.valueOf((short)0);
+		if(type==byte.class)return Byte.valueOf((byte)0);
+		if(type==double.class)return Double.valueOf(0);
+		if(type==float.class)return Float.valueOf(0);
+		return null;
+	}
+
+	private static long toLong(Object value){
+		if(value instanceof Number)return ((Number)value).longValue();
+		return Long.parseLong(value.toString());
+	}
+
+	private static Object convert(Object value, Class<?> type){
+		if(value==null)return defaultValue(type);
+		if(type==Object.class || type.isInstance(value))return value;
+		if(type==String.class)return value.toString();
+		if(type==long.class || type==Long.class)return Long.valueOf(toLong(value));
+		if(type==int.class || type==Integer.class)return Integer.valueOf((int)toLong(value));
+		if(type==short.class || type==Short.class)return Short.valueOf((short)toLong(value));
+		if(type==double.class || type==Double.class)return Double.valueOf(toLong(value));
+		if(type==BigDecimal.class)return BigDecimal.valueOf(toLong(value));
+		if(type==boolean.class || type==Boolean.class)return Boolean.valueOf(toLong(value)!=0);
+		return defaultValue(type);
+	}
+
+	private static Object commonMethod(Object proxy, Method method, Object[] args, String name){
+		String m = method.getName();
+		if(m.equals("hashCode"))return Integer.valueOf(System.identityHashCode(proxy));
+		if(m.equals("equals"))return Boolean.valueOf(proxy==args[0]);
+		if(m.equals("toString"))return name;
+		if(m.equals("unwrap"))return proxy;
+		if(m.equals("isWrapperFor"))return Boolean.FALSE;
+		return defaultValue(method.getReturnType());
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException{
+		if(!acceptsURL(url))return null;
+		connects.incrementAndGet();
+		return (Connection)Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{Connection.class}, new ConnectionHandler(url));
+	}
+
+	@Override
+	public boolean acceptsURL(String url){
+		return url!=null && url.startsWith(URL_PREFIX);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info){
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion(){
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion(){
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant(){
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException{
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	/**
+	 * Connectionの実装
+	 */
+	private static class ConnectionHandler implements InvocationHandler {
+		private final String url;
+		private boolean autoCommit = true;
+		private boolean closed = false;
+		private int savepoints = 0;
+
+		ConnectionHandler(String url){
+			this.url = url;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, Method method, Object[] args) throws Throwable{
+			String m = method.getName();
+			if(m.equals("createStatement"))return createStatement((Connection)proxy, Statement.class, null);
+			if(m.equals("prepareStatement"))return createStatement((Connection)proxy, PreparedStatement.class, (String)args[0]);
+			if(m.equals("setAutoCommit")){
+				if(!autoCommit && ((Boolean)args[0]).booleanValue())commit();
+				autoCommit = ((Boolean)args[0]).booleanValue();
+				return null;
+			}
+			if(m.equals("getAutoCommit"))return Boolean.valueOf(autoCommit);
+			if(m.equals("commit")){
+				commit();
+				return null;
+			}
+			if(m.equals("rollback")){
+				pause(executeMicros);
+				return null;
+			}
+			if(m.equals("setSavepoint")){
+				final String name = String.valueOf(++savepoints);
+				return Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{Savepoint.class}, new InvocationHandler(){
+					@Override
+					public Object invoke(Object sp, Method spm, Object[] spargs){
+						if(spm.getName().equals("getSavepointName"))return name;
+						return commonMethod(sp, spm, spargs, "Savepoint" + name);
+					}
+				});
+			}
+			if(m.equals("close")){
+				closed = true;
+				return null;
+			}
+			if(m.equals("isClosed"))return Boolean.valueOf(closed);
+			if(m.equals("isValid"))return Boolean.valueOf(!closed);
+			if(m.equals("getMetaData")){
+				return Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{DatabaseMetaData.class}, new InvocationHandler(){
+					@Override
+					public Object invoke(Object md, Method mdm, Object[] mdargs){
+						if(mdm.getName().equals("getURL"))return url;
+						if(mdm.getName().equals("getDatabaseProductName"))return "MySQL";
+						if(mdm.getName().equals("getConnection"))return proxy;
+						return commonMethod(md, mdm, mdargs, "LatencyDatabaseMetaData");
+					}
+				});
+			}
+			return commonMethod(proxy, method, args, "LatencyConnection[" + url + "]");
+		}
+
+		private void commit(){
+			pause(commitMicros);
+			commits.incrementAndGet();
+		}
+
+		private Object createStatement(Connection con, Class<?> type, String sql){
+			return Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{type}, new StatementHandler(con, sql));
+		}
+	}
+
+	/**
+	 * Statement・PreparedStatementの実装
+	 */
+	private static class StatementHandler implements InvocationHandler {
+		private final Connection con;
+		private final String sql;
+		private final Map<Integer, Object> params = new TreeMap<Integer, Object>();
+		private int batchRows = 0;
+		private int fetchSize = 0;
+
+		StatementHandler(Connection con, String sql){
+			this.con = con;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+			String m = method.getName();
+			if(sql!=null && m.startsWith("set") && args!=null && args.length>=2 && args[0] instanceof Integer){
+				params.put((Integer)args[0], m.equals("setNull") ? null : args[1]);
+				return null;
+			}
+			if(m.equals("setFetchSize")){
+				fetchSize = ((Integer)args[0]).intValue();
+				return null;
+			}
+			if(m.equals("getFetchSize"))return Integer.valueOf(fetchSize);
+			if(m.equals("executeQuery")){
+				pause(queryMicros);
+				queries.incrementAndGet();
+				return query((Statement)proxy, sql!=null ? sql : (String)args[0]);
+			}
+			if(m.equals("executeUpdate") || m.equals("execute") || m.equals("executeLargeUpdate")){
+				long count = sql==null ? 0 : Math.max(1, params.size() / (width + 1));
+				pause(executeMicros + rowMicros * count);
+				executes.incrementAndGet();
+				writtenRows.addAndGet(count);
+				if(m.equals("execute"))return Boolean.FALSE;
+				if(m.equals("executeLargeUpdate"))return Long.valueOf(count);
+				return Integer.valueOf((int)count);
+			}
+			if(m.equals("addBatch")){
+				batchRows++;
+				return null;
+			}
+			if(m.equals("clearBatch")){
+				batchRows = 0;
+				return null;
+			}
+			if(m.equals("executeBatch")){
+				pause(executeMicros + rowMicros * batchRows);
+				executes.incrementAndGet();
+				writtenRows.addAndGet(batchRows);
+				int[] result = new int[batchRows];
+				Arrays.fill(result, 1);
+				batchRows = 0;
+				return result;
+			}
+			if(m.equals("clearParameters")){
+				params.clear();
+				return null;
+			}
+			if(m.equals("getUpdateCount"))return Integer.valueOf(-1);
+			if(m.equals("getConnection"))return con;
+			return commonMethod(proxy, method, args, "LatencyStatement[" + sql + "]");
+		}
+
+		/**
+		 * SQLを解釈して結果を返す
+		 */
+		private ResultSet query(Statement stmt, String text){
+			long[] ids = null;
+			if(sql!=null && text.contains(" IN (")){
+				ids = new long[params.size()];
+				int i = 0;
+				for(Object value : params.values())ids[i++] = toLong(value);
+				Arrays.sort(ids);
+			}
+			else if(sql!=null && EQ_PARAM.matcher(text).find()){
+				Object value = params.get(Integer.valueOf(1));
+				long id = value==null ? 0 : toLong(value);
+				ids = id>=1 && id<=rows ? new long[]{id} : new long[0];
+			}
+			long from = 1;
+			long to = rows;
+			if(ids==null){
+				Matcher matcher;
+				if((matcher = GE.matcher(text)).find())from = Math.max(from, Long.parseLong(matcher.group(1)));
+				if((matcher = GT.matcher(text)).find())from = Math.max(from, Long.parseLong(matcher.group(1)) + 1);
+				if((matcher = LE.matcher(text)).find())to = Math.min(to, Long.parseLong(matcher.group(1)));
+				if((matcher = LT.matcher(text)).find())to = Math.min(to, Long.parseLong(matcher.group(1)) - 1);
+				if((matcher = LIMIT.matcher(text)).find())to = Math.min(to, from + Long.parseLong(matcher.group(1)) - 1);
+			}
+			String upper = text.toUpperCase();
+			if(upper.contains("COUNT(")){
+				long count = ids!=null ? ids.length : Math.max(0, to - from + 1);
+				if(upper.contains("BIT_XOR")){
+					long crc = count==0 ? 0 : (from * 31 + to) & 0xffffffffL;
+					return aggregate(stmt, new String[]{"cnt", "crc"}, new Object[]{Long.valueOf(count), Long.valueOf(crc)});
+				}
+				return aggregate(stmt, new String[]{"cnt"}, new Object[]{Long.valueOf(count)});
+			}
+			if(text.contains("minkey")){
+				boolean empty = from>to;
+				return aggregate(stmt, new String[]{"minkey", "maxkey"}, new Object[]{empty ? null : Long.valueOf(from), empty ? null : Long.valueOf(to)});
+			}
+			String[] labels = new String[width + 1];
+			labels[0] = "id";
+			for(int i = 1; i <= width; i++)labels[i] = "c" + i;
+			ResultSetHandler handler = new ResultSetHandler(stmt, labels, fetchSize, ids, from, to, null);
+			return (ResultSet)Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{ResultSet.class}, handler);
+		}
+
+		private ResultSet aggregate(Statement stmt, String[] labels, Object[] row){
+			ResultSetHandler handler = new ResultSetHandler(stmt, labels, 0, null, 1, 1, row);
+			return (ResultSet)Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{ResultSet.class}, handler);
+		}
+	}
+
+	/**
+	 * ResultSetの実装。idの範囲またはidの配列を順に返す
+	 */
+	private static class ResultSetHandler implements InvocationHandler {
+		private final Statement stmt;
+		private final String[] labels;
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		private final int fetchSize;
+		private final long[] ids;
+		private final long from;
+		private final long to;
+		private final Object[] row;
+		private final String[] columnValues = values;
+		private long position = -1;
+		private long current;
+		private boolean wasNull = false;
+		private boolean closed = false;
+
+		ResultSetHandler(Statement stmt, String[] labels, int fetchSize, long[] ids, long from, long to, Object[] row){
+			this.stmt = stmt;
+			this.labels = labels;
+			this.fetchSize = fetchSize;
+			this.ids = ids;
+			this.from = from;
+			this.to = to;
+			this.row = row;
+			for(int i = 0; i < labels.length; i++)indexes.put(labels[i].toLowerCase(), Integer.valueOf(i + 1));
+		}
+
+		private long size(){
+			if(ids!=null)return ids.length;
+			return Math.max(0, to - from + 1);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+			String m = method.getName();
+			if(m.equals("next")){
+				position++;
+				if(position>=size())return Boolean.FALSE;
+				// フェッチサイズ分を読み切るごとにサーバーから追加取得する
+				if(fetchSize>0 && position>0 && position % fetchSize==0){
+					pause(fetchMicros);
+					fetches.incrementAndGet();
+				}
+				current = ids!=null ? ids[(int)position] : from + position;
+				return Boolean.TRUE;
+			}
+			if(m.startsWith("get") && args!=null && args.length>=1 && (args[0] instanceof Integer || args[0] instanceof String)
+					&& !m.equals("getStatement")){
+				int column = args[0] instanceof Integer ? ((Integer)args[0]).intValue() : findColumn((String)args[0]);
+				Object value = value(column);
+				wasNull = value==null;
+				Class<?> type = args.length==2 && args[1] instanceof Class ? (Class<?>)args[1] : method.getReturnType();
+				return convert(value, type);
+			}
+			if(m.equals("wasNull"))return Boolean.valueOf(wasNull);
+			if(m.equals("findColumn"))return Integer.valueOf(findColumn((String)args[0]));
+			if(m.equals("getMetaData")){
+				return Proxy.newProxyInstance(LatencyDriver.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler(){
+					@Override
+					public Object invoke(Object md, Method mdm, Object[] mdargs){
+						String name = mdm.getName();
+						if(name.equals("getColumnCount"))return Integer.valueOf(labels.length);
+						if(name.equals("getColumnLabel") || name.equals("getColumnName"))return labels[((Integer)mdargs[0]).intValue() - 1];
+						boolean number = row!=null || ((Integer)mdargs[0]).intValue()==1;
+						if(name.equals("getColumnType"))return Integer.valueOf(number ? Types.BIGINT : Types.VARCHAR);
+						if(name.equals("getColumnTypeName"))return number ? "BIGINT" : "VARCHAR";
+						if(name.equals("getColumnClassName"))return number ? Long.class.getName() : String.class.getName();
+						if(name.equals("isNullable"))return Integer.valueOf(ResultSetMetaData.columnNullable);
+						return commonMethod(md, mdm, mdargs, "LatencyResultSetMetaData");
+					}
+				});
+			}
+			if(m.equals("getStatement"))return stmt;
+			if(m.equals("getFetchSize"))return Integer.valueOf(fetchSize);
+			if(m.equals("close")){
+				closed = true;
+				return null;
+			}
+			if(m.equals("isClosed"))return Boolean.valueOf(closed);
+			return commonMethod(proxy, method, args, "LatencyResultSet");
+		}
+
+		private int findColumn(String label) throws SQLException{
+			Integer index = indexes.get(label.toLowerCase());
+			if(index==null)throw new SQLException("Column '" + label + "' not found.", "S0022");
+			return index.intValue();
+		}
+
+		private Object value(int column){
+			if(row!=null)return row[column - 1];
+			if(column==1)return Long.valueOf(current);
+			return columnValues[column - 2];
+		}
+	}
+}
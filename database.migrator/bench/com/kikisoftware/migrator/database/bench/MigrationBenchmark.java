@@ -0,0 +1,283 @@
+package com.kikisoftware.migrator.database.bench;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.kikisoftware.migrator.database.Consts.CHECK_MODE;
+import com.kikisoftware.migrator.database.Consts.TRANSACTION_MODE;
+import com.kikisoftware.migrator.database.Utilities;
+
+/**
+ * MigratorとDataCheckerのスループットとメモリ割り当て量を計測するベンチマーク。
+ * LatencyDriverを相手に、トランザクションモード・バッチ更新サイズ・フェッチサイズ・列数の組み合わせごとに
+ * ウォームアップの後で計測を繰り返し、行/秒と割り当て量（MB/秒、バイト/行）の平均と標準偏差を出力する。
+ * 割り当て量はcom.sun.management.ThreadMXBeanのスレッドごとの割り当てバイト数の増分で、
+ * 計測中に終了したスレッドの分は含まれない（並列実行やパイプラインを有効にした場合は少なめに出る）。
+ * <p>
+ * パラメータはシステムプロパティで指定する。カンマ区切りの値は全ての組み合わせを実行する。
+ * <ul>
+ * <li>bench.target migrator, checker, all のいずれか。デフォルトはall</li>
+ * <li>bench.transactionModes デフォルトはNone,ByRecord,All</li>
+ * <li>bench.batchSizes デフォルトは10,100,1000（ByRecordでは1のみ）</li>
+ * <li>bench.fetchSizes デフォルトは100,1000</li>
+ * <li>bench.widths id以外の列数。デフォルトは4,16</li>
+ * <li>bench.mappings setParameters()の値の受け渡し方法。ByName（列名で取得）、Mapping（ColumnMapping）。デフォルトはByName</li>
+ * <li>bench.checkModes デフォルトはByRecord,InList,Merge,Checksum</li>
+ * <li>bench.rows 行数。デフォルトは10000</li>
+ * <li>bench.valueLength 文字列列の文字数。デフォルトは32</li>
+ * <li>bench.warmup ウォームアップ回数。デフォルトは1</li>
+ * <li>bench.iterations 計測回数。デフォルトは3</li>
+ * <li>bench.queryMicros, bench.fetchMicros, bench.executeMicros, bench.rowMicros, bench.commitMicros
+ * LatencyDriverの待ち時間（マイクロ秒）。デフォルトは200, 100, 100, 2, 200</li>
+ * <li>bench.logLevel デフォルトはWARN</li>
+ * <li>bench.csv 結果をCSVでも出力する場合のファイルパス</li>
+ * </ul>
+ * クラスパスには本体のクラスとlib以下のjarに加え、コンフィグとしてbenchディレクトリのdatabasemigrator.propertiesを含める事。
+ * @author kikisoftware
+ */
+public class MigrationBenchmark {
+	private static final String PREFIX = "bench.";
+
+	/**
+	 * 1つのパラメータの組み合わせ
+	 */
+	private static abstract class Trial {
+		final String target;
+		final String params;
+		final int width;
+		final long expectedRows;
+
+		Trial(String target, String params, int width, long expectedRows){
+			this.target = target;
+			this.params = params;
+			this.width = width;
+			this.expectedRows = expectedRows;
+		}
+
+		/**
+		 * 1回分の処理を実行する
+		 * @throws Exception 処理に失敗した場合
+		 */
+		abstract void run() throws Exception;
+	}
+
+	/**
+	 * 1つの組み合わせの計測結果
+	 */
+	private static class Result {
+		final Trial trial;
+		final double[] rowsPerSec;
+		final double[] allocPerSec;
+		final double[] allocPerRow;
+
+		Result(Trial trial, int iterations){
+			this.trial = trial;
+			this.rowsPerSec = new double[iterations];
+			this.allocPerSec = new double[iterations];
+			this.allocPerRow = new double[iterations];
+		}
+	}
+
+	private MigrationBenchmark(){
+	}
+
+	/**
+	 * ベンチマークを実行する
+	 * @param args 使用しない
+	 * @throws Exception 実行に失敗した場合
+	 */
+	public static void main(String[] args) throws Exception{
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.toLevel(getString("logLevel", "WARN")));
+
+		final long rows = getLong("rows", 10000);
+		int valueLength = (int)getLong("valueLength", 32);
+		int warmup = (int)getLong("warmup", 1);
+		int iterations = (int)getLong("iterations", 3);
+		String target = getString("target", "all");
+		LatencyDriver.setLatency(getLong("queryMicros", 200), getLong("fetchMicros", 100), getLong("executeMicros", 100), getLong("rowMicros", 2), getLong("commitMicros", 200));
+
+		Path dir = Files.createTempDirectory("migrator-bench");
+		dir.toFile().deleteOnExit();
+		List<Trial> trials = new ArrayList<Trial>();
+		if(target.equals("all") || target.equals("migrator")){
+			for(String txName : getList("transactionModes", "None,ByRecord,All")){
+				final TRANSACTION_MODE tx = TRANSACTION_MODE.valueOf(txName);
+				for(String batchName : tx==TRANSACTION_MODE.ByRecord ? new String[]{"1"} : getList("batchSizes", "10,100,1000")){
+					final int batch = Integer.parseInt(batchName);
+					for(String fetchName : getList("fetchSizes", "100,1000")){
+						final int fetch = Integer.parseInt(fetchName);
+						for(String widthName : getList("widths", "4,16")){
+							final int width = Integer.parseInt(widthName);
+							final String sqlPath = BenchTable.writeSql(dir, "migrate" + width + ".sql", BenchTable.getRangeSelectSql(BenchTable.SOURCE, BenchTable.getColumns(width)));
+							for(String mappingName : getList("mappings", "ByName")){
+								final boolean mapping = mappingName.equals("Mapping");
+								trials.add(new Trial("migrate", "tx=" + tx + " batch=" + batch + " fetch=" + fetch + " width=" + width + " mapping=" + mappingName, width, rows){
+									@Override
+									void run() throws Exception{
+										Utilities.setResourceString("exec.selectChunkSize", String.valueOf(fetch));
+										Utilities.setResourceString("exec.batchChunkSize", String.valueOf(batch));
+										new BenchMigrator(tx, batch, sqlPath, width, mapping).run();
+									}
+								});
+							}
+						}
+					}
+				}
+			}
+		}
+		if(target.equals("all") || target.equals("checker")){
+			for(String modeName : getList("checkModes", "ByRecord,InList,Merge,Checksum")){
+				final CHECK_MODE mode = CHECK_MODE.valueOf(modeName);
+				for(String fetchName : getList("fetchSizes", "100,1000")){
+					final int fetch = Integer.parseInt(fetchName);
+					for(String widthName : getList("widths", "4,16")){
+						final int width = Integer.parseInt(widthName);
+						String[] columns = BenchTable.getColumns(width);
+						final String sourcePath = BenchTable.writeSql(dir, "check_src" + width + ".sql", BenchTable.getRangeSelectSql(BenchTable.SOURCE, columns));
+						final String destinationPath = BenchTable.writeSql(dir, "check_dst" + width + "_" + mode + ".sql",
+								mode==CHECK_MODE.ByRecord || mode==CHECK_MODE.InList
+								? BenchTable.getSelectSql(BenchTable.DESTINATION, columns, "id = ?")
+								: BenchTable.getRangeSelectSql(BenchTable.DESTINATION, columns));
+						trials.add(new Trial("check", "mode=" + mode + " fetch=" + fetch + " width=" + width, width, 0){
+							@Override
+							void run() throws Exception{
+								Utilities.setResourceString("check.mode", mode.toString());
+								Utilities.setResourceString("check.selectSourceChunkSize", String.valueOf(fetch));
+								Utilities.setResourceString("check.selectDestinationChunkSize", String.valueOf(fetch));
+								new BenchChecker(sourcePath, destinationPath, width).run();
+							}
+						});
+					}
+				}
+			}
+		}
+
+		System.out.println("# rows=" + rows + " valueLength=" + valueLength + " warmup=" + warmup + " iterations=" + iterations + " trials=" + trials.size());
+		List<Result> results = new ArrayList<Result>();
+		for(Trial trial : trials){
+			Result result = measure(trial, rows, valueLength, warmup, iterations);
+			results.add(result);
+			System.out.println(format(result));
+		}
+
+		System.out.println();
+		System.out.println(String.format(Locale.ROOT, "%-8s %-44s %12s %10s %12s %10s", "Target", "Params", "rows/s", "stddev", "alloc MB/s", "B/row"));
+		for(Result result : results)System.out.println(format(result));
+		String csv = getString("csv", "");
+		if(!csv.equals(""))writeCsv(Paths.get(csv), results);
+	}
+
+	/**
+	 * 1つの組み合わせを、ウォームアップの後で指定回数計測する
+	 */
+	private static Result measure(Trial trial, long rows, int valueLength, int warmup, int iterations) throws Exception{
+		Result result = new Result(trial, iterations);
+		for(int i = 0; i < warmup + iterations; i++){
+			LatencyDriver.setTable(rows, trial.width, valueLength);
+			LatencyDriver.resetStats();
+			Map<Long, Long> allocated = getAllocatedBytes();
+			long start = System.nanoTime();
+			trial.run();
+			long elapsed = System.nanoTime() - start;
+			long bytes = getAllocatedDelta(allocated);
+			if(trial.expectedRows>0 && LatencyDriver.getWrittenRows()!=trial.expectedRows){
+				System.out.println("# WARN " + trial.target + " " + trial.params + " 書き込み行数が一致しません。" + LatencyDriver.getStats());
+			}
+			if(i<warmup)continue;
+			double seconds = elapsed / 1e9;
+			result.rowsPerSec[i - warmup] = rows / seconds;
+			result.allocPerSec[i - warmup] = bytes<0 ? Double.NaN : bytes / seconds / (1024 * 1024);
+			result.allocPerRow[i - warmup] = bytes<0 ? Double.NaN : (double)bytes / rows;
+		}
+		return result;
+	}
+
+	/**
+	 * @return 生存中のスレッドごとの割り当てバイト数。取得できない場合はnull
+	 */
+	private static Map<Long, Long> getAllocatedBytes(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean))return null;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+		if(!sunBean.isThreadAllocatedMemorySupported())return null;
+		if(!sunBean.isThreadAllocatedMemoryEnabled())sunBean.setThreadAllocatedMemoryEnabled(true);
+		long[] ids = sunBean.getAllThreadIds();
+		long[] bytes = sunBean.getThreadAllocatedBytes(ids);
+		Map<Long, Long> allocated = new HashMap<Long, Long>();
+		for(int i = 0; i < ids.length; i++){
+			if(bytes[i]>=0)allocated.put(Long.valueOf(ids[i]), Long.valueOf(bytes[i]));
+		}
+		return allocated;
+	}
+
+	/**
+	 * @return 指定の時点からの割り当てバイト数の増分。取得できない場合は-1
+	 */
+	private static long getAllocatedDelta(Map<Long, Long> before){
+		Map<Long, Long> after = getAllocatedBytes();
+		if(before==null || after==null)return -1;
+		long total = 0;
+		for(Map.Entry<Long, Long> e : after.entrySet()){
+			Long start = before.get(e.getKey());
+			total += e.getValue().longValue() - (start==null ? 0 : start.longValue());
+		}
+		return total;
+	}
+
+	private static String format(Result result){
+		return String.format(Locale.ROOT, "%-8s %-44s %12.1f %10.1f %12.1f %10.1f", result.trial.target, result.trial.params,
+				mean(result.rowsPerSec), stddev(result.rowsPerSec), mean(result.allocPerSec), mean(result.allocPerRow));
+	}
+
+	private static void writeCsv(Path path, List<Result> results) throws Exception{
+		if(path.getParent()!=null)Files.createDirectories(path.getParent());
+		try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))){
+			out.println("target,params,rowsPerSec,rowsPerSecStdDev,allocMBPerSec,allocBytesPerRow");
+			for(Result result : results){
+				out.println(String.format(Locale.ROOT, "%s,%s,%.1f,%.1f,%.2f,%.1f", result.trial.target, result.trial.params,
+						mean(result.rowsPerSec), stddev(result.rowsPerSec), mean(result.allocPerSec), mean(result.allocPerRow)));
+			}
+		}
+	}
+
+	private static double mean(double[] values){
+		double sum = 0;
+		for(double value : values)sum += value;
+		return values.length==0 ? 0 : sum / values.length;
+	}
+
+	private static double stddev(double[] values){
+		if(values.length<2)return 0;
+		double mean = mean(values);
+		double sum = 0;
+		for(double value : values)sum += (value - mean) * (value - mean);
+		return Math.sqrt(sum / (values.length - 1));
+	}
+
+	private static String getString(String key, String def){
+		return System.getProperty(PREFIX + key, def);
+	}
+
+	private static long getLong(String key, long def){
+		return Long.parseLong(getString(key, String.valueOf(def)));
+	}
+
+	private static String[] getList(String key, String def){
+		return getString(key, def).split("\\s*,\\s*");
+	}
+}
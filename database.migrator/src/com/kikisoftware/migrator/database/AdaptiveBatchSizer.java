@@ -0,0 +1,66 @@
+package com.kikisoftware.migrator.database;
+
+/**
+ * バッチ更新の実行時間を計測し、目標時間に収まるようにバッチサイズを増減する。
+ * 1行あたりの実行時間を指数移動平均で求め、目標時間を割ってバッチサイズを決める。
+ * 1回の変更は半分から2倍までとし、変更幅が小さい場合は変更しない。
+ * @author kikisoftware
+ */
+public class AdaptiveBatchSizer {
+	/** 1行あたりの実行時間の移動平均に、最新の計測値を反映する割合 **/
+	private static final double SMOOTHING = 0.3;
+	/** この割合未満の変更は行わない **/
+	private static final double MIN_CHANGE_RATIO = 0.1;
+
+	private final int min;
+	private final int max;
+	private final long targetMillis;
+	private int size;
+	private double rowMillis = -1;
+
+	/**
+	 * コンストラクタ
+	 * @param initial 初期バッチサイズ。最小値と最大値の範囲に収められる
+	 * @param min 最小バッチサイズ
+	 * @param max 最大バッチサイズ
+	 * @param targetMillis 1回のバッチ更新の目標実行時間（ミリ秒）
+	 */
+	public AdaptiveBatchSizer(int initial, int min, int max, long targetMillis){
+		this.min = Math.max(1, min);
+		this.max = Math.max(this.min, max);
+		this.targetMillis = Math.max(1, targetMillis);
+		this.size = clamp(initial, this.min, this.max);
+	}
+
+	/**
+	 * @return 現在のバッチサイズ
+	 */
+	public int getSize(){
+		return size;
+	}
+
+	/**
+	 * バッチ更新の実行結果を記録し、必要ならバッチサイズを変更する
+	 * @param rows 実行した行数
+	 * @param elapsedMillis 実行時間（ミリ秒）
+	 * @return バッチサイズを変更した場合はその理由。変更しない場合はnull
+	 */
+	public String record(int rows, long elapsedMillis){
+		if(rows<=0)return null;
+		double latest = Math.max(elapsedMillis, 1) / (double)rows;
+		rowMillis = rowMillis<0 ? latest : rowMillis * (1 - SMOOTHING) + latest * SMOOTHING;
+		// 最後の端数のバッチなどは実行時間が短くなるため、バッチサイズの判断には使わない
+		if(rows<size)return null;
+		int next = clamp((int)Math.min(Integer.MAX_VALUE, targetMillis / rowMillis), Math.max(min, size / 2), Math.min(max, size * 2));
+		if(Math.abs(next - size) < size * MIN_CHANGE_RATIO)return null;
+		String reason = "バッチサイズ変更 " + size + " → " + next
+				+ " 実行時間:" + elapsedMillis + "ms 目標:" + targetMillis + "ms 処理速度:" + Math.round(1000 / rowMillis) + "行/秒 "
+				+ (next>size ? "目標より短いため拡大" : "目標より長いため縮小");
+		size = next;
+		return reason;
+	}
+
+	private static int clamp(int value, int min, int max){
+		return Math.max(min, Math.min(max, value));
+	}
+}
@@ -0,0 +1,183 @@
+package com.kikisoftware.migrator.database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * ログ出力を非同期に行う。
+ * 出力側のスレッドはログイベントを固定長のリングバッファに積むだけで、ロックを取らない。
+ * 1本の書き込みスレッドがバッファから取り出し、log4jのアペンダーへ渡す。
+ * バッファが満杯の場合、出力側は空きができるまで待つ（ログは捨てない）。
+ * JVM終了時はシャットダウンフックでバッファに残ったログを書き出し、以降のログはバッファに積まずに出力側で書き出す。
+ * @author kikisoftware
+ */
+public class AsyncLogWriter implements Runnable {
+	/** 書き込みスレッドがバッファ待ちで休止する最大時間（ナノ秒） **/
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	/** 出力側がバッファの空き待ちで休止する時間（ナノ秒） **/
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	/** シャットダウン時に書き出しを待つ最大時間（ミリ秒） **/
+	private static final long SHUTDOWN_WAIT_MILLIS = 10000;
+
+	/**
+	 * バッファに積む1件分のログ
+	 */
+	private static final class Entry {
+		final Logger log;
+		final LoggingEvent event;
+
+		Entry(Logger log, LoggingEvent event){
+			this.log = log;
+			this.event = event;
+		}
+	}
+
+	private final int mask;
+	private final AtomicReferenceArray<Entry> entries;
+	/** 各スロットの状態。位置+1なら書き込み済み、位置+容量なら次の周回で書き込み可能 **/
+	private final AtomicLongArray sequences;
+	/** 次に出力側が確保する位置 **/
+	private final AtomicLong tail = new AtomicLong();
+	/** 次に書き込みスレッドが取り出す位置 **/
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong fullWaits = new AtomicLong();
+	private final Thread thread;
+	private volatile boolean idle = false;
+	private volatile boolean stopping = false;
+
+	/**
+	 * コンストラクタ。書き込みスレッドとシャットダウンフックを開始する
+	 * @param capacity バッファの件数。2の累乗に切り上げる
+	 */
+	public AsyncLogWriter(int capacity){
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+		entries = new AtomicReferenceArray<Entry>(size);
+		sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++)sequences.set(i, i);
+		thread = new Thread(this, "async-log-writer");
+		thread.setDaemon(true);
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread("async-log-shutdown"){
+			@Override
+			public void run(){
+				shutdown();
+			}
+		});
+	}
+
+	/**
+	 * ログイベントをバッファに積む。バッファが満杯の場合は空きができるまで待つ。
+	 * スレッド名・NDC・MDCは出力側のスレッドで確定させてから積む
+	 * @param log 出力先のLogger (NotNull)
+	 * @param event ログイベント (NotNull)
+	 */
+	public void append(Logger log, LoggingEvent event){
+		// log4jはこれらを初回の参照時に現在のスレッドから取得するため、書き込みスレッドで参照されると別の値になる
+		event.getThreadName();
+		event.getNDC();
+		event.getMDCCopy();
+		// 終了処理の開始後は書き込みスレッドが取り出さない可能性があるため、自分で書き出す
+		if(stopping || !thread.isAlive()){
+			log.callAppenders(event);
+			return;
+		}
+		Entry entry = new Entry(log, event);
+		while(true){
+			long pos = tail.get();
+			int index = (int)(pos & mask);
+			long diff = sequences.get(index) - pos;
+			if(diff==0){
+				if(tail.compareAndSet(pos, pos + 1)){
+					entries.set(index, entry);
+					sequences.set(index, pos + 1);
+					if(idle)LockSupport.unpark(thread);
+					return;
+				}
+			}
+			else if(diff<0){
+				// 満杯。書き込みスレッドが止まっている場合は自分で書き出す
+				if(!thread.isAlive()){
+					log.callAppenders(event);
+					return;
+				}
+				fullWaits.incrementAndGet();
+				LockSupport.unpark(thread);
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * 呼び出し時点までに積まれたログが書き出されるまで待つ
+	 * @param timeoutMillis 最大待ち時間（ミリ秒）
+	 * @return 全て書き出された場合true
+	 */
+	public boolean flush(long timeoutMillis){
+		long target = tail.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(head.get()<target){
+			if(!thread.isAlive() || System.currentTimeMillis()>deadline)return false;
+			LockSupport.unpark(thread);
+			LockSupport.parkNanos(FULL_PARK_NANOS);
+		}
+		return true;
+	}
+
+	/**
+	 * バッファに残ったログを書き出して、書き込みスレッドを終了する
+	 */
+	public void shutdown(){
+		stopping = true;
+		LockSupport.unpark(thread);
+		try{
+			thread.join(SHUTDOWN_WAIT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return バッファが満杯で出力側が待った回数
+	 */
+	public long getFullWaits(){
+		return fullWaits.get();
+	}
+
+	/**
+	 * 書き込みスレッドの処理。バッファから順に取り出してアペンダーへ渡す
+	 */
+	@Override
+	public void run(){
+		while(true){
+			long pos = head.get();
+			int index = (int)(pos & mask);
+			if(sequences.get(index)==pos + 1){
+				Entry entry = entries.get(index);
+				entries.set(index, null);
+				sequences.set(index, pos + mask + 1);
+				try{
+					entry.log.callAppenders(entry.event);
+				} catch (RuntimeException e) {
+					LogLog.error("ログの非同期出力に失敗しました。", e);
+				} finally {
+					// flush()はheadで書き出し済みを判定するため、アペンダーへ渡し終えてから進める
+					head.set(pos + 1);
+				}
+				continue;
+			}
+			if(stopping && tail.get()==pos)return;
+			idle = true;
+			// idleを立てた後に積まれたログを取りこぼさないよう、休止前にもう一度確認する
+			if(sequences.get(index)!=pos + 1 && !stopping)LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			idle = false;
+		}
+	}
+}
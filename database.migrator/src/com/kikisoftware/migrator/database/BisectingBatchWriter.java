@@ -0,0 +1,165 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Level;
+
+/**
+ * トランザクションモードByBatch用の書き込み。溜めた行を書き込み先のRowWriterで書き込み、バッチごとにコミットする。
+ * 書き込みに失敗した場合はロールバックし、バッチを二分割してそれぞれ書き込み直す。
+ * 1行まで分割しても失敗する行だけをFailureHandlerへ通知するため、行単位のエラーの切り分けを保ったまま、
+ * コミットはバッチ単位で済む。失敗する行がk行ならば、書き込み直しの回数はおよそk×log2(バッチ行数)回となる。
+ * デッドロックなど再試行の対象となるエラーの場合は、分割せずに同じ行を待機してから書き込み直し、
+ * 再試行回数の上限に達した場合は全ての行を失敗とする。接続断の場合は分割せずに例外をthrowする。
+ * @author kikisoftware
+ */
+public class BisectingBatchWriter implements RowWriter {
+	private final Connection con;
+	private final RowWriter writer;
+	private final FailureHandler handler;
+	private final PhaseMetrics metrics;
+	private final RetryPolicy retry;
+	private final List<BoundRow> pending = new ArrayList<BoundRow>();
+	private long commits = 0;
+	private long splits = 0;
+	private long failedRows = 0;
+
+	/**
+	 * コンストラクタ
+	 * @param con 移行先のコネクション。オートコミットを無効にしておく事 (NotNull)
+	 * @param writer 書き込み先。失敗時は例外をthrowするものを指定する (NotNull)
+	 * @param handler 失敗した行の通知先。nullの場合は最初の失敗をthrowする (NullAllowed)
+	 * @param metrics コミット・ロールバックの処理時間の記録先 (NullAllowed)
+	 * @param retry 再試行の方法。nullの場合は再試行しない (NullAllowed)
+	 */
+	public BisectingBatchWriter(Connection con, RowWriter writer, FailureHandler handler, PhaseMetrics metrics, RetryPolicy retry){
+		this.con = con;
+		this.writer = writer;
+		this.handler = handler;
+		this.metrics = metrics;
+		this.retry = retry;
+	}
+
+	@Override
+	public void add(BoundRow row){
+		pending.add(row);
+	}
+
+	@Override
+	public int[] flush() throws SQLException{
+		if(pending.isEmpty())return new int[0];
+		List<BoundRow> rows = new ArrayList<BoundRow>(pending);
+		clear();
+		int[] result = new int[rows.size()];
+		Arrays.fill(result, Statement.SUCCESS_NO_INFO);
+		SQLException first = write(rows, 0, rows.size(), result);
+		if(first!=null)throw first;
+		return result;
+	}
+
+	/**
+	 * 指定範囲の行を書き込んでコミットする。再試行の対象となるエラーの場合は同じ範囲を書き込み直し、
+	 * それ以外の失敗の場合は二分割して書き込み直す
+	 * @return handlerがない場合の最初の失敗。なければnull
+	 */
+	private SQLException write(List<BoundRow> rows, int from, int to, int[] result) throws SQLException{
+		for(int attempt = 0; ; attempt++){
+			try{
+				for(int i = from; i < to; i++)writer.add(rows.get(i));
+				writer.flush();
+				long start = System.nanoTime();
+				con.commit();
+				if(metrics!=null)metrics.record("commit", start);
+				commits++;
+				if(attempt>0)retry.recordRecovered();
+				return null;
+			} catch (SQLException e) {
+				writer.clear();
+				if(Consts.SQL_STATE_CONNECTION_ERROR.equals(e.getSQLState()))throw e;
+				long start = System.nanoTime();
+				con.rollback();
+				if(metrics!=null)metrics.record("rollback", start);
+				if(retry!=null && retry.shouldRetry(e, attempt)){
+					retry.backoff(e, attempt, (to - from) + "行のバッチ " + rows.get(from).getTag() + " ～ " + rows.get(to - 1).getTag());
+					continue;
+				}
+				// 再試行しても成功しなかったエラーは行に依らないため、分割せずに全ての行を失敗とする
+				if(to - from==1 || retry!=null && retry.isRetryable(e))return fail(rows, from, to, result, e);
+				return split(rows, from, to, result, e);
+			}
+		}
+	}
+
+	/**
+	 * 指定範囲の行を失敗とし、FailureHandlerへ通知する
+	 * @return handlerがない場合は発生した例外。あればnull
+	 */
+	private SQLException fail(List<BoundRow> rows, int from, int to, int[] result, SQLException e){
+		for(int i = from; i < to; i++){
+			result[i] = Statement.EXECUTE_FAILED;
+			failedRows++;
+			if(handler!=null)handler.onRowFailure(rows.get(i), e);
+		}
+		return handler==null ? e : null;
+	}
+
+	/**
+	 * 指定範囲を二分割して、それぞれ書き込み直す
+	 * @return handlerがない場合の最初の失敗。なければnull
+	 */
+	private SQLException split(List<BoundRow> rows, int from, int to, int[] result, SQLException e) throws SQLException{
+		splits++;
+		int middle = (from + to) >>> 1;
+		Utilities.outLog(Utilities.log_, Level.DEBUG, (to - from) + "行のバッチの書き込みに失敗したため、" + (middle - from) + "行と" + (to - middle) + "行に分割して書き込み直します。" + e.getSQLState() + ":" + e.getMessage());
+		SQLException first = write(rows, from, middle, result);
+		SQLException second = write(rows, middle, to, result);
+		return first!=null ? first : second;
+	}
+
+	/**
+	 * @return コミット回数
+	 */
+	public long getCommits(){
+		return commits;
+	}
+
+	/**
+	 * @return 失敗したバッチを分割した回数
+	 */
+	public long getSplits(){
+		return splits;
+	}
+
+	/**
+	 * @return 1行まで分割しても失敗した行数
+	 */
+	public long getFailedRows(){
+		return failedRows;
+	}
+
+	@Override
+	public void clear(){
+		pending.clear();
+	}
+
+	@Override
+	public int getPendingRows(){
+		return pending.size();
+	}
+
+	@Override
+	public void close() throws SQLException{
+		clear();
+		writer.close();
+	}
+
+	@Override
+	public String toString(){
+		return "BisectingBatchWriter(" + writer + ")";
+	}
+}
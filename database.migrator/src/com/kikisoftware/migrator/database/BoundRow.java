@@ -0,0 +1,180 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * PreparedStatementに設定された1行分のパラメータを記録する。
+ * 記録した内容は、別のPreparedStatementへパラメータ番号をずらして再設定できる。
+ * ストリームで設定された値は、再設定できるよう記録時に読み込んでおく。
+ * @author kikisoftware
+ */
+public class BoundRow {
+	private static final Method SET_BYTES;
+	private static final Method SET_STRING;
+	static {
+		try {
+			SET_BYTES = PreparedStatement.class.getMethod("setBytes", int.class, byte[].class);
+			SET_STRING = PreparedStatement.class.getMethod("setString", int.class, String.class);
+		} catch (NoSuchMethodException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Method[] setters;
+	private Object[][] args;
+	private int parameterCount = 0;
+	private String tag = null;
+
+	/**
+	 * コンストラクタ
+	 * @param capacity 想定するパラメータ数
+	 */
+	public BoundRow(int capacity){
+		setters = new Method[Math.max(capacity, 1)];
+		args = new Object[setters.length][];
+	}
+
+	/**
+	 * 同じパラメータを持つ行を複製する
+	 * @return 複製した行
+	 */
+	public BoundRow copy(){
+		BoundRow row = new BoundRow(setters.length);
+		System.arraycopy(setters, 0, row.setters, 0, setters.length);
+		System.arraycopy(args, 0, row.args, 0, args.length);
+		row.parameterCount = parameterCount;
+		return row;
+	}
+
+	/**
+	 * PreparedStatementのsetXxx()呼び出しを記録する
+	 * @param setter 呼び出されたメソッド。第1引数がパラメータ番号である事 (NotNull)
+	 * @param arguments 呼び出し時の引数 (NotNull)
+	 * @throws SQLException ストリームの読み込みに失敗した場合
+	 */
+	public void set(Method setter, Object[] arguments) throws SQLException{
+		int index = (Integer)arguments[0];
+		if(index<1)throw new SQLException("Parameter index out of range (" + index + " < 1 ).", "S1009");
+		if(index>setters.length){
+			int size = Math.max(index, setters.length * 2);
+			setters = Arrays.copyOf(setters, size);
+			args = Arrays.copyOf(args, size);
+		}
+		Object[] a = arguments.clone();
+		if(a.length>=2 && a[1] instanceof InputStream){
+			setter = SET_BYTES;
+			a = new Object[]{index, readBytes((InputStream)a[1])};
+		}
+		else if(a.length>=2 && a[1] instanceof Reader){
+			setter = SET_STRING;
+			a = new Object[]{index, readString((Reader)a[1])};
+		}
+		setters[index - 1] = setter;
+		args[index - 1] = a;
+		if(index>parameterCount)parameterCount = index;
+	}
+
+	/**
+	 * 記録したパラメータを指定のPreparedStatementへ設定する
+	 * @param ps 設定先 (NotNull)
+	 * @param offset パラメータ番号に加算する値
+	 * @throws SQLException DBエラー、またはパラメータが設定されていない番号がある場合
+	 */
+	public void bind(PreparedStatement ps, int offset) throws SQLException{
+		for(int i = 0; i < parameterCount; i++){
+			if(setters[i]==null)throw new SQLException("No value specified for parameter " + (i + 1), "07001");
+			Object[] a = args[i].clone();
+			a[0] = i + 1 + offset;
+			try{
+				setters[i].invoke(ps, a);
+			} catch (InvocationTargetException e) {
+				if(e.getCause() instanceof SQLException)throw (SQLException)e.getCause();
+				throw new SQLException(e.getCause());
+			} catch (IllegalAccessException e) {
+				throw new SQLException(e);
+			}
+		}
+	}
+
+	/**
+	 * @return 設定されたパラメータの最大番号
+	 */
+	public int getParameterCount(){
+		return parameterCount;
+	}
+
+	/**
+	 * 指定番号に設定された値を返す
+	 * @param index 1から始まるパラメータ番号
+	 * @return 設定された値。setNull()の場合や未設定の場合はnull
+	 */
+	public Object getValue(int index){
+		if(index<1 || index>parameterCount || setters[index - 1]==null)return null;
+		if(setters[index - 1].getName().equals("setNull"))return null;
+		Object[] a = args[index - 1];
+		return a.length>=2 ? a[1] : null;
+	}
+
+	/**
+	 * 値の文字列表現の長さから、SQL上のおおよそのバイト数を見積もる
+	 * @return 見積もったバイト数
+	 */
+	public long estimateBytes(){
+		long bytes = 0;
+		for(int i = 1; i <= parameterCount; i++){
+			Object v = getValue(i);
+			if(v==null)bytes += 4;
+			else if(v instanceof byte[])bytes += ((byte[])v).length * 2 + 3;
+			else if(v instanceof CharSequence)bytes += ((CharSequence)v).length() * 3 + 2;
+			else bytes += 24;
+			bytes++;
+		}
+		return bytes + 2;
+	}
+
+	/**
+	 * @return ログ出力用の行の識別文字列
+	 */
+	public String getTag(){
+		return tag;
+	}
+
+	/**
+	 * @param tag ログ出力用の行の識別文字列 (NullAllowed)
+	 */
+	public void setTag(String tag){
+		this.tag = tag;
+	}
+
+	private static byte[] readBytes(InputStream in) throws SQLException{
+		try{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int size;
+			while((size = in.read(buf))>0)out.write(buf, 0, size);
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	private static String readString(Reader in) throws SQLException{
+		try{
+			StringBuilder sb = new StringBuilder();
+			char[] buf = new char[8192];
+			int size;
+			while((size = in.read(buf))>0)sb.append(buf, 0, size);
+			return sb.toString();
+		} catch (IOException e) {
+			throw new SQLException(e);
+		}
+	}
+}
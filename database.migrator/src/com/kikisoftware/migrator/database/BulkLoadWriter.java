@@ -0,0 +1,135 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Level;
+
+/**
+ * 溜めた行を区切り文字形式のテキストにして、移行先の一括ロード（LOAD DATA LOCAL INFILE、COPY FROM STDIN）で書き込む。
+ * 行は追加時にメモリ上のバッファへ書き出し、バッファが上限に達するかflush()が呼び出されると一括ロードする。
+ * 一括ロードが失敗した場合は、元のINSERT文で1行ずつ書き込み直し、失敗した行をFailureHandlerへ通知する。
+ * @author kikisoftware
+ */
+public class BulkLoadWriter implements RowWriter {
+	private final Connection con;
+	private final InsertStatement insert;
+	private final TargetDialect dialect;
+	private final long maxBytes;
+	private final FailureHandler handler;
+	private final List<BoundRow> pending = new ArrayList<BoundRow>();
+	private final Buffer buffer = new Buffer();
+	private PreparedStatement single = null;
+
+	/**
+	 * 一括ロード用のバッファ。コピーせずに読み出せるようにする
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		Buffer(){
+			super(64 * 1024);
+		}
+
+		InputStream toInputStream(){
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param insert 1行分のINSERT文。dialect.supportsBulkLoad()とdialect.isBulkLoadAvailable()を満たす事 (NotNull)
+	 * @param dialect 移行先の方言 (NotNull)
+	 * @param maxBytes 1回の一括ロードの最大バイト数の目安。0以下なら制限しない
+	 * @param handler 失敗した行の通知先。nullの場合は1行ずつの書き込み直しを行わず、失敗をそのままthrowする (NullAllowed)
+	 */
+	public BulkLoadWriter(Connection con, InsertStatement insert, TargetDialect dialect, long maxBytes, FailureHandler handler){
+		this.con = con;
+		this.insert = insert;
+		this.dialect = dialect;
+		this.maxBytes = maxBytes;
+		this.handler = handler;
+	}
+
+	@Override
+	public void add(BoundRow row) throws SQLException{
+		if(!pending.isEmpty() && maxBytes>0 && buffer.size()>=maxBytes)flush();
+		int columns = insert.getParameterCount();
+		for(int i = 1; i <= columns; i++){
+			if(i>1)buffer.write('\t');
+			dialect.writeValue(buffer, row.getValue(i));
+		}
+		buffer.write('\n');
+		pending.add(row);
+	}
+
+	@Override
+	public int[] flush() throws SQLException{
+		if(pending.isEmpty())return new int[0];
+		List<BoundRow> rows = new ArrayList<BoundRow>(pending);
+		int[] result = new int[rows.size()];
+		Arrays.fill(result, Statement.SUCCESS_NO_INFO);
+		long loaded;
+		try{
+			loaded = dialect.bulkLoad(con, insert, buffer.toInputStream());
+		} catch (SQLException e) {
+			if(Consts.SQL_STATE_CONNECTION_ERROR.equals(e.getSQLState()) || handler==null)throw e;
+			Utilities.outLog(Utilities.log_, Level.WARN, rows.size() + "行の一括ロードに失敗したため、1行ずつ書き込みます。" + e.getSQLState() + ":" + e.getMessage());
+			retryEach(rows, result);
+			return result;
+		} finally {
+			clear();
+		}
+		if(loaded<rows.size()){
+			Utilities.outLog(Utilities.log_, Level.WARN, "一括ロードで" + (rows.size() - loaded) + "行が取り込まれませんでした。" + rows.get(0).getTag() + " ～ " + rows.get(rows.size() - 1).getTag());
+		}
+		return result;
+	}
+
+	/**
+	 * 元のINSERT文で1行ずつ書き込み直す。失敗した行はFailureHandlerへ通知する
+	 */
+	private void retryEach(List<BoundRow> rows, int[] result) throws SQLException{
+		if(single==null)single = con.prepareStatement(insert.getSql());
+		for(int i = 0; i < rows.size(); i++){
+			try{
+				rows.get(i).bind(single, 0);
+				single.executeUpdate();
+			} catch (SQLException e) {
+				if(Consts.SQL_STATE_CONNECTION_ERROR.equals(e.getSQLState()))throw e;
+				result[i] = Statement.EXECUTE_FAILED;
+				handler.onRowFailure(rows.get(i), e);
+			}
+		}
+	}
+
+	@Override
+	public void clear(){
+		pending.clear();
+		buffer.reset();
+	}
+
+	@Override
+	public int getPendingRows(){
+		return pending.size();
+	}
+
+	@Override
+	public void close() throws SQLException{
+		clear();
+		if(single!=null)single.close();
+		single = null;
+	}
+
+	@Override
+	public String toString(){
+		return "BulkLoadWriter(" + dialect.getClass().getSimpleName() + ", " + insert.getTable() + ", maxBytes=" + maxBytes + ")";
+	}
+}
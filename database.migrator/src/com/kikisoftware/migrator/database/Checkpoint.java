@@ -0,0 +1,157 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.kikisoftware.migrator.database.Consts.TRANSACTION_MODE;
+
+/**
+ * 移行処理の再開位置を記録するチェックポイントファイル。
+ * コミット済みの最終キー、処理数、トランザクションモードを保持する。
+ * 書き込みは一時ファイルへの書き出しと同期後のリネームで行うため、途中で中断されても前回の内容が残る。
+ * @author kikisoftware
+ */
+public class Checkpoint {
+	private static final String KEY_LAST_KEY = "lastKey";
+	private static final String KEY_PROC_NUM = "procNum";
+	private static final String KEY_TRANSACTION_MODE = "transactionMode";
+	private static final String KEY_COMPLETED = "completed";
+	private static final String KEY_PARTITION_COUNT = "partition.count";
+	private static final String KEY_PARTITION_FROM = "partition.%d.from";
+	private static final String KEY_PARTITION_TO = "partition.%d.to";
+
+	private final Path path;
+	private final Properties props;
+
+	private Checkpoint(Path path, Properties props){
+		this.path = path;
+		this.props = props;
+	}
+
+	/**
+	 * 新しいチェックポイントを作成する。ファイルへの書き込みはsave()で行う
+	 * @param path チェックポイントファイルのパス (NotNull)
+	 * @param mode トランザクションモード (NotNull)
+	 * @return 作成したチェックポイント
+	 */
+	public static Checkpoint create(Path path, TRANSACTION_MODE mode){
+		Checkpoint cp = new Checkpoint(path, new Properties());
+		cp.props.setProperty(KEY_TRANSACTION_MODE, mode.toString());
+		cp.props.setProperty(KEY_PROC_NUM, "0");
+		cp.props.setProperty(KEY_COMPLETED, "false");
+		return cp;
+	}
+
+	/**
+	 * チェックポイントファイルを読み込む
+	 * @param path チェックポイントファイルのパス (NotNull)
+	 * @return 読み込んだチェックポイント。ファイルがない場合はnull
+	 * @throws IOException 読み込みエラー
+	 */
+	public static Checkpoint load(Path path) throws IOException{
+		if(!Files.exists(path))return null;
+		Properties props = new Properties();
+		try(InputStream in = Files.newInputStream(path)){
+			props.load(in);
+		}
+		return new Checkpoint(path, props);
+	}
+
+	/**
+	 * 内容をファイルへ書き込む。一時ファイルに書き出して同期した後、置き換える
+	 * @throws IOException 書き込みエラー
+	 */
+	public synchronized void save() throws IOException{
+		props.setProperty("updated", Long.toString(System.currentTimeMillis()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		props.store(out, "database.migrator checkpoint");
+		Utilities.writeFileAtomically(path, out.toByteArray());
+	}
+
+	/**
+	 * @return チェックポイントファイルのパス
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+	/**
+	 * @return コミット済みの最終キー。未記録ならnull
+	 */
+	public synchronized Long getLastKey(){
+		String v = props.getProperty(KEY_LAST_KEY);
+		return v==null || v.isEmpty() ? null : Long.valueOf(v);
+	}
+
+	/**
+	 * コミット済みの位置を記録する
+	 * @param lastKey コミット済みの最終キー (NullAllowed)
+	 * @param procNum その時点の処理数
+	 */
+	public synchronized void setCommitted(Long lastKey, long procNum){
+		if(lastKey!=null)props.setProperty(KEY_LAST_KEY, lastKey.toString());
+		props.setProperty(KEY_PROC_NUM, Long.toString(procNum));
+	}
+
+	/**
+	 * @return コミット済みの位置での処理数
+	 */
+	public synchronized long getProcNum(){
+		return Long.parseLong(props.getProperty(KEY_PROC_NUM, "0"));
+	}
+
+	/**
+	 * @return 記録時のトランザクションモード。未記録ならnull
+	 */
+	public synchronized String getTransactionMode(){
+		return props.getProperty(KEY_TRANSACTION_MODE);
+	}
+
+	/**
+	 * @return 処理が最後まで完了していればtrue
+	 */
+	public synchronized boolean isCompleted(){
+		return Boolean.parseBoolean(props.getProperty(KEY_COMPLETED, "false"));
+	}
+
+	/**
+	 * 処理の完了を記録する
+	 */
+	public synchronized void setCompleted(){
+		props.setProperty(KEY_COMPLETED, "true");
+	}
+
+	/**
+	 * キー範囲の分割結果を記録する。再開時に同じ分割で処理するために使う
+	 * @param ranges 分割したキー範囲 (NotNull)
+	 */
+	public synchronized void setPartitions(List<KeyRange> ranges){
+		props.setProperty(KEY_PARTITION_COUNT, Integer.toString(ranges.size()));
+		for(int i = 0; i < ranges.size(); i++){
+			KeyRange r = ranges.get(i);
+			props.setProperty(String.format(KEY_PARTITION_FROM, i), r.getFrom()==null ? "" : r.getFrom().toString());
+			props.setProperty(String.format(KEY_PARTITION_TO, i), r.getTo()==null ? "" : r.getTo().toString());
+		}
+	}
+
+	/**
+	 * @return 記録されたキー範囲の分割結果。未記録ならnull
+	 */
+	public synchronized List<KeyRange> getPartitions(){
+		String count = props.getProperty(KEY_PARTITION_COUNT);
+		if(count==null)return null;
+		List<KeyRange> ranges = new ArrayList<KeyRange>();
+		for(int i = 0; i < Integer.parseInt(count); i++){
+			String from = props.getProperty(String.format(KEY_PARTITION_FROM, i), "");
+			String to = props.getProperty(String.format(KEY_PARTITION_TO, i), "");
+			ranges.add(new KeyRange(from.isEmpty() ? null : Long.valueOf(from), to.isEmpty() ? null : Long.valueOf(to)));
+		}
+		return ranges;
+	}
+}
@@ -0,0 +1,336 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.kikisoftware.migrator.database.Consts.COLUMN_TYPE;
+
+/**
+ * 元データの列とinsertステートメントのパラメータの対応付け。
+ * 列名で定義しておき、compile()で元データのResultSetMetaDataに対して列番号と型を一度だけ解決する。
+ * 解決後は行ごとに列名の検索を行わず、型ごとのgetXxx()・setXxx()で値を受け渡す。
+ * 値がNULLの場合は、元データの列の型でsetNull()する。
+ * <p>
+ * 対応付けファイルはプロパティ形式で、キーをパラメータ番号、値を「列名」または「列名:型」とする。
+ * 型はCOLUMN_TYPEの名前か、引数なしコンストラクタを持つConverterの実装クラス名を指定する。省略時はAuto。
+ * <pre>
+ * 1=id:Long
+ * 2=name
+ * 3=status:com.example.StatusConverter
+ * </pre>
+ * @author kikisoftware
+ */
+public class ColumnMapping {
+	/**
+	 * 列の値を独自に変換してパラメータに設定する
+	 * @author kikisoftware
+	 */
+	public static interface Converter {
+		/**
+		 * 元データの列の値を変換し、パラメータに設定する
+		 * @param rs 今回のループで取得したデータ (NotNull)
+		 * @param column 元データの列番号
+		 * @param ps 現在準備されたinsertステートメント (NotNull)
+		 * @param parameter パラメータ番号
+		 * @throws SQLException DBエラー
+		 * @throws IllegalParameterToBeContinuedException 問題のあるデータだった場合に処理をスキップしたい時、実装者がthrowする
+		 */
+		void convert(ResultSet rs, int column, PreparedStatement ps, int parameter) throws SQLException, IllegalParameterToBeContinuedException;
+	}
+
+	/**
+	 * 1パラメータ分の定義
+	 */
+	private static class Entry {
+		final int parameter;
+		final String column;
+		final COLUMN_TYPE type;
+		final Converter converter;
+
+		Entry(int parameter, String column, COLUMN_TYPE type, Converter converter){
+			this.parameter = parameter;
+			this.column = column;
+			this.type = type;
+			this.converter = converter;
+		}
+	}
+
+	private final Map<Integer, Entry> entries = new TreeMap<Integer, Entry>();
+
+	/**
+	 * 列の型から受け渡す型を決める対応付けを追加する
+	 * @param parameter パラメータ番号
+	 * @param column 元データの列名 (NotNull)
+	 * @return この対応付け
+	 */
+	public ColumnMapping map(int parameter, String column){
+		return map(parameter, column, COLUMN_TYPE.Auto);
+	}
+
+	/**
+	 * 受け渡す型を指定して対応付けを追加する。同じパラメータ番号の対応付けは置き換える
+	 * @param parameter パラメータ番号
+	 * @param column 元データの列名 (NotNull)
+	 * @param type 受け渡す型 (NotNull)
+	 * @return この対応付け
+	 */
+	public ColumnMapping map(int parameter, String column, COLUMN_TYPE type){
+		return put(new Entry(parameter, column, type, null));
+	}
+
+	/**
+	 * 独自の変換を行う対応付けを追加する。同じパラメータ番号の対応付けは置き換える
+	 * @param parameter パラメータ番号
+	 * @param column 元データの列名 (NotNull)
+	 * @param converter 変換処理 (NotNull)
+	 * @return この対応付け
+	 */
+	public ColumnMapping map(int parameter, String column, Converter converter){
+		return put(new Entry(parameter, column, null, converter));
+	}
+
+	private ColumnMapping put(Entry entry){
+		if(entry.parameter<1)throw new IllegalArgumentException("パラメータ番号は1以上を指定してください。" + entry.parameter + "=" + entry.column);
+		entries.put(entry.parameter, entry);
+		return this;
+	}
+
+	/**
+	 * @return 対応付けの数
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 * 対応付けファイルを読み込む
+	 * @param path 対応付けファイルのパス (NotNull)
+	 * @param enc ファイルの文字コード (NotNull)
+	 * @return 対応付け
+	 * @throws Exception ファイルが読めない場合、書式が正しくない場合、変換クラスが生成できない場合
+	 */
+	public static ColumnMapping load(String path, String enc) throws Exception{
+		Properties props = new Properties();
+		props.load(new StringReader(Utilities.getFileContents(path, enc)));
+		ColumnMapping mapping = new ColumnMapping();
+		for(String key : props.stringPropertyNames()){
+			String value = props.getProperty(key).trim();
+			int parameter;
+			try{
+				parameter = Integer.parseInt(key.trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(path + "のキーはパラメータ番号を指定してください。" + key + "=" + value);
+			}
+			int colon = value.indexOf(':');
+			if(colon<0){
+				mapping.map(parameter, value);
+				continue;
+			}
+			String column = value.substring(0, colon).trim();
+			String type = value.substring(colon + 1).trim();
+			COLUMN_TYPE columnType = null;
+			for(COLUMN_TYPE t : COLUMN_TYPE.values()){
+				if(t.name().equalsIgnoreCase(type))columnType = t;
+			}
+			if(columnType!=null)mapping.map(parameter, column, columnType);
+			else mapping.map(parameter, column, (Converter)Class.forName(type).getDeclaredConstructor().newInstance());
+		}
+		return mapping;
+	}
+
+	/**
+	 * 元データの列名から列番号と型を解決する
+	 * @param md 元データのメタデータ (NotNull)
+	 * @return 解決済みの対応付け
+	 * @throws SQLException 列名が見つからない場合、DBエラー
+	 */
+	public Compiled compile(ResultSetMetaData md) throws SQLException{
+		int count = md.getColumnCount();
+		List<Entry> list = new ArrayList<Entry>(entries.values());
+		Compiled compiled = new Compiled(list.size());
+		for(int i = 0; i < list.size(); i++){
+			Entry entry = list.get(i);
+			int column = 0;
+			for(int c = 1; c <= count; c++){
+				if(entry.column.equalsIgnoreCase(md.getColumnLabel(c))){
+					column = c;
+					break;
+				}
+			}
+			if(column==0)throw new SQLException("元データに列" + entry.column + "がありません。パラメータ番号：" + entry.parameter, "S0022");
+			compiled.columns[i] = column;
+			compiled.parameters[i] = entry.parameter;
+			compiled.sqlTypes[i] = md.getColumnType(column);
+			compiled.converters[i] = entry.converter;
+			compiled.types[i] = entry.converter!=null ? null : entry.type==COLUMN_TYPE.Auto ? resolve(md, column) : entry.type;
+		}
+		return compiled;
+	}
+
+	/**
+	 * 元データの列の型から受け渡す型を決める
+	 */
+	private static COLUMN_TYPE resolve(ResultSetMetaData md, int column) throws SQLException{
+		switch(md.getColumnType(column)){
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.CLOB:
+		case Types.NCLOB:
+			return COLUMN_TYPE.String;
+		case Types.TINYINT:
+		case Types.SMALLINT:
+			return COLUMN_TYPE.Int;
+		case Types.INTEGER:
+			// 符号なしのINTはintに収まらない
+			return md.isSigned(column) ? COLUMN_TYPE.Int : COLUMN_TYPE.Long;
+		case Types.BIGINT:
+			return md.isSigned(column) ? COLUMN_TYPE.Long : COLUMN_TYPE.BigDecimal;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return COLUMN_TYPE.Double;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return COLUMN_TYPE.BigDecimal;
+		case Types.DATE:
+			return COLUMN_TYPE.Date;
+		case Types.TIME:
+			return COLUMN_TYPE.Time;
+		case Types.TIMESTAMP:
+			return COLUMN_TYPE.Timestamp;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return COLUMN_TYPE.Bytes;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return COLUMN_TYPE.Boolean;
+		default:
+			return COLUMN_TYPE.Object;
+		}
+	}
+
+	/**
+	 * 列番号と型を解決済みの対応付け。行ごとにapply()を呼び出す
+	 * @author kikisoftware
+	 */
+	public static class Compiled {
+		private final int[] columns;
+		private final int[] parameters;
+		private final int[] sqlTypes;
+		private final COLUMN_TYPE[] types;
+		private final Converter[] converters;
+
+		private Compiled(int size){
+			columns = new int[size];
+			parameters = new int[size];
+			sqlTypes = new int[size];
+			types = new COLUMN_TYPE[size];
+			converters = new Converter[size];
+		}
+
+		/**
+		 * 今回の行の値をパラメータに設定する
+		 * @param rs 今回のループで取得したデータ (NotNull)
+		 * @param ps 現在準備されたinsertステートメント (NotNull)
+		 * @throws SQLException DBエラー
+		 * @throws IllegalParameterToBeContinuedException 変換処理が問題のあるデータと判断した場合
+		 */
+		public void apply(ResultSet rs, PreparedStatement ps) throws SQLException, IllegalParameterToBeContinuedException{
+			for(int i = 0; i < columns.length; i++){
+				int c = columns[i];
+				int p = parameters[i];
+				if(converters[i]!=null){
+					converters[i].convert(rs, c, ps, p);
+					continue;
+				}
+				switch(types[i]){
+				case Int:
+					int n = rs.getInt(c);
+					if(rs.wasNull())ps.setNull(p, sqlTypes[i]);
+					else ps.setInt(p, n);
+					break;
+				case Long:
+					long l = rs.getLong(c);
+					if(rs.wasNull())ps.setNull(p, sqlTypes[i]);
+					else ps.setLong(p, l);
+					break;
+				case Double:
+					double d = rs.getDouble(c);
+					if(rs.wasNull())ps.setNull(p, sqlTypes[i]);
+					else ps.setDouble(p, d);
+					break;
+				case Boolean:
+					boolean b = rs.getBoolean(c);
+					if(rs.wasNull())ps.setNull(p, sqlTypes[i]);
+					else ps.setBoolean(p, b);
+					break;
+				case String:
+					String s = rs.getString(c);
+					if(s==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setString(p, s);
+					break;
+				case BigDecimal:
+					BigDecimal bd = rs.getBigDecimal(c);
+					if(bd==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setBigDecimal(p, bd);
+					break;
+				case Date:
+					Date date = rs.getDate(c);
+					if(date==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setDate(p, date);
+					break;
+				case Time:
+					Time time = rs.getTime(c);
+					if(time==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setTime(p, time);
+					break;
+				case Timestamp:
+					Timestamp ts = rs.getTimestamp(c);
+					if(ts==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setTimestamp(p, ts);
+					break;
+				case Bytes:
+					byte[] bytes = rs.getBytes(c);
+					if(bytes==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setBytes(p, bytes);
+					break;
+				default:
+					Object o = rs.getObject(c);
+					if(o==null)ps.setNull(p, sqlTypes[i]);
+					else ps.setObject(p, o);
+					break;
+				}
+			}
+		}
+
+		/**
+		 * @param parameter パラメータ番号
+		 * @return パラメータに対応する元データの列番号。対応付けがない場合は0
+		 */
+		public int getColumnIndex(int parameter){
+			for(int i = 0; i < parameters.length; i++){
+				if(parameters[i]==parameter)return columns[i];
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.kikisoftware.migrator.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Level;
+
+/**
+ * コンフィグの値の不変なスナップショット。
+ * 値は生成時に確定し、変更する場合はwithOverrides()で新しいスナップショットを生成する。
+ * 型ごとの取得結果はキーごとに一度だけ解析して保持するため、同じ値を繰り返し取得しても文字列の解析は行わない。
+ * 複数スレッドから同時に参照してよい。
+ * @author kikisoftware
+ */
+public final class Config {
+	private final Map<String, String> values;
+	/** 型ごとの取得結果。キーは型を表す接頭辞とコンフィグキー **/
+	private final ConcurrentHashMap<String, Object> resolved = new ConcurrentHashMap<String, Object>();
+
+	private Config(Map<String, String> values){
+		this.values = Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * クラスパス上のコンフィグファイルを読み込む
+	 * @param baseName ResourceBundleの基底名 (NotNull)
+	 * @return 読み込んだスナップショット
+	 */
+	public static Config load(String baseName){
+		ResourceBundle.clearCache();
+		ResourceBundle bundle = ResourceBundle.getBundle(baseName);
+		Map<String, String> values = new HashMap<String, String>();
+		for(String key : bundle.keySet())values.put(key, bundle.getString(key));
+		return new Config(values);
+	}
+
+	/**
+	 * 指定の値で上書きしたスナップショットを生成する。このスナップショットは変更しない
+	 * @param overrides 上書きするキーと値 (NotNull)
+	 * @return 新しいスナップショット
+	 */
+	public Config withOverrides(Map<String, String> overrides){
+		Map<String, String> merged = new HashMap<String, String>(values);
+		merged.putAll(overrides);
+		return new Config(merged);
+	}
+
+	/**
+	 * 指定の値で上書きしたスナップショットを生成する。このスナップショットは変更しない
+	 * @param key コンフィグキー (NotNull)
+	 * @param value 設定する値 (NotNull)
+	 * @return 新しいスナップショット
+	 */
+	public Config withOverride(String key, String value){
+		return withOverrides(Collections.singletonMap(key, value));
+	}
+
+	/**
+	 * @param key コンフィグキー (NotNull)
+	 * @return 設定された値。設定がない場合は空文字
+	 */
+	public String getRaw(String key){
+		String value = values.get(key);
+		return value==null ? "" : value;
+	}
+
+	/**
+	 * @return 全てのキーと値 (NotNull)
+	 */
+	public Map<String, String> toMap(){
+		return values;
+	}
+
+	/**
+	 * 値を取得する。設定がない場合は指定のログレベルでログ出力してデフォルト値を返す。
+	 * ログレベルがFATALの場合は、ログ出力後にERR_CODE_CONFIG_SETTINGで終了する
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NullAllowed)
+	 * @param level 設定がない場合のログレベル (NullAllowed)
+	 * @return 設定された値、またはデフォルト値
+	 */
+	public String getString(String key, String def, Level level){
+		Object cached = resolved.get("S" + key);
+		if(cached!=null)return (String)cached;
+		String wk = getRaw(key);
+		if(wk.equals("")){
+			if(level!=null && level.equals(Level.FATAL)){
+				Utilities.outLog(Utilities.log_, level, key+" setting is illegal ["+wk+"].");
+				System.exit(Consts.ERR_CODE_CONFIG_SETTING);
+			}
+			else{
+				Utilities.outLog(Utilities.log_, level, key+" setting is illegal ["+wk+"]. useing default value ["+def+"]");
+			}
+			wk = def;
+		}
+		// デフォルト値のnullは保持できないため、毎回ログ出力される
+		if(wk!=null)resolved.putIfAbsent("S" + key, wk);
+		return wk;
+	}
+
+	/**
+	 * 値を整数として取得する
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level 設定がない場合のログレベル (NullAllowed)
+	 * @return 設定された値、またはデフォルト値
+	 * @throws NumberFormatException 整数でない場合
+	 */
+	public int getInt(String key, String def, Level level){
+		Object cached = resolved.get("I" + key);
+		if(cached!=null)return (Integer)cached;
+		Integer value = Integer.valueOf(getString(key, def, level));
+		resolved.putIfAbsent("I" + key, value);
+		return value;
+	}
+
+	/**
+	 * 値を整数として取得する
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level 設定がない場合のログレベル (NullAllowed)
+	 * @return 設定された値、またはデフォルト値
+	 * @throws NumberFormatException 整数でない場合
+	 */
+	public long getLong(String key, String def, Level level){
+		Object cached = resolved.get("L" + key);
+		if(cached!=null)return (Long)cached;
+		Long value = Long.valueOf(getString(key, def, level));
+		resolved.putIfAbsent("L" + key, value);
+		return value;
+	}
+
+	/**
+	 * 値を真偽値として取得する。trueの場合のみtrue
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level 設定がない場合のログレベル (NullAllowed)
+	 * @return 設定された値、またはデフォルト値
+	 */
+	public boolean getBoolean(String key, String def, Level level){
+		Object cached = resolved.get("B" + key);
+		if(cached!=null)return (Boolean)cached;
+		Boolean value = Boolean.valueOf(getString(key, def, level));
+		resolved.putIfAbsent("B" + key, value);
+		return value;
+	}
+
+	/**
+	 * 値を列挙型の定数として取得する
+	 * @param type 列挙型 (NotNull)
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level 設定がない場合のログレベル (NullAllowed)
+	 * @return 設定された値、またはデフォルト値
+	 * @throws IllegalArgumentException 指定した名前の定数がない場合
+	 */
+	public <E extends Enum<E>> E getEnum(Class<E> type, String key, String def, Level level){
+		String cacheKey = "E" + type.getName() + ":" + key;
+		Object cached = resolved.get(cacheKey);
+		if(cached!=null)return type.cast(cached);
+		E value = Enum.valueOf(type, getString(key, def, level));
+		resolved.putIfAbsent(cacheKey, value);
+		return value;
+	}
+}
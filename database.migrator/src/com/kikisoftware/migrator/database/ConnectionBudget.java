@@ -0,0 +1,67 @@
+package com.kikisoftware.migrator.database;
+
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Level;
+
+/**
+ * 複数の処理で共有する、同じDBへの接続数の上限。
+ * 処理の開始時に最大接続数をまとめて予約し、終了時に返却する。
+ * 予約は一度に行うため、複数の処理が互いに接続の空きを待って止まる事はない。
+ * 1つの処理の最大接続数が上限を超える場合は、上限まで予約する（実際の接続数は上限を超え得る）。
+ * @author kikisoftware
+ */
+public class ConnectionBudget {
+	private final String name;
+	private final int permits;
+	private final Semaphore semaphore;
+
+	/**
+	 * コンストラクタ
+	 * @param name ログ出力用の名前 (NotNull)
+	 * @param permits 接続数の上限。1以上
+	 */
+	public ConnectionBudget(String name, int permits){
+		this.name = name;
+		this.permits = Math.max(1, permits);
+		this.semaphore = new Semaphore(this.permits, true);
+	}
+
+	/**
+	 * 接続数を予約する。空きがなければ返却されるまで待つ
+	 * @param label ログ出力用の処理名 (NotNull)
+	 * @param count 予約する接続数
+	 * @return 予約した接続数。release()に渡す事
+	 */
+	public int reserve(String label, int count){
+		int n = Math.min(Math.max(1, count), permits);
+		if(count>permits)Utilities.outLog(Utilities.log_, Level.WARN, label + name + "の最大接続数" + count + "が上限" + permits + "を超えるため、上限まで予約します。");
+		if(!semaphore.tryAcquire(n)){
+			Utilities.outLog(Utilities.log_, Level.INFO, label + name + "の接続数の空きを待機します。予約数：" + n + " 空き：" + semaphore.availablePermits() + " / " + permits);
+			semaphore.acquireUninterruptibly(n);
+		}
+		return n;
+	}
+
+	/**
+	 * 予約した接続数を返却する
+	 * @param count reserve()が返した接続数
+	 */
+	public void release(int count){
+		if(count>0)semaphore.release(count);
+	}
+
+	/**
+	 * @return 接続数の上限
+	 */
+	public int getPermits(){
+		return permits;
+	}
+
+	/**
+	 * @return 予約されていない接続数
+	 */
+	public int getAvailable(){
+		return semaphore.availablePermits();
+	}
+}
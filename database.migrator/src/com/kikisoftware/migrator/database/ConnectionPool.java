@@ -0,0 +1,372 @@
+package com.kikisoftware.migrator.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * コネクションプール。実装クラスのコネクション取得処理をFactoryとして受け取り、取得したコネクションを使い回す。
+ * acquire()が返すコネクションはclose()で物理的には閉じずにプールへ返却され、次のacquire()で再利用される。
+ * 返却時に未コミットの更新があればロールバックし、オートコミットに戻す。失敗した場合は破棄する。
+ * 一定時間使われなかったコネクションは、再利用の前にisValid()で確認する。JDBC4に対応していないドライバではSELECT 1で確認する。
+ * prepareStatement(String)はコネクションごとにSQL文字列でキャッシュし、
+ * 返したステートメントのclose()ではパラメータとバッチを消去してキャッシュに戻す。
+ * 同じSQLのステートメントが使用中の場合は、キャッシュしない通常のステートメントを返す。
+ * 複数スレッドから同時に取得・返却してよいが、1つのコネクションは1スレッドで使う事。
+ * @author kikisoftware
+ */
+public class ConnectionPool {
+	/** 再利用前に接続を確認する、未使用期間（ミリ秒） **/
+	private static final long VALIDATION_IDLE_MILLIS = 30000;
+	/** 接続確認のタイムアウト（秒） **/
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	/**
+	 * 新しいコネクションを取得する
+	 * @author kikisoftware
+	 */
+	public static interface Factory {
+		/**
+		 * @return 新しいコネクション (NullAllowed)
+		 * @throws SQLException DBエラー
+		 */
+		Connection create() throws SQLException;
+	}
+
+	/**
+	 * プールが管理する物理コネクションと、そのステートメントキャッシュ
+	 */
+	private class Entry {
+		final Connection con;
+		final Map<String, CachedStatement> statements;
+		long lastUsed = System.currentTimeMillis();
+
+		Entry(Connection con){
+			this.con = con;
+			this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true){
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest){
+					if(size()<=statementCacheSize || eldest.getValue().inUse)return false;
+					eldest.getValue().closeQuietly();
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * キャッシュ済みのステートメントを返す。なければ準備してキャッシュする
+		 */
+		PreparedStatement prepare(Connection proxy, String sql) throws SQLException{
+			CachedStatement cached = statements.get(sql);
+			if(cached!=null && !cached.inUse){
+				statementHits.incrementAndGet();
+				cached.owner = proxy;
+				cached.inUse = true;
+				return cached.proxy;
+			}
+			statementMisses.incrementAndGet();
+			PreparedStatement ps = con.prepareStatement(sql);
+			if(cached!=null || statementCacheSize<=0)return ps;
+			cached = new CachedStatement(proxy, ps);
+			cached.inUse = true;
+			statements.put(sql, cached);
+			return cached.proxy;
+		}
+
+		/**
+		 * 全てのキャッシュ済みステートメントを閉じる
+		 */
+		void closeStatements(){
+			for(CachedStatement cached : statements.values())cached.closeQuietly();
+			statements.clear();
+		}
+	}
+
+	/**
+	 * キャッシュしたステートメント。close()ではキャッシュに戻すだけにする
+	 */
+	private static class CachedStatement implements InvocationHandler {
+		Connection owner;
+		final PreparedStatement ps;
+		final PreparedStatement proxy;
+		boolean inUse = false;
+
+		CachedStatement(Connection owner, PreparedStatement ps){
+			this.owner = owner;
+			this.ps = ps;
+			this.proxy = (PreparedStatement)Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+		}
+
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) throws Throwable{
+			String name = method.getName();
+			if(name.equals("close")){
+				if(inUse){
+					inUse = false;
+					ps.clearParameters();
+					ps.clearBatch();
+				}
+				return null;
+			}
+			if(name.equals("isClosed"))return Boolean.valueOf(!inUse || ps.isClosed());
+			if(name.equals("getConnection"))return owner;
+			if(name.equals("hashCode"))return Integer.valueOf(System.identityHashCode(p));
+			if(name.equals("equals"))return Boolean.valueOf(p==args[0]);
+			if(!inUse)throw new SQLException("ステートメントはクローズされています。");
+			return delegate(ps, method, args);
+		}
+
+		void closeQuietly(){
+			try{
+				ps.close();
+			} catch (SQLException e) {
+				// 破棄するだけなので無視する
+			}
+		}
+	}
+
+	/**
+	 * acquire()が返すコネクション。close()でプールへ返却する
+	 */
+	private class Handle implements InvocationHandler {
+		final Entry entry;
+		boolean released = false;
+
+		Handle(Entry entry){
+			this.entry = entry;
+		}
+
+		@Override
+		public Object invoke(Object p, Method method, Object[] args) throws Throwable{
+			String name = method.getName();
+			if(name.equals("close")){
+				if(!released){
+					released = true;
+					release(entry);
+				}
+				return null;
+			}
+			if(name.equals("isClosed"))return Boolean.valueOf(released || entry.con.isClosed());
+			if(name.equals("hashCode"))return Integer.valueOf(System.identityHashCode(p));
+			if(name.equals("equals"))return Boolean.valueOf(p==args[0]);
+			if(name.equals("toString"))return "Pooled[" + poolName + "]" + entry.con;
+			if(released)throw new SQLException("コネクションはプールに返却済みです。");
+			if(name.equals("prepareStatement") && args.length==1)return entry.prepare((Connection)p, (String)args[0]);
+			return delegate(entry.con, method, args);
+		}
+	}
+
+	private final String poolName;
+	private final Factory factory;
+	private final int maxIdle;
+	private final int statementCacheSize;
+	private final Deque<Entry> idle = new ArrayDeque<Entry>();
+	private final Set<Entry> all = new HashSet<Entry>();
+	private boolean closed = false;
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong acquireNanos = new AtomicLong();
+	private final AtomicLong statementHits = new AtomicLong();
+	private final AtomicLong statementMisses = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 * @param name ログ出力用の名前 (NotNull)
+	 * @param factory 新しいコネクションの取得処理 (NotNull)
+	 * @param maxIdle 返却されたコネクションを保持する最大数。超えた分は閉じる
+	 * @param statementCacheSize コネクションごとにキャッシュするステートメント数。0ならキャッシュしない
+	 */
+	public ConnectionPool(String name, Factory factory, int maxIdle, int statementCacheSize){
+		this.poolName = name;
+		this.factory = factory;
+		this.maxIdle = Math.max(1, maxIdle);
+		this.statementCacheSize = Math.max(0, statementCacheSize);
+	}
+
+	/**
+	 * コネクションを取得する。返却済みのものがあれば再利用し、なければFactoryで取得する。
+	 * 使い終わったらclose()で返却する事
+	 * @return コネクション。Factoryがnullを返した場合はnull
+	 * @throws SQLException DBエラー、またはプールがクローズ済みの場合
+	 */
+	public Connection acquire() throws SQLException{
+		long start = System.nanoTime();
+		try{
+			acquired.incrementAndGet();
+			while(true){
+				Entry entry;
+				synchronized(this){
+					if(closed)throw new SQLException("コネクションプール" + poolName + "はクローズ済みです。");
+					entry = idle.pollFirst();
+				}
+				if(entry==null)break;
+				if(System.currentTimeMillis() - entry.lastUsed > VALIDATION_IDLE_MILLIS && !isValid(entry.con)){
+					discard(entry);
+					continue;
+				}
+				reused.incrementAndGet();
+				return wrap(entry);
+			}
+			Connection con = factory.create();
+			if(con==null)return null;
+			created.incrementAndGet();
+			Entry entry = new Entry(con);
+			synchronized(this){
+				all.add(entry);
+			}
+			return wrap(entry);
+		} finally {
+			acquireNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * 保持しているコネクションと、返却されていないコネクションを全て閉じる。以降は取得できない
+	 */
+	public void close(){
+		List<Entry> entries;
+		synchronized(this){
+			closed = true;
+			entries = new ArrayList<Entry>(all);
+			all.clear();
+			idle.clear();
+		}
+		for(Entry entry : entries)closeEntry(entry);
+	}
+
+	/**
+	 * @return 取得回数
+	 */
+	public long getAcquired(){
+		return acquired.get();
+	}
+
+	/**
+	 * @return Factoryで新しく取得した数
+	 */
+	public long getCreated(){
+		return created.get();
+	}
+
+	/**
+	 * @return 返却済みのコネクションを再利用した数
+	 */
+	public long getReused(){
+		return reused.get();
+	}
+
+	/**
+	 * @return 返却時・再利用前の確認で失敗して破棄した数
+	 */
+	public long getDiscarded(){
+		return discarded.get();
+	}
+
+	/**
+	 * @return 取得と、キャッシュしたステートメントの再利用状況を表す文字列
+	 */
+	public String getStatsString(){
+		long count = acquired.get();
+		return "コネクションプール " + poolName + " 取得:" + count + " 新規:" + created.get() + " 再利用:" + reused.get() + " 破棄:" + discarded.get()
+				+ String.format(" 平均取得時間:%.3fms", count==0 ? 0 : acquireNanos.get() / 1e6 / count)
+				+ " ステートメントキャッシュ ヒット:" + statementHits.get() + " ミス:" + statementMisses.get();
+	}
+
+	private Connection wrap(Entry entry){
+		return (Connection)Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{Connection.class}, new Handle(entry));
+	}
+
+	/**
+	 * 返却されたコネクションを初期状態に戻して保持する。戻せない場合やプールが一杯の場合は閉じる
+	 */
+	private void release(Entry entry){
+		boolean reusable = true;
+		try{
+			for(CachedStatement cached : entry.statements.values()){
+				if(cached.inUse)cached.proxy.close();
+			}
+			if(!entry.con.getAutoCommit()){
+				entry.con.rollback();
+				entry.con.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			reusable = false;
+		}
+		entry.lastUsed = System.currentTimeMillis();
+		synchronized(this){
+			if(reusable && !closed && idle.size()<maxIdle){
+				idle.addFirst(entry);
+				return;
+			}
+		}
+		if(reusable)closeEntry(entry);
+		else discard(entry);
+	}
+
+	private void discard(Entry entry){
+		discarded.incrementAndGet();
+		closeEntry(entry);
+	}
+
+	private void closeEntry(Entry entry){
+		synchronized(this){
+			all.remove(entry);
+		}
+		entry.closeStatements();
+		try{
+			entry.con.close();
+		} catch (SQLException e) {
+			// 既に切断されている場合など。閉じられなくても破棄する
+		}
+	}
+
+	private static boolean isValid(Connection con){
+		try{
+			return con.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		} catch (AbstractMethodError e) {
+			// Connector/J 5.0系などJDBC4に対応していないドライバ
+			return isValidByQuery(con);
+		}
+	}
+
+	private static boolean isValidByQuery(Connection con){
+		try(Statement stmt = con.createStatement()){
+			stmt.setQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+			stmt.executeQuery("SELECT 1").close();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 物理コネクション・ステートメントのメソッドを呼び出す。発生した例外はそのままthrowする
+	 */
+	private static Object delegate(Object target, Method method, Object[] args) throws Throwable{
+		try{
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -17,6 +17,8 @@ public abstract class Consts {
 	public static final int ERR_CODE_PROGRAM_ERROR = 1002;
 	/** サーバーエラー終了コード **/
 	public static final int ERR_CODE_SERVER_ERROR = 1003;
+	/** データチェック不一致終了コード **/
+	public static final int ERR_CODE_CHECK_DIFFERENCE = 1004;
 
 	/** システム改行コード **/
 	public static final String RET = System.getProperty("line.separator");
@@ -59,19 +61,107 @@ public abstract class Consts {
 	public static final int MILLISEC_ONE_HOUR = MILLISEC_ONE_MINUTE * 60;
 	/** １日分のミリ秒数 **/
 	public static final int MILLISEC_ONE_DAY = MILLISEC_ONE_HOUR * 24;
+	/** 処理終了時に、非同期ログ出力の書き出しを待つ最大ミリ秒数 **/
+	public static final int LOG_FLUSH_TIMEOUT = MILLISEC_ONE_SECOND * 10;
 	
 	/** SQLステータス　デッドロック **/
 	public static final String SQL_STATE_DEAD_LOCK = "41000";
+	/** SQLステータス　シリアライズ失敗（デッドロックによるロールバックを含む） **/
+	public static final String SQL_STATE_SERIALIZATION_FAILURE = "40001";
 	/** SQLステータス　通信エラー **/
 	public static final String SQL_STATE_CONNECTION_ERROR = "08S01";
+
+	/** SQLファイル内で、キー範囲の条件式に置換されるプレースホルダ **/
+	public static final String SQL_KEY_RANGE_PLACEHOLDER = "#RANGE#";
+	/** 元データ取得用SQLファイル名に付けて、列の対応付けファイル名とする拡張子 **/
+	public static final String MAPPING_FILE_SUFFIX = ".mapping";
 	
 	/**
 	 * トランザクション処理の方法を定義
 	 * @author kikisoftware
 	 */
 	public static enum TRANSACTION_MODE {
+		/** オートコミット **/
 		None,
+		/** 1行ごとにコミットし、失敗した行はロールバックする **/
+		ByRecord,
+		/** 全行を1トランザクションでコミットする **/
+		All,
+		/** バッチごとにコミットする。失敗したバッチは二分割して書き込み直し、失敗する行だけを除外する **/
+		ByBatch;
+	}
+
+	/**
+	 * 元データの読み込み方法を定義
+	 * @author kikisoftware
+	 */
+	public static enum READ_MODE {
+		/** フェッチサイズの指定のみ。MySQLでは全件をメモリに読み込む **/
+		Buffered,
+		/** 1行ずつ読み込む **/
+		Stream,
+		/** サーバー側カーソルからフェッチサイズずつ読み込む **/
+		Cursor;
+	}
+
+	/**
+	 * データチェックの方法を定義
+	 * @author kikisoftware
+	 */
+	public static enum CHECK_MODE {
+		/** チェック元の1行ごとに比較対象SQLを実行する **/
 		ByRecord,
-		All;
+		/** チェック元と比較対象をキー列の昇順で取得して突き合わせる **/
+		Merge,
+		/** チェック元を指定行数ずつまとめ、比較対象をIN句で一度に取得する **/
+		InList,
+		/** キー範囲ごとのチェックサムを比較し、一致しない範囲のみ分割して行単位で突き合わせる **/
+		Checksum;
+	}
+
+	/**
+	 * 移行先への書き込み方法を定義
+	 * @author kikisoftware
+	 */
+	public static enum WRITE_MODE {
+		/** JDBCのバッチ更新 **/
+		Batch,
+		/** 複数行INSERTにまとめて書き込む **/
+		MultiRow,
+		/** 移行先の一括ロード（LOAD DATA LOCAL INFILE、COPY FROM STDIN）で書き込む **/
+		Bulk;
+	}
+
+	/**
+	 * スプールファイルを使った抽出とロードの分離方法を定義
+	 * @author kikisoftware
+	 */
+	public static enum SPOOL_MODE {
+		/** スプールファイルを使わず、移行元から移行先へ直接移行する **/
+		None,
+		/** 移行元から読み込んだ行をスプールファイルへ書き出す。移行先には接続しない **/
+		Extract,
+		/** スプールファイルから読み込んだ行を移行先へ書き込む。移行元には接続しない **/
+		Load;
+	}
+
+	/**
+	 * ColumnMappingで列の値を受け渡す型を定義。名前はResultSetのgetXxx()、PreparedStatementのsetXxx()に対応する
+	 * @author kikisoftware
+	 */
+	public static enum COLUMN_TYPE {
+		/** 元データの列の型から決める **/
+		Auto,
+		String,
+		Int,
+		Long,
+		Double,
+		BigDecimal,
+		Date,
+		Time,
+		Timestamp,
+		Bytes,
+		Boolean,
+		Object;
 	}
 }
@@ -1,11 +1,27 @@
 package com.kikisoftware.migrator.database;
 
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Level;
 
@@ -17,19 +33,52 @@ import org.apache.log4j.Level;
 public abstract class DataChecker extends Utilities implements Runnable {
 	/** コンフィグファイルfile.bufferの値を取得する。コンフィグの指定は必須
 	@return 設定されたバッファバイト数 **/
-	public static int getFileBuffer() {return Integer.parseInt(getResourceString("file.buffer", "", Level.FATAL));}
+	public static int getFileBuffer() {return getResourceInt("file.buffer", "", Level.FATAL);}
 	/** コンフィグファイルfile.encodeの値を取得する。コンフィグの指定は必須
 	@return 設定された文字コード **/
 	public static String getFileEncode() {return getResourceString("file.encode", "", Level.FATAL);}
 	/** コンフィグファイルcheck.selectSourceChunkSizeの値を取得する。コンフィグの指定は必須
 	@return 設定された移行元の読み込みチャンク数 **/
-	public static int getCheckSelectSourceChunkSize() {return Integer.parseInt(getResourceString("check.selectSourceChunkSize", "", Level.FATAL));}
+	public static int getCheckSelectSourceChunkSize() {return getResourceInt("check.selectSourceChunkSize", "", Level.FATAL);}
 	/** コンフィグファイルcheck.selectDestinationChunkSizeの値を取得する。コンフィグの指定は必須
 	@return 設定された移行先の読み込みチャンク数 **/
-	public static int getCheckSelectDestinationChunkSize() {return Integer.parseInt(getResourceString("check.selectDestinationChunkSize", "", Level.FATAL));}
+	public static int getCheckSelectDestinationChunkSize() {return getResourceInt("check.selectDestinationChunkSize", "", Level.FATAL);}
+	/** コンフィグファイルcheck.inListSizeの値を取得する。デフォルトは500
+	@return 設定されたIN句でまとめて取得する行数 **/
+	public static int getCheckInListSize() {return getResourceInt("check.inListSize", "500", Level.INFO);}
 	/** コンフィグファイルcheck.selectTimeoutの値を取得する。デフォルトは30秒
 	@return 設定されたバッチ更新サイズ **/
-	public static int getCheckSelectTimeout() {return Integer.parseInt(getResourceString("check.selectTimeout", "30", Level.INFO));}
+	public static int getCheckSelectTimeout() {return getResourceInt("check.selectTimeout", "30", Level.INFO);}
+	/** コンフィグファイルcheck.readModeの値を取得する。デフォルトはBuffered
+	@return 設定されたチェック元データの読み込みモード **/
+	public static READ_MODE getCheckReadMode() {return getResourceEnum(READ_MODE.class, "check.readMode", READ_MODE.Buffered.toString(), Level.INFO);}
+	/** コンフィグファイルcheck.modeの値を取得する。デフォルトはByRecord
+	@return 設定されたチェック方法 **/
+	public static CHECK_MODE getCheckMode() {return getResourceEnum(CHECK_MODE.class, "check.mode", CHECK_MODE.ByRecord.toString(), Level.INFO);}
+	/** コンフィグファイルcheck.checksumFanoutの値を取得する。デフォルトは16
+	@return 設定されたチェックサムが一致しない範囲の分割数 **/
+	public static int getCheckChecksumFanout() {return getResourceInt("check.checksumFanout", "16", Level.INFO);}
+	/** コンフィグファイルcheck.checksumRowThresholdの値を取得する。デフォルトは1000
+	@return 設定された行単位で突き合わせる範囲の行数 **/
+	public static int getCheckChecksumRowThreshold() {return getResourceInt("check.checksumRowThreshold", "1000", Level.INFO);}
+	/** コンフィグファイルcheck.partitionWorkersの値を取得する。デフォルトは1（並列実行しない）
+	@return 設定されたキー範囲分割時の並列実行スレッド数 **/
+	public static int getCheckPartitionWorkers() {return getResourceInt("check.partitionWorkers", "1", Level.INFO);}
+	/** コンフィグファイルcheck.partitionCountの値を取得する。デフォルトは0（並列実行スレッド数と同じ）
+	@return 設定されたキー範囲の分割数 **/
+	public static int getCheckPartitionCount() {return getResourceInt("check.partitionCount", "0", Level.INFO);}
+	/** コンフィグファイルcheck.progressIntervalSecondsの値を取得する。デフォルトは10
+	@return 設定された進捗ログの出力間隔（秒） **/
+	public static int getCheckProgressIntervalSeconds() {return getResourceInt("check.progressIntervalSeconds", "10", Level.INFO);}
+	/** コンフィグファイルcheck.progressIntervalRowsの値を取得する。デフォルトは0（件数では出力しない）
+	@return 設定された進捗ログの出力間隔（件数） **/
+	public static int getCheckProgressIntervalRows() {return getResourceInt("check.progressIntervalRows", "0", Level.INFO);}
+	/** コンフィグファイルcheck.metricsDirの値を取得する。デフォルトは空（出力しない）
+	@return 設定された処理段階ごとの計測値の出力ディレクトリ **/
+	public static String getCheckMetricsDir() {return getResourceString("check.metricsDir", "", Level.INFO);}
+	/** コンフィグファイルcheck.statementCacheSizeの値を取得する。デフォルトは20
+	@return 設定されたコネクションごとにキャッシュするステートメント数 **/
+	public static int getCheckStatementCacheSize() {return getResourceInt("check.statementCacheSize", "20", Level.INFO);}
 
 	/** 処理数取得SQLを指定した場合は処理数文字列が入る **/
 	protected String cnt = null;
@@ -40,6 +89,35 @@ public abstract class DataChecker extends Utilities implements Runnable {
 	/** 処理数ログに含める文字列。実装側で指定可能 **/
 	protected String countLogAddComment = "";
 
+	/** 比較対象SQL内の、IN句に置き換える「= ?」 **/
+	private static final Pattern IN_LIST_PATTERN = Pattern.compile("=\\s*\\?");
+
+	/** 生成時のスレッドのコンフィグ。run()の間、実行スレッドに割り当てる **/
+	private Config __config = getConfig();
+	private String __keyColumn = null;
+	private String __destinationKeyColumn = null;
+	private int __okNum = 0;
+	private int __missingNum = 0;
+	private int __extraNum = 0;
+	private int __errorNum = 0;
+	private int __checksumNum = 0;
+	private int __checksumMismatchNum = 0;
+	private KeyRange __partition = null;
+	private boolean __completed = false;
+	/** ログ出力時の先頭に付加する、キー範囲分割時の範囲の表示 **/
+	private String __partitionLabel = "";
+	private ProgressReporter __progress = null;
+	private PhaseMetrics __metrics = null;
+	private ConnectionPool __sourcePool = null;
+	private ConnectionPool __destinationPool = null;
+	private ConnectionBudget __sourceBudget = null;
+	private ConnectionBudget __destinationBudget = null;
+	private int __sourceReserved = 0;
+	private int __destinationReserved = 0;
+	/** 進捗ログに加算済みの処理数とNG・比較対象なし・比較対象のみの合計 **/
+	private int __reportedNum = 0;
+	private int __reportedErrorNum = 0;
+
 	/**
 	 * コンストラクタ。
 	 * ライブラリの読み込みを行うため、継承先は必ず呼び出す事
@@ -54,6 +132,71 @@ public abstract class DataChecker extends Utilities implements Runnable {
 		}
 	}
 	
+	/**
+	 * 複数の処理でチェック元・比較対象への接続数を共有する場合に、接続数の上限を指定する。run()の前に呼び出す事。
+	 * 開始時に最大接続数をまとめて予約し、終了時に返却する。
+	 * @param source チェック元の接続数の上限 (NullAllowed)
+	 * @param destination 比較対象の接続数の上限 (NullAllowed)
+	 */
+	public void setConnectionBudget(ConnectionBudget source, ConnectionBudget destination){
+		__sourceBudget = source;
+		__destinationBudget = destination;
+	}
+	
+	/**
+	 * @return 最後までチェックした場合true。接続断などで中断した場合false
+	 */
+	public boolean isCompleted(){
+		return __completed;
+	}
+	
+	/**
+	 * @return 一致しなかった行数。比較対象なし・比較対象のみの行を含む
+	 */
+	public int getDifferenceCount(){
+		return __errorNum + __missingNum + __extraNum;
+	}
+	
+	/**
+	 * 数値型のキー列を指定する。コンストラクタで一度だけ呼び出す事。
+	 * check.modeがByRecord以外の場合は必須。
+	 * Mergeの場合は、チェック元・比較対象の両SQLをこの列の昇順で取得して突き合わせる。
+	 * この場合、比較対象SQLはパラメータなしで全件（または#RANGE#の範囲）を取得するSQLとし、
+	 * どちらのSQLも末尾にORDER BYやLIMITを書かない事。
+	 * InListの場合は、比較対象SQLの「キー列 = ?」をIN句に置き換え、取得した行を比較対象側のキー列の値で対応付ける。
+	 * Checksumの場合は、Mergeと同じ形式の両SQLに#RANGE#を含める事。範囲ごとのチェックサムが一致しない場合のみMergeで突き合わせる。
+	 * check.partitionWorkersが2以上の場合、チェック元SQL内の#RANGE#がキー範囲の条件式に置換され、範囲ごとに別スレッドでチェックされる。
+	 * MergeとChecksumでは比較対象SQLにも#RANGE#を含める事。
+	 * @param column キー列名。テーブル別名での修飾も可 (NotNull)
+	 */
+	protected void setKeyColumn(String column){
+		__keyColumn = column;
+	}
+
+	/**
+	 * 指定されたキー列名を返す
+	 * @return キー列名。未指定ならnull
+	 */
+	protected String getKeyColumn(){
+		return __keyColumn;
+	}
+
+	/**
+	 * 比較対象側のキー列名がチェック元と異なる場合に指定する。コンストラクタで一度だけ呼び出す事。
+	 * @param column 比較対象側のキー列名 (NotNull)
+	 */
+	protected void setDestinationKeyColumn(String column){
+		__destinationKeyColumn = column;
+	}
+
+	/**
+	 * 比較対象側のキー列名を返す
+	 * @return 比較対象側のキー列名。未指定ならチェック元のキー列名
+	 */
+	protected String getDestinationKeyColumn(){
+		return __destinationKeyColumn==null ? __keyColumn : __destinationKeyColumn;
+	}
+	
 	/**
 	 * 処理数取得SQLを返すように実装すると、処理数がロギングされる。
 	 * @return 処理数取得SQL (NullAllowed)
@@ -74,6 +217,7 @@ public abstract class DataChecker extends Utilities implements Runnable {
 	
 	/**
 	 * 元データ側のコネクションを取得し、返す
+	 * 取得したコネクションはコネクションプールで管理して再利用するため、呼び出しごとに新しく接続する実装でよい。
 	 * @return 元データ側DBとのコネクション
 	 * @throws SQLException SQLException DBエラー
 	 */
@@ -81,6 +225,7 @@ public abstract class DataChecker extends Utilities implements Runnable {
 
 	/**
 	 * データ移行先のコネクションを取得し、返す
+	 * 取得したコネクションはコネクションプールで管理して再利用するため、呼び出しごとに新しく接続する実装でよい。
 	 * @return データ移行先DBとのコネクション
 	 * @throws SQLException DBエラー
 	 */
@@ -100,6 +245,7 @@ public abstract class DataChecker extends Utilities implements Runnable {
 	/**
 	 * データのチェックを実装する。
 	 * 問題があれば、IllegalParameterToBeContinuedExceptionをthrowする。
+	 * check.modeがByRecord以外の場合は、対になる行が見つかった時のみ、その行のprepareSelect()の直後に呼び出される。
 	 * @param drs 移行先側レコード
 	 * @throws SQLException DBエラー
 	 * @throws IllegalParameterToBeContinuedException 問題のあるデータだった場合に、実装者がthrowする
@@ -121,7 +267,39 @@ public abstract class DataChecker extends Utilities implements Runnable {
 	protected abstract String getIdentifierDestination();
 
 	/**
-	 * select実行
+	 * キー範囲ごとのチェックを行うインスタンスを生成する。
+	 * デフォルトでは引数なしコンストラクタで同じクラスを生成するので、引数なしコンストラクタがない場合はオーバーライドする事。
+	 * 生成したインスタンスは各スレッドで独立して使われるため、フィールドを共有しないようにする事。
+	 * @return 新しいインスタンス
+	 * @throws Exception 生成に失敗した時にthrowされる
+	 */
+	protected DataChecker createPartitionWorker() throws Exception{
+		return getClass().getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * check.modeがChecksumの場合に、キー範囲ごとの行数とチェックサムを取得するSQLを返す。
+	 * 取得列はcnt（行数）、crc（チェックサム）とする事。
+	 * デフォルトはMySQL用で、各行の全列を連結したCRC32のBIT_XORを求める。
+	 * 区切り文字を含む値やNULLと同じ表記の値が別の行と同じ連結結果にならないよう、各列は「文字数:値」とし、NULLは数字で始まらない「N」とする。
+	 * チェック元と比較対象で同じ値になるよう、両SQLの取得列は同じ順序・同じ表現にしておく事。
+	 * @param rangesql 元データ取得用SQL。キー範囲は置換済み (NotNull)
+	 * @param columns 元データ取得用SQLの取得列名 (NotNull)
+	 * @return 行数とチェックサムを取得するSQL
+	 */
+	protected String getChecksumSql(String rangesql, List<String> columns){
+		StringBuilder sb = new StringBuilder("SELECT COUNT(*) AS cnt, COALESCE(BIT_XOR(CRC32(CONCAT(");
+		for(int i = 0; i < columns.size(); i++){
+			String column = "`" + columns.get(i).replace("`", "``") + "`";
+			if(i>0)sb.append(", ");
+			sb.append("IFNULL(CONCAT(CHAR_LENGTH(").append(column).append("), ':', ").append(column).append("), 'N')");
+		}
+		sb.append("))), 0) AS crc FROM (").append(rangesql).append(") checksum_t");
+		return sb.toString();
+	}
+
+	/**
+	 * select実行。check.modeがByRecordの場合のみ呼び出される
 	 * @param ps 現在準備されたデータ取得ステートメント
 	 * @return 取得結果レコード
 	 * @throws SQLException DBエラー
@@ -138,25 +316,49 @@ public abstract class DataChecker extends Utilities implements Runnable {
 	 */
 	@Override
 	public void run() {
+		Config previous = bindConfig(__config);
+		try{
+			// キー範囲ごとのチェックでは全体側のコネクションプールを使う
+			if(__partition!=null){
+				execute();
+				return;
+			}
+			openPools();
+			try{
+				execute();
+			} finally {
+				closePools();
+				flushLog(LOG_FLUSH_TIMEOUT);
+			}
+		} finally {
+			bindConfig(previous);
+		}
+	}
+
+	/**
+	 * データチェック処理の本体
+	 */
+	private void execute() {
 		// ログ出力
-		outLog(log_, Level.INFO, "************ チェック開始 *************");
+		outLog(log_, Level.INFO, __partitionLabel+"************ チェック開始 *************");
+		if(__partition==null)MemoryUsageMeter.reset();
 
 		// データベースの指定
 		Connection scon = null;
 		try {
 			// データベースとの接続
-			scon = getCheckSourceConnection();
+			scon = __sourcePool.acquire();
 			// ログ出力
-			outLog(log_, Level.INFO, "チェック元データベース接続完了");
+			outLog(log_, Level.INFO, __partitionLabel+"チェック元データベース接続完了");
 		} catch (SQLException e) {
 			// ログ出力
-			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+			outLog(log_, Level.FATAL, __partitionLabel+e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
 		} catch (Exception e) {
 			// ログ出力
-			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+			outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
 		}
 		if(scon==null){
-			outLog(log_, Level.FATAL, "チェック元コネクションが取得できませんでした");
+			outLog(log_, Level.FATAL, __partitionLabel+"チェック元コネクションが取得できませんでした");
 			return;
 		}
 
@@ -164,27 +366,27 @@ public abstract class DataChecker extends Utilities implements Runnable {
 		Connection dcon = null;
 		try {
 			// データベースとの接続
-			dcon = getCheckDestinationConnection();
+			dcon = __destinationPool.acquire();
 			// ログ出力
-			outLog(log_, Level.INFO, "チェック先データベース接続完了");
+			outLog(log_, Level.INFO, __partitionLabel+"チェック先データベース接続完了");
 		} catch (SQLException e) {
 			// ログ出力
-			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+			outLog(log_, Level.FATAL, __partitionLabel+e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
 		} catch (Exception e) {
 			// ログ出力
-			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+			outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
 		}
 		if(dcon==null){
-			outLog(log_, Level.FATAL, "チェック先コネクションが取得できませんでした");
+			outLog(log_, Level.FATAL, __partitionLabel+"チェック先コネクションが取得できませんでした");
 			return;
 		}
 
 		String sql;
 		sql = getCheckCountSql();
 
-		if(sql!=null && !sql.equals("")){
+		if(__partition==null && sql!=null && !sql.equals("")){
 			try(Statement stmt = scon.createStatement()){
-			outLog(log_, Level.INFO, "チェック件数取得ステートメント取得完了。タイムアウト：" + getCheckSelectTimeout() + "秒");
+			outLog(log_, Level.INFO, __partitionLabel+"チェック件数取得ステートメント取得完了。タイムアウト：" + getCheckSelectTimeout() + "秒");
 			stmt.setQueryTimeout(getCheckSelectTimeout());
 				// SQL 実行
 				try(ResultSet rs = stmt.executeQuery(sql)){
@@ -193,37 +395,37 @@ public abstract class DataChecker extends Utilities implements Runnable {
 					cnt = rs.getString("cnt");
 				}
 				maxcnt = Integer.parseInt(cnt);
-				outLog(log_, Level.INFO, "チェック件数取得完了");
+				outLog(log_, Level.INFO, __partitionLabel+"チェック件数取得完了");
 			} catch (SQLException e) {
 				// ログ出力
-				outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+				outLog(log_, Level.FATAL, __partitionLabel+e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
 			} catch (Exception e) {
 				// ログ出力
-				outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+				outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
 			}
 			if(cnt == null || cnt.equals("")){
-				outLog(log_, Level.ERROR, "チェック件数取得に失敗しました。" + RET + sql);
+				outLog(log_, Level.ERROR, __partitionLabel+"チェック件数取得に失敗しました。" + RET + sql);
 				return;
 			}
 			if(maxcnt==0){
-				outLog(log_, Level.INFO, "対象が存在しませんでした。" + RET + sql);
+				outLog(log_, Level.INFO, __partitionLabel+"対象が存在しませんでした。" + RET + sql);
 				return;
 			}
 			// ログ出力
-			outLog(log_, Level.INFO, "移行元テーブル件数取得=["+cnt+"]");
+			outLog(log_, Level.INFO, __partitionLabel+"移行元テーブル件数取得=["+cnt+"]");
 		}
 
 		// source select実行
 		String sexecsql = null;
 		try{
 			sexecsql = getFileContents(getSelectSourceFilePath(), getFileEncode());
-			outLog(log_, Level.DEBUG, "チェック元SQL:"+sexecsql);
+			outLog(log_, Level.DEBUG, __partitionLabel+"チェック元SQL:"+sexecsql);
 		} catch (Exception e) {
 			// ログ出力
-			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+			outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
 		}
 		if(sexecsql == null){
-			outLog(log_, Level.ERROR, "チェック元SQLファイルを読み込めませんでした。" + RET + sql);
+			outLog(log_, Level.ERROR, __partitionLabel+"チェック元SQLファイルを読み込めませんでした。" + RET + sql);
 			return;
 		}
 
@@ -231,109 +433,770 @@ public abstract class DataChecker extends Utilities implements Runnable {
 		String dexecsql = null;
 		try{
 			dexecsql = getFileContents(getSelectDestinationFilePath(), getFileEncode());
-			outLog(log_, Level.DEBUG, "比較対象SQL:"+dexecsql);
+			outLog(log_, Level.DEBUG, __partitionLabel+"比較対象SQL:"+dexecsql);
 		} catch (Exception e) {
 			// ログ出力
-			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+			outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
 		}
 		if(dexecsql == null){
-			outLog(log_, Level.ERROR, "比較対象SQLファイルを読み込めませんでした。" + getSelectDestinationFilePath());
+			outLog(log_, Level.ERROR, __partitionLabel+"比較対象SQLファイルを読み込めませんでした。" + getSelectDestinationFilePath());
 			return;
 		}
 
-		try(Statement sstmt = scon.createStatement()){
-			outLog(log_, Level.INFO, "チェック元ステートメント取得完了。タイムアウト：" + getCheckSelectTimeout() + "秒");
+		// 進捗ログ。キー範囲ごとのチェックでは全体側のものに加算する
+		if(__partition==null)__progress = new ProgressReporter("", cnt==null ? 0 : maxcnt, getCheckProgressIntervalSeconds(), getCheckProgressIntervalRows());
+		// 処理段階ごとの計測。キー範囲ごとのチェックでは全体側のものに記録する
+		if(__partition==null)startMetrics();
+
+		CHECK_MODE mode = getCheckMode();
+		if(mode!=CHECK_MODE.ByRecord && __keyColumn==null){
+			outLog(log_, Level.ERROR, __partitionLabel+"check.modeが" + mode + "の場合はキー列の指定が必要です。");
+			closeConnection(scon);
+			closeConnection(dcon);
+			return;
+		}
+		outLog(log_, Level.INFO, __partitionLabel+"チェック方法：" + mode);
+		if(__partition==null && __keyColumn==null && getCheckPartitionWorkers()>1){
+			outLog(log_, Level.WARN, "キー列が指定されていないため、並列実行せずにチェックします。");
+		}
+		boolean finished = false;
+		try{
+			if(__partition==null && __keyColumn!=null && getCheckPartitionWorkers()>1){
+				finished = runPartitions(scon, sexecsql, dexecsql, mode);
+			}
+			else if(mode==CHECK_MODE.Merge){
+				finished = checkMerge(scon, dcon, sexecsql, dexecsql, __partition);
+			}
+			else if(mode==CHECK_MODE.InList){
+				finished = checkInList(scon, dcon, applyPartition(sexecsql), dexecsql);
+			}
+			else if(mode==CHECK_MODE.Checksum){
+				finished = checkChecksum(scon, dcon, sexecsql, dexecsql);
+			}
+			else{
+				finished = checkByRecord(scon, dcon, applyPartition(sexecsql), dexecsql);
+			}
+		} catch (SQLException e) {
+			outLog(log_, Level.FATAL, __partitionLabel+e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
+		} finally {
+			// データベースのクローズ
+			closeConnection(scon);
+			closeConnection(dcon);
+		}
+		__completed = finished;
+		reportProgress();
+		if(__partition==null){
+			__progress.reportFinal();
+			finishMetrics();
+		}
+		if(finished && __partition==null)logSummary();
+
+		// ログ出力
+		if(__partition==null)outLog(log_, Level.INFO, MemoryUsageMeter.getPeakHeapUsedString());
+		outLog(log_, Level.INFO, __partitionLabel+"************** チェック終了 ****************");
+	}
+
+	/**
+	 * キー範囲を分割し、範囲ごとに別インスタンス・別スレッド・別コネクションでチェックする。
+	 * 各範囲の処理数と結果の件数は、全範囲の終了後にこのインスタンスへ合算する。
+	 * @param scon チェック元のコネクション。キーの最小値と最大値の取得に使う (NotNull)
+	 * @param sexecsql チェック元SQL (NotNull)
+	 * @param dexecsql 比較対象SQL (NotNull)
+	 * @param mode チェック方法 (NotNull)
+	 * @return 全範囲を最後までチェックした場合true
+	 * @throws SQLException DBエラー、またはSQLにプレースホルダがない場合
+	 */
+	private boolean runPartitions(Connection scon, String sexecsql, String dexecsql, CHECK_MODE mode) throws SQLException{
+		if(!KeyRange.hasPlaceholder(sexecsql)){
+			throw new SQLException("並列実行にはチェック元SQLにキー範囲のプレースホルダ" + SQL_KEY_RANGE_PLACEHOLDER + "が必要です。" + RET + getSelectSourceFilePath());
+		}
+		if((mode==CHECK_MODE.Merge || mode==CHECK_MODE.Checksum) && !KeyRange.hasPlaceholder(dexecsql)){
+			throw new SQLException("check.modeが" + mode + "の並列実行には比較対象SQLにもキー範囲のプレースホルダ" + SQL_KEY_RANGE_PLACEHOLDER + "が必要です。" + RET + getSelectDestinationFilePath());
+		}
+		KeyRange whole = selectKeyRange(scon, sexecsql, __keyColumn, null);
+		if(whole==null){
+			outLog(log_, Level.INFO, "チェック元に対象が存在しませんでした。");
+			return true;
+		}
+		int workers = getCheckPartitionWorkers();
+		int count = getCheckPartitionCount();
+		if(count<=0)count = workers;
+		List<KeyRange> ranges = KeyRange.split(whole.getFrom(), whole.getTo() - 1, count);
+		outLog(log_, Level.INFO, "キー範囲分割：" + __keyColumn + " " + whole + " 分割数：" + ranges.size() + " スレッド数：" + workers);
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		CompletionService<DataChecker> completion = new ExecutorCompletionService<DataChecker>(executor);
+		int submitted = 0;
+		int completed = 0;
+		try{
+			for(int i = 0; i < ranges.size(); i++){
+				DataChecker worker;
+				try{
+					worker = createPartitionWorker();
+				} catch (Exception e) {
+					outLog(log_, Level.FATAL, "分割処理用インスタンスが生成できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+					break;
+				}
+				worker.__config = __config;
+				worker.__keyColumn = __keyColumn;
+				worker.__destinationKeyColumn = __destinationKeyColumn;
+				worker.__partition = ranges.get(i);
+				worker.__partitionLabel = "[P" + (i + 1) + "/" + ranges.size() + " " + ranges.get(i) + "] ";
+				worker.__progress = __progress;
+				worker.__metrics = __metrics;
+				worker.__sourcePool = __sourcePool;
+				worker.__destinationPool = __destinationPool;
+				completion.submit(worker, worker);
+				submitted++;
+			}
+			for(int i = 0; i < submitted; i++){
+				try{
+					DataChecker worker = completion.take().get();
+					if(worker.__completed)completed++;
+					procNum += worker.procNum;
+					__okNum += worker.__okNum;
+					__missingNum += worker.__missingNum;
+					__extraNum += worker.__extraNum;
+					__errorNum += worker.__errorNum;
+					__checksumNum += worker.__checksumNum;
+					__checksumMismatchNum += worker.__checksumMismatchNum;
+					outLog(log_, Level.INFO, worker.__partitionLabel + (worker.__completed ? "完了" : "中断") + " 処理数:" + worker.procNum + " OK:" + worker.__okNum + " NG:" + worker.__errorNum + " 比較対象なし:" + worker.__missingNum + " 比較対象のみ:" + worker.__extraNum + " 全体:" + procNum + (cnt==null ? "" : " / "+maxcnt));
+				} catch (Exception e) {
+					outLog(log_, Level.ERROR, e.getMessage() + RET + getStackTrace(e));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		outLog(log_, Level.INFO, "全キー範囲のチェック完了 処理数:" + procNum + (cnt==null ? "" : " / "+maxcnt) + " 完了：" + completed + " / " + ranges.size());
+		// 各範囲の件数は進捗ログに加算済み
+		__reportedNum = procNum;
+		__reportedErrorNum = __errorNum + __missingNum + __extraNum;
+		if(mode==CHECK_MODE.Checksum)outLog(log_, Level.INFO, "チェックサム比較回数：" + __checksumNum + " 不一致：" + __checksumMismatchNum);
+		return completed==ranges.size();
+	}
+
+	/**
+	 * キー範囲分割時は、チェック元SQLのプレースホルダを担当範囲の条件式に置換する
+	 * @param sexecsql チェック元SQL (NotNull)
+	 * @return 置換後のSQL。分割していない場合はそのまま
+	 */
+	private String applyPartition(String sexecsql){
+		if(__partition==null)return sexecsql;
+		return KeyRange.applyCondition(sexecsql, __partition.toCondition(__keyColumn));
+	}
+
+	/**
+	 * チェック元の1行ごとに比較対象SQLを実行してチェックする
+	 * @param scon チェック元のコネクション (NotNull)
+	 * @param dcon 比較対象のコネクション (NotNull)
+	 * @param sexecsql チェック元SQL (NotNull)
+	 * @param dexecsql 比較対象SQL (NotNull)
+	 * @return 最後までチェックした場合true。接続断で終了した場合false
+	 * @throws SQLException DBエラー
+	 */
+	private boolean checkByRecord(Connection scon, Connection dcon, String sexecsql, String dexecsql) throws SQLException{
+		try(Statement sstmt = createSourceStatement(scon, sexecsql, getCheckReadMode(), getCheckSelectSourceChunkSize())){
+			outLog(log_, Level.INFO, __partitionLabel+"チェック元ステートメント取得完了。タイムアウト：" + getCheckSelectTimeout() + "秒 読み込みモード：" + getCheckReadMode());
 			sstmt.setQueryTimeout(getCheckSelectTimeout());
-			sstmt.setFetchSize(getCheckSelectSourceChunkSize());
 			try(PreparedStatement dps = dcon.prepareStatement(dexecsql)){
-				outLog(log_, Level.INFO, "比較対象ステートメント取得完了");
+				outLog(log_, Level.INFO, __partitionLabel+"比較対象ステートメント取得完了");
 				dps.setFetchSize(getCheckSelectDestinationChunkSize());
 				// SQL 実行
-				try(ResultSet srs = sstmt.executeQuery(sexecsql)){
-					outLog(log_, Level.INFO, "  ** チェック元データ取得開始 **");
-					ResultSetMetaData srsmd= srs.getMetaData();
-					StringBuilder ssb = new StringBuilder();
-					for (int i = 1; i <= srsmd.getColumnCount(); i++) {
-						ssb.append(srsmd.getColumnName(i)+RET);
-					}
-					outLog(log_, Level.DEBUG, ssb.toString());
+				try(ResultSet srs = executeSourceQuery(sstmt, sexecsql)){
+					outLog(log_, Level.INFO, __partitionLabel+"  ** チェック元データ取得開始 **");
+					logColumns(srs);
 						
 					while(true){
-						procNum++;
+						long start = System.nanoTime();
 						boolean snx = srs.next();
-						if(!snx){
-							int pnum = procNum-1;
-							StringBuilder lastsb = new StringBuilder();
-							if(cnt!=null && pnum<maxcnt){
-								lastsb.append("チェック件数より処理件数が少ないです。");
-							}
-							else if(cnt!=null && pnum>maxcnt){
-								lastsb.append("チェック件数より処理件数が多いです。");
-							}
-							else if(cnt!=null && pnum==maxcnt){
-								lastsb.append("件数はマッチしていました。");
-							}
-							lastsb.append("チェックを終了します。");
-							outLog(log_, Level.INFO, lastsb.toString());
-							break;
-						}
+						__metrics.record("sourceFetch", start);
+						if(!snx)return true;
+						procNum++;
 
 						try {
-							prepareSelect(srs, dps);
+							prepare(srs, dps);
 							// SQL 実行
+							start = System.nanoTime();
 							try(ResultSet drs = doSelect(dps)){
 								boolean dnx = drs.next();
+								__metrics.record("destinationQuery", start);
 								if(!dnx){
-									outLog(log_, Level.ERROR, "比較対象が存在しませんでした。 "+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " srcid:"+getIdentifierSource());
+									logMissing();
 									continue;
 								}
-								checkDatas(drs);
-								outLog(log_, Level.INFO, "チェックOK "+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " srcid:"+getIdentifierSource()+" destid:"+getIdentifierDestination());
-							}
-						} catch (IllegalParameterToBeContinuedException e) {
-							outLog(log_, Level.ERROR, e.getMessage());
-							continue;
-						} catch (SQLException e) {
-							String sqlstate = e.getSQLState();
-							if(sqlstate!= null && sqlstate.equals("08S01")){
-								outLog(log_, Level.FATAL, "Exit because connection has broken. SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" "+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+": srcid:"+getIdentifierSource()+" dstid:"+getIdentifierDestination()+" "+e.getMessage());
-								outLog(log_, Level.DEBUG, getStackTrace(e));
-								break;
-							}
-							else{
-								outLog(log_, Level.ERROR, ""+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+": srcid:"+getIdentifierSource()+" dstid:"+getIdentifierDestination()+" "+e.getMessage());
-								outLog(log_, Level.DEBUG, getStackTrace(e));
+								checkPair(drs);
 							}
 						} catch (Exception e) {
-							outLog(log_, Level.ERROR, ""+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " srcid:"+getIdentifierSource()+" dstid:"+getIdentifierDestination()+" "+e.getClass().getName()+" "+e.getMessage());
-							outLog(log_, Level.DEBUG, getStackTrace(e));
+							if(!handleCheckError(e))return false;
 						}
 						finally{
 							countLogAddComment = "";
 						}
+						reportProgress();
 					}
 				}
 			}
-		} catch (SQLException e) {
-			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
-		} catch (Exception e) {
-			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+		}
+	}
+
+	/**
+	 * チェック元と比較対象をそれぞれ1回のSQLでキー列の昇順に取得し、キー値で突き合わせてチェックする。
+	 * 比較対象側にない行、比較対象側にのみある行、内容が異なる行をエラーとしてログ出力する。
+	 * @param scon チェック元のコネクション (NotNull)
+	 * @param dcon 比較対象のコネクション (NotNull)
+	 * @param sexecsql チェック元SQL (NotNull)
+	 * @param dexecsql 比較対象SQL (NotNull)
+	 * @param range チェックするキー範囲 (NullAllowed)
+	 * @return 最後までチェックした場合true。接続断で終了した場合false
+	 * @throws SQLException DBエラー、またはキー列の昇順になっていない場合
+	 */
+	private boolean checkMerge(Connection scon, Connection dcon, String sexecsql, String dexecsql, KeyRange range) throws SQLException{
+		try(SourceCursor src = new SourceCursor(scon, sexecsql, range, __keyColumn, 0, getCheckReadMode(), getCheckSelectSourceChunkSize(), getCheckSelectTimeout());
+				SourceCursor dst = new SourceCursor(dcon, dexecsql, range, getDestinationKeyColumn(), 0, getCheckReadMode(), getCheckSelectDestinationChunkSize(), getCheckSelectTimeout());
+				PreparedStatement capture = RecordingStatement.create(dcon, null, null, 1)){
+			src.setOrderByKey(true);
+			dst.setOrderByKey(true);
+			src.open();
+			outLog(log_, Level.INFO, __partitionLabel+"  ** チェック元データ取得開始 **");
+			logColumns(src.getResultSet());
+			dst.open();
+			outLog(log_, Level.INFO, __partitionLabel+"  ** 比較対象データ取得開始 **");
+			boolean snx = src.next();
+			boolean dnx = dst.next();
+			Long skey = snx ? currentKey(src, null) : null;
+			Long dkey = dnx ? currentKey(dst, null) : null;
+			while(snx || dnx){
+				try{
+					if(snx && (!dnx || skey<dkey)){
+						// 比較対象側にない
+						procNum++;
+						prepare(src.getResultSet(), capture);
+						logMissing();
+					}
+					else if(dnx && (!snx || dkey<skey)){
+						// 比較対象側にのみある
+						logExtra(getDestinationKeyColumn() + "=" + dkey);
+					}
+					else{
+						procNum++;
+						prepare(src.getResultSet(), capture);
+						checkPair(dst.getResultSet());
+					}
+				} catch (Exception e) {
+					if(!handleCheckError(e))return false;
+				} finally {
+					countLogAddComment = "";
+				}
+				// 小さい方のキー（同じなら両方）を進める
+				boolean advanceSource = snx && (!dnx || skey<=dkey);
+				boolean advanceDestination = dnx && (!snx || dkey<=skey);
+				long start = System.nanoTime();
+				if(advanceSource && (snx = src.next()))skey = currentKey(src, skey);
+				if(advanceSource)__metrics.record("sourceFetch", start);
+				start = System.nanoTime();
+				if(advanceDestination && (dnx = dst.next()))dkey = currentKey(dst, dkey);
+				if(advanceDestination)__metrics.record("destinationFetch", start);
+				reportProgress();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * キー範囲ごとの行数とチェックサムをチェック元・比較対象で比較し、一致した範囲は行を取得せずにOKとする。
+	 * 一致しない範囲はcheck.checksumFanoutの数に分割して再度比較し、
+	 * check.checksumRowThreshold行以下になった範囲はMergeと同じ方法で行単位に突き合わせる。
+	 * @param scon チェック元のコネクション (NotNull)
+	 * @param dcon 比較対象のコネクション (NotNull)
+	 * @param sexecsql チェック元SQL。#RANGE#を含む事 (NotNull)
+	 * @param dexecsql 比較対象SQL。#RANGE#を含む事 (NotNull)
+	 * @return 最後までチェックした場合true。接続断で終了した場合false
+	 * @throws SQLException DBエラー、またはSQLにプレースホルダがない場合
+	 */
+	private boolean checkChecksum(Connection scon, Connection dcon, String sexecsql, String dexecsql) throws SQLException{
+		if(!KeyRange.hasPlaceholder(sexecsql) || !KeyRange.hasPlaceholder(dexecsql)){
+			throw new SQLException("check.modeがChecksumの場合、チェック元・比較対象の両SQLにキー範囲のプレースホルダ" + SQL_KEY_RANGE_PLACEHOLDER + "が必要です。");
+		}
+		List<String> scolumns = selectColumns(scon, sexecsql);
+		List<String> dcolumns = selectColumns(dcon, dexecsql);
+		if(scolumns.size()!=dcolumns.size()){
+			outLog(log_, Level.WARN, __partitionLabel+"チェック元と比較対象の列数が異なるため、チェックサムは一致しません。" + scolumns + " / " + dcolumns);
+		}
+		KeyRange whole = selectKeyRange(scon, sexecsql, __keyColumn, selectKeyRange(dcon, dexecsql, getDestinationKeyColumn(), null));
+		if(whole==null){
+			outLog(log_, Level.INFO, __partitionLabel+"チェック元・比較対象ともに対象が存在しませんでした。");
+			return true;
+		}
+		outLog(log_, Level.INFO, __partitionLabel+"チェックサム比較開始 " + __keyColumn + " " + whole + " 分割数：" + getCheckChecksumFanout() + " 行単位比較の行数：" + getCheckChecksumRowThreshold());
+		boolean finished = true;
+		for(KeyRange range : whole.split(getCheckChecksumFanout())){
+			if(!checkChecksumRange(scon, dcon, sexecsql, dexecsql, scolumns, dcolumns, range)){
+				finished = false;
+				break;
+			}
+		}
+		outLog(log_, Level.INFO, __partitionLabel+"チェックサム比較回数：" + __checksumNum + " 不一致：" + __checksumMismatchNum);
+		return finished;
+	}
+
+	/**
+	 * 1つのキー範囲のチェックサムを比較し、一致しなければ分割または行単位の突き合わせを行う
+	 * @return 最後までチェックした場合true。接続断で終了した場合false
+	 */
+	private boolean checkChecksumRange(Connection scon, Connection dcon, String sexecsql, String dexecsql, List<String> scolumns, List<String> dcolumns, KeyRange range) throws SQLException{
+		long[] s = selectChecksum(scon, sexecsql, __keyColumn, scolumns, range);
+		long[] d = selectChecksum(dcon, dexecsql, getDestinationKeyColumn(), dcolumns, range);
+		__checksumNum++;
+		if(s[0]==d[0] && s[1]==d[1]){
+			procNum += (int)s[0];
+			__okNum += (int)s[0];
+			outLog(log_, Level.DEBUG, __partitionLabel+"チェックサム一致 " + range + " 行数：" + s[0]);
+			reportProgress();
+			return true;
+		}
+		__checksumMismatchNum++;
+		outLog(log_, Level.INFO, __partitionLabel+"チェックサム不一致 " + range + " 行数：" + s[0] + " / " + d[0]);
+		if(Math.max(s[0], d[0])<=getCheckChecksumRowThreshold() || range.getWidth()<=1){
+			return checkMerge(scon, dcon, sexecsql, dexecsql, range);
+		}
+		for(KeyRange sub : range.split(getCheckChecksumFanout())){
+			if(!checkChecksumRange(scon, dcon, sexecsql, dexecsql, scolumns, dcolumns, sub))return false;
+		}
+		return true;
+	}
+
+	/**
+	 * キー範囲の行数とチェックサムを取得する
+	 * @return 行数とチェックサムの配列
+	 */
+	private long[] selectChecksum(Connection con, String execsql, String keyColumn, List<String> columns, KeyRange range) throws SQLException{
+		String sql = getChecksumSql(KeyRange.applyCondition(execsql, range.toCondition(keyColumn)), columns);
+		long start = System.nanoTime();
+		try(Statement stmt = con.createStatement()){
+			stmt.setQueryTimeout(getCheckSelectTimeout());
+			try(ResultSet rs = stmt.executeQuery(sql)){
+				rs.next();
+				return new long[]{rs.getLong("cnt"), rs.getLong("crc")};
+			}
 		} finally {
+			__metrics.record("checksumQuery", start);
+		}
+	}
+
+	/**
+	 * SQLの取得列名を、0件となる条件で実行して取得する
+	 * @return 取得列名のリスト
+	 */
+	private List<String> selectColumns(Connection con, String execsql) throws SQLException{
+		try(Statement stmt = con.createStatement()){
+			stmt.setQueryTimeout(getCheckSelectTimeout());
+			try(ResultSet rs = stmt.executeQuery(KeyRange.applyCondition(execsql, "1=0"))){
+				ResultSetMetaData meta = rs.getMetaData();
+				List<String> columns = new ArrayList<String>();
+				for(int i = 1; i <= meta.getColumnCount(); i++)columns.add(meta.getColumnLabel(i));
+				return columns;
+			}
+		}
+	}
+
+	/**
+	 * キーの最小値と最大値を取得し、指定の範囲と合わせた範囲を返す。キー範囲分割時は担当範囲内で取得する
+	 * @param merge 合わせる範囲 (NullAllowed)
+	 * @return 最小値から最大値までの範囲。対象がなくmergeもnullの場合はnull
+	 */
+	private KeyRange selectKeyRange(Connection con, String execsql, String keyColumn, KeyRange merge) throws SQLException{
+		String label = keyColumn.substring(keyColumn.lastIndexOf('.') + 1);
+		String condition = __partition==null ? "1=1" : __partition.toCondition(keyColumn);
+		String sql = "SELECT MIN(" + label + ") AS minkey, MAX(" + label + ") AS maxkey FROM (" + KeyRange.applyCondition(execsql, condition) + ") range_t";
+		outLog(log_, Level.DEBUG, __partitionLabel+"キー範囲取得SQL:" + sql);
+		try(Statement stmt = con.createStatement()){
+			stmt.setQueryTimeout(getCheckSelectTimeout());
+			try(ResultSet rs = stmt.executeQuery(sql)){
+				rs.next();
+				long minkey = rs.getLong("minkey");
+				if(rs.wasNull())return merge;
+				long maxkey = rs.getLong("maxkey");
+				if(merge!=null){
+					minkey = Math.min(minkey, merge.getFrom());
+					maxkey = Math.max(maxkey, merge.getTo() - 1);
+				}
+				return new KeyRange(minkey, maxkey + 1);
+			}
+		}
+	}
+
+	/**
+	 * チェック元をcheck.inListSize行ずつまとめ、比較対象SQLの「= ?」をIN句に置き換えて1回で取得してチェックする。
+	 * IN句に設定する値は、各行のprepareSelect()で設定された1番目のパラメータとする。
+	 * prepareSelect()はIN句の値を集める時と、checkDatas()の直前の2回呼び出される。
+	 * @param scon チェック元のコネクション (NotNull)
+	 * @param dcon 比較対象のコネクション (NotNull)
+	 * @param sexecsql チェック元SQL (NotNull)
+	 * @param dexecsql 比較対象SQL。パラメータは「キー列 = ?」の1つのみとする事 (NotNull)
+	 * @return 最後までチェックした場合true。接続断で終了した場合false
+	 * @throws SQLException DBエラー、または比較対象SQLがIN句に置き換えられない形式の場合
+	 */
+	private boolean checkInList(Connection scon, Connection dcon, String sexecsql, String dexecsql) throws SQLException{
+		Matcher m = IN_LIST_PATTERN.matcher(dexecsql);
+		if(!m.find() || dexecsql.indexOf('?')!=dexecsql.lastIndexOf('?')){
+			throw new SQLException("check.modeがInListの場合、比較対象SQLのパラメータは「キー列 = ?」の1つのみとしてください。" + RET + dexecsql);
+		}
+		int windowSize = Math.max(1, getCheckInListSize());
+		String dkeyLabel = getDestinationKeyColumn().substring(getDestinationKeyColumn().lastIndexOf('.') + 1);
+		Map<Integer, PreparedStatement> statements = new HashMap<Integer, PreparedStatement>();
+		try(Statement sstmt = createSourceStatement(scon, sexecsql, getCheckReadMode(), getCheckSelectSourceChunkSize());
+				PreparedStatement capture = RecordingStatement.create(dcon, null, null, 1)){
+			outLog(log_, Level.INFO, __partitionLabel+"チェック元ステートメント取得完了。タイムアウト：" + getCheckSelectTimeout() + "秒 読み込みモード：" + getCheckReadMode() + " IN句の行数：" + windowSize);
+			sstmt.setQueryTimeout(getCheckSelectTimeout());
+			try(ResultSet srs = executeSourceQuery(sstmt, sexecsql)){
+				outLog(log_, Level.INFO, __partitionLabel+"  ** チェック元データ取得開始 **");
+				logColumns(srs);
+				MaterializedResultSet sview = new MaterializedResultSet(new RowMetaData(srs.getMetaData()));
+				int columnCount = sview.getMetaData().getColumnCount();
+				List<Object[]> window = new ArrayList<Object[]>(windowSize);
+				boolean snx = true;
+				while(snx){
+					long start = System.nanoTime();
+					snx = srs.next();
+					if(snx)window.add(MaterializedResultSet.read(srs, columnCount));
+					__metrics.record("sourceFetch", start);
+					if(window.size()>=windowSize || (!snx && !window.isEmpty())){
+						if(!checkWindow(dcon, dexecsql, m, dkeyLabel, statements, capture, sview, window))return false;
+						window.clear();
+						reportProgress();
+					}
+				}
+				return true;
+			}
+		} finally {
+			for(PreparedStatement ps : statements.values())ps.close();
+		}
+	}
+
+	/**
+	 * まとめたチェック元の行について、比較対象を1回のSQLで取得してチェックする
+	 * @return チェックを継続する場合true。接続断の場合false
+	 */
+	private boolean checkWindow(Connection dcon, String dexecsql, Matcher m, String dkeyLabel, Map<Integer, PreparedStatement> statements,
+			PreparedStatement capture, MaterializedResultSet sview, List<Object[]> window) throws SQLException{
+		// IN句に設定する値を集める。値が重複する行は1つにまとめる
+		Map<String, BoundRow> keys = new LinkedHashMap<String, BoundRow>();
+		for(Object[] row : window){
+			sview.setRow(row);
+			capture.clearParameters();
+			try{
+				prepare(sview.toResultSet(), capture);
+			} catch (Exception e) {
+				// 2回目の呼び出しでエラーとして扱う
+				continue;
+			}
+			BoundRow params = RecordingStatement.getRow(capture);
+			Object key = params.getValue(1);
+			if(key!=null && !keys.containsKey(normalizeKey(key)))keys.put(normalizeKey(key), params);
+		}
+
+		Map<String, Object[]> found = new HashMap<String, Object[]>();
+		MaterializedResultSet dview = null;
+		if(!keys.isEmpty()){
 			try{
-				// データベースのクローズ
-				if(scon!=null)scon.close();
-				if(dcon!=null)dcon.close();
+				PreparedStatement dps = statements.get(keys.size());
+				if(dps==null){
+					StringBuilder in = new StringBuilder("IN (");
+					for(int i = 0; i < keys.size(); i++)in.append(i==0 ? "?" : ", ?");
+					in.append(')');
+					dps = dcon.prepareStatement(dexecsql.substring(0, m.start()) + in + dexecsql.substring(m.end()));
+					dps.setFetchSize(getCheckSelectDestinationChunkSize());
+					statements.put(keys.size(), dps);
+				}
+				int offset = 0;
+				for(BoundRow params : keys.values()){
+					params.bind(dps, offset++);
+				}
+				long start = System.nanoTime();
+				try(ResultSet drs = dps.executeQuery()){
+					dview = new MaterializedResultSet(new RowMetaData(drs.getMetaData()));
+					int keyIndex = drs.findColumn(dkeyLabel);
+					int columnCount = dview.getMetaData().getColumnCount();
+					while(drs.next()){
+						Object[] row = MaterializedResultSet.read(drs, columnCount);
+						if(row[keyIndex - 1]!=null && !found.containsKey(normalizeKey(row[keyIndex - 1])))found.put(normalizeKey(row[keyIndex - 1]), row);
+					}
+				}
+				__metrics.record("destinationQuery", start);
 			} catch (SQLException e) {
-				// ログ出力
-				outLog(log_, Level.WARN, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+				String sqlstate = e.getSQLState();
+				if(sqlstate!= null && sqlstate.equals(SQL_STATE_CONNECTION_ERROR)){
+					outLog(log_, Level.FATAL, __partitionLabel+"Exit because connection has broken. SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" "+(procNum)+(cnt==null ? "" : " / "+maxcnt)+" "+e.getMessage());
+					outLog(log_, Level.DEBUG, __partitionLabel+getStackTrace(e));
+					return false;
+				}
+				// 取得に失敗した行はまとめてエラーとする
+				__errorNum += window.size();
+				procNum += window.size();
+				outLog(log_, Level.ERROR, __partitionLabel+""+(procNum)+(cnt==null ? "" : " / "+maxcnt)+" SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" 比較対象の取得に失敗したため"+window.size()+"行をチェックできませんでした。"+e.getMessage());
+				outLog(log_, Level.DEBUG, __partitionLabel+getStackTrace(e));
+				return true;
+			}
+		}
+
+		for(Object[] row : window){
+			procNum++;
+			sview.setRow(row);
+			capture.clearParameters();
+			try{
+				prepare(sview.toResultSet(), capture);
+				Object key = RecordingStatement.getRow(capture).getValue(1);
+				Object[] match = key==null ? null : found.get(normalizeKey(key));
+				if(match==null){
+					logMissing();
+					continue;
+				}
+				dview.setRow(match);
+				checkPair(dview.toResultSet());
 			} catch (Exception e) {
-				// ログ出力
-				outLog(log_, Level.WARN, e.getMessage() + RET + getStackTrace(e));
+				if(!handleCheckError(e))return false;
+			} finally {
+				countLogAddComment = "";
 			}
 		}
+		return true;
+	}
 
-		// ログ出力
-		outLog(log_, Level.INFO, "************** チェック終了 ****************");
+	/**
+	 * チェック元のパラメータと比較対象の列の値を対応付けるため、キー値を文字列にそろえる
+	 * @param key キー値 (NotNull)
+	 * @return 比較用の文字列
+	 */
+	private static String normalizeKey(Object key){
+		if(key instanceof Number){
+			try{
+				return new BigDecimal(key.toString()).stripTrailingZeros().toPlainString();
+			} catch (NumberFormatException e) {
+				return key.toString();
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * 現在行のキー値を取得し、昇順になっているか確認する
+	 * @param cursor 取得元 (NotNull)
+	 * @param previous 前の行のキー値 (NullAllowed)
+	 * @return キー値
+	 * @throws SQLException キー値がnull、または昇順になっていない場合
+	 */
+	private Long currentKey(SourceCursor cursor, Long previous) throws SQLException{
+		Long key = cursor.getCurrentKey();
+		if(key==null)throw new SQLException("キー列の値がnullの行があります。");
+		if(previous!=null && key<previous)throw new SQLException("キー列の昇順になっていません。" + previous + " → " + key);
+		return key;
+	}
+
+	/**
+	 * prepareSelect()を呼び出し、処理時間を記録する
+	 * @param srs チェック元レコード (NotNull)
+	 * @param ps データ取得ステートメント (NotNull)
+	 * @throws SQLException DBエラー
+	 * @throws IllegalParameterToBeContinuedException 問題のあるデータだった場合
+	 */
+	private void prepare(ResultSet srs, PreparedStatement ps) throws SQLException, IllegalParameterToBeContinuedException{
+		long start = System.nanoTime();
+		prepareSelect(srs, ps);
+		__metrics.record("prepareSelect", start);
+	}
+
+	/**
+	 * 対になる行が見つかった場合のチェックを行い、OKならログ出力する
+	 * @param drs 比較対象側レコード (NotNull)
+	 * @throws SQLException DBエラー
+	 * @throws IllegalParameterToBeContinuedException チェックNGの場合
+	 */
+	private void checkPair(ResultSet drs) throws SQLException, IllegalParameterToBeContinuedException{
+		long start = System.nanoTime();
+		checkDatas(drs);
+		__metrics.record("checkDatas", start);
+		__okNum++;
+		if(isLogEnabled(log_, Level.DEBUG))outLog(log_, Level.DEBUG, __partitionLabel+"チェックOK "+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " srcid:"+getIdentifierSource()+" destid:"+getIdentifierDestination());
 	}
 
+	/**
+	 * 比較対象側に対になる行がなかった事をログ出力する
+	 */
+	private void logMissing(){
+		__missingNum++;
+		outLog(log_, Level.ERROR, __partitionLabel+"比較対象が存在しませんでした。 "+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " srcid:"+getIdentifierSource());
+	}
+
+	/**
+	 * 比較対象側にのみ行があった事をログ出力する
+	 * @param destid 比較対象側の行を特定する文字列 (NotNull)
+	 */
+	private void logExtra(String destid){
+		__extraNum++;
+		outLog(log_, Level.ERROR, __partitionLabel+"比較対象にのみ存在します。 destid:"+destid);
+	}
+
+	/**
+	 * チェック中のエラーをログ出力する
+	 * @param e 発生した例外 (NotNull)
+	 * @return チェックを継続する場合true。接続断の場合false
+	 */
+	private boolean handleCheckError(Exception e){
+		if(e instanceof IllegalParameterToBeContinuedException){
+			__errorNum++;
+			outLog(log_, Level.ERROR, __partitionLabel+e.getMessage());
+		}
+		else if(e instanceof SQLException){
+			SQLException se = (SQLException)e;
+			String sqlstate = se.getSQLState();
+			if(sqlstate!= null && sqlstate.equals(SQL_STATE_CONNECTION_ERROR)){
+				outLog(log_, Level.FATAL, __partitionLabel+"Exit because connection has broken. SQLState:"+sqlstate+" ERROR Code:"+se.getErrorCode()+" "+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+": srcid:"+getIdentifierSource()+" dstid:"+getIdentifierDestination()+" "+e.getMessage());
+				outLog(log_, Level.DEBUG, __partitionLabel+getStackTrace(e));
+				return false;
+			}
+			__errorNum++;
+			outLog(log_, Level.ERROR, __partitionLabel+""+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " SQLState:"+sqlstate+" ERROR Code:"+se.getErrorCode()+": srcid:"+getIdentifierSource()+" dstid:"+getIdentifierDestination()+" "+e.getMessage());
+			outLog(log_, Level.DEBUG, __partitionLabel+getStackTrace(e));
+		}
+		else{
+			__errorNum++;
+			outLog(log_, Level.ERROR, __partitionLabel+""+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " srcid:"+getIdentifierSource()+" dstid:"+getIdentifierDestination()+" "+e.getClass().getName()+" "+e.getMessage());
+			outLog(log_, Level.DEBUG, __partitionLabel+getStackTrace(e));
+		}
+		return true;
+	}
+
+	/**
+	 * 前回からの処理数とエラー数の増加分を進捗ログに加算し、出力間隔を超えていれば出力する
+	 */
+	private void reportProgress(){
+		int errorNum = __errorNum + __missingNum + __extraNum;
+		__progress.add(procNum - __reportedNum, 0, errorNum - __reportedErrorNum, 0);
+		__reportedNum = procNum;
+		__reportedErrorNum = errorNum;
+		__progress.maybeReport();
+	}
+
+	/**
+	 * チェック元の列名をデバッグログに出力する
+	 * @param srs チェック元レコード (NotNull)
+	 * @throws SQLException DBエラー
+	 */
+	private void logColumns(ResultSet srs) throws SQLException{
+		ResultSetMetaData srsmd= srs.getMetaData();
+		StringBuilder ssb = new StringBuilder();
+		for (int i = 1; i <= srsmd.getColumnCount(); i++) {
+			ssb.append(srsmd.getColumnName(i)+RET);
+		}
+		outLog(log_, Level.DEBUG, __partitionLabel+ssb.toString());
+	}
+
+	/**
+	 * チェック件数との比較結果と、チェック結果の件数をログ出力する
+	 */
+	private void logSummary(){
+		StringBuilder lastsb = new StringBuilder();
+		if(cnt!=null && procNum<maxcnt){
+			lastsb.append("チェック件数より処理件数が少ないです。");
+		}
+		else if(cnt!=null && procNum>maxcnt){
+			lastsb.append("チェック件数より処理件数が多いです。");
+		}
+		else if(cnt!=null && procNum==maxcnt){
+			lastsb.append("件数はマッチしていました。");
+		}
+		lastsb.append("チェックを終了します。");
+		outLog(log_, Level.INFO, __partitionLabel+lastsb.toString());
+		outLog(log_, Level.INFO, __partitionLabel+"チェック結果 処理数:" + procNum + " OK:" + __okNum + " NG:" + __errorNum + " 比較対象なし:" + __missingNum + " 比較対象のみ:" + __extraNum);
+	}
+
+	/**
+	 * 処理段階ごとの計測を開始し、MBeanとして登録する
+	 */
+	private void startMetrics(){
+		__metrics = new PhaseMetrics(getClass().getName());
+		try{
+			__metrics.register("DataChecker");
+		} catch (Exception e) {
+			outLog(log_, Level.WARN, "計測値のMBeanを登録できませんでした。" + e.getMessage());
+		}
+	}
+
+	/**
+	 * 処理段階ごとの計測値をログとcheck.metricsDirのJSONファイルに出力し、MBeanの登録を解除する
+	 */
+	private void finishMetrics(){
+		String dir = getCheckMetricsDir();
+		if(dir!=null && !dir.equals("")){
+			Path path = Paths.get(dir, getClass().getName() + "." + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".metrics.json");
+			try{
+				__metrics.writeJson(path);
+				outLog(log_, Level.INFO, "処理段階ごとの計測値を出力しました。" + path);
+			} catch (Exception e) {
+				outLog(log_, Level.WARN, "計測値のファイルを書き込めませんでした。" + path + " " + e.getMessage());
+			}
+		}
+		outLog(log_, Level.DEBUG, __metrics.getJson());
+		try{
+			__metrics.unregister();
+		} catch (Exception e) {
+			outLog(log_, Level.WARN, "計測値のMBeanの登録を解除できませんでした。" + e.getMessage());
+		}
+	}
+
+	/**
+	 * チェック元・比較対象のコネクションプールを作成する。
+	 * キー範囲分割時は並列実行スレッドごとに1つずつ、チェック元は加えて全体側の1つを保持する
+	 */
+	private void openPools(){
+		int workers = __keyColumn!=null ? Math.max(1, getCheckPartitionWorkers()) : 1;
+		// 全体側と各キー範囲で同時に使う最大数を、開始時にまとめて予約する。チェック元→比較対象の順に予約する事
+		if(__sourceBudget!=null)__sourceReserved = __sourceBudget.reserve(getClass().getSimpleName() + " ", workers + 1);
+		if(__destinationBudget!=null)__destinationReserved = __destinationBudget.reserve(getClass().getSimpleName() + " ", workers + 1);
+		__sourcePool = new ConnectionPool("チェック元", new ConnectionPool.Factory() {
+			@Override
+			public Connection create() throws SQLException{
+				return getCheckSourceConnection();
+			}
+		}, workers + 1, getCheckStatementCacheSize());
+		__destinationPool = new ConnectionPool("比較対象", new ConnectionPool.Factory() {
+			@Override
+			public Connection create() throws SQLException{
+				return getCheckDestinationConnection();
+			}
+		}, workers + 1, getCheckStatementCacheSize());
+	}
+
+	/**
+	 * コネクションプールの取得回数をログ出力し、全てのコネクションを閉じる
+	 */
+	private void closePools(){
+		outLog(log_, Level.INFO, __sourcePool.getStatsString());
+		outLog(log_, Level.INFO, __destinationPool.getStatsString());
+		__sourcePool.close();
+		__destinationPool.close();
+		if(__sourceBudget!=null)__sourceBudget.release(__sourceReserved);
+		if(__destinationBudget!=null)__destinationBudget.release(__destinationReserved);
+		__sourceReserved = 0;
+		__destinationReserved = 0;
+	}
+
+	/**
+	 * コネクションをクローズする。失敗時はログ出力のみ行う
+	 * @param con クローズするコネクション (NullAllowed)
+	 */
+	private void closeConnection(Connection con){
+		try{
+			if(con!=null)con.close();
+		} catch (SQLException e) {
+			// ログ出力
+			outLog(log_, Level.WARN, __partitionLabel+e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+		} catch (Exception e) {
+			// ログ出力
+			outLog(log_, Level.WARN, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
+		}
+	}
 }
@@ -0,0 +1,240 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Level;
+
+/**
+ * 移行中に削除しておく、移行先テーブルのインデックスと外部キーの定義。
+ * 削除する前に定義をファイルへ書き込み、作成し直して確認できた後にファイルを削除する。
+ * 処理が中断された場合はファイルが残るため、次回の実行時に読み込んで作成し直す。
+ * 定義の取得と削除・作成のSQLはTargetDialectに任せる。
+ * @author kikisoftware
+ */
+public class DeferredIndexes {
+	private static final String KEY_TABLE = "table";
+	private static final String KEY_COUNT = "count";
+	private static final String KEY_NAME = "index.%d.name";
+	private static final String KEY_FOREIGN_KEY = "index.%d.foreignKey";
+	private static final String KEY_DEFINITION = "index.%d.definition";
+
+	/**
+	 * インデックスまたは外部キー1つ分の定義
+	 * @author kikisoftware
+	 */
+	public static class Definition {
+		private final String name;
+		private final boolean foreignKey;
+		private final String definition;
+
+		/**
+		 * コンストラクタ
+		 * @param name インデックス名または制約名 (NotNull)
+		 * @param foreignKey 外部キーの場合true
+		 * @param definition 作成に使う定義。形式は方言ごとに決める (NotNull)
+		 */
+		public Definition(String name, boolean foreignKey, String definition){
+			this.name = name;
+			this.foreignKey = foreignKey;
+			this.definition = definition;
+		}
+
+		/**
+		 * @return インデックス名または制約名
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 * @return 外部キーの場合true
+		 */
+		public boolean isForeignKey(){
+			return foreignKey;
+		}
+
+		/**
+		 * @return 作成に使う定義
+		 */
+		public String getDefinition(){
+			return definition;
+		}
+
+		@Override
+		public String toString(){
+			return (foreignKey ? "外部キー " : "インデックス ") + name;
+		}
+	}
+
+	private final Path path;
+	private final String table;
+	private final List<Definition> definitions;
+
+	private DeferredIndexes(Path path, String table, List<Definition> definitions){
+		this.path = path;
+		this.table = table;
+		this.definitions = Collections.unmodifiableList(definitions);
+	}
+
+	/**
+	 * 移行先テーブルの現在の定義を取得し、ファイルへ書き込む
+	 * @param path 定義を保存するファイルのパス (NotNull)
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param dialect 移行先の方言 (NotNull)
+	 * @param table 移行先テーブル名 (NotNull)
+	 * @return 取得した定義
+	 * @throws SQLException DBエラー、または方言が定義の取得に対応していない場合
+	 * @throws IOException 書き込みエラー
+	 */
+	public static DeferredIndexes capture(Path path, Connection con, TargetDialect dialect, String table) throws SQLException, IOException{
+		DeferredIndexes deferred = new DeferredIndexes(path, table, dialect.getDeferrableIndexes(con, table));
+		deferred.save();
+		return deferred;
+	}
+
+	/**
+	 * 保存された定義を読み込む
+	 * @param path 定義を保存したファイルのパス (NotNull)
+	 * @return 読み込んだ定義。ファイルがない場合はnull
+	 * @throws IOException 読み込みエラー
+	 */
+	public static DeferredIndexes load(Path path) throws IOException{
+		if(!Files.exists(path))return null;
+		Properties props = new Properties();
+		try(InputStream in = Files.newInputStream(path)){
+			props.load(in);
+		}
+		List<Definition> definitions = new ArrayList<Definition>();
+		for(int i = 0; i < Integer.parseInt(props.getProperty(KEY_COUNT, "0")); i++){
+			definitions.add(new Definition(props.getProperty(String.format(KEY_NAME, i)),
+					Boolean.parseBoolean(props.getProperty(String.format(KEY_FOREIGN_KEY, i))), props.getProperty(String.format(KEY_DEFINITION, i))));
+		}
+		return new DeferredIndexes(path, props.getProperty(KEY_TABLE), definitions);
+	}
+
+	private void save() throws IOException{
+		Properties props = new Properties();
+		props.setProperty(KEY_TABLE, table);
+		props.setProperty(KEY_COUNT, Integer.toString(definitions.size()));
+		for(int i = 0; i < definitions.size(); i++){
+			Definition d = definitions.get(i);
+			props.setProperty(String.format(KEY_NAME, i), d.getName());
+			props.setProperty(String.format(KEY_FOREIGN_KEY, i), Boolean.toString(d.isForeignKey()));
+			props.setProperty(String.format(KEY_DEFINITION, i), d.getDefinition());
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		props.store(out, "database.migrator deferred indexes");
+		Utilities.writeFileAtomically(path, out.toByteArray());
+	}
+
+	/**
+	 * @return 定義を保存したファイルのパス
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+	/**
+	 * @return 移行先テーブル名
+	 */
+	public String getTable(){
+		return table;
+	}
+
+	/**
+	 * @return インデックスと外部キーの定義
+	 */
+	public List<Definition> getDefinitions(){
+		return definitions;
+	}
+
+	/**
+	 * 定義のうち、現在存在するものを削除する。外部キーが使うインデックスを削除できるよう、外部キーから削除する
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param dialect 移行先の方言 (NotNull)
+	 * @return 削除した数
+	 * @throws SQLException DBエラー
+	 */
+	public int drop(Connection con, TargetDialect dialect) throws SQLException{
+		Map<String, Definition> existing = current(con, dialect);
+		List<Definition> targets = new ArrayList<Definition>();
+		for(Definition d : definitions)if(d.isForeignKey() && existing.containsKey(key(d)))targets.add(d);
+		for(Definition d : definitions)if(!d.isForeignKey() && existing.containsKey(key(d)))targets.add(d);
+		execute(con, dialect.getDropIndexSql(table, targets));
+		return targets.size();
+	}
+
+	/**
+	 * 定義のうち、現在存在しないものを作成する。外部キーが使うインデックスを先に作成する
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param dialect 移行先の方言 (NotNull)
+	 * @return 作成した数
+	 * @throws SQLException DBエラー
+	 */
+	public int restore(Connection con, TargetDialect dialect) throws SQLException{
+		Map<String, Definition> existing = current(con, dialect);
+		List<Definition> targets = new ArrayList<Definition>();
+		for(Definition d : definitions)if(!d.isForeignKey() && !existing.containsKey(key(d)))targets.add(d);
+		for(Definition d : definitions)if(d.isForeignKey() && !existing.containsKey(key(d)))targets.add(d);
+		execute(con, dialect.getCreateIndexSql(table, targets));
+		return targets.size();
+	}
+
+	/**
+	 * 全ての定義が、保存した時と同じ内容で存在するか確認する
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param dialect 移行先の方言 (NotNull)
+	 * @return 存在しない、または内容の異なる定義。全て一致すれば空
+	 * @throws SQLException DBエラー
+	 */
+	public List<Definition> verify(Connection con, TargetDialect dialect) throws SQLException{
+		Map<String, Definition> existing = current(con, dialect);
+		List<Definition> missing = new ArrayList<Definition>();
+		for(Definition d : definitions){
+			Definition e = existing.get(key(d));
+			if(e==null || !e.getDefinition().equals(d.getDefinition()))missing.add(d);
+		}
+		return missing;
+	}
+
+	/**
+	 * 保存した定義のファイルを削除する
+	 * @throws IOException 削除に失敗した場合
+	 */
+	public void delete() throws IOException{
+		Files.deleteIfExists(path);
+	}
+
+	private Map<String, Definition> current(Connection con, TargetDialect dialect) throws SQLException{
+		Map<String, Definition> map = new HashMap<String, Definition>();
+		for(Definition d : dialect.getDeferrableIndexes(con, table))map.put(key(d), d);
+		return map;
+	}
+
+	private static String key(Definition d){
+		return (d.isForeignKey() ? "F:" : "I:") + d.getName();
+	}
+
+	private static void execute(Connection con, List<String> sqls) throws SQLException{
+		try(Statement stmt = con.createStatement()){
+			for(String sql : sqls){
+				long start = System.currentTimeMillis();
+				stmt.execute(sql);
+				Utilities.outLog(Utilities.log_, Level.INFO, sql + " " + (System.currentTimeMillis() - start) + "ms");
+			}
+		}
+	}
+}
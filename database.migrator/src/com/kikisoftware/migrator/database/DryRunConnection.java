@@ -0,0 +1,69 @@
+package com.kikisoftware.migrator.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * ドライラン用の移行先コネクション。DBには接続しない。
+ * prepareStatement()は、パラメータを受け取って実行しても何も書き込まないステートメントを返す。
+ * コミット・ロールバック・セーブポイントは何もしない。
+ * 移行先から値を読む必要がある操作（createStatement()、メタデータの取得など）は使用できない。
+ * @author kikisoftware
+ */
+public class DryRunConnection implements InvocationHandler {
+	private boolean autoCommit = true;
+	private boolean closed = false;
+
+	private DryRunConnection(){
+	}
+
+	/**
+	 * コネクションを生成する
+	 * @return 生成したコネクション
+	 */
+	public static Connection create(){
+		return (Connection)Proxy.newProxyInstance(DryRunConnection.class.getClassLoader(), new Class<?>[]{Connection.class}, new DryRunConnection());
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+		String name = method.getName();
+		if(name.equals("close")){
+			closed = true;
+			return null;
+		}
+		if(name.equals("isClosed"))return closed;
+		if(name.equals("isValid"))return !closed;
+		if(name.equals("toString"))return "DryRunConnection";
+		if(name.equals("hashCode"))return System.identityHashCode(proxy);
+		if(name.equals("equals"))return proxy==args[0];
+		if(closed)throw new SQLException("No operations allowed after connection closed.", Consts.SQL_STATE_CONNECTION_ERROR);
+		if(name.equals("prepareStatement"))return RecordingStatement.create((Connection)proxy, new DryRunWriter(null, null), null, 1);
+		if(name.equals("setAutoCommit")){
+			autoCommit = (Boolean)args[0];
+			return null;
+		}
+		if(name.equals("getAutoCommit"))return autoCommit;
+		if(name.equals("commit") || name.equals("rollback") || name.equals("releaseSavepoint") || name.equals("setSavepoint")
+				|| name.equals("setTransactionIsolation") || name.equals("setReadOnly") || name.equals("clearWarnings"))return null;
+		if(name.equals("getWarnings"))return null;
+		if(name.equals("isWrapperFor"))return ((Class<?>)args[0]).isInstance(proxy);
+		if(name.equals("unwrap")){
+			if(((Class<?>)args[0]).isInstance(proxy))return proxy;
+			throw new SQLException("Not a wrapper for " + args[0]);
+		}
+		if(method.getDeclaringClass()==Object.class){
+			try{
+				return method.invoke(this, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		throw new SQLFeatureNotSupportedException(name + "はドライランでは使用できません。");
+	}
+}
@@ -0,0 +1,127 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ドライラン用の書き込み先。行を受け取って数えるだけで、移行先へは書き込まない。
+ * 行のデータ量はBoundRow.estimateBytes()で見積もり、flush()の時点で共有のカウンタに加算する。
+ * また、startRow()を呼び出した行のうち一定間隔の行について、パラメータごとの設定時間を計測する。
+ * パラメータの設定時間は、直前のパラメータの設定（または行の開始）から、そのパラメータが設定されるまでの時間で、
+ * 元データの列の取得と変換の時間を含む。計測値はPhaseMetricsの「column:パラメータ番号」の処理段階に記録する。
+ * インスタンスはスレッドごとに生成する事。
+ * @author kikisoftware
+ */
+public class DryRunWriter implements RowWriter, RecordingStatement.ParameterListener {
+	/** パラメータの設定時間を計測する間隔（行数）。計測自体の負荷で処理速度が変わらないよう間引く **/
+	public static final int SAMPLE_INTERVAL = 16;
+	/** パラメータの設定時間を記録する処理段階名の接頭辞 **/
+	public static final String PHASE_PREFIX = "column:";
+
+	private final AtomicLong bytes;
+	private final PhaseMetrics metrics;
+	private String[] phases = new String[0];
+	private int pendingRows = 0;
+	private long pendingBytes = 0;
+	private long rows = 0;
+	private boolean timing = false;
+	private long mark = 0;
+
+	/**
+	 * コンストラクタ
+	 * @param bytes 書き込んだ行のデータ量の加算先 (NullAllowed)
+	 * @param metrics パラメータの設定時間の記録先。nullなら計測しない (NullAllowed)
+	 */
+	public DryRunWriter(AtomicLong bytes, PhaseMetrics metrics){
+		this.bytes = bytes;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * 行のパラメータ設定の開始時に呼び出す。計測対象の行であれば、ここから時間を計る
+	 */
+	public void startRow(){
+		timing = metrics!=null && rows++ % SAMPLE_INTERVAL == 0;
+		if(timing)mark = System.nanoTime();
+	}
+
+	@Override
+	public void onParameter(int index){
+		if(!timing)return;
+		metrics.record(getPhase(index), mark);
+		mark = System.nanoTime();
+	}
+
+	private String getPhase(int index){
+		if(index>=phases.length){
+			String[] grown = Arrays.copyOf(phases, Math.max(index + 1, phases.length * 2));
+			for(int i = phases.length; i < grown.length; i++)grown[i] = PHASE_PREFIX + i;
+			phases = grown;
+		}
+		return phases[index];
+	}
+
+	@Override
+	public void add(BoundRow row){
+		pendingRows++;
+		pendingBytes += row.estimateBytes();
+	}
+
+	@Override
+	public int[] flush(){
+		int[] result = new int[pendingRows];
+		Arrays.fill(result, Statement.SUCCESS_NO_INFO);
+		if(bytes!=null)bytes.addAndGet(pendingBytes);
+		clear();
+		return result;
+	}
+
+	@Override
+	public void clear(){
+		pendingRows = 0;
+		pendingBytes = 0;
+	}
+
+	@Override
+	public int getPendingRows(){
+		return pendingRows;
+	}
+
+	@Override
+	public void close(){
+		clear();
+	}
+
+	/**
+	 * パラメータごとの設定時間を、合計時間の大きい順に並べた文字列を返す
+	 * @param metrics 設定時間を記録した計測値 (NotNull)
+	 * @return パラメータ番号・1行あたりの平均時間・合計に対する割合を表す文字列。計測値がなければ空文字
+	 */
+	public static String getColumnCostString(final PhaseMetrics metrics){
+		List<String> columns = new ArrayList<String>();
+		double total = 0;
+		for(String phase : metrics.getPhases()){
+			if(!phase.startsWith(PHASE_PREFIX))continue;
+			columns.add(phase);
+			total += metrics.getTotalMillis(phase);
+		}
+		if(columns.isEmpty())return "";
+		Collections.sort(columns, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b){
+				return Double.compare(metrics.getTotalMillis(b), metrics.getTotalMillis(a));
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		for(String phase : columns){
+			double millis = metrics.getTotalMillis(phase);
+			sb.append(String.format(" #%s 平均%.2fus(%.1f%%)", phase.substring(PHASE_PREFIX.length()), millis * 1000 / metrics.getCount(phase), total>0 ? millis * 100 / total : 0));
+		}
+		return sb.toString().trim();
+	}
+}
@@ -0,0 +1,172 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * INSERT ... VALUES (...) 形式のSQLを分解して保持する。
+ * 複数行INSERTへの変換や、一括ロード用のテーブル名・列名の取得に使う。
+ * @author kikisoftware
+ */
+public class InsertStatement {
+	private static final Pattern HEAD_PATTERN = Pattern.compile(
+			"(?is)^\\s*(INSERT|REPLACE)\\s+((?:(?:LOW_PRIORITY|DELAYED|HIGH_PRIORITY|IGNORE)\\s+)*)(?:INTO\\s+)?([^\\s(]+)\\s*(?:\\(([^)]*)\\))?\\s*VALUES?\\s*$");
+	private static final Pattern PLAIN_TUPLE_PATTERN = Pattern.compile("^\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)$");
+	private static final Pattern VALUES_PATTERN = Pattern.compile("(?i)\\bVALUES?\\b");
+
+	private final String sql;
+	private final String head;
+	private final String tuple;
+	private final String tail;
+	private final String table;
+	private final List<String> columns;
+	private final int parameterCount;
+	private final boolean replace;
+	private final boolean ignore;
+
+	private InsertStatement(String sql, String head, String tuple, String tail, String table, List<String> columns, int parameterCount, boolean replace, boolean ignore){
+		this.sql = sql;
+		this.head = head;
+		this.tuple = tuple;
+		this.tail = tail;
+		this.table = table;
+		this.columns = columns;
+		this.parameterCount = parameterCount;
+		this.replace = replace;
+		this.ignore = ignore;
+	}
+
+	/**
+	 * SQLを分解する
+	 * @param sql INSERT ... VALUES (...) 形式のSQL (NotNull)
+	 * @return 分解結果
+	 * @throws SQLException 対応していない形式のSQLの場合
+	 */
+	public static InsertStatement parse(String sql) throws SQLException{
+		String s = sql.trim();
+		while(s.endsWith(";"))s = s.substring(0, s.length() - 1).trim();
+		Matcher values = VALUES_PATTERN.matcher(s);
+		if(!values.find())throw new SQLException("VALUES句が見つかりません。" + sql);
+		int open = s.indexOf('(', values.end());
+		if(open<0 || !s.substring(values.end(), open).trim().isEmpty())throw new SQLException("VALUES句の後に(...)が見つかりません。" + sql);
+		int close = findClose(s, open);
+		if(close<0)throw new SQLException("VALUES句の括弧が閉じていません。" + sql);
+		String head = s.substring(0, open);
+		Matcher m = HEAD_PATTERN.matcher(head);
+		if(!m.matches())throw new SQLException("対応していないINSERT文です。" + sql);
+		String tuple = s.substring(open, close + 1);
+		String tail = s.substring(close + 1);
+		if(countParameters(tail)>0)throw new SQLException("VALUES句より後にパラメータを含むINSERT文には対応していません。" + sql);
+		List<String> columns = new ArrayList<String>();
+		if(m.group(4)!=null){
+			for(String c : m.group(4).split(",")){
+				if(!c.trim().isEmpty())columns.add(c.trim());
+			}
+		}
+		boolean replace = m.group(1).equalsIgnoreCase("REPLACE");
+		boolean ignore = m.group(2).toUpperCase().contains("IGNORE");
+		return new InsertStatement(sql, head, tuple, tail, m.group(3), Collections.unmodifiableList(columns), countParameters(tuple), replace, ignore);
+	}
+
+	private static int findClose(String s, int open){
+		int depth = 0;
+		char quote = 0;
+		for(int i = open; i < s.length(); i++){
+			char c = s.charAt(i);
+			if(quote!=0){
+				if(c=='\\')i++;
+				else if(c==quote)quote = 0;
+			}
+			else if(c=='\'' || c=='"' || c=='`')quote = c;
+			else if(c=='(')depth++;
+			else if(c==')' && --depth==0)return i;
+		}
+		return -1;
+	}
+
+	private static int countParameters(String s){
+		int count = 0;
+		char quote = 0;
+		for(int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			if(quote!=0){
+				if(c=='\\')i++;
+				else if(c==quote)quote = 0;
+			}
+			else if(c=='\'' || c=='"' || c=='`')quote = c;
+			else if(c=='?')count++;
+		}
+		return count;
+	}
+
+	/**
+	 * 指定行数分のVALUES句を持つSQLを返す
+	 * @param rows 行数。1以上
+	 * @return 複数行INSERTのSQL
+	 */
+	public String toMultiRowSql(int rows){
+		StringBuilder sb = new StringBuilder(head.length() + (tuple.length() + 1) * rows + tail.length());
+		sb.append(head);
+		for(int i = 0; i < rows; i++){
+			if(i>0)sb.append(',');
+			sb.append(tuple);
+		}
+		sb.append(tail);
+		return sb.toString();
+	}
+
+	/**
+	 * @return 元のSQL
+	 */
+	public String getSql(){
+		return sql;
+	}
+
+	/**
+	 * @return 挿入先テーブル名
+	 */
+	public String getTable(){
+		return table;
+	}
+
+	/**
+	 * @return 列名のリスト。列の指定がないSQLの場合は空
+	 */
+	public List<String> getColumns(){
+		return columns;
+	}
+
+	/**
+	 * @return 1行あたりのパラメータ数
+	 */
+	public int getParameterCount(){
+		return parameterCount;
+	}
+
+	/**
+	 * VALUES句が (?, ?, ...) のみで、関数や定数、VALUES句より後の指定を含まないか判定する。
+	 * 一括ロードではパラメータの値をそのまま列の値として取り込むため、この形式である必要がある
+	 * @return パラメータのみの場合true
+	 */
+	public boolean isPlainValues(){
+		return PLAIN_TUPLE_PATTERN.matcher(tuple).matches() && tail.trim().isEmpty();
+	}
+
+	/**
+	 * @return REPLACE文の場合true
+	 */
+	public boolean isReplace(){
+		return replace;
+	}
+
+	/**
+	 * @return INSERT IGNORE文の場合true
+	 */
+	public boolean isIgnore(){
+		return ignore;
+	}
+}
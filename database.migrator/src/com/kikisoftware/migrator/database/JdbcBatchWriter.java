@@ -0,0 +1,76 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.log4j.Level;
+
+/**
+ * 溜めた行をJDBCのバッチ更新で書き込む。
+ * 追加した行はその場でステートメントにバインドしてaddBatch()し、flush()でexecuteBatch()する。
+ * 失敗した行の個別の扱いは行わず、例外をそのままthrowする。BisectingBatchWriterの書き込み先として使う。
+ * @author kikisoftware
+ */
+public class JdbcBatchWriter implements RowWriter {
+	private final Connection con;
+	private final String sql;
+	private PreparedStatement ps = null;
+	private int pending = 0;
+
+	/**
+	 * コンストラクタ
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param sql insert実行用SQL (NotNull)
+	 */
+	public JdbcBatchWriter(Connection con, String sql){
+		this.con = con;
+		this.sql = sql;
+	}
+
+	@Override
+	public void add(BoundRow row) throws SQLException{
+		if(ps==null)ps = con.prepareStatement(sql);
+		row.bind(ps, 0);
+		ps.addBatch();
+		pending++;
+	}
+
+	@Override
+	public int[] flush() throws SQLException{
+		if(pending==0)return new int[0];
+		try{
+			return ps.executeBatch();
+		} finally {
+			clear();
+		}
+	}
+
+	@Override
+	public void clear(){
+		pending = 0;
+		if(ps==null)return;
+		try{
+			ps.clearBatch();
+		} catch (SQLException e) {
+			Utilities.outLog(Utilities.log_, Level.WARN, e.getSQLState() + ":" + e.getMessage());
+		}
+	}
+
+	@Override
+	public int getPendingRows(){
+		return pending;
+	}
+
+	@Override
+	public void close() throws SQLException{
+		pending = 0;
+		if(ps!=null)ps.close();
+		ps = null;
+	}
+
+	@Override
+	public String toString(){
+		return "JdbcBatchWriter(" + sql + ")";
+	}
+}
@@ -0,0 +1,299 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * ジョブ定義ファイルに列挙したMigrator・DataCheckerの実装クラスを、依存関係の順に実行する。
+ * 依存するジョブが全て正常終了したジョブから、job.workersの数まで並行して実行する。
+ * 依存するジョブが正常終了しなかった場合、そのジョブと、それに依存するジョブは実行しない。
+ * job.maxSourceConnections・job.maxTargetConnectionsを指定した場合は、全ジョブで移行元（チェック元）・移行先（比較対象）の接続数を共有する。
+ * <p>
+ * ジョブ定義ファイルはプロパティ形式で、ジョブ名ごとに実装クラス名と、依存するジョブ名のカンマ区切りを指定する。
+ * 実装クラスは引数なしコンストラクタを持つ事。
+ * 「ジョブ名.config.コンフィグキー」で、そのジョブだけexec.・check.で始まるコンフィグの値を上書きできる。
+ * 各ジョブは実行開始時のコンフィグに上書きを適用したものを使い、実行中のreload()などの影響を受けない。
+ * <pre>
+ * orders.class=com.example.OrdersMigrator
+ * orders.config.exec.batchChunkSize=5000
+ * order_items.class=com.example.OrderItemsMigrator
+ * order_items.dependsOn=orders
+ * order_items_check.class=com.example.OrderItemsChecker
+ * order_items_check.dependsOn=order_items
+ * </pre>
+ * ジョブごとの終了コードは以下とし、全体の終了コードはジョブ名順で最初に正常終了しなかったジョブのものとする。
+ * <ul>
+ * <li>EXIT_CODE_OK 正常終了</li>
+ * <li>ERR_CODE_CONFIG_SETTING 実装クラスを生成できない</li>
+ * <li>ERR_CODE_PROGRAM_ERROR 実装クラスが例外をthrowした</li>
+ * <li>ERR_CODE_SERVER_ERROR 接続断などで中断した</li>
+ * <li>ERR_CODE_CHECK_DIFFERENCE データチェックで一致しない行があった</li>
+ * </ul>
+ * 実行しなかったジョブは、正常終了しなかった依存先のジョブの終了コードとする。
+ * @author kikisoftware
+ */
+public class JobOrchestrator extends Utilities {
+	/** 共有のUtilities.log_は実行中のジョブが使うため、ジョブ実行全体のログは専用のLoggerに出力する **/
+	private static final Logger jobLog_ = Logger.getLogger(JobOrchestrator.class);
+
+	/** コンフィグファイルjob.workersの値を取得する。デフォルトは4
+	@return 設定された同時に実行するジョブ数 **/
+	public static int getJobWorkers() {return getResourceInt("job.workers", "4", Level.INFO);}
+	/** コンフィグファイルjob.maxSourceConnectionsの値を取得する。デフォルトは0（制限しない）
+	@return 設定された全ジョブでの移行元・チェック元の最大接続数 **/
+	public static int getJobMaxSourceConnections() {return getResourceInt("job.maxSourceConnections", "0", Level.INFO);}
+	/** コンフィグファイルjob.maxTargetConnectionsの値を取得する。デフォルトは0（制限しない）
+	@return 設定された全ジョブでの移行先・比較対象の最大接続数 **/
+	public static int getJobMaxTargetConnections() {return getResourceInt("job.maxTargetConnections", "0", Level.INFO);}
+
+	/**
+	 * 1つのジョブ。実装クラスの生成と実行を行い、終了コードを決める
+	 */
+	private static class Job implements Callable<Job> {
+		final String name;
+		final String className;
+		final List<String> dependsOn = new ArrayList<String>();
+		final List<Job> dependents = new ArrayList<Job>();
+		/** このジョブだけ上書きするコンフィグの値 **/
+		final Map<String, String> overrides = new TreeMap<String, String>();
+		/** 実行に使うコンフィグ **/
+		Config config = null;
+		ConnectionBudget sourceBudget = null;
+		ConnectionBudget targetBudget = null;
+		/** 終了していない依存先のジョブ数 **/
+		int remaining = 0;
+		/** 終了コード。未実行の間はnull **/
+		Integer exitCode = null;
+		String status = "未実行";
+		long elapsedMillis = 0;
+
+		Job(String name, String className){
+			this.name = name;
+			this.className = className;
+		}
+
+		@Override
+		public Job call(){
+			long start = System.currentTimeMillis();
+			outLog(jobLog_, Level.INFO, "ジョブ開始 " + name + " " + className + (overrides.isEmpty() ? "" : " 上書き:" + overrides));
+			// 実装クラスはコンストラクタ・run()でスレッドに割り当てたコンフィグを参照する
+			Config previous = bindConfig(config);
+			try{
+				Object instance;
+				try{
+					instance = Class.forName(className).getDeclaredConstructor().newInstance();
+				} catch (Throwable e) {
+					outLog(jobLog_, Level.FATAL, "ジョブ" + name + "の実装クラスを生成できませんでした。" + className + " " + e + RET + getStackTrace(e));
+					exitCode = ERR_CODE_CONFIG_SETTING;
+					return this;
+				}
+				if(instance instanceof Migrator){
+					Migrator migrator = (Migrator)instance;
+					migrator.setConnectionBudget(sourceBudget, targetBudget);
+					migrator.run();
+					exitCode = migrator.isCompleted() ? EXIT_CODE_OK : ERR_CODE_SERVER_ERROR;
+				}
+				else if(instance instanceof DataChecker){
+					DataChecker checker = (DataChecker)instance;
+					checker.setConnectionBudget(sourceBudget, targetBudget);
+					checker.run();
+					exitCode = !checker.isCompleted() ? ERR_CODE_SERVER_ERROR : checker.getDifferenceCount()>0 ? ERR_CODE_CHECK_DIFFERENCE : EXIT_CODE_OK;
+				}
+				else if(instance instanceof Runnable){
+					((Runnable)instance).run();
+					exitCode = EXIT_CODE_OK;
+				}
+				else{
+					outLog(jobLog_, Level.FATAL, "ジョブ" + name + "の実装クラスがRunnableではありません。" + className);
+					exitCode = ERR_CODE_CONFIG_SETTING;
+				}
+			} catch (Throwable e) {
+				outLog(jobLog_, Level.FATAL, "ジョブ" + name + "で例外が発生しました。" + e + RET + getStackTrace(e));
+				exitCode = ERR_CODE_PROGRAM_ERROR;
+			} finally {
+				bindConfig(previous);
+				elapsedMillis = System.currentTimeMillis() - start;
+				status = exitCode==EXIT_CODE_OK ? "正常終了" : "異常終了";
+				outLog(jobLog_, exitCode==EXIT_CODE_OK ? Level.INFO : Level.ERROR, "ジョブ終了 " + name + " " + status + " 終了コード:" + exitCode + " 経過:" + elapsedMillis + "ms");
+			}
+			return this;
+		}
+	}
+
+	private final Map<String, Job> jobs = new TreeMap<String, Job>();
+
+	/**
+	 * ジョブ定義ファイルを読み込み、依存関係を確認する
+	 * @param manifestPath ジョブ定義ファイルのパス (NotNull)
+	 * @throws Exception ファイルが読めない場合。書式が正しくない場合、存在しないジョブへの依存や循環する依存がある場合はIllegalArgumentException
+	 */
+	public JobOrchestrator(String manifestPath) throws Exception{
+		Properties props = new Properties();
+		props.load(new StringReader(getFileContents(manifestPath, Migrator.getFileEncode())));
+		for(String key : props.stringPropertyNames()){
+			if(!key.endsWith(".class"))continue;
+			String name = key.substring(0, key.length() - ".class".length());
+			Job job = new Job(name, props.getProperty(key).trim());
+			for(String parent : props.getProperty(name + ".dependsOn", "").split(",")){
+				if(!parent.trim().equals(""))job.dependsOn.add(parent.trim());
+			}
+			jobs.put(name, job);
+		}
+		for(String key : props.stringPropertyNames()){
+			int config = key.indexOf(".config.");
+			if(config>0){
+				Job job = jobs.get(key.substring(0, config));
+				String name = key.substring(config + ".config.".length());
+				if(job==null)throw new IllegalArgumentException(manifestPath + "に" + key + "のジョブの実装クラスがありません。");
+				if(!name.startsWith("exec.") && !name.startsWith("check."))throw new IllegalArgumentException(manifestPath + "で上書きできるのはexec.・check.で始まるコンフィグのみです。" + key);
+				job.overrides.put(name, props.getProperty(key).trim());
+				continue;
+			}
+			if(!key.endsWith(".class") && !key.endsWith(".dependsOn"))throw new IllegalArgumentException(manifestPath + "のキーが正しくありません。" + key);
+			if(key.endsWith(".dependsOn") && !jobs.containsKey(key.substring(0, key.length() - ".dependsOn".length())))throw new IllegalArgumentException(manifestPath + "に" + key + "のジョブの実装クラスがありません。");
+		}
+		if(jobs.isEmpty())throw new IllegalArgumentException(manifestPath + "にジョブがありません。");
+		for(Job job : jobs.values()){
+			for(String parent : job.dependsOn){
+				Job p = jobs.get(parent);
+				if(p==null)throw new IllegalArgumentException("ジョブ" + job.name + "の依存先" + parent + "がありません。");
+				p.dependents.add(job);
+				job.remaining++;
+			}
+		}
+		checkCycle();
+	}
+
+	/**
+	 * 依存関係が循環していないか確認する。依存先のないジョブから順にたどり、たどれないジョブが残れば循環している
+	 */
+	private void checkCycle(){
+		Map<String, Integer> remaining = new TreeMap<String, Integer>();
+		Deque<Job> ready = new ArrayDeque<Job>();
+		for(Job job : jobs.values()){
+			remaining.put(job.name, job.remaining);
+			if(job.remaining==0)ready.add(job);
+		}
+		while(!ready.isEmpty()){
+			Job job = ready.poll();
+			remaining.remove(job.name);
+			for(Job child : job.dependents){
+				int left = remaining.get(child.name) - 1;
+				remaining.put(child.name, left);
+				if(left==0)ready.add(child);
+			}
+		}
+		if(!remaining.isEmpty())throw new IllegalArgumentException("ジョブの依存関係が循環しています。" + remaining.keySet());
+	}
+
+	/**
+	 * 全てのジョブを依存関係の順に実行する
+	 * @return 全体の終了コード
+	 * @throws Exception ジョブの完了待ちで割り込まれた場合
+	 */
+	public int run() throws Exception{
+		int workers = Math.max(1, getJobWorkers());
+		ConnectionBudget sourceBudget = getJobMaxSourceConnections()>0 ? new ConnectionBudget("移行元", getJobMaxSourceConnections()) : null;
+		ConnectionBudget targetBudget = getJobMaxTargetConnections()>0 ? new ConnectionBudget("移行先", getJobMaxTargetConnections()) : null;
+		outLog(jobLog_, Level.INFO, "ジョブ実行開始 ジョブ数:" + jobs.size() + " 同時実行数:" + workers
+				+ " 移行元接続数上限:" + (sourceBudget==null ? "なし" : String.valueOf(sourceBudget.getPermits()))
+				+ " 移行先接続数上限:" + (targetBudget==null ? "なし" : String.valueOf(targetBudget.getPermits())));
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		CompletionService<Job> completion = new ExecutorCompletionService<Job>(executor);
+		Config base = getConfig();
+		int running = 0;
+		try{
+			for(Job job : jobs.values()){
+				job.sourceBudget = sourceBudget;
+				job.targetBudget = targetBudget;
+				job.config = job.overrides.isEmpty() ? base : base.withOverrides(job.overrides);
+				if(job.remaining==0){
+					completion.submit(job);
+					running++;
+				}
+			}
+			while(running>0){
+				Job done = completion.take().get();
+				running--;
+				for(Job child : done.dependents){
+					child.remaining--;
+					if(child.exitCode!=null)continue;
+					if(done.exitCode!=EXIT_CODE_OK){
+						skip(child, done);
+					}
+					else if(child.remaining==0){
+						completion.submit(child);
+						running++;
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return summarize(System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * 依存先が正常終了しなかったジョブと、それに依存するジョブを実行しない事にする
+	 */
+	private void skip(Job job, Job cause){
+		if(job.exitCode!=null)return;
+		job.exitCode = cause.exitCode;
+		job.status = "未実行（" + cause.name + "が正常終了しなかったため）";
+		outLog(jobLog_, Level.WARN, "ジョブ" + job.name + "を実行しません。依存先" + cause.name + "が正常終了しませんでした。");
+		for(Job child : job.dependents)skip(child, cause);
+	}
+
+	/**
+	 * ジョブごとの結果をログ出力する
+	 * @return 全体の終了コード
+	 */
+	private int summarize(long elapsedMillis){
+		int exitCode = EXIT_CODE_OK;
+		int ok = 0;
+		for(Job job : jobs.values()){
+			outLog(jobLog_, Level.INFO, "  " + job.name + " " + job.status + " 終了コード:" + job.exitCode + " 経過:" + job.elapsedMillis + "ms");
+			if(job.exitCode==EXIT_CODE_OK)ok++;
+			else if(exitCode==EXIT_CODE_OK)exitCode = job.exitCode;
+		}
+		outLog(jobLog_, exitCode==EXIT_CODE_OK ? Level.INFO : Level.ERROR, "ジョブ実行終了 正常終了:" + ok + " / " + jobs.size() + " 終了コード:" + exitCode + " 経過:" + elapsedMillis + "ms");
+		return exitCode;
+	}
+
+	/**
+	 * ジョブ定義ファイルのジョブを実行し、全体の終了コードで終了する
+	 * @param args ジョブ定義ファイルのパス
+	 */
+	public static void main(String[] args){
+		int exitCode;
+		if(args.length<1){
+			outLog(jobLog_, Level.FATAL, "ジョブ定義ファイルのパスを指定してください。");
+			exitCode = ERR_CODE_CONFIG_SETTING;
+		}
+		else{
+			try{
+				exitCode = new JobOrchestrator(args[0]).run();
+			} catch (Exception e) {
+				outLog(jobLog_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+				exitCode = ERR_CODE_CONFIG_SETTING;
+			}
+		}
+		flushLog(LOG_FLUSH_TIMEOUT);
+		System.exit(exitCode);
+	}
+}
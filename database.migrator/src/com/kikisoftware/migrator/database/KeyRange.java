@@ -0,0 +1,141 @@
+package com.kikisoftware.migrator.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数値キー列の値範囲を表す。下限値を含み、上限値を含まない。
+ * 境界がnullの場合はその方向に無制限とする。
+ * @author kikisoftware
+ */
+public class KeyRange {
+	private final Long from;
+	private final Long to;
+
+	/**
+	 * コンストラクタ。
+	 * @param from 下限値。この値を含む (NullAllowed)
+	 * @param to 上限値。この値を含まない (NullAllowed)
+	 */
+	public KeyRange(Long from, Long to){
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * @return 下限値。nullなら無制限
+	 */
+	public Long getFrom(){
+		return from;
+	}
+
+	/**
+	 * @return 上限値。nullなら無制限
+	 */
+	public Long getTo(){
+		return to;
+	}
+
+	/**
+	 * この範囲を表すSQL条件式を返す。境界がない場合は常に真となる条件を返す
+	 * @param column キー列名 (NotNull)
+	 * @return SQL条件式
+	 */
+	public String toCondition(String column){
+		StringBuilder sb = new StringBuilder();
+		if(from!=null)sb.append(column).append(" >= ").append(from);
+		if(to!=null){
+			if(sb.length()>0)sb.append(" AND ");
+			sb.append(column).append(" < ").append(to);
+		}
+		if(sb.length()==0)return "1=1";
+		return sb.toString();
+	}
+
+	/**
+	 * 最小値から最大値までを、指定数の等幅な範囲に分割する。
+	 * 先頭の範囲は下限なし、末尾の範囲は上限なしとし、取りこぼしが出ないようにする
+	 * @param min キーの最小値
+	 * @param max キーの最大値
+	 * @param count 分割数。1以上
+	 * @return 分割した範囲のリスト
+	 */
+	public static List<KeyRange> split(long min, long max, int count){
+		List<KeyRange> ranges = new ArrayList<KeyRange>();
+		long span = max - min + 1;
+		if(count<1)count = 1;
+		if(span<count)count = (int)Math.max(1, span);
+		long width = span / count + (span % count == 0 ? 0 : 1);
+		Long lower = null;
+		for(int i = 1; i < count; i++){
+			long upper = min + width * i;
+			ranges.add(new KeyRange(lower, upper));
+			lower = upper;
+		}
+		ranges.add(new KeyRange(lower, null));
+		return ranges;
+	}
+
+	/**
+	 * 上下限のある範囲を、指定数の等幅な範囲に分割する
+	 * @param count 分割数。1以上。範囲の幅より大きい場合は幅に合わせる
+	 * @return 分割した範囲のリスト
+	 * @throws IllegalStateException 上限または下限がない場合
+	 */
+	public List<KeyRange> split(int count){
+		if(from==null || to==null)throw new IllegalStateException("上限・下限のない範囲は分割できません。" + this);
+		List<KeyRange> ranges = new ArrayList<KeyRange>();
+		long span = to - from;
+		if(count<1)count = 1;
+		if(span<count)count = (int)Math.max(1, span);
+		long width = span / count + (span % count == 0 ? 0 : 1);
+		for(long lower = from; lower < to; lower += width){
+			ranges.add(new KeyRange(lower, Math.min(to, lower + width)));
+		}
+		return ranges;
+	}
+
+	/**
+	 * 指定の範囲との重なりを返す
+	 * @param other 重ねる範囲 (NotNull)
+	 * @return 重なる範囲。重ならない場合はnull
+	 */
+	public KeyRange intersect(KeyRange other){
+		Long lower = from==null ? other.from : (other.from==null ? from : Long.valueOf(Math.max(from, other.from)));
+		Long upper = to==null ? other.to : (other.to==null ? to : Long.valueOf(Math.min(to, other.to)));
+		if(lower!=null && upper!=null && lower>=upper)return null;
+		return new KeyRange(lower, upper);
+	}
+
+	/**
+	 * @return 上下限がある場合は範囲に含まれるキー値の数。ない場合はLong.MAX_VALUE
+	 */
+	public long getWidth(){
+		if(from==null || to==null)return Long.MAX_VALUE;
+		return to - from;
+	}
+
+	/**
+	 * SQL内のキー範囲プレースホルダを指定の条件式に置換する
+	 * @param sql プレースホルダを含むSQL (NotNull)
+	 * @param condition 置換する条件式 (NotNull)
+	 * @return 置換後のSQL
+	 */
+	public static String applyCondition(String sql, String condition){
+		return sql.replace(Consts.SQL_KEY_RANGE_PLACEHOLDER, "(" + condition + ")");
+	}
+
+	/**
+	 * SQLがキー範囲プレースホルダを含むかを判定する
+	 * @param sql 判定するSQL (NotNull)
+	 * @return 含む場合true
+	 */
+	public static boolean hasPlaceholder(String sql){
+		return sql.contains(Consts.SQL_KEY_RANGE_PLACEHOLDER);
+	}
+
+	@Override
+	public String toString(){
+		return "[" + (from==null ? "" : from.toString()) + ", " + (to==null ? "" : to.toString()) + ")";
+	}
+}
@@ -0,0 +1,106 @@
+package com.kikisoftware.migrator.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 処理時間（ナノ秒）の分布を記録するヒストグラム。
+ * 2の累乗ごとの範囲をさらに16等分したバケットに件数を数えるため、パーセンタイル値の誤差は約6%以内となる。
+ * 記録はロックを取らないので、複数スレッドから同時に記録してよい。
+ * @author kikisoftware
+ */
+public class LatencyHistogram {
+	/** 2の累乗ごとの範囲を分割するビット数 **/
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/** 記録できる最大値のビット数。これを超える値は最後のバケットに数える（約4.9時間） **/
+	private static final int MAX_BITS = 44;
+	private static final int BUCKET_COUNT = (MAX_BITS - SUB_BITS + 2) * SUB_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * 処理時間を記録する
+	 * @param nanos 処理時間（ナノ秒）。負の値は0とする
+	 */
+	public void record(long nanos){
+		if(nanos<0)nanos = 0;
+		buckets.incrementAndGet(index(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while(nanos<(current = min.get()) && !min.compareAndSet(current, nanos)){}
+		while(nanos>(current = max.get()) && !max.compareAndSet(current, nanos)){}
+	}
+
+	/**
+	 * @return 記録した件数
+	 */
+	public long getCount(){
+		return count.get();
+	}
+
+	/**
+	 * @return 記録した処理時間の合計（ナノ秒）
+	 */
+	public long getTotalNanos(){
+		return total.get();
+	}
+
+	/**
+	 * @return 最小の処理時間（ナノ秒）。記録がない場合は0
+	 */
+	public long getMinNanos(){
+		return count.get()==0 ? 0 : min.get();
+	}
+
+	/**
+	 * @return 最大の処理時間（ナノ秒）
+	 */
+	public long getMaxNanos(){
+		return max.get();
+	}
+
+	/**
+	 * 指定のパーセンタイル値を返す。値はバケットの上限とする
+	 * @param percentile パーセンタイル（0～100）
+	 * @return 処理時間（ナノ秒）。記録がない場合は0
+	 */
+	public long getPercentileNanos(double percentile){
+		long n = count.get();
+		if(n==0)return 0;
+		long rank = (long)Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+		if(rank<1)rank = 1;
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++){
+			seen += buckets.get(i);
+			if(seen>=rank)return Math.min(upperBound(i), getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * 値を格納するバケットの番号を返す
+	 */
+	private static int index(long value){
+		if(value<SUB_COUNT)return (int)value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		if(exp>MAX_BITS)return BUCKET_COUNT - 1;
+		return (exp - SUB_BITS + 1) * SUB_COUNT + (int)((value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+	}
+
+	/**
+	 * バケットに含まれる最大の値を返す
+	 */
+	private static long upperBound(int index){
+		if(index<SUB_COUNT)return index;
+		if(index>=BUCKET_COUNT - 1)return Long.MAX_VALUE;
+		int exp = index / SUB_COUNT + SUB_BITS - 1;
+		long sub = index % SUB_COUNT;
+		return ((SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,238 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Iterator;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+/**
+ * 読み込み済みの行データを、読み取り専用のResultSetとして見せる。
+ * 行データはObject配列で保持し、値の取得時に要求された型へ変換する。
+ * 元のResultSetから切り離して別スレッドへ渡したり、後から再生したりする用途に使う。
+ * @author kikisoftware
+ */
+public class MaterializedResultSet implements InvocationHandler {
+	private final RowMetaData meta;
+	private final ResultSet proxy;
+	private Iterator<Object[]> rows = null;
+	private Object[] current = null;
+	private boolean wasNull = false;
+	private boolean closed = false;
+
+	/**
+	 * コンストラクタ
+	 * @param meta 行データの列定義 (NotNull)
+	 */
+	public MaterializedResultSet(RowMetaData meta){
+		this.meta = meta;
+		this.proxy = (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, this);
+	}
+
+	/**
+	 * ResultSetの現在行を、列順のObject配列として読み出す
+	 * @param rs 読み出し元。next()済みである事 (NotNull)
+	 * @param columnCount 列数
+	 * @return 行データ
+	 * @throws SQLException DBエラー
+	 */
+	public static Object[] read(ResultSet rs, int columnCount) throws SQLException{
+		Object[] row = new Object[columnCount];
+		for(int i = 0; i < columnCount; i++){
+			row[i] = rs.getObject(i + 1);
+		}
+		return row;
+	}
+
+	/**
+	 * @return 行データの列定義
+	 */
+	public RowMetaData getMetaData(){
+		return meta;
+	}
+
+	/**
+	 * このインスタンスを参照するResultSetを返す。
+	 * 返されたResultSetは常に同じインスタンスで、現在行の切替はsetRow()またはnext()で行われる
+	 * @return ResultSet
+	 */
+	public ResultSet toResultSet(){
+		return proxy;
+	}
+
+	/**
+	 * 現在行を直接指定する
+	 * @param row 行データ (NullAllowed)
+	 */
+	public void setRow(Object[] row){
+		current = row;
+		wasNull = false;
+	}
+
+	/**
+	 * next()で順に返す行データを指定する
+	 * @param rows 行データの列挙 (NotNull)
+	 */
+	public void setRows(Iterator<Object[]> rows){
+		this.rows = rows;
+		current = null;
+	}
+
+	/**
+	 * @return 現在行の行データ
+	 */
+	public Object[] getRow(){
+		return current;
+	}
+
+	@Override
+	public Object invoke(Object p, Method method, Object[] args) throws Throwable{
+		String name = method.getName();
+		Class<?> type = method.getReturnType();
+		if(name.equals("next")){
+			if(rows!=null && rows.hasNext()){
+				setRow(rows.next());
+				return true;
+			}
+			current = null;
+			return false;
+		}
+		if(name.equals("close")){
+			closed = true;
+			return null;
+		}
+		if(name.equals("isClosed"))return closed;
+		if(name.equals("wasNull"))return wasNull;
+		if(name.equals("getMetaData"))return meta;
+		if(name.equals("findColumn"))return meta.findColumn((String)args[0]);
+		if(name.equals("getType"))return ResultSet.TYPE_FORWARD_ONLY;
+		if(name.equals("getConcurrency"))return ResultSet.CONCUR_READ_ONLY;
+		if(name.equals("getFetchDirection"))return ResultSet.FETCH_FORWARD;
+		if(name.equals("getFetchSize"))return 0;
+		if(name.equals("setFetchSize") || name.equals("setFetchDirection") || name.equals("clearWarnings"))return null;
+		if(name.equals("getWarnings") || name.equals("getStatement"))return null;
+		if(name.equals("unwrap")){
+			Class<?> iface = (Class<?>)args[0];
+			if(iface.isInstance(p))return p;
+			if(iface.isInstance(this))return this;
+			throw new SQLException("Not a wrapper for " + iface.getName());
+		}
+		if(name.equals("isWrapperFor"))return ((Class<?>)args[0]).isInstance(p) || ((Class<?>)args[0]).isInstance(this);
+		if(name.equals("hashCode"))return System.identityHashCode(p);
+		if(name.equals("equals"))return p==args[0];
+		if(name.equals("toString"))return "MaterializedResultSet@" + Integer.toHexString(System.identityHashCode(p));
+		if(name.startsWith("get") && args!=null && args.length>=1 && (args[0] instanceof Integer || args[0] instanceof String)){
+			if(current==null)throw new SQLException("Before start of result set", "S1000");
+			int column = args[0] instanceof Integer ? (Integer)args[0] : meta.findColumn((String)args[0]);
+			if(column<1 || column>current.length)throw new SQLException("Column Index out of range, " + column + " > " + current.length + ".", "S1002");
+			Object value = current[column - 1];
+			wasNull = value==null;
+			if(name.equals("getObject") && args.length==2 && args[1] instanceof Class)return convert(value, (Class<?>)args[1]);
+			if(name.equals("getBigDecimal") && args.length==2 && value!=null){
+				return ((BigDecimal)convert(value, BigDecimal.class)).setScale((Integer)args[1], RoundingMode.HALF_UP);
+			}
+			if(name.equals("getAsciiStream") || name.equals("getBinaryStream") || name.equals("getUnicodeStream")){
+				return value==null ? null : new ByteArrayInputStream((byte[])convert(value, byte[].class));
+			}
+			if(name.equals("getCharacterStream") || name.equals("getNCharacterStream")){
+				return value==null ? null : new StringReader((String)convert(value, String.class));
+			}
+			return convert(value, type);
+		}
+		throw new SQLFeatureNotSupportedException(name + " is not supported.");
+	}
+
+	/**
+	 * 値を指定の型へ変換する。JDBCドライバのgetXxx()の一般的な変換規則に合わせる
+	 * @param value 変換元の値 (NullAllowed)
+	 * @param type 変換後の型 (NotNull)
+	 * @return 変換後の値。valueがnullの場合、プリミティブ型なら0相当、それ以外はnull
+	 * @throws SQLException 変換できない場合
+	 */
+	public static Object convert(Object value, Class<?> type) throws SQLException{
+		if(value==null){
+			if(type==boolean.class)return false;
+			if(type==byte.class)return (byte)0;
+			if(type==short.class)return (short)0;
+			if(type==int.class)return 0;
+			if(type==long.class)return 0L;
+			if(type==float.class)return 0f;
+			if(type==double.class)return 0d;
+			return null;
+		}
+		if(type==Object.class || type.isInstance(value))return value;
+		try{
+			if(type==String.class)return toStringValue(value);
+			if(type==boolean.class || type==Boolean.class){
+				if(value instanceof Number)return ((Number)value).intValue()!=0;
+				String s = toStringValue(value).trim();
+				return s.equals("1") || s.equalsIgnoreCase("true") || s.equalsIgnoreCase("y");
+			}
+			if(type==byte.class || type==Byte.class)return toNumber(value).byteValue();
+			if(type==short.class || type==Short.class)return toNumber(value).shortValue();
+			if(type==int.class || type==Integer.class)return toNumber(value).intValue();
+			if(type==long.class || type==Long.class)return toNumber(value).longValue();
+			if(type==float.class || type==Float.class)return toNumber(value).floatValue();
+			if(type==double.class || type==Double.class)return toNumber(value).doubleValue();
+			if(type==BigDecimal.class)return value instanceof BigDecimal ? value : new BigDecimal(toStringValue(value).trim());
+			if(type==byte[].class){
+				if(value instanceof Blob)return ((Blob)value).getBytes(1, (int)((Blob)value).length());
+				return toStringValue(value).getBytes(StandardCharsets.UTF_8);
+			}
+			if(type==Timestamp.class){
+				if(value instanceof java.util.Date)return new Timestamp(((java.util.Date)value).getTime());
+				return Timestamp.valueOf(toStringValue(value).trim());
+			}
+			if(type==Date.class){
+				if(value instanceof java.util.Date)return new Date(((java.util.Date)value).getTime());
+				String s = toStringValue(value).trim();
+				return Date.valueOf(s.length()>10 ? s.substring(0, 10) : s);
+			}
+			if(type==Time.class){
+				if(value instanceof java.util.Date)return new Time(((java.util.Date)value).getTime());
+				String s = toStringValue(value).trim();
+				return Time.valueOf(s.length()>8 ? s.substring(s.length() - 8) : s);
+			}
+			if(type==Blob.class)return new SerialBlob((byte[])convert(value, byte[].class));
+			if(type==Clob.class)return new SerialClob(((String)convert(value, String.class)).toCharArray());
+		} catch (IllegalArgumentException e) {
+			throw new SQLException("Cannot convert value '" + value + "' to " + type.getName() + ".", "S1009", e);
+		}
+		throw new SQLException("Cannot convert " + value.getClass().getName() + " to " + type.getName() + ".", "S1009");
+	}
+
+	private static Number toNumber(Object value){
+		if(value instanceof Number)return (Number)value;
+		if(value instanceof Boolean)return ((Boolean)value) ? 1 : 0;
+		String s = toStringValue(value).trim();
+		if(s.indexOf('.')<0 && s.indexOf('e')<0 && s.indexOf('E')<0)return Long.valueOf(s);
+		return new BigDecimal(s);
+	}
+
+	private static String toStringValue(Object value){
+		if(value instanceof byte[])return new String((byte[])value, StandardCharsets.UTF_8);
+		if(value instanceof Timestamp){
+			// MySQLのgetString()に合わせ、端数がなければ秒までとする
+			Timestamp ts = (Timestamp)value;
+			String s = ts.toString();
+			return ts.getNanos()==0 ? s.substring(0, s.length() - 2) : s;
+		}
+		if(value instanceof BigDecimal)return ((BigDecimal)value).toPlainString();
+		return value.toString();
+	}
+}
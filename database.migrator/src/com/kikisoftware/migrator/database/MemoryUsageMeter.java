@@ -0,0 +1,45 @@
+package com.kikisoftware.migrator.database;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * ヒープ使用量の最大値を計測する。
+ * JVMが領域ごとに記録している最大使用量を利用するため、計測用のスレッドは持たない。
+ * @author kikisoftware
+ */
+public abstract class MemoryUsageMeter {
+	/** 1MBのバイト数 **/
+	private static final long MEGA_BYTES = 1024L * 1024L;
+
+	/**
+	 * ヒープ各領域の最大使用量の記録をリセットし、計測を開始する
+	 */
+	public static void reset(){
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType()==MemoryType.HEAP && pool.isValid())pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * リセット以降のヒープ各領域の最大使用量を合計して返す。
+	 * 領域ごとの最大値は同時刻のものとは限らないため、実際の最大値以上の値となる
+	 * @return 最大ヒープ使用量（バイト）
+	 */
+	public static long getPeakHeapUsed(){
+		long total = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+			if(pool.getType()==MemoryType.HEAP && pool.isValid())total += pool.getPeakUsage().getUsed();
+		}
+		return total;
+	}
+
+	/**
+	 * ログ出力用に、最大ヒープ使用量とヒープ上限をMB単位の文字列で返す
+	 * @return 最大ヒープ使用量の文字列
+	 */
+	public static String getPeakHeapUsedString(){
+		return "最大ヒープ使用量：" + (getPeakHeapUsed() / MEGA_BYTES) + "MB / 上限：" + (Runtime.getRuntime().maxMemory() / MEGA_BYTES) + "MB";
+	}
+}
@@ -1,5 +1,9 @@
 package com.kikisoftware.migrator.database;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -7,6 +11,18 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Level;
 
@@ -18,19 +34,130 @@ import org.apache.log4j.Level;
 public abstract class Migrator extends Utilities implements Runnable {
 	/** コンフィグファイルfile.bufferの値を取得する。コンフィグの指定は必須
 	@return 設定されたバッファバイト数 **/
-	public static int getFileBuffer() {return Integer.parseInt(getResourceString("file.buffer", "", Level.FATAL));}
+	public static int getFileBuffer() {return getResourceInt("file.buffer", "", Level.FATAL);}
 	/** コンフィグファイルfile.encodeの値を取得する。コンフィグの指定は必須
 	@return 設定された文字コード **/
 	public static String getFileEncode() {return getResourceString("file.encode", "", Level.FATAL);}
 	/** コンフィグファイルcheck.selectSourceChunkSizeの値を取得する。コンフィグの指定は必須
 	@return 設定された移行元の読み込みチャンク数 **/
-	public static int getExecSelectChunkSize() {return Integer.parseInt(getResourceString("exec.selectChunkSize", "", Level.FATAL));}
+	public static int getExecSelectChunkSize() {return getResourceInt("exec.selectChunkSize", "", Level.FATAL);}
 	/** コンフィグファイルexec.batchChunkSizeの値を取得する。コンフィグの指定は必須
 	@return 設定されたバッチ更新サイズ **/
-	public static int getExecBatchChunkSize() {return Integer.parseInt(getResourceString("exec.batchChunkSize", "", Level.FATAL));}
+	public static int getExecBatchChunkSize() {return getResourceInt("exec.batchChunkSize", "", Level.FATAL);}
 	/** コンフィグファイルexec.selectTimeoutの値を取得する。デフォルトは30秒
 	@return 設定されたバッチ更新サイズ **/
-	public static int getExecSelectTimeout() {return Integer.parseInt(getResourceString("exec.selectTimeout", "30", Level.INFO));}
+	public static int getExecSelectTimeout() {return getResourceInt("exec.selectTimeout", "30", Level.INFO);}
+	/** コンフィグファイルexec.readModeの値を取得する。デフォルトはBuffered
+	@return 設定された元データの読み込みモード **/
+	public static READ_MODE getExecReadMode() {return getResourceEnum(READ_MODE.class, "exec.readMode", READ_MODE.Buffered.toString(), Level.INFO);}
+	/** コンフィグファイルexec.keysetChunkSizeの値を取得する。デフォルトは0（分割しない）
+	@return 設定されたキーセット分割時の1回の取得件数 **/
+	public static int getExecKeysetChunkSize() {return getResourceInt("exec.keysetChunkSize", "0", Level.INFO);}
+	/** コンフィグファイルexec.partitionWorkersの値を取得する。デフォルトは1（並列実行しない）
+	@return 設定された並列実行スレッド数 **/
+	public static int getExecPartitionWorkers() {return getResourceInt("exec.partitionWorkers", "1", Level.INFO);}
+	/** コンフィグファイルexec.partitionCountの値を取得する。デフォルトは0（並列実行スレッド数と同じ）
+	@return 設定されたキー範囲の分割数 **/
+	public static int getExecPartitionCount() {return getResourceInt("exec.partitionCount", "0", Level.INFO);}
+	/** コンフィグファイルexec.pipelineの値を取得する。デフォルトはfalse
+	@return 読み込みと書き込みを並行して行う場合true **/
+	public static boolean getExecPipeline() {return getResourceBoolean("exec.pipeline", "false", Level.INFO);}
+	/** コンフィグファイルexec.pipelineQueueSizeの値を取得する。デフォルトは1000
+	@return 設定された読み込み済み行を溜めておく最大行数 **/
+	public static int getExecPipelineQueueSize() {return getResourceInt("exec.pipelineQueueSize", "1000", Level.INFO);}
+	/** コンフィグファイルexec.pipelinePutTimeoutの値を取得する。デフォルトは0（無制限）
+	@return 設定されたキューが空くまで読み込み側が待つ秒数 **/
+	public static int getExecPipelinePutTimeout() {return getResourceInt("exec.pipelinePutTimeout", "0", Level.INFO);}
+	/** コンフィグファイルexec.checkpointDirの値を取得する。デフォルトは空（チェックポイントを記録しない）
+	@return 設定されたチェックポイントファイルの出力ディレクトリ **/
+	public static String getExecCheckpointDir() {return getResourceString("exec.checkpointDir", "", Level.INFO);}
+	/** コンフィグファイルexec.checkpointIntervalの値を取得する。デフォルトは0（コミットごとに記録）
+	@return 設定されたチェックポイントを記録する最小間隔（ミリ秒） **/
+	public static int getExecCheckpointInterval() {return getResourceInt("exec.checkpointInterval", "0", Level.INFO);}
+	/** コンフィグファイルexec.resumeの値を取得する。デフォルトはfalse
+	@return チェックポイントから再開する場合true **/
+	public static boolean getExecResume() {return getResourceBoolean("exec.resume", "false", Level.INFO);}
+	/** コンフィグファイルexec.writeModeの値を取得する。デフォルトはBatch
+	@return 設定された移行先への書き込みモード **/
+	public static WRITE_MODE getExecWriteMode() {return getResourceEnum(WRITE_MODE.class, "exec.writeMode", WRITE_MODE.Batch.toString(), Level.INFO);}
+	/** コンフィグファイルexec.multiRowMaxRowsの値を取得する。デフォルトは500
+	@return 設定された複数行INSERTの1文あたりの最大行数 **/
+	public static int getExecMultiRowMaxRows() {return getResourceInt("exec.multiRowMaxRows", "500", Level.INFO);}
+	/** コンフィグファイルexec.multiRowMaxBytesの値を取得する。デフォルトは1000000
+	@return 設定された複数行INSERTの1文あたりの最大バイト数 **/
+	public static long getExecMultiRowMaxBytes() {return getResourceLong("exec.multiRowMaxBytes", "1000000", Level.INFO);}
+	/** コンフィグファイルexec.targetDialectの値を取得する。デフォルトはMySQL
+	@return 設定された移行先の方言 **/
+	public static String getExecTargetDialect() {return getResourceString("exec.targetDialect", "MySQL", Level.INFO);}
+	/** コンフィグファイルexec.bulkMaxBytesの値を取得する。デフォルトは16MB
+	@return 設定された一括ロード1回あたりの最大バイト数 **/
+	public static long getExecBulkMaxBytes() {return getResourceLong("exec.bulkMaxBytes", "16777216", Level.INFO);}
+	/** コンフィグファイルexec.adaptiveBatchの値を取得する。デフォルトはfalse
+	@return バッチサイズを実行時間に応じて増減する場合true **/
+	public static boolean getExecAdaptiveBatch() {return getResourceBoolean("exec.adaptiveBatch", "false", Level.INFO);}
+	/** コンフィグファイルexec.adaptiveBatchMinの値を取得する。デフォルトは10
+	@return 設定されたバッチサイズの最小値 **/
+	public static int getExecAdaptiveBatchMin() {return getResourceInt("exec.adaptiveBatchMin", "10", Level.INFO);}
+	/** コンフィグファイルexec.adaptiveBatchMaxの値を取得する。デフォルトは5000
+	@return 設定されたバッチサイズの最大値 **/
+	public static int getExecAdaptiveBatchMax() {return getResourceInt("exec.adaptiveBatchMax", "5000", Level.INFO);}
+	/** コンフィグファイルexec.adaptiveBatchTargetMillisの値を取得する。デフォルトは500
+	@return 設定された1回のバッチ更新の目標実行時間（ミリ秒） **/
+	public static int getExecAdaptiveBatchTargetMillis() {return getResourceInt("exec.adaptiveBatchTargetMillis", "500", Level.INFO);}
+	/** コンフィグファイルexec.progressIntervalSecondsの値を取得する。デフォルトは10
+	@return 設定された進捗ログの出力間隔（秒） **/
+	public static int getExecProgressIntervalSeconds() {return getResourceInt("exec.progressIntervalSeconds", "10", Level.INFO);}
+	/** コンフィグファイルexec.progressIntervalRowsの値を取得する。デフォルトは0（件数では出力しない）
+	@return 設定された進捗ログの出力間隔（件数） **/
+	public static int getExecProgressIntervalRows() {return getResourceInt("exec.progressIntervalRows", "0", Level.INFO);}
+	/** コンフィグファイルexec.metricsDirの値を取得する。デフォルトは空（出力しない）
+	@return 設定された処理段階ごとの計測値の出力ディレクトリ **/
+	public static String getExecMetricsDir() {return getResourceString("exec.metricsDir", "", Level.INFO);}
+	/** コンフィグファイルexec.statementCacheSizeの値を取得する。デフォルトは20
+	@return 設定されたコネクションごとにキャッシュするステートメント数 **/
+	public static int getExecStatementCacheSize() {return getResourceInt("exec.statementCacheSize", "20", Level.INFO);}
+	/** コンフィグファイルexec.retryMaxの値を取得する。デフォルトは3
+	@return 設定されたデッドロックなどで失敗した処理の最大再試行回数 **/
+	public static int getExecRetryMax() {return getResourceInt("exec.retryMax", "3", Level.INFO);}
+	/** コンフィグファイルexec.retryBaseMillisの値を取得する。デフォルトは100
+	@return 設定された1回目の再試行までの待機時間（ミリ秒） **/
+	public static int getExecRetryBaseMillis() {return getResourceInt("exec.retryBaseMillis", "100", Level.INFO);}
+	/** コンフィグファイルexec.retryMaxMillisの値を取得する。デフォルトは5000
+	@return 設定された再試行までの待機時間の上限（ミリ秒） **/
+	public static int getExecRetryMaxMillis() {return getResourceInt("exec.retryMaxMillis", "5000", Level.INFO);}
+	/** コンフィグファイルexec.retrySqlStatesの値を取得する。デフォルトは41000,40001
+	@return 設定された再試行するSQLステータスのカンマ区切り **/
+	public static String getExecRetrySqlStates() {return getResourceString("exec.retrySqlStates", SQL_STATE_DEAD_LOCK + "," + SQL_STATE_SERIALIZATION_FAILURE, Level.INFO);}
+	/** コンフィグファイルexec.retryErrorCodesの値を取得する。デフォルトは1205,1213
+	@return 設定された再試行するエラーコードのカンマ区切り **/
+	public static String getExecRetryErrorCodes() {return getResourceString("exec.retryErrorCodes", "1205,1213", Level.INFO);}
+	/** コンフィグファイルexec.dryRunの値を取得する。デフォルトはfalse
+	@return 設定されたドライランするかどうか **/
+	public static boolean getExecDryRun() {return getResourceBoolean("exec.dryRun", "false", Level.INFO);}
+	/** コンフィグファイルexec.deferIndexesの値を取得する。デフォルトはfalse
+	@return 設定された移行中にインデックス・外部キーを削除しておくかどうか **/
+	public static boolean getExecDeferIndexes() {return getResourceBoolean("exec.deferIndexes", "false", Level.INFO);}
+	/** コンフィグファイルexec.deferIndexDirの値を取得する。デフォルトはlogs
+	@return 設定された削除したインデックス・外部キーの定義を保存するディレクトリ **/
+	public static String getExecDeferIndexDir() {return getResourceString("exec.deferIndexDir", "logs", Level.INFO);}
+	/** コンフィグファイルexec.disableTargetChecksの値を取得する。デフォルトはfalse
+	@return 設定された移行先のセッションで外部キー・一意性のチェックを無効にするかどうか **/
+	public static boolean getExecDisableTargetChecks() {return getResourceBoolean("exec.disableTargetChecks", "false", Level.INFO);}
+	/** コンフィグファイルexec.spoolModeの値を取得する。デフォルトはNone
+	@return 設定されたスプールファイルによる抽出とロードの分離方法 **/
+	public static SPOOL_MODE getExecSpoolMode() {return getResourceEnum(SPOOL_MODE.class, "exec.spoolMode", SPOOL_MODE.None.toString(), Level.INFO);}
+	/** コンフィグファイルexec.spoolDirの値を取得する。デフォルトはspool
+	@return 設定されたスプールファイルを置くディレクトリ **/
+	public static String getExecSpoolDir() {return getResourceString("exec.spoolDir", "spool", Level.INFO);}
+	/** コンフィグファイルexec.spoolSegmentRowsの値を取得する。デフォルトは100000
+	@return 設定されたスプールファイルの1セグメントあたりの行数 **/
+	public static int getExecSpoolSegmentRows() {return getResourceInt("exec.spoolSegmentRows", "100000", Level.INFO);}
+	/** コンフィグファイルexec.spoolCompressionLevelの値を取得する。デフォルトは1
+	@return 設定されたスプールファイルの圧縮レベル **/
+	public static int getExecSpoolCompressionLevel() {return getResourceInt("exec.spoolCompressionLevel", "1", Level.INFO);}
+	/** コンフィグファイルexec.spoolLoadWorkersの値を取得する。デフォルトは1
+	@return 設定されたスプールファイルをセグメントごとに並列でロードするスレッド数 **/
+	public static int getExecSpoolLoadWorkers() {return getResourceInt("exec.spoolLoadWorkers", "1", Level.INFO);}
 
 	/** バッチinsertを実行する単位 **/
 	protected int batchSize = getExecBatchChunkSize();
@@ -44,7 +171,42 @@ public abstract class Migrator extends Utilities implements Runnable {
 	protected String countLogAddComment = "";
 	
 	private boolean __skipInsert = false;
+	/** 生成時のスレッドのコンフィグ。run()の間、実行スレッドに割り当てる **/
+	private Config __config = getConfig();
 	private TRANSACTION_MODE __transactionMode = TRANSACTION_MODE.None;
+	private String __keyColumn = null;
+	private KeyRange __partition = null;
+	private int __partitionIndex = -1;
+	private Checkpoint __checkpoint = null;
+	private long __checkpointSaved = 0;
+	private int __keyIndex = 0;
+	private Long __currentKey = null;
+	private boolean __aborted = false;
+	private boolean __completed = false;
+	private String __partitionLabel = "";
+	private AtomicLong __totalProcNum = null;
+	private int __pendingRows = 0;
+	private AdaptiveBatchSizer __batchSizer = null;
+	private ProgressReporter __progress = null;
+	private PhaseMetrics __metrics = null;
+	private ConnectionPool __sourcePool = null;
+	private ConnectionPool __targetPool = null;
+	private RetryPolicy __retryPolicy = null;
+	private ConnectionBudget __sourceBudget = null;
+	private ConnectionBudget __targetBudget = null;
+	private int __sourceReserved = 0;
+	private int __targetReserved = 0;
+	private ColumnMapping __columnMapping = null;
+	private ColumnMapping.Compiled __compiledMapping = null;
+	/** ドライランで書き込んだ行の推定データ量。ドライランでなければnull **/
+	private AtomicLong __dryRunBytes = null;
+	private DryRunWriter __dryRunWriter = null;
+	private SPOOL_MODE __spoolMode = SPOOL_MODE.None;
+	private SpoolDirectory __spool = null;
+	/** セグメントごとに並列でロードする場合に、このインスタンスが担当するセグメント **/
+	private Path __spoolSegment = null;
+	/** 処理中の移行先のコネクション。doOtherProcess()に渡す **/
+	private Connection __targetConnection = null;
 	
 	/**
 	 * コンストラクタ。
@@ -54,6 +216,9 @@ public abstract class Migrator extends Utilities implements Runnable {
 	public Migrator() throws Exception{
 		try {
 			Class.forName ("com.mysql.jdbc.Driver");
+			// 移行先がMySQL以外の場合はそのドライバも読み込む
+			String driver = TargetDialect.forName(getExecTargetDialect()).getDriverClassName();
+			if(!driver.equals("com.mysql.jdbc.Driver"))Class.forName(driver);
 		} catch (Exception e) {
 			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
 			throw e;
@@ -72,6 +237,8 @@ public abstract class Migrator extends Utilities implements Runnable {
 	 * トランザクション処理の挙動を変更したい時に呼び出す。
 	 * コンストラクタで一度だけ呼び出す事。
 	 * また、ByRecordではバッチサイズは1に変更され、その他の場合はバッチサイズが設定値に戻される。
+	 * ByBatchではバッチごとにコミットし、失敗したバッチは二分割して書き込み直す。
+	 * doOtherProcess()で移行先に行った更新もバッチと一緒にコミットされるが、バッチの失敗時にはロールバックされ、再実行されない。
 	 * @param mode トランザクション処理の挙動
 	 */
 	protected void setTransactionMode(TRANSACTION_MODE mode){
@@ -88,6 +255,8 @@ public abstract class Migrator extends Utilities implements Runnable {
 	 * トランザクション処理の挙動を変更したい時に呼び出す。
 	 * コンストラクタで一度だけ呼び出す事。
 	 * また、ByRecordではバッチサイズは1に変更され、その他の場合はバッチサイズが設定値に戻される。
+	 * ByBatchではバッチごとにコミットし、失敗したバッチは二分割して書き込み直す。
+	 * doOtherProcess()で移行先に行った更新もバッチと一緒にコミットされるが、バッチの失敗時にはロールバックされ、再実行されない。
 	 * @throws java.lang.IllegalArgumentException - TRANSACTION_MODEに、指定した名前の定数がない場合
 	 * @throws java.lang.NullPointerException - 引数がnullの場合
 	 * @param mode トランザクション処理の挙動を表す文字列 (NotNull)
@@ -105,6 +274,16 @@ public abstract class Migrator extends Utilities implements Runnable {
 		setTransactionMode(TRANSACTION_MODE.ByRecord);
 	}
 	
+	/**
+	 * バッチごとにトランザクションを発行したい時に呼び出す。
+	 * コンストラクタで一度だけ呼び出す事。
+	 * 失敗したバッチは二分割して書き込み直し、1行まで分割しても失敗する行だけをエラーとしてログ出力する。
+	 * バッチサイズは設定値に戻される。
+	 */
+	protected void setTransactionModeByBatch(){
+		setTransactionMode(TRANSACTION_MODE.ByBatch);
+	}
+	
 	/**
 	 * バッチ処理全体に対してトランザクションを発行したい時に呼び出す。
 	 * コンストラクタで一度だけ呼び出す事。
@@ -123,12 +302,105 @@ public abstract class Migrator extends Utilities implements Runnable {
 		setTransactionMode(TRANSACTION_MODE.None);
 	}
 	
+	/**
+	 * 複数の処理で移行元・移行先への接続数を共有する場合に、接続数の上限を指定する。run()の前に呼び出す事。
+	 * 開始時に最大接続数をまとめて予約し、終了時に返却する。
+	 * @param source 移行元の接続数の上限 (NullAllowed)
+	 * @param target 移行先の接続数の上限 (NullAllowed)
+	 */
+	public void setConnectionBudget(ConnectionBudget source, ConnectionBudget target){
+		__sourceBudget = source;
+		__targetBudget = target;
+	}
+	
+	/**
+	 * @return 最後まで処理した場合true。接続断などで中断した場合false
+	 */
+	public boolean isCompleted(){
+		return __completed;
+	}
+	
+	/**
+	 * キー範囲での分割実行やキーセット分割に使う、数値型のキー列を指定する。
+	 * コンストラクタで一度だけ呼び出す事。
+	 * exec.partitionWorkersが2以上の場合、元データ取得用SQL内の#RANGE#がキー範囲の条件式に置換され、範囲ごとに別スレッドで処理される。
+	 * exec.keysetChunkSizeが1以上の場合、#RANGE#に前回の最終キー以上の条件を加え、キー列の昇順に指定件数ずつ取得する。
+	 * この場合、キー列の値は一意である事。重複を検出した場合はエラーとなる。
+	 * この場合、元データ取得用SQLの末尾にはORDER BYやLIMITを書かない事。
+	 * キー列は元データ取得用SQLの取得列に含める事。
+	 * @param column キー列名。テーブル別名での修飾も可 (NotNull)
+	 */
+	protected void setKeyColumn(String column){
+		__keyColumn = column;
+	}
+	
+	/**
+	 * 指定されたキー列名を返す
+	 * @return キー列名。未指定ならnull
+	 */
+	protected String getKeyColumn(){
+		return __keyColumn;
+	}
+	
+	/**
+	 * チェックポイントファイル名の元になる名前を返す。
+	 * 同じディレクトリを複数の移行処理で共有する場合に、重複しない名前を返すようにオーバーライドする事。
+	 * @return デフォルトは実装クラスの完全修飾名
+	 */
+	protected String getCheckpointName(){
+		return getClass().getName();
+	}
+	
+	/**
+	 * キー範囲ごとの処理を行うインスタンスを生成する。
+	 * デフォルトでは引数なしコンストラクタで同じクラスを生成するので、引数なしコンストラクタがない場合はオーバーライドする事。
+	 * 生成したインスタンスは各スレッドで独立して使われるため、フィールドを共有しないようにする事。
+	 * @return 新しいインスタンス
+	 * @throws Exception 生成に失敗した時にthrowされる
+	 */
+	protected Migrator createPartitionWorker() throws Exception{
+		return getClass().getDeclaredConstructor().newInstance();
+	}
+	
+	/**
+	 * キー範囲分割時に、キーの最小値と最大値を取得するSQLを返す。
+	 * 取得列はminkey,maxkeyとする事。
+	 * デフォルトでは元データ取得用SQLを副問い合わせとして集計するが、大きなテーブルでは遅いため、
+	 * 可能であればテーブルを直接集計するSQLを返すようにオーバーライドする事。
+	 * @param execsql 元データ取得用SQL。プレースホルダは置換済み (NotNull)
+	 * @return キーの最小値と最大値を取得するSQL
+	 */
+	protected String getExecSelectKeyRangeSql(String execsql){
+		String label = __keyColumn.substring(__keyColumn.lastIndexOf('.') + 1);
+		return "SELECT MIN(" + label + ") AS minkey, MAX(" + label + ") AS maxkey FROM (" + execsql + ") range_t";
+	}
+	
+	/**
+	 * 移行先の方言を返す。
+	 * デフォルトではexec.targetDialectの設定から生成する。独自の方言を使う場合はオーバーライドしてもよい。
+	 * @return 移行先の方言
+	 */
+	protected TargetDialect getTargetDialect(){
+		return TargetDialect.forName(getExecTargetDialect());
+	}
+	
+	/**
+	 * exec.deferIndexesがtrueの場合に、インデックス・外部キーを削除しておく移行先テーブル名を返す。
+	 * デフォルトではinsert実行用SQLの挿入先テーブルを返す。INSERT文以外を使う場合はオーバーライドする事。
+	 * @return 移行先テーブル名
+	 * @throws SQLException insert実行用SQLから挿入先テーブルが分からない場合
+	 */
+	protected String getDeferIndexTable() throws SQLException{
+		return InsertStatement.parse(getInsertString()).getTable();
+	}
+	
 	/**
 	 * insert処理以外に実行したい処理があればここに記述する。
 	 * これはinsert処理前に実行される。
 	 * なければ空実装でよい。
 	 * @param rs 今回のループで取得したデータ (NotNull)
-	 * @param con 移行先のコネクション (NotNull)
+	 * @param con 移行先のコネクション。insertステートメントと同じコネクションで、トランザクションも共有する。
+	 * ドライランではDBに接続しないDryRunConnectionで、prepareStatement()で生成したステートメントの実行は何も書き込まない (NotNull)
 	 * @throws SQLException DBエラーや更新障害時にthrowされる。発生後は行ロールバック後、次の処理へ
 	 * @throws IllegalParameterToBeContinuedException 問題のあるデータだった場合に処理をスキップしたい時、実装者がthrowする
 	 */
@@ -157,15 +429,37 @@ public abstract class Migrator extends Utilities implements Runnable {
 	/**
 	 * PreparedStatementに埋め込む値をセットするように実装する。
 	 * この処理はループのはじめに呼び出されるため、ここでResultSetから値を取得しておけば、他の処理でも利用できる。
+	 * デフォルトではgetColumnMapping()の対応付けで値をセットする。対応付けの後に値を取得したい場合は、super.setParameters()を呼び出してから取得する事。
 	 * @param rs 今回のループで取得したデータ (NotNull)
 	 * @param ps 現在準備されたinsertステートメント
-	 * @throws SQLException DBエラー
+	 * @throws SQLException DBエラー、または対応付けがない場合
 	 * @throws IllegalParameterToBeContinuedException 問題のあるデータだった場合に処理をスキップしたい時、実装者がthrowする
 	 */
-	protected abstract void setParameters(ResultSet rs, PreparedStatement ps) throws SQLException, IllegalParameterToBeContinuedException;
+	protected void setParameters(ResultSet rs, PreparedStatement ps) throws SQLException, IllegalParameterToBeContinuedException{
+		if(__compiledMapping==null){
+			if(__columnMapping==null)throw new SQLException("列の対応付けがありません。setParameters()を実装するか、対応付けファイル" + getExecSelectFilePath() + MAPPING_FILE_SUFFIX + "を置いてください。");
+			// 元データ取得用SQLは実行中に変わらないため、最初の行で一度だけ解決する
+			__compiledMapping = __columnMapping.compile(rs.getMetaData());
+		}
+		__compiledMapping.apply(rs, ps);
+	}
+	
+	/**
+	 * setParameters()のデフォルト実装で使う、元データの列とinsertステートメントのパラメータの対応付けを返す。
+	 * デフォルトでは元データ取得用SQLファイルと同じ場所の「ファイル名.mapping」を読み込み、ファイルがなければnullを返す。
+	 * コードで対応付けを定義する場合はオーバーライドする事。
+	 * @return 対応付け (NullAllowed)
+	 * @throws Exception 対応付けファイルが読み込めない場合
+	 */
+	protected ColumnMapping getColumnMapping() throws Exception{
+		String path = getExecSelectFilePath() + MAPPING_FILE_SUFFIX;
+		if(!Files.isRegularFile(Paths.get(path)))return null;
+		return ColumnMapping.load(path, getFileEncode());
+	}
 	
 	/**
 	 * 元データ側のコネクションを取得し、返す
+	 * 取得したコネクションはコネクションプールで管理して再利用するため、呼び出しごとに新しく接続する実装でよい。
 	 * @return 元データ側DBとのコネクション
 	 * @throws SQLException DBエラー
 	 */
@@ -173,6 +467,7 @@ public abstract class Migrator extends Utilities implements Runnable {
 	
 	/**
 	 * データ移行先のコネクションを取得し、返す
+	 * 取得したコネクションはコネクションプールで管理して再利用するため、呼び出しごとに新しく接続する実装でよい。
 	 * @return データ移行先DBとのコネクション
 	 * @throws SQLException DBエラー
 	 */
@@ -195,43 +490,205 @@ public abstract class Migrator extends Utilities implements Runnable {
 	 */
 	protected void doInsert(ResultSet rs, PreparedStatement ps) throws SQLException, IllegalParameterToBeContinuedException{
 		try{
-			doOtherProcess(rs, getInsertTargetConnection());
+			long start = System.nanoTime();
+			doOtherProcess(rs, __targetConnection);
+			__metrics.record("doOtherProcess", start);
 			if(batchSize>1){
-				if(!__skipInsert)ps.addBatch();
-				ps.clearParameters();
-				outLog(log_, Level.INFO, "  process:"+(procNum)+(cnt==null ? "" : " / "+maxcnt)+countLogAddComment+" inserting reserved "+getIdentifier());
-				if(procNum % batchSize==0 || procNum>=maxcnt){
-					ps.executeBatch();
-					ps.clearBatch();
-					outLog(log_, Level.INFO, "batch executed process:"+(procNum)+(cnt==null ? "" : " / "+maxcnt));
+				if(!__skipInsert){
+					start = System.nanoTime();
+					ps.addBatch();
+					__metrics.record("addBatch", start);
+					__pendingRows++;
 				}
+				ps.clearParameters();
+				if(isLogEnabled(log_, Level.DEBUG))outLog(log_, Level.DEBUG, __partitionLabel+"  process:"+(procNum)+(cnt==null ? "" : " / "+maxcnt)+countLogAddComment+" inserting reserved "+getIdentifier());
+				// 件数が不明な場合やキー範囲ごとの処理（cntがnullでmaxcntが0）は最終行が分からないので、残りはループ終了後に書き込む
+				if(__pendingRows>=batchSize || (cnt!=null && procNum>=maxcnt))flushBatch(ps);
 			}
 			else{
-				if(!__skipInsert)ps.executeUpdate();
-				outLog(log_, Level.INFO, "process:"+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " inserted "+getIdentifier());
+				if(!__skipInsert){
+					start = System.nanoTime();
+					ps.executeUpdate();
+					__metrics.record("executeUpdate", start);
+				}
+				if(isLogEnabled(log_, Level.DEBUG))outLog(log_, Level.DEBUG, __partitionLabel+"process:"+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " inserted "+getIdentifier());
+				if(__transactionMode == TRANSACTION_MODE.None || __transactionMode == TRANSACTION_MODE.ByBatch)saveCheckpoint(false);
 			}
 		}finally{
+			if(__skipInsert)__progress.add(0, 0, 0, 1);
 			__skipInsert = false;
 			countLogAddComment = "";
 		}
 	}
 	
+	/**
+	 * バッチに溜めている行を書き込む。溜めている行がなければ何もしない
+	 * @param ps 現在準備されたinsertステートメント (NotNull)
+	 * @throws SQLException DBエラー
+	 */
+	private void flushBatch(PreparedStatement ps) throws SQLException{
+		if(__pendingRows==0)return;
+		int rows = __pendingRows;
+		__pendingRows = 0;
+		long start = System.nanoTime();
+		try{
+			ps.executeBatch();
+		} finally {
+			ps.clearBatch();
+		}
+		__metrics.record("executeBatch", start);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		__progress.add(0, 1, 0, 0);
+		if(isLogEnabled(log_, Level.DEBUG))outLog(log_, Level.DEBUG, __partitionLabel+"batch executed process:"+(procNum)+(cnt==null ? "" : " / "+maxcnt)+" rows:"+rows+" "+elapsed+"ms");
+		if(__batchSizer!=null){
+			String reason = __batchSizer.record(rows, elapsed);
+			if(reason!=null){
+				batchSize = __batchSizer.getSize();
+				outLog(log_, Level.INFO, __partitionLabel+reason);
+			}
+		}
+		// オートコミット・ByBatchならここまでが確定
+		if(__transactionMode == TRANSACTION_MODE.None || __transactionMode == TRANSACTION_MODE.ByBatch)saveCheckpoint(false);
+	}
+
+	/**
+	 * insertステートメントを準備する。
+	 * exec.writeModeがMultiRow・Bulkでバッチサイズが2以上の場合は、パラメータを記録して複数行INSERT・一括ロードで書き込むステートメントを返す。
+	 * insert実行用SQLが対応できない形式の場合は、通常のステートメントを返す。
+	 * トランザクションモードByBatchの場合は、バッチごとにコミットし、失敗したバッチを二分割して書き込み直すステートメントを返す。
+	 * ドライランの場合は、行を数えるだけで書き込まないステートメントを返す。
+	 * @param con_insert_to 移行先のコネクション (NotNull)
+	 * @param inssql insert実行用SQL (NotNull)
+	 * @return insertステートメント
+	 * @throws SQLException DBエラー
+	 */
+	private PreparedStatement prepareInsertStatement(Connection con_insert_to, String inssql) throws SQLException{
+		RecordingStatement.Tagger tagger = new RecordingStatement.Tagger() {
+			@Override
+			public String getTag(){
+				return procNum+(cnt==null ? "" : " / "+maxcnt)+" id:"+getIdentifier();
+			}
+		};
+		if(__dryRunBytes!=null){
+			__dryRunWriter = new DryRunWriter(__dryRunBytes, __metrics);
+			return RecordingStatement.create(con_insert_to, __dryRunWriter, tagger, __dryRunWriter, 1);
+		}
+		WRITE_MODE mode = getExecWriteMode();
+		boolean byBatch = __transactionMode == TRANSACTION_MODE.ByBatch;
+		if(batchSize<=1)mode = WRITE_MODE.Batch;
+		if(mode==WRITE_MODE.Batch && !byBatch){
+			return con_insert_to.prepareStatement(inssql);
+		}
+		InsertStatement insert = null;
+		if(mode!=WRITE_MODE.Batch){
+			try{
+				insert = InsertStatement.parse(inssql);
+			} catch (SQLException e) {
+				outLog(log_, Level.WARN, __partitionLabel+mode+"で書き込めないため、バッチ更新で書き込みます。" + e.getMessage());
+				if(!byBatch)return con_insert_to.prepareStatement(inssql);
+				mode = WRITE_MODE.Batch;
+			}
+		}
+		RowWriter.FailureHandler handler = new RowWriter.FailureHandler() {
+			@Override
+			public void onRowFailure(BoundRow row, SQLException e){
+				__progress.add(0, 0, 1, 0);
+				outLog(log_, Level.ERROR, __partitionLabel+row.getTag()+" SQLState:"+e.getSQLState()+" ERROR Code:"+e.getErrorCode()+" "+e.getMessage());
+				outLog(log_, Level.DEBUG, getStackTrace(e));
+			}
+		};
+		// ByBatchでは失敗した行の切り分けを二分割で行うため、書き込み先では1行ずつの書き込み直しをさせない
+		RowWriter.FailureHandler rowHandler = byBatch ? null : handler;
+		RowWriter writer;
+		TargetDialect dialect = getTargetDialect();
+		boolean bulk = mode==WRITE_MODE.Bulk && dialect.supportsBulkLoad(insert);
+		if(bulk && !dialect.isBulkLoadAvailable(con_insert_to)){
+			// 行ごとに失敗させて1行ずつ書き込み直すと遅く、ByBatchでは全行が失敗扱いになるため、準備の時点で切り替える
+			outLog(log_, Level.WARN, __partitionLabel+"JDBCドライバが一括ロードに対応していないため、複数行INSERTで書き込みます。方言：" + dialect.getClass().getSimpleName());
+			bulk = false;
+		}
+		if(mode==WRITE_MODE.Batch){
+			writer = new JdbcBatchWriter(con_insert_to, inssql);
+		}
+		else if(bulk){
+			writer = new BulkLoadWriter(con_insert_to, insert, dialect, getExecBulkMaxBytes(), rowHandler);
+			outLog(log_, Level.INFO, __partitionLabel+"一括ロードで書き込みます。方言：" + dialect.getClass().getSimpleName() + " 最大バイト数：" + getExecBulkMaxBytes());
+		}
+		else{
+			if(mode==WRITE_MODE.Bulk && !dialect.supportsBulkLoad(insert))outLog(log_, Level.WARN, __partitionLabel+"insert実行用SQLが一括ロードできない形式のため、複数行INSERTで書き込みます。");
+			MultiRowInsertWriter multi = new MultiRowInsertWriter(con_insert_to, insert, getExecMultiRowMaxRows(), getExecMultiRowMaxBytes(), rowHandler);
+			outLog(log_, Level.INFO, __partitionLabel+"複数行INSERTで書き込みます。1文あたりの最大行数：" + multi.getMaxRows() + " 最大バイト数：" + getExecMultiRowMaxBytes());
+			writer = multi;
+		}
+		if(byBatch){
+			writer = new BisectingBatchWriter(con_insert_to, writer, handler, __metrics, __retryPolicy);
+			outLog(log_, Level.INFO, __partitionLabel+"バッチごとにコミットします。失敗したバッチは二分割して書き込み直します。");
+		}
+		return RecordingStatement.create(con_insert_to, writer, tagger, insert==null ? 1 : insert.getParameterCount());
+	}
+
 	/**
 	 * データ移行処理の実態。
 	 * main側では各実装クラスのrunを実行するように処理を書く。
 	 */
 	@Override
 	public void run() {
+		Config previous = bindConfig(__config);
+		try{
+			// キー範囲ごとの処理では全体側のコネクションプールを使う
+			if(__partition!=null){
+				execute();
+				return;
+			}
+			// セグメントごとの処理でも全体側のコネクションプールを使う
+			if(__spoolSegment!=null){
+				__completed = loadSegment(__spoolSegment);
+				return;
+			}
+			__spoolMode = getExecSpoolMode();
+			if(__spoolMode!=SPOOL_MODE.None && !prepareSpool())return;
+			if(getExecDryRun()){
+				__dryRunBytes = new AtomicLong();
+				outLog(log_, Level.INFO, "ドライランのため、移行先には接続・書き込みしません。");
+			}
+			else if(getExecDisableTargetChecks() && __spoolMode!=SPOOL_MODE.Extract){
+				List<String> sqls = getTargetDialect().getDisableChecksSql();
+				if(sqls.isEmpty())outLog(log_, Level.WARN, "移行先の方言" + getTargetDialect().getClass().getSimpleName() + "は、セッションでのチェックの無効化に対応していません。");
+				else outLog(log_, Level.INFO, "移行先のセッションで外部キー・一意性のチェックを無効にします。" + sqls);
+			}
+			openPools();
+			__retryPolicy = new RetryPolicy(getExecRetryMax(), getExecRetryBaseMillis(), getExecRetryMaxMillis(), getExecRetrySqlStates(), getExecRetryErrorCodes());
+			DeferredIndexes deferred = deferIndexes();
+			try{
+				if(__spoolMode==SPOOL_MODE.Load)loadSpool();
+				else execute();
+				if(__spoolMode==SPOOL_MODE.Extract && __completed)writeSpoolManifest();
+			} finally {
+				if(deferred!=null)restoreIndexes(deferred);
+				if(__retryPolicy.getRetries()>0)outLog(log_, Level.INFO, __retryPolicy.getStatsString());
+				closePools();
+				flushLog(LOG_FLUSH_TIMEOUT);
+			}
+		} finally {
+			bindConfig(previous);
+		}
+	}
+
+	/**
+	 * データ移行処理の本体
+	 */
+	private void execute() {
 		// ログ出力
-		outLog(log_, Level.INFO, "************ 処理開始 *************");
+		outLog(log_, Level.INFO, __partitionLabel+"************ 処理開始 *************");
+		if(__partition==null)MemoryUsageMeter.reset();
 
 		// データベースの指定
 		Connection con = null;
 		try {
 			// データベースとの接続
-			con = getInsertSourceConnection();
+			con = __sourcePool.acquire();
 			// ログ出力
-			outLog(log_, Level.INFO, "移行元データベース接続完了");
+			outLog(log_, Level.INFO, __partitionLabel+"移行元データベース接続完了");
 		} catch (SQLException e) {
 			// ログ出力
 			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
@@ -248,7 +705,8 @@ public abstract class Migrator extends Utilities implements Runnable {
 		String sql;
 		sql = getExecSelectCountSql();
 
-		if(sql!=null && !sql.equals("")){
+		// キー範囲ごとの処理では件数取得は全体側で行う
+		if(__partition==null && sql!=null && !sql.equals("")){
 			try(Statement stmt = con.createStatement()){
 				outLog(log_, Level.INFO, "件数取得ステートメント取得完了。タイムアウト：" + getExecSelectTimeout() + "秒");
 				stmt.setQueryTimeout(getExecSelectTimeout());
@@ -279,6 +737,11 @@ public abstract class Migrator extends Utilities implements Runnable {
 			outLog(log_, Level.INFO, "移行元テーブル件数取得=["+cnt+"]");
 		}
 
+		// 進捗ログ。キー範囲ごとの処理では全体側のものに加算する
+		if(__partition==null)__progress = new ProgressReporter("", cnt==null ? 0 : maxcnt, getExecProgressIntervalSeconds(), getExecProgressIntervalRows());
+		// 処理段階ごとの計測。キー範囲ごとの処理では全体側のものに記録する
+		if(__partition==null)startMetrics();
+
 		// select実行
 		String execsql = null;
 		try{
@@ -292,107 +755,1070 @@ public abstract class Migrator extends Utilities implements Runnable {
 			outLog(log_, Level.ERROR, "SQLファイルを読み込めませんでした。" + RET + sql);
 			return;
 		}
+		// 列の対応付け。キー範囲ごとの処理では全体側で読み込んだものを使う
+		if(__partition==null && !loadColumnMapping())return;
 
-		Connection con_insert_to = null;
-		try(Statement stmt = con.createStatement()){
-			outLog(log_, Level.INFO, "移行元ステートメント取得完了。タイムアウト：" + getExecSelectTimeout() + "秒");
-			stmt.setQueryTimeout(getExecSelectTimeout());
-			stmt.setFetchSize(getExecSelectChunkSize());
+		// キー範囲で分割して並列実行
+		if(__partition==null && __keyColumn!=null && getExecPartitionWorkers()>1){
+			try{
+				runPartitions(con, execsql);
+			} finally {
+				closeConnection(con);
+			}
+			__progress.reportFinal();
+			reportDryRun();
+			finishMetrics();
+			outLog(log_, Level.INFO, MemoryUsageMeter.getPeakHeapUsedString());
+			outLog(log_, Level.INFO, "************** 処理終了 ****************");
+			return;
+		}
+		int keysetChunkSize = getExecKeysetChunkSize();
+		if(keysetChunkSize>0 && __keyColumn==null){
+			outLog(log_, Level.WARN, "キー列が指定されていないため、キーセット分割は行いません。");
+		}
+
+		// チェックポイントからの再開
+		KeyRange range = __partition;
+		try{
+			__checkpoint = openCheckpoint(execsql, __partitionIndex<0 ? "" : ".p" + __partitionIndex);
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, __partitionLabel+"チェックポイントを準備できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			closeConnection(con);
+			return;
+		}
+		if(__checkpoint!=null && __checkpoint.isCompleted()){
+			outLog(log_, Level.INFO, __partitionLabel+"チェックポイントで完了済みのため処理しません。" + __checkpoint.getPath());
+			procNum = (int)__checkpoint.getProcNum();
+			if(__totalProcNum!=null)__totalProcNum.addAndGet(procNum);
+			__progress.addCompleted(procNum);
+			__completed = true;
+			closeConnection(con);
+			return;
+		}
+		if(__checkpoint!=null && __checkpoint.getLastKey()!=null){
+			range = new KeyRange(__checkpoint.getLastKey() + 1, __partition==null ? null : __partition.getTo());
+			procNum = (int)__checkpoint.getProcNum();
+			if(__totalProcNum!=null)__totalProcNum.addAndGet(procNum);
+			__progress.addCompleted(procNum);
+			outLog(log_, Level.INFO, __partitionLabel+"チェックポイントから再開します。" + __keyColumn + " > " + __checkpoint.getLastKey() + " 処理数：" + procNum);
+		}
+
+		try(SourceCursor cursor = new SourceCursor(con, execsql, range, __keyColumn, keysetChunkSize, getExecReadMode(), getExecSelectChunkSize(), getExecSelectTimeout())){
+			// 最終キーより前の行が全てコミット済みとなるよう、チェックポイントを記録する場合はキー列の昇順で取得する
+			if(__checkpoint!=null)cursor.setOrderByKey(true);
+			outLog(log_, Level.INFO, __partitionLabel+"移行元ステートメント取得完了。タイムアウト：" + getExecSelectTimeout() + "秒 読み込みモード：" + getExecReadMode() + (__keyColumn!=null && keysetChunkSize>0 ? " キーセット分割：" + keysetChunkSize + "件" : ""));
 			// SQL 実行
-			try(ResultSet rs = stmt.executeQuery(execsql)){
-				outLog(log_, Level.INFO, "  ** データ取得開始 **");
-				ResultSetMetaData rsmd= rs.getMetaData();
-				StringBuilder sb = new StringBuilder();
-				for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-					sb.append(rsmd.getColumnName(i)+RET);
+			cursor.open();
+			outLog(log_, Level.INFO, __partitionLabel+"  ** データ取得開始 **");
+			ResultSetMetaData rsmd= cursor.getResultSet().getMetaData();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+				sb.append(rsmd.getColumnName(i)+RET);
+			}
+			outLog(log_, Level.DEBUG, sb.toString());
+
+			// 抽出のみの場合は移行先に接続しない
+			if(__spoolMode==SPOOL_MODE.Extract)extractToSpool(cursor);
+			else migrateRows(cursor);
+			if(!__aborted){
+				saveCheckpoint(true);
+				__completed = true;
+			}
+			if(cursor.getChunkNum()>1)outLog(log_, Level.INFO, __partitionLabel+"元データ取得SQL実行回数：" + cursor.getChunkNum());
+		} catch (SQLException e) {
+			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+		} finally {
+			// データベースのクローズ（プールへ返却）
+			closeConnection(con);
+		}
+
+		// ログ出力
+		if(__partition==null){
+			__progress.reportFinal();
+			reportDryRun();
+			finishMetrics();
+		}
+		if(__partition==null)outLog(log_, Level.INFO, MemoryUsageMeter.getPeakHeapUsedString());
+		outLog(log_, Level.INFO, __partitionLabel+"************** 処理終了 ****************");
+	}
+
+	/**
+	 * 移行先に接続し、読み込んだ行を移行する。Mode Allの場合はここでコミットする
+	 * @param reader 元データ。移行元のSQLの場合はopen()済みである事 (NotNull)
+	 * @throws Exception 読み込み中のエラー、またはコミット・ロールバックの失敗時にthrowされる
+	 */
+	private void migrateRows(RowReader reader) throws Exception{
+		String inssql = getInsertString();
+		outLog(log_, Level.DEBUG, inssql);
+
+		// 登録先データベースとの接続
+		Connection con_insert_to = __targetPool.acquire();
+		__targetConnection = con_insert_to;
+		try{
+			// ログ出力
+			outLog(log_, Level.INFO, __partitionLabel+"登録先データベース接続完了");
+
+			// ログ出力 トランザクションモード
+			outLog(log_, Level.INFO, __partitionLabel+"トランザクションモード：" + __transactionMode.toString());
+			// 失敗した処理をやり直せるのは、ロールバックで書き込み前の状態に戻せるByRecord・ByBatchのみ
+			if(__retryPolicy.getMaxRetries()>0 && (__transactionMode == TRANSACTION_MODE.None || __transactionMode == TRANSACTION_MODE.All)){
+				outLog(log_, Level.INFO, __partitionLabel+"トランザクションモード" + __transactionMode + "では、デッドロックなどで失敗した処理は再試行しません。再試行する場合はByRecordかByBatchを指定してください。");
+			}
+			// Mode Noneならオートコミット
+			con_insert_to.setAutoCommit(__transactionMode == TRANSACTION_MODE.None);
+			// バッチサイズの自動調整。ByRecordは1行ずつコミットするため対象外
+			if(getExecAdaptiveBatch() && __transactionMode != TRANSACTION_MODE.ByRecord){
+				__batchSizer = new AdaptiveBatchSizer(batchSize, getExecAdaptiveBatchMin(), getExecAdaptiveBatchMax(), getExecAdaptiveBatchTargetMillis());
+				batchSize = __batchSizer.getSize();
+				outLog(log_, Level.INFO, __partitionLabel+"バッチサイズ自動調整：初期値" + batchSize + " 範囲：" + getExecAdaptiveBatchMin() + "～" + getExecAdaptiveBatchMax() + " 目標実行時間：" + getExecAdaptiveBatchTargetMillis() + "ms");
+			}
+
+			try(PreparedStatement ps = prepareInsertStatement(con_insert_to, inssql)){
+				if(getExecPipeline()){
+					migratePipelined(reader, ps, con_insert_to);
 				}
-				outLog(log_, Level.DEBUG, sb.toString());
-			
-				String inssql = getInsertString();
-				outLog(log_, Level.DEBUG, inssql);
-				
-				// 登録先データベースとの接続
-				con_insert_to = getInsertTargetConnection();
-				// ログ出力
-				outLog(log_, Level.INFO, "登録先データベース接続完了");
-
-				// ログ出力 トランザクションモード
-				outLog(log_, Level.INFO, "トランザクションモード：" + __transactionMode.toString());
-				// Mode Noneならオートコミット
-				con_insert_to.setAutoCommit(__transactionMode == TRANSACTION_MODE.None);
-				
-				try(PreparedStatement ps = con_insert_to.prepareStatement(inssql)){
-					while(rs.next()){
-						procNum++;
-						// Mode AllならSavePoint
-						Savepoint savepoint = null;
-						if(__transactionMode == TRANSACTION_MODE.All)savepoint = con_insert_to.setSavepoint(Integer.toString(procNum));
-						boolean sqlDone = false;
-						try {
-							setParameters(rs, ps);
-							doInsert(rs, ps);
-							sqlDone = true;
-						} catch (IllegalParameterToBeContinuedException e) {
-							outLog(log_, Level.WARN, e.getMessage());
-						} catch (SQLException e) {
-							String sqlstate = e.getSQLState();
-							if(sqlstate!= null && sqlstate.equals(SQL_STATE_CONNECTION_ERROR)){
-								outLog(log_, Level.FATAL, (procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+" Exit because connection has broken. SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" id:"+getIdentifier()+" "+e.getMessage());
-								outLog(log_, Level.DEBUG, getStackTrace(e));
-								// 接続断なので処理終了
-								break;
-							}
-							else{
-								outLog(log_, Level.ERROR, (procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+" SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+ " id:"+getIdentifier()+" "+e.getMessage());
-								outLog(log_, Level.DEBUG, getStackTrace(e));
-							}
-						} catch (Exception e) {
-							outLog(log_, Level.ERROR, (procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " id:"+getIdentifier()+" "+e.getClass().getName()+" "+e.getMessage());
-							outLog(log_, Level.DEBUG, getStackTrace(e));
-						} finally {
-							// コミット・ロールバック処理。失敗するようなら次の処理もどうせ失敗なので、外側のエラー処理に任せる
-							if(sqlDone){
-								outLog(log_, Level.DEBUG, "commit");
-								// Mode ByRecordならコミット。AllならSavePointをリリース
-								if(__transactionMode == TRANSACTION_MODE.ByRecord)
-									con_insert_to.commit();
-								else if(__transactionMode == TRANSACTION_MODE.All)
-									con_insert_to.releaseSavepoint(savepoint);
-							}
-							else{
-								outLog(log_, Level.DEBUG, "rollback");
-								// Mode ByRecordならロールバック、AllならSavePointへ
-								if(__transactionMode == TRANSACTION_MODE.ByRecord)
-									con_insert_to.rollback();
-								else if(__transactionMode == TRANSACTION_MODE.All)
-									con_insert_to.rollback(savepoint);
-							}
-							ps.clearParameters();
-						}
+				else{
+					while(true){
+						long start = System.nanoTime();
+						if(!reader.next())break;
+						__metrics.record("fetch", start);
+						if(!migrateRow(reader.getResultSet(), ps, con_insert_to))break;
 					}
 				}
-				// Mode Allならコミット
-				if(__transactionMode == TRANSACTION_MODE.All)con_insert_to.commit();
+				// バッチに残った行を書き込む
+				if(!__aborted)flushRemaining(ps);
+			}
+			// Mode Allならコミット
+			if(__transactionMode == TRANSACTION_MODE.All){
+				long start = System.nanoTime();
+				con_insert_to.commit();
+				__metrics.record("commit", start);
 			}
+		} finally {
+			// データベースのクローズ（プールへ返却）
+			__targetConnection = null;
+			closeConnection(con_insert_to);
+		}
+	}
+
+	/**
+	 * 移行先には接続せず、読み込んだ行をスプールファイルのセグメントへ書き出す。
+	 * exec.spoolSegmentRows行ごとにセグメントを分け、書き終えるごとにチェックポイントを記録する。
+	 * チェックポイントから再開した場合は、記録済みの行までのセグメントを残し、それ以降のセグメントを書き直す
+	 * @param cursor 元データ。open()済みである事 (NotNull)
+	 * @throws Exception 読み込み・書き込みエラー、またはチェックポイントの処理数がセグメントの区切りでない場合
+	 */
+	private void extractToSpool(SourceCursor cursor) throws Exception{
+		int segmentRows = getExecSpoolSegmentRows();
+		if(procNum % segmentRows != 0){
+			throw new IllegalStateException("チェックポイントの処理数" + procNum + "がexec.spoolSegmentRows=" + segmentRows + "の区切りではありません。セグメントの行数を変更した場合は、exec.resume=falseで抽出し直してください。");
+		}
+		String partition = __partitionIndex<0 ? "" : ".p" + __partitionIndex;
+		int sequence = procNum / segmentRows;
+		int deleted = __spool.deleteSegments(partition, sequence);
+		if(deleted>0)outLog(log_, Level.INFO, __partitionLabel+"チェックポイント以降に書き出したセグメントを削除しました。削除数：" + deleted);
+		RowMetaData meta = new RowMetaData(cursor.getResultSet().getMetaData());
+		int level = getExecSpoolCompressionLevel();
+		outLog(log_, Level.INFO, __partitionLabel+"スプールファイルへ書き出します。1セグメントあたり：" + segmentRows + "行 圧縮レベル：" + level);
+		SpoolWriter writer = null;
+		try{
+			while(true){
+				long start = System.nanoTime();
+				if(!cursor.next())break;
+				__metrics.record("fetch", start);
+				ResultSet rs = cursor.getResultSet();
+				if(writer==null)writer = new SpoolWriter(__spool.getSegmentPath(partition, sequence++), meta, level);
+				start = System.nanoTime();
+				writer.write(MaterializedResultSet.read(rs, meta.getColumnCount()));
+				__metrics.record("spoolWrite", start);
+				procNum++;
+				if(__totalProcNum!=null)__totalProcNum.incrementAndGet();
+				__progress.add(1, 0, 0, 0);
+				if(__checkpoint!=null){
+					if(__keyIndex==0)__keyIndex = rs.findColumn(__keyColumn.substring(__keyColumn.lastIndexOf('.') + 1));
+					__currentKey = rs.getLong(__keyIndex);
+				}
+				if(writer.getRows()>=segmentRows){
+					closeSegment(writer);
+					writer = null;
+				}
+				__progress.maybeReport();
+			}
+			if(writer!=null)closeSegment(writer);
+			writer = null;
+		} finally {
+			if(writer!=null)writer.abort();
+		}
+	}
+
+	/**
+	 * 書き出し中のセグメントを閉じ、そこまでをチェックポイントに記録する
+	 * @param writer 書き出し中のセグメント (NotNull)
+	 * @throws IOException 書き込みエラー
+	 */
+	private void closeSegment(SpoolWriter writer) throws IOException{
+		long start = System.nanoTime();
+		writer.close();
+		__metrics.record("spoolClose", start);
+		outLog(log_, Level.DEBUG, __partitionLabel+"セグメント書き込み完了 " + writer.getPath() + " 行数：" + writer.getRows() + " " + Files.size(writer.getPath()) + "bytes");
+		saveCheckpoint(false);
+	}
+
+	/**
+	 * 列の対応付けを読み込む。
+	 * setParameters()をオーバーライドせず対応付けもない場合は、全行が失敗するため読み込み前に中止する
+	 * @return 読み込めた場合、または対応付けを使わない場合true
+	 */
+	private boolean loadColumnMapping(){
+		try{
+			__columnMapping = getColumnMapping();
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, "列の対応付けを読み込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			return false;
+		}
+		if(__columnMapping!=null){
+			outLog(log_, Level.INFO, "列の対応付け：" + __columnMapping.size() + "列");
+		}
+		else if(__spoolMode!=SPOOL_MODE.Extract && !overridesSetParameters()){
+			outLog(log_, Level.FATAL, "列の対応付けがありません。setParameters()を実装するか、対応付けファイル" + getExecSelectFilePath() + MAPPING_FILE_SUFFIX + "を置いてください。");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return 実装クラスがsetParameters()をオーバーライドしている場合true
+	 */
+	private boolean overridesSetParameters(){
+		for(Class<?> c = getClass(); c!=Migrator.class; c = c.getSuperclass()){
+			try{
+				c.getDeclaredMethod("setParameters", ResultSet.class, PreparedStatement.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// 親クラスを確認する
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 1行分の移行処理を行う。トランザクションモードに応じたコミット・ロールバックもここで行う
+	 * @param rs 今回のループで取得したデータ (NotNull)
+	 * @param ps 現在準備されたinsertステートメント (NotNull)
+	 * @param con_insert_to 移行先のコネクション (NotNull)
+	 * @return 処理を継続する場合true。接続断で処理を終了する場合false
+	 * @throws SQLException コミット・ロールバックに失敗した時にthrowされる
+	 */
+	private boolean migrateRow(ResultSet rs, PreparedStatement ps, Connection con_insert_to) throws SQLException{
+		procNum++;
+		if(__totalProcNum!=null)__totalProcNum.incrementAndGet();
+		__progress.add(1, 0, 0, 0);
+		// Mode AllならSavePoint
+		Savepoint savepoint = null;
+		long start = System.nanoTime();
+		if(__transactionMode == TRANSACTION_MODE.All){
+			savepoint = con_insert_to.setSavepoint(Integer.toString(procNum));
+			__metrics.record("setSavepoint", start);
+		}
+		boolean sqlDone = false;
+		try {
+			if(__checkpoint!=null){
+				if(__keyIndex==0)__keyIndex = rs.findColumn(__keyColumn.substring(__keyColumn.lastIndexOf('.') + 1));
+				__currentKey = rs.getLong(__keyIndex);
+			}
+			insertRow(rs, ps, con_insert_to);
+			sqlDone = true;
+		} catch (IllegalParameterToBeContinuedException e) {
+			__progress.add(0, 0, 0, 1);
+			outLog(log_, Level.WARN, e.getMessage());
 		} catch (SQLException e) {
-			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+			String sqlstate = e.getSQLState();
+			if(sqlstate!= null && sqlstate.equals(SQL_STATE_CONNECTION_ERROR)){
+				outLog(log_, Level.FATAL, __partitionLabel+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+" Exit because connection has broken. SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" id:"+getIdentifier()+" "+e.getMessage());
+				outLog(log_, Level.DEBUG, getStackTrace(e));
+				// 接続断なので処理終了
+				__aborted = true;
+				if(__checkpoint!=null){
+					outLog(log_, Level.FATAL, __partitionLabel+"コミット済みの位置："+__keyColumn+"="+__checkpoint.getLastKey()+" 処理数："+__checkpoint.getProcNum()+"。exec.resume=trueで再開できます。"+__checkpoint.getPath());
+				}
+				return false;
+			}
+			else{
+				__progress.add(0, 0, 1, 0);
+				outLog(log_, Level.ERROR, __partitionLabel+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+" SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+ " id:"+getIdentifier()+" "+e.getMessage());
+				outLog(log_, Level.DEBUG, getStackTrace(e));
+			}
 		} catch (Exception e) {
-			outLog(log_, Level.FATAL, e.getMessage() + RET + getStackTrace(e));
+			__progress.add(0, 0, 1, 0);
+			outLog(log_, Level.ERROR, __partitionLabel+(procNum)+countLogAddComment+(cnt==null ? "" : " / "+maxcnt)+ " id:"+getIdentifier()+" "+e.getClass().getName()+" "+e.getMessage());
+			outLog(log_, Level.DEBUG, getStackTrace(e));
 		} finally {
+			// コミット・ロールバック処理。失敗するようなら次の処理もどうせ失敗なので、外側のエラー処理に任せる
+			if(sqlDone){
+				outLog(log_, Level.DEBUG, "commit");
+				// Mode ByRecordならコミット。AllならSavePointをリリース
+				start = System.nanoTime();
+				if(__transactionMode == TRANSACTION_MODE.ByRecord){
+					con_insert_to.commit();
+					__metrics.record("commit", start);
+					saveCheckpoint(false);
+				}
+				else if(__transactionMode == TRANSACTION_MODE.All){
+					con_insert_to.releaseSavepoint(savepoint);
+					__metrics.record("releaseSavepoint", start);
+				}
+			}
+			else{
+				outLog(log_, Level.DEBUG, "rollback");
+				// Mode ByRecordならロールバック、AllならSavePointへ
+				start = System.nanoTime();
+				if(__transactionMode == TRANSACTION_MODE.ByRecord){
+					con_insert_to.rollback();
+					__metrics.record("rollback", start);
+					// エラーとしてログ出力済みの行は再開時に再処理しない。接続断の行は未処理として残す
+					if(!__aborted)saveCheckpoint(false);
+				}
+				else if(__transactionMode == TRANSACTION_MODE.All){
+					con_insert_to.rollback(savepoint);
+					__metrics.record("rollback", start);
+				}
+			}
+			ps.clearParameters();
+		}
+		__progress.maybeReport();
+		return true;
+	}
+
+	/**
+	 * パラメータを設定してinsertを実行する。
+	 * ByRecordでデッドロックなど再試行の対象となるエラーが発生した場合は、ロールバックして待機し、doOtherProcess()を含めてやり直す
+	 * @param rs 今回のループで取得したデータ (NotNull)
+	 * @param ps 現在準備されたinsertステートメント (NotNull)
+	 * @param con_insert_to 移行先のコネクション (NotNull)
+	 * @throws SQLException DBエラー。再試行した場合は最後のエラー
+	 * @throws IllegalParameterToBeContinuedException 問題のあるデータだった場合
+	 */
+	private void insertRow(ResultSet rs, PreparedStatement ps, Connection con_insert_to) throws SQLException, IllegalParameterToBeContinuedException{
+		for(int attempt = 0; ; attempt++){
 			try{
-				// データベースのクローズ
-				if(con_insert_to!=null)con_insert_to.close();
-				if(con!=null)con.close();
+				if(__dryRunWriter!=null)__dryRunWriter.startRow();
+				long start = System.nanoTime();
+				setParameters(rs, ps);
+				__metrics.record("setParameters", start);
+				doInsert(rs, ps);
+				if(attempt>0)__retryPolicy.recordRecovered();
+				return;
 			} catch (SQLException e) {
-				// ログ出力
-				outLog(log_, Level.WARN, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+				if(__transactionMode != TRANSACTION_MODE.ByRecord || !__retryPolicy.shouldRetry(e, attempt))throw e;
+				long start = System.nanoTime();
+				con_insert_to.rollback();
+				__metrics.record("rollback", start);
+				ps.clearParameters();
+				__retryPolicy.backoff(e, attempt, __partitionLabel+procNum+(cnt==null ? "" : " / "+maxcnt)+" id:"+getIdentifier());
+			}
+		}
+	}
+
+	/**
+	 * ループ終了後、バッチに残った行を書き込む。
+	 * 失敗した場合はエラーログを出力する。接続断の場合は処理を中断扱いにする
+	 * @param ps 現在準備されたinsertステートメント (NotNull)
+	 */
+	private void flushRemaining(PreparedStatement ps){
+		try{
+			flushBatch(ps);
+		} catch (SQLException e) {
+			String sqlstate = e.getSQLState();
+			if(sqlstate!= null && sqlstate.equals(SQL_STATE_CONNECTION_ERROR)){
+				outLog(log_, Level.FATAL, __partitionLabel+(procNum)+(cnt==null ? "" : " / "+maxcnt)+" Exit because connection has broken. SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" "+e.getMessage());
+				__aborted = true;
+			}
+			else{
+				__progress.add(0, 0, 1, 0);
+				outLog(log_, Level.ERROR, __partitionLabel+(procNum)+(cnt==null ? "" : " / "+maxcnt)+" batch failed. SQLState:"+sqlstate+" ERROR Code:"+e.getErrorCode()+" "+e.getMessage());
+			}
+			outLog(log_, Level.DEBUG, getStackTrace(e));
+		}
+	}
+
+	/**
+	 * 読み込みと書き込みを別スレッドで並行して行う。
+	 * 読み込みスレッドは取得した行を複写してキューへ積み、このスレッドがキューから取り出して1行ずつ移行処理を行う。
+	 * キューが一杯の間は読み込みスレッドが待たされる。
+	 * @param cursor 元データ。移行元のSQLの場合はopen()済みである事 (NotNull)
+	 * @param ps 現在準備されたinsertステートメント (NotNull)
+	 * @param con_insert_to 移行先のコネクション (NotNull)
+	 * @throws Exception 読み込み中のエラー、またはコミット・ロールバックの失敗時にthrowされる
+	 */
+	private void migratePipelined(RowReader cursor, PreparedStatement ps, Connection con_insert_to) throws Exception{
+		RowMetaData meta = new RowMetaData(cursor.getResultSet().getMetaData());
+		PipelineReader reader = new PipelineReader(cursor, meta.getColumnCount(), getExecPipelineQueueSize(), getExecPipelinePutTimeout(), __metrics);
+		outLog(log_, Level.INFO, __partitionLabel+"パイプライン処理開始。キューサイズ：" + getExecPipelineQueueSize() + " 待機タイムアウト：" + getExecPipelinePutTimeout() + "秒");
+		Thread thread = new Thread(reader, Thread.currentThread().getName() + "-reader");
+		thread.start();
+		MaterializedResultSet view = new MaterializedResultSet(meta);
+		try{
+			while(true){
+				long start = System.nanoTime();
+				Object[] row;
+				while((row = reader.queue.poll(100, TimeUnit.MILLISECONDS))==null){
+					// 終端を積めずに読み込みスレッドが終了した場合も待ち続けない
+					if(!thread.isAlive() && reader.queue.isEmpty()){
+						row = PipelineReader.END_OF_ROWS;
+						break;
+					}
+				}
+				__metrics.record("queueTake", start);
+				if(row==PipelineReader.END_OF_ROWS)break;
+				view.setRow(row);
+				if(!migrateRow(view.toResultSet(), ps, con_insert_to))break;
+			}
+		} finally {
+			reader.stopped = true;
+			reader.queue.clear();
+			thread.join();
+		}
+		if(reader.error!=null)throw reader.error;
+	}
+
+	/**
+	 * パイプライン処理の読み込み側。元データの行を複写してキューへ積む
+	 */
+	private static class PipelineReader implements Runnable {
+		/** 読み込みの終端を表す行 **/
+		static final Object[] END_OF_ROWS = new Object[0];
+		final BlockingQueue<Object[]> queue;
+		volatile boolean stopped = false;
+		volatile Exception error = null;
+		private final RowReader cursor;
+		private final int columnCount;
+		private final long putTimeoutMillis;
+		private final PhaseMetrics metrics;
+
+		PipelineReader(RowReader cursor, int columnCount, int queueSize, int putTimeout, PhaseMetrics metrics){
+			this.metrics = metrics;
+			this.cursor = cursor;
+			this.columnCount = columnCount;
+			this.queue = new ArrayBlockingQueue<Object[]>(queueSize);
+			this.putTimeoutMillis = (long)putTimeout * MILLISEC_ONE_SECOND;
+		}
+
+		@Override
+		public void run(){
+			try{
+				while(!stopped){
+					long start = System.nanoTime();
+					if(!cursor.next())break;
+					Object[] row = MaterializedResultSet.read(cursor.getResultSet(), columnCount);
+					metrics.record("fetch", start);
+					start = System.nanoTime();
+					if(!enqueue(row, putTimeoutMillis))break;
+					metrics.record("queuePut", start);
+				}
 			} catch (Exception e) {
-				// ログ出力
-				outLog(log_, Level.WARN, e.getMessage() + RET + getStackTrace(e));
+				error = e;
+			} finally {
+				// 終端は書き込み側が停止するまで待ってでも積む。タイムアウトで諦めると書き込み側が待ち続けるため
+				try{
+					enqueue(END_OF_ROWS, 0);
+				} catch (Exception e) {
+					if(error==null)error = e;
+				}
 			}
 		}
 
-		// ログ出力
+		/**
+		 * キューへ行を積む。キューが一杯なら空くまで待つ
+		 * @param row 積む行 (NotNull)
+		 * @param timeoutMillis 待機タイムアウト（ミリ秒）。0以下なら書き込み側が停止するまで待つ
+		 * @return 積めた場合true。書き込み側が停止済みの場合false
+		 */
+		private boolean enqueue(Object[] row, long timeoutMillis) throws InterruptedException, TimeoutException{
+			long start = System.currentTimeMillis();
+			while(!stopped){
+				if(queue.offer(row, 100, TimeUnit.MILLISECONDS))return true;
+				if(timeoutMillis>0 && System.currentTimeMillis() - start > timeoutMillis){
+					throw new TimeoutException("書き込み側が" + (timeoutMillis / MILLISEC_ONE_SECOND) + "秒間キューから取り出しませんでした");
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * キー範囲を分割し、範囲ごとに別インスタンス・別スレッド・別コネクションで移行処理を行う。
+	 * @param con 移行元のコネクション。キーの最小値と最大値の取得に使う (NotNull)
+	 * @param execsql 元データ取得用SQL (NotNull)
+	 */
+	private void runPartitions(Connection con, String execsql){
+		if(!KeyRange.hasPlaceholder(execsql)){
+			outLog(log_, Level.ERROR, "並列実行にはSQLファイルにキー範囲のプレースホルダ"+SQL_KEY_RANGE_PLACEHOLDER+"が必要です。" + RET + getExecSelectFilePath());
+			return;
+		}
+		Checkpoint checkpoint;
+		try{
+			checkpoint = openCheckpoint(execsql, "");
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, "チェックポイントファイルを読み込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			return;
+		}
+		if(checkpoint!=null && checkpoint.isCompleted()){
+			outLog(log_, Level.INFO, "チェックポイントで完了済みのため処理しません。" + checkpoint.getPath());
+			return;
+		}
+		int workers = getExecPartitionWorkers();
+		List<KeyRange> ranges = checkpoint==null ? null : checkpoint.getPartitions();
+		if(ranges!=null){
+			outLog(log_, Level.INFO, "チェックポイントのキー範囲分割で再開します。分割数：" + ranges.size() + " スレッド数：" + workers);
+		}
+		else{
+			ranges = selectPartitions(con, execsql);
+			if(ranges==null)return;
+			if(checkpoint!=null){
+				checkpoint.setPartitions(ranges);
+				try{
+					checkpoint.save();
+				} catch (Exception e) {
+					outLog(log_, Level.FATAL, "チェックポイントファイルを書き込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+					return;
+				}
+			}
+		}
+
+		AtomicLong total = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		CompletionService<Migrator> completion = new ExecutorCompletionService<Migrator>(executor);
+		int submitted = 0;
+		int completed = 0;
+		try{
+			for(int i = 0; i < ranges.size(); i++){
+				Migrator worker;
+				try{
+					worker = createPartitionWorker();
+				} catch (Exception e) {
+					outLog(log_, Level.FATAL, "分割処理用インスタンスが生成できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+					break;
+				}
+				worker.__config = __config;
+				worker.__keyColumn = __keyColumn;
+				worker.__partition = ranges.get(i);
+				worker.__partitionIndex = i;
+				worker.__partitionLabel = "[P" + (i + 1) + "/" + ranges.size() + " " + ranges.get(i) + "] ";
+				worker.__totalProcNum = total;
+				worker.__dryRunBytes = __dryRunBytes;
+				worker.__spoolMode = __spoolMode;
+				worker.__spool = __spool;
+				worker.__progress = __progress;
+				worker.__metrics = __metrics;
+				worker.__sourcePool = __sourcePool;
+				worker.__targetPool = __targetPool;
+				worker.__retryPolicy = __retryPolicy;
+				worker.__columnMapping = __columnMapping;
+				completion.submit(worker, worker);
+				submitted++;
+			}
+			for(int i = 0; i < submitted; i++){
+				try{
+					Migrator worker = completion.take().get();
+					if(worker.__completed)completed++;
+					outLog(log_, Level.INFO, worker.__partitionLabel + (worker.__completed ? "完了" : "中断") + " 処理数:" + worker.procNum + " 全体:" + total.get() + (cnt==null ? "" : " / "+maxcnt));
+				} catch (Exception e) {
+					outLog(log_, Level.ERROR, e.getMessage() + RET + getStackTrace(e));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		procNum = (int)total.get();
+		__completed = completed==ranges.size();
+		outLog(log_, Level.INFO, "全キー範囲の処理完了 処理数:" + procNum + (cnt==null ? "" : " / "+maxcnt) + " 完了：" + completed + " / " + ranges.size());
+		if(checkpoint!=null && completed==ranges.size()){
+			checkpoint.setCommitted(null, procNum);
+			checkpoint.setCompleted();
+			try{
+				checkpoint.save();
+			} catch (Exception e) {
+				outLog(log_, Level.WARN, "チェックポイントファイルを書き込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * キーの最小値と最大値を取得し、exec.partitionCountの数に分割する
+	 * @param con 移行元のコネクション (NotNull)
+	 * @param execsql 元データ取得用SQL (NotNull)
+	 * @return 分割したキー範囲。対象がない場合、または取得に失敗した場合はnull
+	 */
+	private List<KeyRange> selectPartitions(Connection con, String execsql){
+		String rangesql = getExecSelectKeyRangeSql(KeyRange.applyCondition(execsql, "1=1"));
+		outLog(log_, Level.DEBUG, "キー範囲取得SQL:"+rangesql);
+		long minkey;
+		long maxkey;
+		try(Statement stmt = con.createStatement()){
+			stmt.setQueryTimeout(getExecSelectTimeout());
+			try(ResultSet rs = stmt.executeQuery(rangesql)){
+				rs.next();
+				minkey = rs.getLong("minkey");
+				if(rs.wasNull()){
+					outLog(log_, Level.INFO, "対象が存在しませんでした。" + RET + rangesql);
+					return null;
+				}
+				maxkey = rs.getLong("maxkey");
+			}
+		} catch (SQLException e) {
+			outLog(log_, Level.FATAL, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+			return null;
+		}
+
+		int count = getExecPartitionCount();
+		if(count<=0)count = getExecPartitionWorkers();
+		List<KeyRange> ranges = KeyRange.split(minkey, maxkey, count);
+		outLog(log_, Level.INFO, "キー範囲分割：" + __keyColumn + " " + minkey + "～" + maxkey + " 分割数：" + ranges.size() + " スレッド数：" + getExecPartitionWorkers());
+		return ranges;
+	}
+
+	/**
+	 * チェックポイントを準備する。
+	 * exec.resumeがtrueで既存のファイルがあれば読み込み、なければ新規に作成して書き込む。
+	 * 再開は最終キーより大きいキー範囲を#RANGE#に指定して行うため、元データ取得用SQLにプレースホルダが必要。
+	 * @param execsql 元データ取得用SQL (NotNull)
+	 * @param suffix ファイル名に付加する文字列 (NotNull)
+	 * @return チェックポイント。exec.checkpointDirの指定がない場合、またはキー列の指定がない場合はnull
+	 * @throws Exception 読み書きに失敗した場合、再開時にトランザクションモードが異なる場合、またはSQLにキー範囲のプレースホルダがない場合
+	 */
+	private Checkpoint openCheckpoint(String execsql, String suffix) throws Exception{
+		String dir = getExecCheckpointDir();
+		if(dir==null || dir.equals(""))return null;
+		if(__dryRunBytes!=null){
+			outLog(log_, Level.INFO, __partitionLabel+"ドライランのため、チェックポイントは読み込み・記録しません。");
+			return null;
+		}
+		if(__keyColumn==null){
+			outLog(log_, Level.WARN, "キー列が指定されていないため、チェックポイントは記録しません。");
+			return null;
+		}
+		// プレースホルダがないと再開時に最初の行から読み直し、コミット済みの行を再度書き込んでしまう
+		if(!KeyRange.hasPlaceholder(execsql)){
+			throw new IllegalStateException("チェックポイントの記録にはSQLファイルにキー範囲のプレースホルダ" + SQL_KEY_RANGE_PLACEHOLDER + "が必要です。" + getExecSelectFilePath());
+		}
+		// 抽出のみの場合は、移行先へ書き込む処理と別のファイルに記録する
+		Path path = Paths.get(dir, getCheckpointName() + (__spoolMode==SPOOL_MODE.Extract ? ".extract" : "") + suffix + ".checkpoint");
+		Checkpoint checkpoint = null;
+		if(getExecResume()){
+			checkpoint = Checkpoint.load(path);
+			if(checkpoint==null){
+				outLog(log_, Level.INFO, __partitionLabel+"チェックポイントファイルがないため、最初から処理します。" + path);
+			}
+			else if(!__transactionMode.toString().equals(checkpoint.getTransactionMode())){
+				throw new IllegalStateException("チェックポイントのトランザクションモード" + checkpoint.getTransactionMode() + "が現在の設定" + __transactionMode + "と異なります。" + path);
+			}
+		}
+		if(checkpoint==null){
+			checkpoint = Checkpoint.create(path, __transactionMode);
+			checkpoint.save();
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * 現在の行までをコミット済みとしてチェックポイントに記録する。
+	 * exec.checkpointIntervalの間隔内であればファイルへの書き込みは省略する。
+	 * @param completed 処理の完了を記録する場合true。この場合は常に書き込む
+	 */
+	private void saveCheckpoint(boolean completed){
+		if(__checkpoint==null)return;
+		__checkpoint.setCommitted(__currentKey, procNum);
+		if(completed)__checkpoint.setCompleted();
+		long now = System.currentTimeMillis();
+		if(!completed && now - __checkpointSaved < getExecCheckpointInterval())return;
+		try{
+			long start = System.nanoTime();
+			__checkpoint.save();
+			__metrics.record("checkpoint", start);
+			__checkpointSaved = now;
+		} catch (Exception e) {
+			outLog(log_, Level.WARN, __partitionLabel+"チェックポイントファイルを書き込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+		}
+	}
+
+	/**
+	 * exec.deferIndexesがtrueの場合に、移行先テーブルのインデックスと外部キーの定義をファイルに保存してから削除する。
+	 * 前回の処理で保存した定義が残っている場合は、取得し直さずにその定義を使い、残っているものだけを削除する。
+	 * exec.deferIndexesがfalseで定義が残っている場合は、ここで作成し直す。
+	 * 削除・作成はコネクションプールを使わずに接続したコネクションで行うため、セッションでのチェックの無効化は適用されない
+	 * @return 削除した定義。削除しない場合、または取得できなかった場合はnull
+	 */
+	private DeferredIndexes deferIndexes(){
+		if(__dryRunBytes!=null || __spoolMode==SPOOL_MODE.Extract)return null;
+		String dir = getExecDeferIndexDir();
+		if(dir==null || dir.equals("")){
+			if(getExecDeferIndexes())outLog(log_, Level.WARN, "exec.deferIndexDirが指定されていないため、インデックス・外部キーは削除しません。");
+			return null;
+		}
+		Path path = Paths.get(dir, getCheckpointName() + ".indexes");
+		DeferredIndexes deferred;
+		try{
+			deferred = DeferredIndexes.load(path);
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, "インデックス・外部キーの定義ファイルを読み込めませんでした。" + path + " " + e.getMessage() + RET + getStackTrace(e));
+			return null;
+		}
+		if(deferred!=null)outLog(log_, Level.WARN, "前回の処理で削除したインデックス・外部キーの定義が残っています。" + path + " " + deferred.getDefinitions());
+		if(!getExecDeferIndexes()){
+			if(deferred!=null)restoreIndexes(deferred);
+			return null;
+		}
+		Connection con = null;
+		try{
+			con = getInsertTargetConnection();
+			con.setAutoCommit(true);
+			TargetDialect dialect = getTargetDialect();
+			if(deferred==null){
+				deferred = DeferredIndexes.capture(path, con, dialect, getDeferIndexTable());
+				outLog(log_, Level.INFO, "インデックス・外部キーの定義を保存しました。" + path + " " + deferred.getDefinitions());
+			}
+			long start = System.currentTimeMillis();
+			int dropped = deferred.drop(con, dialect);
+			outLog(log_, Level.INFO, "移行先テーブル" + deferred.getTable() + "のインデックス・外部キーを削除しました。削除数：" + dropped + " 経過：" + (System.currentTimeMillis() - start) + "ms");
+		} catch (Exception e) {
+			// 一部を削除した後の失敗でも、保存した定義から作成し直せる
+			outLog(log_, Level.ERROR, "インデックス・外部キーを削除できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+		} finally {
+			closeConnection(con);
+		}
+		return deferred;
+	}
+
+	/**
+	 * 保存した定義のうち存在しないインデックス・外部キーを作成し直し、全て定義どおりに存在する事を確認してから定義ファイルを削除する。
+	 * 作成し直せなかった場合は定義ファイルを残し、処理を中断扱いにする
+	 * @param deferred 保存した定義 (NotNull)
+	 */
+	private void restoreIndexes(DeferredIndexes deferred){
+		Connection con = null;
+		try{
+			con = getInsertTargetConnection();
+			con.setAutoCommit(true);
+			TargetDialect dialect = getTargetDialect();
+			long start = System.currentTimeMillis();
+			int created = deferred.restore(con, dialect);
+			List<DeferredIndexes.Definition> missing = deferred.verify(con, dialect);
+			if(!missing.isEmpty()){
+				outLog(log_, Level.FATAL, "作成し直したインデックス・外部キーが保存した定義と一致しません。" + missing + " 定義ファイル：" + deferred.getPath());
+				__completed = false;
+				return;
+			}
+			deferred.delete();
+			outLog(log_, Level.INFO, "移行先テーブル" + deferred.getTable() + "のインデックス・外部キーを作成し直しました。作成数：" + created + " 経過：" + (System.currentTimeMillis() - start) + "ms");
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, "インデックス・外部キーを作成し直せませんでした。次回の実行時に作成し直します。定義ファイル：" + deferred.getPath() + " " + e.getMessage() + RET + getStackTrace(e));
+			__completed = false;
+		} finally {
+			closeConnection(con);
+		}
+	}
+
+	/**
+	 * スプールファイルのディレクトリを準備する。
+	 * 抽出時は前回のマニフェストを削除し、exec.resumeがfalseであれば前回のセグメントも全て削除する
+	 * @return 準備できた場合true
+	 */
+	private boolean prepareSpool(){
+		__spool = new SpoolDirectory(Paths.get(getExecSpoolDir()), getCheckpointName());
+		outLog(log_, Level.INFO, "スプールファイルの" + (__spoolMode==SPOOL_MODE.Extract ? "抽出のみを行い、移行先には接続しません。" : "ロードのみを行い、移行元には接続しません。") + __spool.getManifestPath());
+		if(__spoolMode!=SPOOL_MODE.Extract)return true;
+		try{
+			Files.createDirectories(Paths.get(getExecSpoolDir()));
+			__spool.deleteManifest();
+			if(!getExecResume()){
+				int deleted = __spool.deleteSegments(null, 0);
+				if(deleted>0)outLog(log_, Level.INFO, "前回のセグメントを削除しました。削除数：" + deleted);
+			}
+			return true;
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, "スプールファイルのディレクトリを準備できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			return false;
+		}
+	}
+
+	/**
+	 * 抽出が完了した場合に、セグメントの行数の合計が処理数と一致する事を確認してマニフェストを書き込む。
+	 * 一致しない場合は書き込まず、処理を中断扱いにする
+	 */
+	private void writeSpoolManifest(){
+		try{
+			List<Path> segments = __spool.listSegments();
+			long rows = 0;
+			long bytes = 0;
+			for(Path segment : segments){
+				try(SpoolReader reader = new SpoolReader(segment)){
+					rows += reader.getRows();
+				}
+				bytes += Files.size(segment);
+			}
+			if(rows!=procNum){
+				outLog(log_, Level.ERROR, "セグメントの行数の合計" + rows + "が処理数" + procNum + "と一致しないため、マニフェストを書き込みません。exec.resume=falseで抽出し直してください。" + __spool.getManifestPath());
+				__completed = false;
+				return;
+			}
+			__spool.writeManifest(segments, rows);
+			outLog(log_, Level.INFO, "スプールファイルの抽出完了 セグメント数：" + segments.size() + " 行数：" + rows + " 合計：" + bytes + "bytes " + __spool.getManifestPath());
+		} catch (Exception e) {
+			outLog(log_, Level.ERROR, "スプールファイルのマニフェストを書き込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			__completed = false;
+		}
+	}
+
+	/**
+	 * スプールファイルのロードの本体。移行元には接続せず、マニフェストに記載されたセグメントを移行先へ書き込む。
+	 * exec.spoolLoadWorkersが2以上の場合は、セグメントごとに別インスタンス・別スレッド・別コネクションで書き込む
+	 */
+	private void loadSpool(){
+		outLog(log_, Level.INFO, "************ 処理開始 *************");
+		MemoryUsageMeter.reset();
+		SpoolDirectory.Manifest manifest;
+		try{
+			manifest = __spool.loadManifest();
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, "スプールファイルのマニフェストを読み込めませんでした。" + e.getMessage() + RET + getStackTrace(e));
+			return;
+		}
+		if(manifest==null){
+			outLog(log_, Level.FATAL, "スプールファイルのマニフェストがありません。抽出が完了していない可能性があります。" + __spool.getManifestPath());
+			return;
+		}
+		List<Path> segments = manifest.getSegments();
+		cnt = Long.toString(manifest.getRows());
+		maxcnt = (int)manifest.getRows();
+		outLog(log_, Level.INFO, "スプールファイルの件数=["+cnt+"] セグメント数：" + segments.size());
+		if(!getExecResume()){
+			try{
+				__spool.clearLoaded(segments);
+			} catch (Exception e) {
+				outLog(log_, Level.FATAL, "ロード済みの印を削除できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+				return;
+			}
+		}
+		__progress = new ProgressReporter("", maxcnt, getExecProgressIntervalSeconds(), getExecProgressIntervalRows());
+		startMetrics();
+		if(!loadColumnMapping())return;
+
+		int workers = Math.min(getExecSpoolLoadWorkers(), segments.size());
+		int completed = 0;
+		if(workers>1){
+			completed = loadSegmentsParallel(segments, workers);
+		}
+		else{
+			for(Path segment : segments){
+				if(loadSegment(segment))completed++;
+				else if(__aborted)break;
+			}
+		}
+		__completed = completed==segments.size();
+		outLog(log_, Level.INFO, "全セグメントのロード完了 処理数:" + procNum + " / " + maxcnt + " 完了：" + completed + " / " + segments.size());
+
+		__progress.reportFinal();
+		reportDryRun();
+		finishMetrics();
+		outLog(log_, Level.INFO, MemoryUsageMeter.getPeakHeapUsedString());
 		outLog(log_, Level.INFO, "************** 処理終了 ****************");
 	}
+
+	/**
+	 * セグメントごとに別インスタンス・別スレッド・別コネクションでロードする
+	 * @param segments セグメントのパス (NotNull)
+	 * @param workers 並列実行するスレッド数
+	 * @return 完了したセグメントの数
+	 */
+	private int loadSegmentsParallel(List<Path> segments, int workers){
+		outLog(log_, Level.INFO, "セグメントごとに並列でロードします。スレッド数：" + workers);
+		AtomicLong total = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		CompletionService<Migrator> completion = new ExecutorCompletionService<Migrator>(executor);
+		int submitted = 0;
+		int completed = 0;
+		try{
+			for(int i = 0; i < segments.size(); i++){
+				Migrator worker;
+				try{
+					worker = createPartitionWorker();
+				} catch (Exception e) {
+					outLog(log_, Level.FATAL, "分割処理用インスタンスが生成できませんでした。" + e.getMessage() + RET + getStackTrace(e));
+					break;
+				}
+				worker.__config = __config;
+				worker.__spoolMode = __spoolMode;
+				worker.__spool = __spool;
+				worker.__spoolSegment = segments.get(i);
+				worker.__partitionLabel = "[S" + (i + 1) + "/" + segments.size() + "] ";
+				worker.__totalProcNum = total;
+				worker.__dryRunBytes = __dryRunBytes;
+				worker.__progress = __progress;
+				worker.__metrics = __metrics;
+				worker.__sourcePool = __sourcePool;
+				worker.__targetPool = __targetPool;
+				worker.__retryPolicy = __retryPolicy;
+				worker.__columnMapping = __columnMapping;
+				completion.submit(worker, worker);
+				submitted++;
+			}
+			for(int i = 0; i < submitted; i++){
+				try{
+					Migrator worker = completion.take().get();
+					if(worker.__completed)completed++;
+					outLog(log_, Level.INFO, worker.__partitionLabel + (worker.__completed ? "完了" : "中断") + " 処理数:" + worker.procNum + " 全体:" + total.get() + " / " + maxcnt);
+				} catch (Exception e) {
+					outLog(log_, Level.ERROR, e.getMessage() + RET + getStackTrace(e));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		procNum = (int)total.get();
+		return completed;
+	}
+
+	/**
+	 * セグメント1つ分を移行先へ書き込み、完了したらロード済みの印を作成する。
+	 * exec.resumeがtrueでロード済みの印がある場合は書き込まない。
+	 * 印はセグメント単位のため、途中で中断したセグメントは最初から書き込み直す
+	 * @param segment セグメントのパス (NotNull)
+	 * @return 完了した場合true
+	 */
+	private boolean loadSegment(Path segment){
+		try(SpoolReader reader = new SpoolReader(segment)){
+			if(getExecResume() && __spool.isLoaded(segment)){
+				outLog(log_, Level.INFO, __partitionLabel+"ロード済みのため処理しません。" + segment);
+				procNum += (int)reader.getRows();
+				if(__totalProcNum!=null)__totalProcNum.addAndGet(reader.getRows());
+				__progress.addCompleted(reader.getRows());
+				return true;
+			}
+			outLog(log_, Level.INFO, __partitionLabel+"セグメント読み込み開始 " + segment + " 行数：" + reader.getRows());
+			migrateRows(reader);
+			if(__aborted)return false;
+			__spool.markLoaded(segment, reader.getRows());
+			return true;
+		} catch (SQLException e) {
+			outLog(log_, Level.FATAL, __partitionLabel+e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+		} catch (Exception e) {
+			outLog(log_, Level.FATAL, __partitionLabel+e.getMessage() + RET + getStackTrace(e));
+		}
+		return false;
+	}
+
+	/**
+	 * ドライランの場合に、処理速度と推定データ量、パラメータごとの設定時間をログ出力する
+	 */
+	private void reportDryRun(){
+		if(__dryRunBytes==null)return;
+		long elapsed = Math.max(1, __metrics.getElapsedMillis());
+		long bytes = __dryRunBytes.get();
+		outLog(log_, Level.INFO, "ドライラン結果 処理数:" + procNum + " 経過:" + elapsed + "ms 処理速度:" + (procNum * 1000L / elapsed) + "行/秒"
+				+ " 推定データ量:" + bytes + "bytes 1行あたり:" + (procNum==0 ? 0 : bytes / procNum) + "bytes " + (bytes * 1000L / elapsed) + "bytes/秒");
+		String columns = DryRunWriter.getColumnCostString(__metrics);
+		if(!columns.equals(""))outLog(log_, Level.INFO, "パラメータごとの設定時間（" + DryRunWriter.SAMPLE_INTERVAL + "行に1行を計測）：" + columns);
+	}
+
+	/**
+	 * 処理段階ごとの計測を開始し、MBeanとして登録する
+	 */
+	private void startMetrics(){
+		__metrics = new PhaseMetrics(getCheckpointName());
+		try{
+			__metrics.register("Migrator");
+		} catch (Exception e) {
+			outLog(log_, Level.WARN, "計測値のMBeanを登録できませんでした。" + e.getMessage());
+		}
+	}
+
+	/**
+	 * 処理段階ごとの計測値をログとexec.metricsDirのJSONファイルに出力し、MBeanの登録を解除する
+	 */
+	private void finishMetrics(){
+		String dir = getExecMetricsDir();
+		if(dir!=null && !dir.equals("")){
+			Path path = Paths.get(dir, getCheckpointName() + "." + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".metrics.json");
+			try{
+				__metrics.writeJson(path);
+				outLog(log_, Level.INFO, "処理段階ごとの計測値を出力しました。" + path);
+			} catch (Exception e) {
+				outLog(log_, Level.WARN, "計測値のファイルを書き込めませんでした。" + path + " " + e.getMessage());
+			}
+		}
+		outLog(log_, Level.DEBUG, __metrics.getJson());
+		try{
+			__metrics.unregister();
+		} catch (Exception e) {
+			outLog(log_, Level.WARN, "計測値のMBeanの登録を解除できませんでした。" + e.getMessage());
+		}
+	}
+
+	/**
+	 * 移行元・移行先のコネクションプールを作成する。
+	 * キー範囲分割時は並列実行スレッドごとに1つずつ、移行元は加えて全体側の1つを保持する。
+	 * スプールファイルのロード時は、移行先をexec.spoolLoadWorkersの数だけ保持する
+	 */
+	private void openPools(){
+		int workers = __keyColumn!=null ? Math.max(1, getExecPartitionWorkers()) : 1;
+		if(__spoolMode==SPOOL_MODE.Load)workers = Math.max(1, getExecSpoolLoadWorkers());
+		// 全体側と各キー範囲で同時に使う最大数を、開始時にまとめて予約する。移行元→移行先の順に予約する事
+		// スプールファイルの抽出時は移行先、ロード時は移行元に接続しないため予約しない
+		if(__sourceBudget!=null && __spoolMode!=SPOOL_MODE.Load)__sourceReserved = __sourceBudget.reserve(getClass().getSimpleName() + " ", workers + 1);
+		if(__targetBudget!=null && __dryRunBytes==null && __spoolMode!=SPOOL_MODE.Extract)__targetReserved = __targetBudget.reserve(getClass().getSimpleName() + " ", workers);
+		__sourcePool = new ConnectionPool("移行元", new ConnectionPool.Factory() {
+			@Override
+			public Connection create() throws SQLException{
+				return getInsertSourceConnection();
+			}
+		}, workers + 1, getExecStatementCacheSize());
+		__targetPool = new ConnectionPool("移行先", new ConnectionPool.Factory() {
+			@Override
+			public Connection create() throws SQLException{
+				// ドライランでは移行先に接続しない
+				if(__dryRunBytes!=null)return DryRunConnection.create();
+				Connection con = getInsertTargetConnection();
+				if(!getExecDisableTargetChecks())return con;
+				try(Statement stmt = con.createStatement()){
+					for(String sql : getTargetDialect().getDisableChecksSql())stmt.execute(sql);
+				} catch (SQLException e) {
+					closeConnection(con);
+					throw e;
+				}
+				return con;
+			}
+		}, workers, getExecStatementCacheSize());
+	}
+
+	/**
+	 * コネクションプールの取得回数をログ出力し、全てのコネクションを閉じる
+	 */
+	private void closePools(){
+		outLog(log_, Level.INFO, __sourcePool.getStatsString());
+		outLog(log_, Level.INFO, __targetPool.getStatsString());
+		__sourcePool.close();
+		__targetPool.close();
+		if(__sourceBudget!=null)__sourceBudget.release(__sourceReserved);
+		if(__targetBudget!=null)__targetBudget.release(__targetReserved);
+		__sourceReserved = 0;
+		__targetReserved = 0;
+	}
+
+	/**
+	 * コネクションをクローズする。失敗時はログ出力のみ行う
+	 * @param con クローズするコネクション (NullAllowed)
+	 */
+	private void closeConnection(Connection con){
+		try{
+			if(con!=null)con.close();
+		} catch (SQLException e) {
+			// ログ出力
+			outLog(log_, Level.WARN, e.getSQLState() + ":" + e.getMessage() + RET + getStackTrace(e));
+		} catch (Exception e) {
+			// ログ出力
+			outLog(log_, Level.WARN, e.getMessage() + RET + getStackTrace(e));
+		}
+	}
 }
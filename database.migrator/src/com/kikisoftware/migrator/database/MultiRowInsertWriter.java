@@ -0,0 +1,155 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+
+/**
+ * 溜めた行を INSERT ... VALUES (...),(...),... の複数行INSERTで書き込む。
+ * JDBCのバッチ更新が1行ずつ送信されるドライバでも、1回の通信で複数行を書き込める。
+ * 1文あたりの行数とバイト数の上限を超える前に書き込みを行う。
+ * 複数行INSERTが失敗した場合は、1行ずつ書き込み直し、失敗した行をFailureHandlerへ通知する。
+ * @author kikisoftware
+ */
+public class MultiRowInsertWriter implements RowWriter {
+	/** 1文に含められるパラメータ数の上限（MySQLのプリペアドステートメントの上限） **/
+	public static final int MAX_PARAMETERS = 65535;
+	/** 行数ごとのステートメントをキャッシュする数 **/
+	private static final int STATEMENT_CACHE_SIZE = 4;
+
+	private final Connection con;
+	private final InsertStatement insert;
+	private final int maxRows;
+	private final long maxBytes;
+	private final FailureHandler handler;
+	private final List<BoundRow> pending = new ArrayList<BoundRow>();
+	private long pendingBytes = 0;
+	private final Map<Integer, PreparedStatement> statements = new LinkedHashMap<Integer, PreparedStatement>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, PreparedStatement> eldest){
+			if(size()<=STATEMENT_CACHE_SIZE)return false;
+			closeStatement(eldest.getValue());
+			return true;
+		}
+	};
+
+	/**
+	 * コンストラクタ
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param insert 1行分のINSERT文 (NotNull)
+	 * @param maxRows 1文あたりの最大行数。パラメータ数の上限を超えないよう切り詰められる
+	 * @param maxBytes 1文あたりの最大バイト数の目安。0以下なら制限しない
+	 * @param handler 失敗した行の通知先。nullの場合は1行ずつの書き込み直しを行わず、失敗をそのままthrowする (NullAllowed)
+	 */
+	public MultiRowInsertWriter(Connection con, InsertStatement insert, int maxRows, long maxBytes, FailureHandler handler){
+		this.con = con;
+		this.insert = insert;
+		this.maxRows = Math.max(1, Math.min(maxRows, MAX_PARAMETERS / Math.max(1, insert.getParameterCount())));
+		this.maxBytes = maxBytes;
+		this.handler = handler;
+	}
+
+	/**
+	 * @return 1文あたりの最大行数
+	 */
+	public int getMaxRows(){
+		return maxRows;
+	}
+
+	@Override
+	public void add(BoundRow row) throws SQLException{
+		long bytes = row.estimateBytes();
+		if(!pending.isEmpty() && (pending.size()>=maxRows || (maxBytes>0 && pendingBytes + bytes>maxBytes)))flush();
+		pending.add(row);
+		pendingBytes += bytes;
+	}
+
+	@Override
+	public int[] flush() throws SQLException{
+		if(pending.isEmpty())return new int[0];
+		List<BoundRow> rows = new ArrayList<BoundRow>(pending);
+		clear();
+		int[] result = new int[rows.size()];
+		Arrays.fill(result, Statement.SUCCESS_NO_INFO);
+		if(rows.size()==1){
+			execute(rows, 0, 1);
+			return result;
+		}
+		try{
+			execute(rows, 0, rows.size());
+		} catch (SQLException e) {
+			if(Consts.SQL_STATE_CONNECTION_ERROR.equals(e.getSQLState()) || handler==null)throw e;
+			Utilities.outLog(Utilities.log_, Level.DEBUG, rows.size() + "行のINSERTに失敗したため、1行ずつ書き込みます。" + e.getMessage());
+			retryEach(rows, result);
+		}
+		return result;
+	}
+
+	/**
+	 * 1行ずつ書き込み直す。失敗した行はFailureHandlerへ通知する
+	 */
+	private void retryEach(List<BoundRow> rows, int[] result) throws SQLException{
+		for(int i = 0; i < rows.size(); i++){
+			try{
+				execute(rows, i, 1);
+			} catch (SQLException e) {
+				if(Consts.SQL_STATE_CONNECTION_ERROR.equals(e.getSQLState()))throw e;
+				result[i] = Statement.EXECUTE_FAILED;
+				handler.onRowFailure(rows.get(i), e);
+			}
+		}
+	}
+
+	private void execute(List<BoundRow> rows, int from, int count) throws SQLException{
+		PreparedStatement ps = statements.get(count);
+		if(ps==null){
+			ps = con.prepareStatement(insert.toMultiRowSql(count));
+			statements.put(count, ps);
+		}
+		int params = insert.getParameterCount();
+		for(int i = 0; i < count; i++){
+			rows.get(from + i).bind(ps, i * params);
+		}
+		ps.executeUpdate();
+	}
+
+	@Override
+	public void clear(){
+		pending.clear();
+		pendingBytes = 0;
+	}
+
+	@Override
+	public int getPendingRows(){
+		return pending.size();
+	}
+
+	@Override
+	public void close() throws SQLException{
+		clear();
+		for(PreparedStatement ps : statements.values())closeStatement(ps);
+		statements.clear();
+	}
+
+	private static void closeStatement(PreparedStatement ps){
+		try{
+			ps.close();
+		} catch (SQLException e) {
+			Utilities.outLog(Utilities.log_, Level.WARN, e.getSQLState() + ":" + e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "MultiRowInsertWriter(" + insert.getTable() + ", maxRows=" + maxRows + ", maxBytes=" + maxBytes + ")";
+	}
+}
@@ -0,0 +1,185 @@
+package com.kikisoftware.migrator.database;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 処理段階（元データ取得、パラメータ設定、バッチ更新、コミットなど）ごとの処理時間を計測する。
+ * 段階ごとにLatencyHistogramへ記録し、JMXのMBeanとして参照できるほか、JSON形式でファイルに書き出せる。
+ * キー範囲分割時は複数スレッドから同じインスタンスに記録してよい。
+ * @author kikisoftware
+ */
+public class PhaseMetrics implements PhaseMetricsMBean {
+	/** JSONに出力するパーセンタイル **/
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	private final String name;
+	private final long startMillis = System.currentTimeMillis();
+	private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentHashMap<String, LatencyHistogram>();
+	private ObjectName objectName = null;
+
+	/**
+	 * コンストラクタ
+	 * @param name 計測対象の名前。MBean名とJSONに使う (NotNull)
+	 */
+	public PhaseMetrics(String name){
+		this.name = name;
+	}
+
+	/**
+	 * 処理段階のヒストグラムを返す。なければ作成する
+	 * @param phase 処理段階名 (NotNull)
+	 * @return ヒストグラム
+	 */
+	public LatencyHistogram getHistogram(String phase){
+		LatencyHistogram histogram = phases.get(phase);
+		if(histogram==null){
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = phases.putIfAbsent(phase, created);
+			if(histogram==null)histogram = created;
+		}
+		return histogram;
+	}
+
+	/**
+	 * 開始時刻から現在までの時間を処理段階の処理時間として記録する
+	 * @param phase 処理段階名 (NotNull)
+	 * @param startNanos System.nanoTime()で取得した開始時刻
+	 */
+	public void record(String phase, long startNanos){
+		getHistogram(phase).record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * プラットフォームのMBeanサーバーに登録する
+	 * @param type MBean名のtype (NotNull)
+	 * @throws Exception 登録に失敗した場合
+	 */
+	public void register(String type) throws Exception{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName on = new ObjectName("com.kikisoftware.migrator:type=" + type + ",name=" + ObjectName.quote(name));
+		if(server.isRegistered(on))server.unregisterMBean(on);
+		server.registerMBean(this, on);
+		objectName = on;
+	}
+
+	/**
+	 * MBeanサーバーから登録を解除する。登録していない場合は何もしない
+	 * @throws Exception 解除に失敗した場合
+	 */
+	public void unregister() throws Exception{
+		if(objectName==null)return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if(server.isRegistered(objectName))server.unregisterMBean(objectName);
+		objectName = null;
+	}
+
+	/**
+	 * JSON形式の計測値をファイルに書き出す。親ディレクトリがなければ作成する
+	 * @param path 出力先 (NotNull)
+	 * @throws Exception 書き込みに失敗した場合
+	 */
+	public void writeJson(Path path) throws Exception{
+		if(path.getParent()!=null)Files.createDirectories(path.getParent());
+		Files.write(path, getJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public String getName(){
+		return name;
+	}
+
+	@Override
+	public long getElapsedMillis(){
+		return System.currentTimeMillis() - startMillis;
+	}
+
+	@Override
+	public String[] getPhases(){
+		return new TreeMap<String, LatencyHistogram>(phases).keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public long getCount(String phase){
+		LatencyHistogram histogram = phases.get(phase);
+		return histogram==null ? 0 : histogram.getCount();
+	}
+
+	@Override
+	public double getTotalMillis(String phase){
+		LatencyHistogram histogram = phases.get(phase);
+		return histogram==null ? 0 : histogram.getTotalNanos() / 1e6;
+	}
+
+	@Override
+	public double getPercentileMillis(String phase, double percentile){
+		LatencyHistogram histogram = phases.get(phase);
+		return histogram==null ? 0 : histogram.getPercentileNanos(percentile) / 1e6;
+	}
+
+	@Override
+	public String getJson(){
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"name\": ").append(quote(name)).append(",\n");
+		sb.append("  \"start\": ").append(quote(format.format(new Date(startMillis)))).append(",\n");
+		sb.append("  \"end\": ").append(quote(format.format(new Date(now)))).append(",\n");
+		sb.append("  \"elapsedMillis\": ").append(now - startMillis).append(",\n");
+		sb.append("  \"phases\": {");
+		boolean first = true;
+		for(Map.Entry<String, LatencyHistogram> e : new TreeMap<String, LatencyHistogram>(phases).entrySet()){
+			LatencyHistogram h = e.getValue();
+			long count = h.getCount();
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    ").append(quote(e.getKey())).append(": {");
+			sb.append("\"count\": ").append(count);
+			sb.append(", \"totalMillis\": ").append(millis(h.getTotalNanos()));
+			sb.append(", \"meanMicros\": ").append(count==0 ? "0" : micros(h.getTotalNanos() / count));
+			sb.append(", \"minMicros\": ").append(micros(h.getMinNanos()));
+			for(double p : PERCENTILES){
+				sb.append(", \"p").append(p==Math.floor(p) ? String.valueOf((long)p) : String.valueOf(p).replace('.', '_')).append("Micros\": ").append(micros(h.getPercentileNanos(p)));
+			}
+			sb.append(", \"maxMicros\": ").append(micros(h.getMaxNanos()));
+			sb.append('}');
+		}
+		sb.append(first ? "}\n" : "\n  }\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String millis(long nanos){
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String micros(long nanos){
+		return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+	}
+
+	/**
+	 * JSONの文字列として引用符で囲む
+	 */
+	private static String quote(String s){
+		StringBuilder sb = new StringBuilder("\"");
+		for(char c : s.toCharArray()){
+			if(c=='"' || c=='\\')sb.append('\\').append(c);
+			else if(c<0x20)sb.append(String.format("\\u%04x", (int)c));
+			else sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,46 @@
+package com.kikisoftware.migrator.database;
+
+/**
+ * 処理段階ごとの計測値をJMXで参照するためのインターフェイス
+ * @author kikisoftware
+ */
+public interface PhaseMetricsMBean {
+	/**
+	 * @return 計測対象の名前
+	 */
+	String getName();
+
+	/**
+	 * @return 計測開始からの経過ミリ秒数
+	 */
+	long getElapsedMillis();
+
+	/**
+	 * @return 記録のある処理段階名の一覧
+	 */
+	String[] getPhases();
+
+	/**
+	 * @return 全ての計測値のJSON文字列
+	 */
+	String getJson();
+
+	/**
+	 * @param phase 処理段階名
+	 * @return 処理段階の実行回数
+	 */
+	long getCount(String phase);
+
+	/**
+	 * @param phase 処理段階名
+	 * @return 処理段階の合計時間（ミリ秒）
+	 */
+	double getTotalMillis(String phase);
+
+	/**
+	 * @param phase 処理段階名
+	 * @param percentile パーセンタイル（0～100）
+	 * @return 処理段階の1回あたりの処理時間のパーセンタイル値（ミリ秒）
+	 */
+	double getPercentileMillis(String phase, double percentile);
+}
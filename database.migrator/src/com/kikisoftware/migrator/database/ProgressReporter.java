@@ -0,0 +1,141 @@
+package com.kikisoftware.migrator.database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+
+/**
+ * 処理の進捗を一定間隔でまとめてログ出力する。
+ * 処理件数・バッチ数・エラー数・スキップ数を加算しておき、maybeReport()が呼び出された時に
+ * 前回の出力から指定時間または指定件数を超えていれば、処理速度・進捗率・残り時間を出力する。
+ * キー範囲分割時は複数スレッドから同じインスタンスに加算してよい。
+ * @author kikisoftware
+ */
+public class ProgressReporter {
+	/** 処理速度の移動平均に、最新の計測値を反映する割合 **/
+	private static final double SMOOTHING = 0.3;
+
+	private final String label;
+	private final long total;
+	private final long intervalNanos;
+	private final long intervalRows;
+	private final long startNanos = System.nanoTime();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong skips = new AtomicLong();
+	private volatile long nextNanos;
+	private volatile long nextRows;
+	private long lastNanos = startNanos;
+	private long lastRows = 0;
+	private long lastBatches = 0;
+	private double averageRate = -1;
+	private long completedRows = 0;
+
+	/**
+	 * コンストラクタ
+	 * @param label ログの先頭に付加する文字列 (NotNull)
+	 * @param total 全体の件数。0以下なら不明として進捗率と残り時間は出力しない
+	 * @param intervalSeconds 出力間隔（秒）。0以下なら時間では出力しない
+	 * @param intervalRows 出力間隔（件数）。0以下なら件数では出力しない
+	 */
+	public ProgressReporter(String label, long total, long intervalSeconds, long intervalRows){
+		this.label = label;
+		this.total = total;
+		this.intervalNanos = intervalSeconds>0 ? TimeUnit.SECONDS.toNanos(intervalSeconds) : Long.MAX_VALUE;
+		this.intervalRows = intervalRows>0 ? intervalRows : Long.MAX_VALUE;
+		this.nextNanos = intervalSeconds>0 ? startNanos + intervalNanos : Long.MAX_VALUE;
+		this.nextRows = this.intervalRows;
+	}
+
+	/**
+	 * 件数を加算する
+	 * @param rows 処理件数
+	 * @param batches バッチ数
+	 * @param errors エラー数
+	 * @param skips スキップ数
+	 */
+	public void add(long rows, long batches, long errors, long skips){
+		if(rows!=0)this.rows.addAndGet(rows);
+		if(batches!=0)this.batches.addAndGet(batches);
+		if(errors!=0)this.errors.addAndGet(errors);
+		if(skips!=0)this.skips.addAndGet(skips);
+	}
+
+	/**
+	 * 再開時に処理済みの件数を加算する。進捗率には含め、処理速度には含めない
+	 * @param rows 処理済みの件数
+	 */
+	public synchronized void addCompleted(long rows){
+		this.rows.addAndGet(rows);
+		completedRows += rows;
+		lastRows += rows;
+		nextRows += rows;
+	}
+
+	/**
+	 * 前回の出力から指定時間または指定件数を超えていれば進捗を出力する
+	 */
+	public void maybeReport(){
+		if(System.nanoTime()<nextNanos && rows.get()<nextRows)return;
+		synchronized(this){
+			// 他のスレッドが出力済みなら何もしない
+			if(System.nanoTime()<nextNanos && rows.get()<nextRows)return;
+			report();
+		}
+	}
+
+	/**
+	 * 進捗を出力する
+	 */
+	public synchronized void report(){
+		long now = System.nanoTime();
+		long done = rows.get();
+		long batchNum = batches.get();
+		double seconds = Math.max(now - lastNanos, 1) / 1e9;
+		double rate = (done - lastRows) / seconds;
+		double batchRate = (batchNum - lastBatches) / seconds;
+		averageRate = averageRate<0 ? rate : averageRate * (1 - SMOOTHING) + rate * SMOOTHING;
+		StringBuilder sb = new StringBuilder(label).append("進捗 処理数:").append(done);
+		if(total>0){
+			sb.append(" / ").append(total).append(String.format(" (%.1f%%)", done * 100.0 / total));
+		}
+		sb.append(" 速度:").append(Math.round(rate)).append("行/秒 平均:").append(Math.round(averageRate)).append("行/秒");
+		if(batchNum>0)sb.append(String.format(" バッチ:%.1f回/秒", batchRate));
+		sb.append(" エラー:").append(errors.get()).append(" スキップ:").append(skips.get());
+		sb.append(" 経過:").append(formatSeconds((now - startNanos) / 1000000000L));
+		if(total>0 && done<total && averageRate>0){
+			sb.append(" 残り:").append(formatSeconds((long)((total - done) / averageRate)));
+		}
+		Utilities.outLog(Utilities.log_, Level.INFO, sb.toString());
+		lastNanos = now;
+		lastRows = done;
+		lastBatches = batchNum;
+		if(intervalNanos!=Long.MAX_VALUE)nextNanos = now + intervalNanos;
+		if(intervalRows!=Long.MAX_VALUE)nextRows = done + intervalRows;
+	}
+
+	/**
+	 * 処理終了時に、開始からの平均速度と合計を出力する
+	 */
+	public synchronized void reportFinal(){
+		long now = System.nanoTime();
+		long done = rows.get();
+		double seconds = Math.max(now - startNanos, 1) / 1e9;
+		StringBuilder sb = new StringBuilder(label).append("進捗 終了 処理数:").append(done);
+		if(total>0)sb.append(" / ").append(total);
+		sb.append(" 平均:").append(Math.round((done - completedRows) / seconds)).append("行/秒");
+		if(batches.get()>0)sb.append(" バッチ:").append(batches.get()).append("回");
+		sb.append(" エラー:").append(errors.get()).append(" スキップ:").append(skips.get());
+		sb.append(" 経過:").append(formatSeconds((now - startNanos) / 1000000000L));
+		Utilities.outLog(Utilities.log_, Level.INFO, sb.toString());
+	}
+
+	/**
+	 * 秒数を時:分:秒の形式にする
+	 */
+	private static String formatSeconds(long seconds){
+		return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+}
@@ -0,0 +1,163 @@
+package com.kikisoftware.migrator.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+
+/**
+ * setXxx()で設定されたパラメータを記録し、実行はRowWriterに任せるPreparedStatement。
+ * 実装クラスのsetParameters()はそのままで、書き込み方法だけを切り替えるために使う。
+ * addBatch()で記録した行をRowWriterへ渡し、executeBatch()でRowWriterに書き込ませる。
+ * JDBCの仕様と同様に、addBatch()後もパラメータは次の行に引き継がれる。
+ * RowWriterを指定しない場合は、パラメータの記録のみを行い、実行はできない。
+ * @author kikisoftware
+ */
+public class RecordingStatement implements InvocationHandler {
+	/**
+	 * 行を追加する時点で、ログ出力用の識別文字列を返す
+	 * @author kikisoftware
+	 */
+	public static interface Tagger {
+		/**
+		 * @return 現在の行の識別文字列
+		 */
+		String getTag();
+	}
+
+	/**
+	 * パラメータが設定されるごとに呼び出される
+	 * @author kikisoftware
+	 */
+	public static interface ParameterListener {
+		/**
+		 * パラメータが記録された後に呼び出される
+		 * @param index 設定されたパラメータ番号
+		 */
+		void onParameter(int index);
+	}
+
+	private final Connection con;
+	private final RowWriter writer;
+	private final Tagger tagger;
+	private final ParameterListener listener;
+	private final int parameterCount;
+	private BoundRow row;
+	private boolean closed = false;
+
+	private RecordingStatement(Connection con, RowWriter writer, Tagger tagger, ParameterListener listener, int parameterCount){
+		this.con = con;
+		this.writer = writer;
+		this.tagger = tagger;
+		this.listener = listener;
+		this.parameterCount = parameterCount;
+		this.row = new BoundRow(parameterCount);
+	}
+
+	/**
+	 * PreparedStatementを生成する
+	 * @param con getConnection()で返すコネクション (NotNull)
+	 * @param writer 行の書き込み先。パラメータの記録のみを行う場合はnull (NullAllowed)
+	 * @param tagger 行の識別文字列の取得元 (NullAllowed)
+	 * @param parameterCount 1行あたりのパラメータ数
+	 * @return 生成したPreparedStatement
+	 */
+	public static PreparedStatement create(Connection con, RowWriter writer, Tagger tagger, int parameterCount){
+		return create(con, writer, tagger, null, parameterCount);
+	}
+
+	/**
+	 * パラメータの設定を通知するPreparedStatementを生成する
+	 * @param con getConnection()で返すコネクション (NotNull)
+	 * @param writer 行の書き込み先。パラメータの記録のみを行う場合はnull (NullAllowed)
+	 * @param tagger 行の識別文字列の取得元 (NullAllowed)
+	 * @param listener パラメータの設定の通知先 (NullAllowed)
+	 * @param parameterCount 1行あたりのパラメータ数
+	 * @return 生成したPreparedStatement
+	 */
+	public static PreparedStatement create(Connection con, RowWriter writer, Tagger tagger, ParameterListener listener, int parameterCount){
+		return (PreparedStatement)Proxy.newProxyInstance(RecordingStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, new RecordingStatement(con, writer, tagger, listener, parameterCount));
+	}
+
+	/**
+	 * create()で生成したステートメントに現在設定されているパラメータを返す
+	 * @param ps create()で生成したステートメント (NotNull)
+	 * @return 現在の行のパラメータ
+	 */
+	public static BoundRow getRow(PreparedStatement ps){
+		return ((RecordingStatement)Proxy.getInvocationHandler(ps)).row;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable{
+		String name = method.getName();
+		int argc = args==null ? 0 : args.length;
+		if(name.equals("close")){
+			if(!closed && writer!=null)writer.close();
+			closed = true;
+			return null;
+		}
+		if(name.equals("isClosed"))return closed;
+		if(name.equals("toString"))return "RecordingStatement(" + writer + ")";
+		if(name.equals("hashCode"))return System.identityHashCode(proxy);
+		if(name.equals("equals"))return proxy==args[0];
+		if(closed)throw new SQLException("No operations allowed after statement closed.", "S1009");
+		if(name.startsWith("set") && argc>=2 && method.getParameterTypes()[0]==int.class){
+			row.set(method, args);
+			if(listener!=null)listener.onParameter((Integer)args[0]);
+			return null;
+		}
+		if(argc==0){
+			if(name.equals("clearParameters")){
+				row = new BoundRow(parameterCount);
+				return null;
+			}
+			if(name.equals("getConnection"))return con;
+			if(writer==null)throw new SQLFeatureNotSupportedException(name + "はパラメータ記録用のステートメントでは使用できません。");
+			if(name.equals("addBatch")){
+				addRow();
+				return null;
+			}
+			if(name.equals("executeBatch"))return writer.flush();
+			if(name.equals("clearBatch")){
+				writer.clear();
+				return null;
+			}
+			if(name.equals("executeUpdate") || name.equals("execute")){
+				addRow();
+				int[] result = writer.flush();
+				int count = 0;
+				for(int r : result)if(r!=Statement.EXECUTE_FAILED)count++;
+				return name.equals("execute") ? (Object)Boolean.FALSE : (Object)count;
+			}
+			if(name.equals("getUpdateCount"))return -1;
+			if(name.equals("getWarnings"))return null;
+			if(name.equals("clearWarnings"))return null;
+		}
+		if(name.equals("isWrapperFor"))return ((Class<?>)args[0]).isInstance(proxy);
+		if(name.equals("unwrap")){
+			if(((Class<?>)args[0]).isInstance(proxy))return proxy;
+			throw new SQLException("Not a wrapper for " + args[0]);
+		}
+		if(method.getDeclaringClass()==Object.class){
+			try{
+				return method.invoke(this, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		throw new SQLFeatureNotSupportedException(name + "はこのステートメントでは使用できません。");
+	}
+
+	private void addRow() throws SQLException{
+		BoundRow added = row;
+		row = row.copy();
+		if(tagger!=null)added.setTag(tagger.getTag());
+		writer.add(added);
+	}
+}
@@ -0,0 +1,155 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+
+/**
+ * デッドロック・ロック待ちタイムアウトなど、やり直せば成功する見込みのあるエラーの再試行方法を決める。
+ * 再試行までの待機時間は再試行ごとに2倍にし、上限で打ち切る。同時に失敗した処理が同じ間隔で衝突し続けないよう、
+ * 待機時間の後半をランダムにずらす。
+ * 接続断は同じコネクションで再試行しても成功しないため、再試行の対象にしない。
+ * 再試行の回数をSQLステータスごとに記録する。複数スレッドから同時に使ってよい。
+ * @author kikisoftware
+ */
+public class RetryPolicy {
+	private final int maxRetries;
+	private final long baseMillis;
+	private final long maxMillis;
+	private final Set<String> sqlStates = new HashSet<String>();
+	private final Set<Integer> errorCodes = new HashSet<Integer>();
+	private final Map<String, AtomicLong> retries = new TreeMap<String, AtomicLong>();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 * @param maxRetries 1つの処理あたりの最大再試行回数。0なら再試行しない
+	 * @param baseMillis 1回目の再試行までの待機時間（ミリ秒）
+	 * @param maxMillis 待機時間の上限（ミリ秒）
+	 * @param sqlStates 再試行するSQLステータスのカンマ区切り (NotNull)
+	 * @param errorCodes 再試行するエラーコードのカンマ区切り (NotNull)
+	 * @throws NumberFormatException エラーコードが数値でない場合
+	 */
+	public RetryPolicy(int maxRetries, long baseMillis, long maxMillis, String sqlStates, String errorCodes){
+		this.maxRetries = Math.max(0, maxRetries);
+		this.baseMillis = Math.max(1, baseMillis);
+		this.maxMillis = Math.max(this.baseMillis, maxMillis);
+		for(String s : sqlStates.split(",")){
+			if(!s.trim().equals(""))this.sqlStates.add(s.trim());
+		}
+		for(String s : errorCodes.split(",")){
+			if(!s.trim().equals(""))this.errorCodes.add(Integer.valueOf(s.trim()));
+		}
+	}
+
+	/**
+	 * @return 1つの処理あたりの最大再試行回数
+	 */
+	public int getMaxRetries(){
+		return maxRetries;
+	}
+
+	/**
+	 * @param e 発生した例外 (NotNull)
+	 * @return 再試行の対象となるエラーの場合true
+	 */
+	public boolean isRetryable(SQLException e){
+		for(SQLException cause = e; cause!=null; cause = cause.getNextException()){
+			String sqlstate = cause.getSQLState();
+			if(Consts.SQL_STATE_CONNECTION_ERROR.equals(sqlstate))return false;
+			if(sqlstate!=null && sqlStates.contains(sqlstate))return true;
+			if(errorCodes.contains(cause.getErrorCode()))return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 再試行するかを判断する。再試行の対象となるエラーで、再試行回数が上限に達した場合は打ち切りとして記録する
+	 * @param e 発生した例外 (NotNull)
+	 * @param attempt これまでの再試行回数
+	 * @return 再試行する場合true
+	 */
+	public boolean shouldRetry(SQLException e, int attempt){
+		if(!isRetryable(e))return false;
+		if(attempt<maxRetries)return true;
+		if(maxRetries>0)exhausted.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * 再試行を記録し、待機する。割り込まれた場合は待機を止め、発生した例外をthrowする
+	 * @param e 発生した例外 (NotNull)
+	 * @param attempt これまでの再試行回数
+	 * @param target ログ出力用の再試行する処理の説明 (NotNull)
+	 * @throws SQLException 待機中に割り込まれた場合、発生した例外
+	 */
+	public void backoff(SQLException e, int attempt, String target) throws SQLException{
+		String sqlstate = String.valueOf(e.getSQLState());
+		AtomicLong count;
+		synchronized(retries){
+			count = retries.get(sqlstate);
+			if(count==null){
+				count = new AtomicLong();
+				retries.put(sqlstate, count);
+			}
+		}
+		count.incrementAndGet();
+		long delay = getDelayMillis(attempt);
+		Utilities.outLog(Utilities.log_, Level.WARN, target + " 再試行 " + (attempt + 1) + "/" + maxRetries + " 待機:" + delay + "ms SQLState:" + e.getSQLState() + " ERROR Code:" + e.getErrorCode() + " " + e.getMessage());
+		try{
+			Thread.sleep(delay);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	/**
+	 * 再試行して成功した事を記録する
+	 */
+	public void recordRecovered(){
+		recovered.incrementAndGet();
+	}
+
+	/**
+	 * @param attempt これまでの再試行回数
+	 * @return 次の再試行までの待機時間（ミリ秒）。上限を2倍ずつ広げ、後半をランダムにずらす
+	 */
+	public long getDelayMillis(int attempt){
+		long cap = baseMillis << Math.min(attempt, 30);
+		if(cap<=0 || cap>maxMillis)cap = maxMillis;
+		long half = cap / 2;
+		return cap - half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+
+	/**
+	 * @return 再試行の総回数
+	 */
+	public long getRetries(){
+		long total = 0;
+		synchronized(retries){
+			for(AtomicLong count : retries.values())total += count.get();
+		}
+		return total;
+	}
+
+	/**
+	 * @return SQLステータスごとの再試行回数と、再試行の結果を表す文字列
+	 */
+	public String getStatsString(){
+		StringBuilder sb = new StringBuilder("再試行 合計:").append(getRetries());
+		synchronized(retries){
+			for(Map.Entry<String, AtomicLong> entry : retries.entrySet()){
+				sb.append(" SQLState ").append(entry.getKey()).append(':').append(entry.getValue().get());
+			}
+		}
+		return sb.append(" 成功:").append(recovered.get()).append(" 打ち切り:").append(exhausted.get()).toString();
+	}
+}
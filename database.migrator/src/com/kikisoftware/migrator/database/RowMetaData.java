@@ -0,0 +1,297 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ResultSetMetaDataの内容を複写して保持する。
+ * 元のResultSetをクローズした後や、別スレッドからも参照できる。
+ * @author kikisoftware
+ */
+public class RowMetaData implements ResultSetMetaData {
+	private final int columnCount;
+	private final String[] labels;
+	private final String[] names;
+	private final int[] types;
+	private final String[] typeNames;
+	private final String[] classNames;
+	private final int[] precisions;
+	private final int[] scales;
+	private final int[] nullables;
+	private final String[] tableNames;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	/**
+	 * 取得済みのResultSetMetaDataから複写する
+	 * @param md 複写元 (NotNull)
+	 * @throws SQLException DBエラー
+	 */
+	public RowMetaData(ResultSetMetaData md) throws SQLException{
+		this(md.getColumnCount());
+		for(int i = 0; i < columnCount; i++){
+			labels[i] = md.getColumnLabel(i + 1);
+			names[i] = md.getColumnName(i + 1);
+			types[i] = md.getColumnType(i + 1);
+			typeNames[i] = md.getColumnTypeName(i + 1);
+			classNames[i] = md.getColumnClassName(i + 1);
+			precisions[i] = md.getPrecision(i + 1);
+			scales[i] = md.getScale(i + 1);
+			nullables[i] = md.isNullable(i + 1);
+			tableNames[i] = md.getTableName(i + 1);
+		}
+		buildIndexes();
+	}
+
+	/**
+	 * 列名と型を指定して生成する。
+	 * 型名などの付随情報は持たない
+	 * @param labels 列名の配列 (NotNull)
+	 * @param types java.sql.Typesの値の配列。labelsと同じ長さである事 (NotNull)
+	 */
+	public RowMetaData(String[] labels, int[] types){
+		this(labels.length);
+		for(int i = 0; i < columnCount; i++){
+			this.labels[i] = labels[i];
+			this.names[i] = labels[i];
+			this.types[i] = types[i];
+			this.typeNames[i] = "";
+			this.classNames[i] = Object.class.getName();
+			this.nullables[i] = columnNullableUnknown;
+			this.tableNames[i] = "";
+		}
+		buildIndexes();
+	}
+
+	private RowMetaData(int columnCount){
+		this.columnCount = columnCount;
+		labels = new String[columnCount];
+		names = new String[columnCount];
+		types = new int[columnCount];
+		typeNames = new String[columnCount];
+		classNames = new String[columnCount];
+		precisions = new int[columnCount];
+		scales = new int[columnCount];
+		nullables = new int[columnCount];
+		tableNames = new String[columnCount];
+	}
+
+	private void buildIndexes(){
+		// JDBCの仕様どおり、同名の列は先頭のものを優先し、大文字小文字は区別しない
+		for(int i = columnCount - 1; i >= 0; i--){
+			if(names[i]!=null)indexes.put(names[i].toLowerCase(Locale.ENGLISH), i + 1);
+		}
+		for(int i = columnCount - 1; i >= 0; i--){
+			if(labels[i]!=null)indexes.put(labels[i].toLowerCase(Locale.ENGLISH), i + 1);
+		}
+	}
+
+	/**
+	 * 列定義を書き込む。read()で同じ内容を読み込める
+	 * @param out 書き込み先 (NotNull)
+	 * @throws IOException 書き込みエラー
+	 */
+	public void write(DataOutput out) throws IOException{
+		out.writeInt(columnCount);
+		for(int i = 0; i < columnCount; i++){
+			writeString(out, labels[i]);
+			writeString(out, names[i]);
+			out.writeInt(types[i]);
+			writeString(out, typeNames[i]);
+			writeString(out, classNames[i]);
+			out.writeInt(precisions[i]);
+			out.writeInt(scales[i]);
+			out.writeInt(nullables[i]);
+			writeString(out, tableNames[i]);
+		}
+	}
+
+	/**
+	 * write()で書き込んだ列定義を読み込む
+	 * @param in 読み込み元 (NotNull)
+	 * @return 読み込んだ列定義
+	 * @throws IOException 読み込みエラー
+	 */
+	public static RowMetaData read(DataInput in) throws IOException{
+		RowMetaData meta = new RowMetaData(in.readInt());
+		for(int i = 0; i < meta.columnCount; i++){
+			meta.labels[i] = readString(in);
+			meta.names[i] = readString(in);
+			meta.types[i] = in.readInt();
+			meta.typeNames[i] = readString(in);
+			meta.classNames[i] = readString(in);
+			meta.precisions[i] = in.readInt();
+			meta.scales[i] = in.readInt();
+			meta.nullables[i] = in.readInt();
+			meta.tableNames[i] = readString(in);
+		}
+		meta.buildIndexes();
+		return meta;
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException{
+		out.writeBoolean(s!=null);
+		if(s!=null)out.writeUTF(s);
+	}
+
+	private static String readString(DataInput in) throws IOException{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * 列名から列番号を取得する
+	 * @param label 列名 (NotNull)
+	 * @return 1から始まる列番号
+	 * @throws SQLException 列が存在しない場合
+	 */
+	public int findColumn(String label) throws SQLException{
+		Integer index = indexes.get(label.toLowerCase(Locale.ENGLISH));
+		if(index==null)throw new SQLException("Column '" + label + "' not found.", "S0022");
+		return index;
+	}
+
+	private void check(int column) throws SQLException{
+		if(column<1 || column>columnCount)throw new SQLException("Column Index out of range, " + column + " > " + columnCount + ".", "S1002");
+	}
+
+	@Override
+	public int getColumnCount(){
+		return columnCount;
+	}
+
+	@Override
+	public boolean isAutoIncrement(int column) throws SQLException{
+		check(column);
+		return false;
+	}
+
+	@Override
+	public boolean isCaseSensitive(int column) throws SQLException{
+		check(column);
+		return false;
+	}
+
+	@Override
+	public boolean isSearchable(int column) throws SQLException{
+		check(column);
+		return true;
+	}
+
+	@Override
+	public boolean isCurrency(int column) throws SQLException{
+		check(column);
+		return false;
+	}
+
+	@Override
+	public int isNullable(int column) throws SQLException{
+		check(column);
+		return nullables[column - 1];
+	}
+
+	@Override
+	public boolean isSigned(int column) throws SQLException{
+		check(column);
+		return true;
+	}
+
+	@Override
+	public int getColumnDisplaySize(int column) throws SQLException{
+		check(column);
+		return precisions[column - 1];
+	}
+
+	@Override
+	public String getColumnLabel(int column) throws SQLException{
+		check(column);
+		return labels[column - 1];
+	}
+
+	@Override
+	public String getColumnName(int column) throws SQLException{
+		check(column);
+		return names[column - 1];
+	}
+
+	@Override
+	public String getSchemaName(int column) throws SQLException{
+		check(column);
+		return "";
+	}
+
+	@Override
+	public int getPrecision(int column) throws SQLException{
+		check(column);
+		return precisions[column - 1];
+	}
+
+	@Override
+	public int getScale(int column) throws SQLException{
+		check(column);
+		return scales[column - 1];
+	}
+
+	@Override
+	public String getTableName(int column) throws SQLException{
+		check(column);
+		return tableNames[column - 1];
+	}
+
+	@Override
+	public String getCatalogName(int column) throws SQLException{
+		check(column);
+		return "";
+	}
+
+	@Override
+	public int getColumnType(int column) throws SQLException{
+		check(column);
+		return types[column - 1];
+	}
+
+	@Override
+	public String getColumnTypeName(int column) throws SQLException{
+		check(column);
+		return typeNames[column - 1];
+	}
+
+	@Override
+	public boolean isReadOnly(int column) throws SQLException{
+		check(column);
+		return true;
+	}
+
+	@Override
+	public boolean isWritable(int column) throws SQLException{
+		check(column);
+		return false;
+	}
+
+	@Override
+	public boolean isDefinitelyWritable(int column) throws SQLException{
+		check(column);
+		return false;
+	}
+
+	@Override
+	public String getColumnClassName(int column) throws SQLException{
+		check(column);
+		return classNames[column - 1];
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException{
+		if(iface.isInstance(this))return iface.cast(this);
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface){
+		return iface.isInstance(this);
+	}
+}
@@ -0,0 +1,24 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 移行する行を順に読み出す。
+ * 移行元のSQLを実行するSourceCursorと、スプールファイルを読み込むSpoolReaderがある。
+ * @author kikisoftware
+ */
+public interface RowReader {
+	/**
+	 * 次の行へ進む
+	 * @return 次の行がある場合true
+	 * @throws SQLException 読み込みエラー
+	 */
+	boolean next() throws SQLException;
+
+	/**
+	 * 現在行を含むResultSetを返す。next()の呼び出しによって別のインスタンスになる場合がある
+	 * @return 現在のResultSet
+	 */
+	ResultSet getResultSet();
+}
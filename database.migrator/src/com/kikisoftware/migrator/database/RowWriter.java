@@ -0,0 +1,55 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.SQLException;
+
+/**
+ * 記録した行を溜めておき、まとめて移行先へ書き込む。
+ * RecordingStatementのaddBatch()、executeBatch()などから呼び出される。
+ * @author kikisoftware
+ */
+public interface RowWriter extends AutoCloseable {
+	/**
+	 * 書き込みに失敗した行を受け取る
+	 * @author kikisoftware
+	 */
+	public static interface FailureHandler {
+		/**
+		 * 行の書き込みに失敗した時に呼び出される。
+		 * 接続断の場合は呼び出されず、例外がthrowされる。
+		 * @param row 失敗した行 (NotNull)
+		 * @param e 発生した例外 (NotNull)
+		 */
+		void onRowFailure(BoundRow row, SQLException e);
+	}
+
+	/**
+	 * 行を追加する。溜めている行が上限に達する場合は、先に書き込みを行う
+	 * @param row 追加する行 (NotNull)
+	 * @throws SQLException 書き込みに失敗した場合
+	 */
+	void add(BoundRow row) throws SQLException;
+
+	/**
+	 * 溜めている行を全て書き込む
+	 * @return 行ごとの結果。Statement.SUCCESS_NO_INFOまたはStatement.EXECUTE_FAILED
+	 * @throws SQLException 書き込みに失敗した場合
+	 */
+	int[] flush() throws SQLException;
+
+	/**
+	 * 溜めている行を書き込まずに破棄する
+	 */
+	void clear();
+
+	/**
+	 * @return 溜めている行数
+	 */
+	int getPendingRows();
+
+	/**
+	 * 溜めている行を破棄し、使用しているステートメントをクローズする
+	 * @throws SQLException クローズに失敗した場合
+	 */
+	@Override
+	void close() throws SQLException;
+}
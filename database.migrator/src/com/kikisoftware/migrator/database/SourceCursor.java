@@ -0,0 +1,185 @@
+package com.kikisoftware.migrator.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.log4j.Level;
+
+import com.kikisoftware.migrator.database.Consts.READ_MODE;
+
+/**
+ * 元データ取得用SQLを実行し、行を順に読み出す。
+ * キーセット分割を指定した場合は、キー列の昇順に指定件数ずつ、前回の最終キーより大きい範囲を取得するSQLを繰り返し実行する。
+ * 1回のSQLが短時間で終わるため、長時間のトランザクションや読み込みタイムアウトを避けられる。
+ * キーセット分割ではキー列の値が一意である事。同じ値の行が取得の区切りをまたぐと読み飛ばされるため、
+ * 2回目以降は前回の最終キー以上の範囲を1件多く取得し、最終キーと同じ値の行が2件以上あればエラーとする。
+ * @author kikisoftware
+ */
+public class SourceCursor implements RowReader, AutoCloseable {
+	private final Connection con;
+	private final String template;
+	private final String keyColumn;
+	private final String keyLabel;
+	private final String baseCondition;
+	private final int keysetChunkSize;
+	private final READ_MODE readMode;
+	private final int fetchSize;
+	private final int timeout;
+
+	private Statement stmt = null;
+	private ResultSet rs = null;
+	private int keyIndex = 0;
+	private int chunkRows = 0;
+	private int chunkLimit = 0;
+	private boolean skipBoundary = false;
+	private int chunkNum = 0;
+	private Long lastKey = null;
+	private boolean exhausted = false;
+	private boolean orderByKey = false;
+
+	/**
+	 * コンストラクタ。SQLの実行はopen()で行う
+	 * @param con 元データ側のコネクション (NotNull)
+	 * @param template 元データ取得用SQL。キーセット分割する場合はキー範囲プレースホルダを含む事 (NotNull)
+	 * @param range 取得するキー範囲 (NullAllowed)
+	 * @param keyColumn キー列名。キー範囲・キーセット分割・キー値の取得を行わない場合はnull (NullAllowed)
+	 * @param keysetChunkSize キーセット分割する場合の1回の取得件数。0以下なら分割しない
+	 * @param readMode 読み込みモード (NotNull)
+	 * @param fetchSize フェッチサイズ
+	 * @param timeout 1回のSQLの読み込みタイムアウト（秒）
+	 */
+	public SourceCursor(Connection con, String template, KeyRange range, String keyColumn, int keysetChunkSize, READ_MODE readMode, int fetchSize, int timeout){
+		this.con = con;
+		this.template = template;
+		this.keyColumn = keyColumn;
+		this.keyLabel = keyColumn==null ? null : keyColumn.substring(keyColumn.lastIndexOf('.') + 1);
+		this.baseCondition = range==null || keyColumn==null ? "1=1" : range.toCondition(keyColumn);
+		this.keysetChunkSize = keyColumn==null ? 0 : keysetChunkSize;
+		this.readMode = readMode;
+		this.fetchSize = fetchSize;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * キーセット分割しない場合も、キー列の昇順で取得するかを指定する。open()より前に呼び出す事
+	 * @param orderByKey キー列の昇順で取得する場合true
+	 */
+	public void setOrderByKey(boolean orderByKey){
+		this.orderByKey = orderByKey;
+	}
+
+	/**
+	 * 最初のSQLを実行する
+	 * @throws SQLException DBエラー、またはキーセット分割の指定時にSQLにプレースホルダがない場合
+	 */
+	public void open() throws SQLException{
+		if(keysetChunkSize>0 && !KeyRange.hasPlaceholder(template)){
+			throw new SQLException("キーセット分割にはSQLファイルにキー範囲のプレースホルダ" + Consts.SQL_KEY_RANGE_PLACEHOLDER + "が必要です。");
+		}
+		query();
+	}
+
+	private void query() throws SQLException{
+		closeStatement();
+		String sql;
+		if(keysetChunkSize>0){
+			// 2回目以降は前回の最終行も取得し、キー列の値が一意である事を確認する
+			String condition = lastKey==null ? baseCondition : baseCondition + " AND " + keyColumn + " >= " + lastKey;
+			skipBoundary = lastKey!=null;
+			chunkLimit = lastKey==null ? keysetChunkSize : keysetChunkSize + 1;
+			sql = stripTerminator(KeyRange.applyCondition(template, condition)) + " ORDER BY " + keyColumn + " LIMIT " + chunkLimit;
+		}
+		else{
+			sql = KeyRange.applyCondition(template, baseCondition);
+			if(orderByKey && keyColumn!=null)sql = stripTerminator(sql) + " ORDER BY " + keyColumn;
+		}
+		chunkNum++;
+		Utilities.outLog(Utilities.log_, Level.DEBUG, "元データ取得SQL(" + chunkNum + "):" + sql);
+		stmt = Utilities.createSourceStatement(con, sql, readMode, fetchSize);
+		stmt.setQueryTimeout(timeout);
+		rs = Utilities.executeSourceQuery(stmt, sql);
+		keyIndex = keyLabel==null ? 0 : rs.findColumn(keyLabel);
+		chunkRows = 0;
+	}
+
+	/**
+	 * 次の行へ進む。キーセット分割時は、現在の取得分を読み終えると次のSQLを実行する
+	 * @return 次の行がある場合true
+	 * @throws SQLException DBエラー、またはキーセット分割時にキー列の値が一意でない場合
+	 */
+	@Override
+	public boolean next() throws SQLException{
+		while(!exhausted){
+			if(rs.next()){
+				chunkRows++;
+				if(keysetChunkSize<=0)return true;
+				long key = rs.getLong(keyIndex);
+				boolean boundary = skipBoundary;
+				skipBoundary = false;
+				if(lastKey!=null && key==lastKey){
+					// 前回の最終行は読み込み済みなので読み飛ばす
+					if(boundary)continue;
+					throw new SQLException("キーセット分割のキー列の値が一意ではありません。一意な列をキー列に指定してください。" + keyColumn + "=" + key);
+				}
+				lastKey = key;
+				return true;
+			}
+			if(keysetChunkSize<=0 || chunkRows<chunkLimit){
+				exhausted = true;
+				break;
+			}
+			query();
+		}
+		return false;
+	}
+
+	/**
+	 * 現在行を含むResultSetを返す。キーセット分割時はSQLの実行ごとに別のインスタンスになる
+	 * @return 現在のResultSet
+	 */
+	@Override
+	public ResultSet getResultSet(){
+		return rs;
+	}
+
+	/**
+	 * 現在行のキー値を返す
+	 * @return キー値。キー列の指定がない場合はnull
+	 * @throws SQLException DBエラー
+	 */
+	public Long getCurrentKey() throws SQLException{
+		if(keyIndex==0)return null;
+		long key = rs.getLong(keyIndex);
+		return rs.wasNull() ? null : key;
+	}
+
+	/**
+	 * @return 実行したSQLの回数
+	 */
+	public int getChunkNum(){
+		return chunkNum;
+	}
+
+	private static String stripTerminator(String sql){
+		String s = sql.trim();
+		while(s.endsWith(";"))s = s.substring(0, s.length() - 1).trim();
+		return s;
+	}
+
+	private void closeStatement() throws SQLException{
+		try{
+			if(rs!=null)rs.close();
+		} finally {
+			rs = null;
+			if(stmt!=null)stmt.close();
+			stmt = null;
+		}
+	}
+
+	@Override
+	public void close() throws SQLException{
+		closeStatement();
+	}
+}
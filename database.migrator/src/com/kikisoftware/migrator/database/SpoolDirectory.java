@@ -0,0 +1,210 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * スプールファイルを置くディレクトリ。
+ * 抽出処理はセグメントを「名前[.p分割番号].連番.seg」のファイル名で書き出し、全て完了した時点で
+ * セグメントの一覧と行数をマニフェスト「名前.spool」に書き込む。
+ * ロード処理はマニフェストに記載されたセグメントのみを読み込むため、中断した抽出の書きかけや以前の抽出の残りは読み込まない。
+ * ロードが完了したセグメントには「セグメントのファイル名.loaded」の印を作成し、再開時は読み飛ばす。
+ * @author kikisoftware
+ */
+public class SpoolDirectory {
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String MANIFEST_SUFFIX = ".spool";
+	private static final String LOADED_SUFFIX = ".loaded";
+	private static final String KEY_ROWS = "rows";
+	private static final String KEY_COUNT = "segment.count";
+	private static final String KEY_SEGMENT = "segment.%d";
+
+	/**
+	 * マニフェストの内容
+	 * @author kikisoftware
+	 */
+	public static class Manifest {
+		private final long rows;
+		private final List<Path> segments;
+
+		private Manifest(long rows, List<Path> segments){
+			this.rows = rows;
+			this.segments = Collections.unmodifiableList(segments);
+		}
+
+		/**
+		 * @return 全セグメントの行数の合計
+		 */
+		public long getRows(){
+			return rows;
+		}
+
+		/**
+		 * @return セグメントのパス
+		 */
+		public List<Path> getSegments(){
+			return segments;
+		}
+	}
+
+	private final Path dir;
+	private final String name;
+
+	/**
+	 * コンストラクタ
+	 * @param dir ディレクトリ (NotNull)
+	 * @param name ファイル名の元になる名前 (NotNull)
+	 */
+	public SpoolDirectory(Path dir, String name){
+		this.dir = dir;
+		this.name = name;
+	}
+
+	/**
+	 * @param partition キー範囲分割時の「.p分割番号」。分割しない場合は空文字 (NotNull)
+	 * @param sequence 0から始まるセグメントの連番
+	 * @return セグメントのパス
+	 */
+	public Path getSegmentPath(String partition, int sequence){
+		return dir.resolve(name + partition + String.format(".%06d", sequence) + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * 指定の連番以降のセグメントを、書きかけのファイルとロード済みの印を含めて削除する
+	 * @param partition キー範囲分割時の「.p分割番号」。分割しない場合は空文字。nullの場合は分割の有無に関わらず全て (NullAllowed)
+	 * @param from 削除する最初の連番
+	 * @return 削除したセグメントの数
+	 * @throws IOException 削除に失敗した場合
+	 */
+	public int deleteSegments(String partition, int from) throws IOException{
+		if(!Files.isDirectory(dir))return 0;
+		String prefix = partition==null ? Pattern.quote(name) + "(?:\\.p\\d+)?" : Pattern.quote(name + partition);
+		Pattern pattern = Pattern.compile(prefix + "\\.(\\d+)" + Pattern.quote(SEGMENT_SUFFIX) + "(\\.tmp|" + Pattern.quote(LOADED_SUFFIX) + ")?");
+		int deleted = 0;
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+			for(Path path : stream){
+				Matcher m = pattern.matcher(path.getFileName().toString());
+				if(!m.matches() || Integer.parseInt(m.group(1))<from)continue;
+				Files.delete(path);
+				if(m.group(2)==null)deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * ディレクトリにある書き終えたセグメントを、ファイル名の順に返す
+	 * @return セグメントのパス
+	 * @throws IOException 読み込みエラー
+	 */
+	public List<Path> listSegments() throws IOException{
+		List<Path> segments = new ArrayList<Path>();
+		if(!Files.isDirectory(dir))return segments;
+		Pattern pattern = Pattern.compile(Pattern.quote(name) + "(\\.p\\d+)?\\.\\d+" + Pattern.quote(SEGMENT_SUFFIX));
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+			for(Path path : stream){
+				if(pattern.matcher(path.getFileName().toString()).matches())segments.add(path);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * @return マニフェストのパス
+	 */
+	public Path getManifestPath(){
+		return dir.resolve(name + MANIFEST_SUFFIX);
+	}
+
+	/**
+	 * マニフェストを書き込む
+	 * @param segments セグメントのパス (NotNull)
+	 * @param rows 全セグメントの行数の合計
+	 * @throws IOException 書き込みエラー
+	 */
+	public void writeManifest(List<Path> segments, long rows) throws IOException{
+		Properties props = new Properties();
+		props.setProperty(KEY_ROWS, Long.toString(rows));
+		props.setProperty(KEY_COUNT, Integer.toString(segments.size()));
+		for(int i = 0; i < segments.size(); i++)props.setProperty(String.format(KEY_SEGMENT, i), segments.get(i).getFileName().toString());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		props.store(out, "database.migrator spool manifest");
+		Utilities.writeFileAtomically(getManifestPath(), out.toByteArray());
+	}
+
+	/**
+	 * マニフェストを読み込む
+	 * @return マニフェストの内容。ファイルがない場合はnull
+	 * @throws IOException 読み込みエラー、または記載されたセグメントがない場合
+	 */
+	public Manifest loadManifest() throws IOException{
+		Path path = getManifestPath();
+		if(!Files.exists(path))return null;
+		Properties props = new Properties();
+		try(InputStream in = Files.newInputStream(path)){
+			props.load(in);
+		}
+		List<Path> segments = new ArrayList<Path>();
+		for(int i = 0; i < Integer.parseInt(props.getProperty(KEY_COUNT, "0")); i++){
+			Path segment = dir.resolve(props.getProperty(String.format(KEY_SEGMENT, i)));
+			if(!Files.exists(segment))throw new IOException("マニフェストに記載されたセグメントがありません。" + segment);
+			segments.add(segment);
+		}
+		return new Manifest(Long.parseLong(props.getProperty(KEY_ROWS, "0")), segments);
+	}
+
+	/**
+	 * マニフェストを削除する
+	 * @throws IOException 削除に失敗した場合
+	 */
+	public void deleteManifest() throws IOException{
+		Files.deleteIfExists(getManifestPath());
+	}
+
+	/**
+	 * @param segment セグメントのパス (NotNull)
+	 * @return ロード済みの印のパス
+	 */
+	public Path getLoadedPath(Path segment){
+		return segment.resolveSibling(segment.getFileName().toString() + LOADED_SUFFIX);
+	}
+
+	/**
+	 * セグメントをロード済みとして印を作成する
+	 * @param segment セグメントのパス (NotNull)
+	 * @param rows ロードした行数
+	 * @throws IOException 書き込みエラー
+	 */
+	public void markLoaded(Path segment, long rows) throws IOException{
+		Utilities.writeFileAtomically(getLoadedPath(segment), Long.toString(rows).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param segment セグメントのパス (NotNull)
+	 * @return ロード済みの印がある場合true
+	 */
+	public boolean isLoaded(Path segment){
+		return Files.exists(getLoadedPath(segment));
+	}
+
+	/**
+	 * 全てのセグメントのロード済みの印を削除する
+	 * @param segments セグメントのパス (NotNull)
+	 * @throws IOException 削除に失敗した場合
+	 */
+	public void clearLoaded(List<Path> segments) throws IOException{
+		for(Path segment : segments)Files.deleteIfExists(getLoadedPath(segment));
+	}
+}
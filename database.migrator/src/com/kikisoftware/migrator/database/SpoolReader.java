@@ -0,0 +1,202 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * SpoolWriterで書き出したセグメントを読み込み、移行元のResultSetと同じように行を返す。
+ * ファイルはメモリにマップし、圧縮された行データをマップした領域から直接展開する。
+ * 値は書き出した時の型で復元し、getXxx()での型の変換はMaterializedResultSetが行う。
+ * マップした領域はインスタンスがガベージコレクションされるまで解放されない。
+ * @author kikisoftware
+ */
+public class SpoolReader implements RowReader, AutoCloseable {
+	private final Path path;
+	private final long rows;
+	private final MaterializedResultSet view;
+	private final Object[] row;
+	private final Inflater inflater = new Inflater();
+	private final DataInputStream in;
+	private long read = 0;
+
+	/**
+	 * コンストラクタ。ファイルをマップしてヘッダを読み込む
+	 * @param path 読み込むセグメントのパス (NotNull)
+	 * @throws IOException 読み込みエラー、またはスプールファイルの形式でない場合
+	 */
+	public SpoolReader(Path path) throws IOException{
+		this.path = path;
+		ByteBuffer mapped;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			if(channel.size()>Integer.MAX_VALUE){
+				throw new IOException("セグメントが大きすぎるためマップできません。exec.spoolSegmentRowsを小さくしてください。" + path + " " + channel.size() + "bytes");
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		InputStream source = new MappedInputStream(mapped);
+		DataInputStream header = new DataInputStream(source);
+		if(header.readInt()!=SpoolWriter.MAGIC)throw new IOException("スプールファイルではありません。" + path);
+		short version = header.readShort();
+		if(version!=SpoolWriter.VERSION)throw new IOException("対応していない形式の版" + version + "のスプールファイルです。" + path);
+		rows = header.readLong();
+		RowMetaData meta = RowMetaData.read(header);
+		view = new MaterializedResultSet(meta);
+		row = new Object[meta.getColumnCount()];
+		in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(source, inflater, SpoolWriter.BUFFER_SIZE), SpoolWriter.BUFFER_SIZE));
+	}
+
+	/**
+	 * 次の行へ進む。行データの配列は行ごとに再利用する
+	 * @return 次の行がある場合true
+	 * @throws SQLException 読み込みエラー、またはファイルが壊れている場合
+	 */
+	@Override
+	public boolean next() throws SQLException{
+		try{
+			if(read>=rows){
+				if(read==rows && in.read()!=-1)throw new IOException("行データがヘッダの行数" + rows + "より多くあります。");
+				read = rows + 1;
+				view.setRow(null);
+				return false;
+			}
+			for(int i = 0; i < row.length; i++)row[i] = readValue();
+			read++;
+			view.setRow(row);
+			return true;
+		} catch (IOException e) {
+			throw new SQLException("スプールファイルを読み込めませんでした。" + path + " " + (read + 1) + "行目 " + e.getMessage(), e);
+		}
+	}
+
+	private Object readValue() throws IOException{
+		byte type = in.readByte();
+		switch(type){
+		case SpoolWriter.TYPE_NULL:
+			return null;
+		case SpoolWriter.TYPE_STRING:
+			return new String(readBytes(), StandardCharsets.UTF_8);
+		case SpoolWriter.TYPE_INT:
+			return in.readInt();
+		case SpoolWriter.TYPE_LONG:
+			return in.readLong();
+		case SpoolWriter.TYPE_SHORT:
+			return in.readShort();
+		case SpoolWriter.TYPE_BYTE:
+			return in.readByte();
+		case SpoolWriter.TYPE_BOOLEAN:
+			return in.readBoolean();
+		case SpoolWriter.TYPE_FLOAT:
+			return in.readFloat();
+		case SpoolWriter.TYPE_DOUBLE:
+			return in.readDouble();
+		case SpoolWriter.TYPE_DECIMAL:
+			int scale = in.readInt();
+			return new BigDecimal(new BigInteger(readBytes()), scale);
+		case SpoolWriter.TYPE_BIGINTEGER:
+			return new BigInteger(readBytes());
+		case SpoolWriter.TYPE_DATE:
+			return new Date(in.readLong());
+		case SpoolWriter.TYPE_TIME:
+			return new Time(in.readLong());
+		case SpoolWriter.TYPE_TIMESTAMP:
+			Timestamp ts = new Timestamp(in.readLong());
+			ts.setNanos(in.readInt());
+			return ts;
+		case SpoolWriter.TYPE_BYTES:
+			return readBytes();
+		default:
+			throw new IOException("不明な値の型" + type + "です。");
+		}
+	}
+
+	private byte[] readBytes() throws IOException{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * 現在行を含むResultSetを返す。常に同じインスタンスを返す
+	 * @return 現在のResultSet
+	 */
+	@Override
+	public ResultSet getResultSet(){
+		return view.toResultSet();
+	}
+
+	/**
+	 * @return 行データの列定義
+	 */
+	public RowMetaData getMetaData(){
+		return view.getMetaData();
+	}
+
+	/**
+	 * @return ヘッダに記録された行数
+	 */
+	public long getRows(){
+		return rows;
+	}
+
+	/**
+	 * @return 読み込むセグメントのパス
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+	@Override
+	public void close() throws IOException{
+		try{
+			in.close();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * マップした領域を先頭から順に読み出す
+	 */
+	private static class MappedInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		MappedInputStream(ByteBuffer buffer){
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read(){
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len){
+			if(len==0)return 0;
+			if(!buffer.hasRemaining())return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available(){
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.log4j.Level;
+
+/**
+ * 移行元から読み込んだ行を、圧縮したスプールファイルの1セグメントとして書き出す。
+ * ファイルは非圧縮のヘッダ（識別子・形式の版・行数・列定義）と、Deflateで圧縮した行データからなる。
+ * 行データは列ごとに値の型を表す1バイトと値を並べたもので、NULLは型のみとする。
+ * 書き込み中は拡張子.tmpのファイルに書き、close()で行数をヘッダに書き込んでから名前を変更するため、
+ * 書き終えたセグメントのみがSpoolReaderで読み込める。
+ * @author kikisoftware
+ */
+public class SpoolWriter implements AutoCloseable {
+	/** ファイルの識別子「GMSP」 **/
+	static final int MAGIC = 0x474D5350;
+	/** ファイル形式の版 **/
+	static final short VERSION = 1;
+	/** ヘッダ中の行数の位置 **/
+	static final int ROWS_OFFSET = 6;
+	/** 圧縮・展開のバッファサイズ **/
+	static final int BUFFER_SIZE = 65536;
+
+	static final byte TYPE_NULL = 0;
+	static final byte TYPE_STRING = 1;
+	static final byte TYPE_INT = 2;
+	static final byte TYPE_LONG = 3;
+	static final byte TYPE_SHORT = 4;
+	static final byte TYPE_BYTE = 5;
+	static final byte TYPE_BOOLEAN = 6;
+	static final byte TYPE_FLOAT = 7;
+	static final byte TYPE_DOUBLE = 8;
+	static final byte TYPE_DECIMAL = 9;
+	static final byte TYPE_BIGINTEGER = 10;
+	static final byte TYPE_DATE = 11;
+	static final byte TYPE_TIME = 12;
+	static final byte TYPE_TIMESTAMP = 13;
+	static final byte TYPE_BYTES = 14;
+
+	private final Path path;
+	private final Path tmp;
+	private final int columnCount;
+	private final FileChannel channel;
+	private final Deflater deflater;
+	private final DeflaterOutputStream deflating;
+	private final DataOutputStream out;
+	private long rows = 0;
+	private boolean closed = false;
+
+	/**
+	 * コンストラクタ。ヘッダを書き込む
+	 * @param path 書き込むセグメントのパス。既にある場合はclose()で置き換える (NotNull)
+	 * @param meta 行データの列定義 (NotNull)
+	 * @param level 圧縮レベル。0（無圧縮）～9
+	 * @throws IOException 書き込みエラー
+	 */
+	public SpoolWriter(Path path, RowMetaData meta, int level) throws IOException{
+		this.path = path;
+		this.tmp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+		this.columnCount = meta.getColumnCount();
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream h = new DataOutputStream(header);
+		h.writeInt(MAGIC);
+		h.writeShort(VERSION);
+		h.writeLong(0);
+		meta.write(h);
+		h.flush();
+		channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try{
+			ByteBuffer buf = ByteBuffer.wrap(header.toByteArray());
+			while(buf.hasRemaining())channel.write(buf);
+		} catch (IOException e) {
+			channel.close();
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		deflater = new Deflater(level);
+		deflating = new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, BUFFER_SIZE);
+		out = new DataOutputStream(new BufferedOutputStream(deflating, BUFFER_SIZE));
+	}
+
+	/**
+	 * 1行を書き込む
+	 * @param row 行データ。列定義と同じ列数である事 (NotNull)
+	 * @throws IOException 書き込みエラー
+	 * @throws SQLException BLOB・CLOBの値の取得に失敗した場合
+	 */
+	public void write(Object[] row) throws IOException, SQLException{
+		if(row.length!=columnCount)throw new IllegalArgumentException("列数が列定義と異なります。" + row.length + " / " + columnCount);
+		for(Object value : row)writeValue(value);
+		rows++;
+	}
+
+	private void writeValue(Object value) throws IOException, SQLException{
+		if(value==null){
+			out.writeByte(TYPE_NULL);
+		}
+		else if(value instanceof String){
+			out.writeByte(TYPE_STRING);
+			writeBytes(((String)value).getBytes(StandardCharsets.UTF_8));
+		}
+		else if(value instanceof Integer){
+			out.writeByte(TYPE_INT);
+			out.writeInt((Integer)value);
+		}
+		else if(value instanceof Long){
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long)value);
+		}
+		else if(value instanceof Short){
+			out.writeByte(TYPE_SHORT);
+			out.writeShort((Short)value);
+		}
+		else if(value instanceof Byte){
+			out.writeByte(TYPE_BYTE);
+			out.writeByte((Byte)value);
+		}
+		else if(value instanceof Boolean){
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean)value);
+		}
+		else if(value instanceof Float){
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float)value);
+		}
+		else if(value instanceof Double){
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double)value);
+		}
+		else if(value instanceof BigDecimal){
+			out.writeByte(TYPE_DECIMAL);
+			out.writeInt(((BigDecimal)value).scale());
+			writeBytes(((BigDecimal)value).unscaledValue().toByteArray());
+		}
+		else if(value instanceof BigInteger){
+			out.writeByte(TYPE_BIGINTEGER);
+			writeBytes(((BigInteger)value).toByteArray());
+		}
+		// Timestamp・Date・Timeはjava.util.Dateの派生なので先に判定する
+		else if(value instanceof Timestamp){
+			out.writeByte(TYPE_TIMESTAMP);
+			out.writeLong(((Timestamp)value).getTime());
+			out.writeInt(((Timestamp)value).getNanos());
+		}
+		else if(value instanceof Date){
+			out.writeByte(TYPE_DATE);
+			out.writeLong(((Date)value).getTime());
+		}
+		else if(value instanceof Time){
+			out.writeByte(TYPE_TIME);
+			out.writeLong(((Time)value).getTime());
+		}
+		else if(value instanceof java.util.Date){
+			writeValue(new Timestamp(((java.util.Date)value).getTime()));
+		}
+		else if(value instanceof byte[]){
+			out.writeByte(TYPE_BYTES);
+			writeBytes((byte[])value);
+		}
+		else if(value instanceof Blob){
+			out.writeByte(TYPE_BYTES);
+			writeBytes(((Blob)value).getBytes(1, (int)((Blob)value).length()));
+		}
+		else if(value instanceof Clob){
+			out.writeByte(TYPE_STRING);
+			writeBytes(((Clob)value).getSubString(1, (int)((Clob)value).length()).getBytes(StandardCharsets.UTF_8));
+		}
+		else{
+			// その他の型は文字列として保存する。ロード時はgetString()と同じ値になる
+			out.writeByte(TYPE_STRING);
+			writeBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException{
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * @return 書き込んだ行数
+	 */
+	public long getRows(){
+		return rows;
+	}
+
+	/**
+	 * @return 書き込むセグメントのパス
+	 */
+	public Path getPath(){
+		return path;
+	}
+
+	/**
+	 * 圧縮を終えて行数をヘッダに書き込み、セグメントのパスへ名前を変更する
+	 * @throws IOException 書き込みエラー
+	 */
+	@Override
+	public void close() throws IOException{
+		if(closed)return;
+		closed = true;
+		try{
+			out.flush();
+			deflating.finish();
+			ByteBuffer buf = ByteBuffer.allocate(8);
+			buf.putLong(rows).flip();
+			while(buf.hasRemaining())channel.write(buf, ROWS_OFFSET + buf.position());
+			channel.force(true);
+		} finally {
+			deflater.end();
+			channel.close();
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * 書き込みを中止し、書きかけのファイルを削除する
+	 */
+	public void abort(){
+		if(closed)return;
+		closed = true;
+		deflater.end();
+		try{
+			channel.close();
+			Files.deleteIfExists(tmp);
+		} catch (IOException e) {
+			Utilities.outLog(Utilities.log_, Level.WARN, "書きかけのスプールファイルを削除できませんでした。" + tmp + " " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,521 @@
+package com.kikisoftware.migrator.database;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 移行先データベースごとの違いを吸収する。
+ * JDBCドライバのクラス名と、一括ロード（MySQLのLOAD DATA LOCAL INFILE、PostgreSQLのCOPY FROM STDIN）の実行方法を定義する。
+ * 一括ロードのデータはタブ区切り・改行区切りのテキストで、NULLは\N、タブ・改行・\はエスケープする。
+ * この形式はMySQLのLOAD DATAとPostgreSQLのCOPYのデフォルトで共通である。
+ * ドライバ固有のAPIはリフレクションで呼び出すため、使用しないドライバはクラスパスになくてもよい。
+ * また、移行中に削除しておくインデックス・外部キーの定義の取得と削除・作成、セッション単位でのチェックの無効化の方法を定義する。
+ * @author kikisoftware
+ */
+public abstract class TargetDialect {
+	private static final byte[] NULL_VALUE = {'\\', 'N'};
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * 名前から方言を取得する
+	 * @param name MySQL、PostgreSQL、またはTargetDialectを継承したクラスの完全修飾名 (NotNull)
+	 * @return 方言
+	 * @throws IllegalArgumentException 該当する方言がない場合
+	 */
+	public static TargetDialect forName(String name){
+		if(name.equalsIgnoreCase("MySQL"))return new MySQL();
+		if(name.equalsIgnoreCase("PostgreSQL"))return new PostgreSQL();
+		try{
+			return (TargetDialect)Class.forName(name).getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("移行先の方言" + name + "が見つかりません。", e);
+		}
+	}
+
+	/**
+	 * @return JDBCドライバのクラス名
+	 */
+	public abstract String getDriverClassName();
+
+	/**
+	 * 指定のINSERT文を一括ロードで実行できるか判定する
+	 * @param insert insert実行用SQL (NotNull)
+	 * @return 一括ロードできる場合true
+	 */
+	public boolean supportsBulkLoad(InsertStatement insert){
+		return false;
+	}
+
+	/**
+	 * 移行先のJDBCドライバで一括ロードを実行できるか判定する。書き込みの準備時に1度だけ呼び出す
+	 * @param con 移行先のコネクション (NotNull)
+	 * @return 一括ロードできる場合true
+	 * @throws SQLException DBエラー
+	 */
+	public boolean isBulkLoadAvailable(Connection con) throws SQLException{
+		return false;
+	}
+
+	/**
+	 * 一括ロードを実行する
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param insert insert実行用SQL。挿入先テーブルと列の指定に使う (NotNull)
+	 * @param data 一括ロードするデータ (NotNull)
+	 * @return 取り込まれた行数
+	 * @throws SQLException DBエラー、またはドライバが一括ロードに対応していない場合
+	 */
+	public long bulkLoad(Connection con, InsertStatement insert, InputStream data) throws SQLException{
+		throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + "は一括ロードに対応していません。");
+	}
+
+	/**
+	 * 移行中に削除しておけるインデックスと外部キーの定義を取得する。
+	 * 主キーと一意インデックスは、削除すると移行中に重複を検出できなくなるため対象外とする
+	 * @param con 移行先のコネクション (NotNull)
+	 * @param table 移行先テーブル名 (NotNull)
+	 * @return インデックスと外部キーの定義
+	 * @throws SQLException DBエラー、または方言が対応していない場合
+	 */
+	public List<DeferredIndexes.Definition> getDeferrableIndexes(Connection con, String table) throws SQLException{
+		throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + "はインデックスの削除・作成に対応していません。");
+	}
+
+	/**
+	 * インデックスと外部キーを削除するSQLを返す。外部キーが先に並んでいるので、その順に削除する事
+	 * @param table 移行先テーブル名 (NotNull)
+	 * @param definitions 削除するインデックスと外部キー (NotNull)
+	 * @return 削除するSQL
+	 * @throws SQLException 方言が対応していない場合
+	 */
+	public List<String> getDropIndexSql(String table, List<DeferredIndexes.Definition> definitions) throws SQLException{
+		throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + "はインデックスの削除・作成に対応していません。");
+	}
+
+	/**
+	 * インデックスと外部キーを作成するSQLを返す。インデックスが先に並んでいるので、その順に作成する事
+	 * @param table 移行先テーブル名 (NotNull)
+	 * @param definitions 作成するインデックスと外部キー (NotNull)
+	 * @return 作成するSQL
+	 * @throws SQLException 方言が対応していない場合
+	 */
+	public List<String> getCreateIndexSql(String table, List<DeferredIndexes.Definition> definitions) throws SQLException{
+		throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + "はインデックスの削除・作成に対応していません。");
+	}
+
+	/**
+	 * 移行先のセッションで、外部キー・一意性のチェックを無効にするSQLを返す
+	 * @return 無効にするSQL。対応していない場合は空
+	 */
+	public List<String> getDisableChecksSql(){
+		return Collections.emptyList();
+	}
+
+	/**
+	 * 一括ロード用に1つの値を書き出す
+	 * @param out 書き出し先 (NotNull)
+	 * @param value PreparedStatementに設定された値 (NullAllowed)
+	 */
+	public void writeValue(ByteArrayOutputStream out, Object value){
+		if(value==null){
+			out.write(NULL_VALUE, 0, NULL_VALUE.length);
+		}
+		else if(value instanceof byte[]){
+			writeBytes(out, (byte[])value);
+		}
+		else if(value instanceof Boolean){
+			writeText(out, formatBoolean((Boolean)value));
+		}
+		else if(value instanceof BigDecimal){
+			writeText(out, ((BigDecimal)value).toPlainString());
+		}
+		else{
+			writeText(out, value.toString());
+		}
+	}
+
+	/**
+	 * 真偽値を一括ロード用の文字列にする
+	 * @param value 値 (NotNull)
+	 * @return 文字列
+	 */
+	protected String formatBoolean(Boolean value){
+		return value ? "1" : "0";
+	}
+
+	/**
+	 * バイナリ値を一括ロード用に書き出す
+	 * @param out 書き出し先 (NotNull)
+	 * @param value 値 (NotNull)
+	 */
+	protected abstract void writeBytes(ByteArrayOutputStream out, byte[] value);
+
+	/**
+	 * 文字列をエスケープして書き出す
+	 * @param out 書き出し先 (NotNull)
+	 * @param value 値 (NotNull)
+	 */
+	protected void writeText(ByteArrayOutputStream out, String value){
+		StringBuilder sb = null;
+		for(int i = 0; i < value.length(); i++){
+			String escaped = escape(value.charAt(i));
+			if(escaped!=null && sb==null)sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+			if(sb!=null){
+				if(escaped!=null)sb.append(escaped);
+				else sb.append(value.charAt(i));
+			}
+		}
+		byte[] bytes = (sb==null ? value : sb.toString()).getBytes(StandardCharsets.UTF_8);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * エスケープが必要な文字を変換する
+	 * @param c 文字
+	 * @return エスケープ後の文字列。不要ならnull
+	 */
+	protected String escape(char c){
+		switch(c){
+		case '\\': return "\\\\";
+		case '\t': return "\\t";
+		case '\n': return "\\n";
+		case '\r': return "\\r";
+		default: return null;
+		}
+	}
+
+	/**
+	 * 16進数の文字列として書き出す
+	 * @param out 書き出し先 (NotNull)
+	 * @param value 値 (NotNull)
+	 */
+	protected static void writeHex(ByteArrayOutputStream out, byte[] value){
+		for(byte b : value){
+			out.write(HEX[(b >> 4) & 0x0f]);
+			out.write(HEX[b & 0x0f]);
+		}
+	}
+
+	/**
+	 * 一括ロード用の列指定 (col1, col2, ...) を返す
+	 * @param insert insert実行用SQL (NotNull)
+	 * @return 列指定。INSERT文に列の指定がない場合は空文字
+	 */
+	protected static String columnList(InsertStatement insert){
+		if(insert.getColumns().isEmpty())return "";
+		StringBuilder sb = new StringBuilder(" (");
+		for(int i = 0; i < insert.getColumns().size(); i++){
+			if(i>0)sb.append(", ");
+			sb.append(insert.getColumns().get(i));
+		}
+		return sb.append(')').toString();
+	}
+
+	/**
+	 * リフレクションで呼び出したドライバ固有APIの例外を取り出す
+	 * @param e 呼び出し時の例外 (NotNull)
+	 * @return SQLException
+	 */
+	protected static SQLException unwrapException(Exception e){
+		Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+		if(cause instanceof SQLException)return (SQLException)cause;
+		return new SQLException(cause.getMessage(), cause);
+	}
+
+	/**
+	 * MySQL。LOAD DATA LOCAL INFILEで一括ロードする。
+	 * Connector/J 5.1.3以降のsetLocalInfileInputStream()を使用する。
+	 * Connector/J 8以降では接続URLにallowLoadLocalInfile=trueが必要。
+	 * データはUTF-8で書き出すため、移行先データベースの既定の文字セットはutf8またはutf8mb4である事。
+	 * LOCAL指定のため、重複キーなどで取り込めなかった行はエラーにならず警告となる。
+	 * @author kikisoftware
+	 */
+	public static class MySQL extends TargetDialect {
+		private static final String[] STATEMENT_CLASSES = {"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement"};
+
+		@Override
+		public String getDriverClassName(){
+			return "com.mysql.jdbc.Driver";
+		}
+
+		@Override
+		public boolean supportsBulkLoad(InsertStatement insert){
+			return insert.isPlainValues();
+		}
+
+		/**
+		 * ステートメントがsetLocalInfileInputStream()を持つか判定する
+		 */
+		@Override
+		public boolean isBulkLoadAvailable(Connection con) throws SQLException{
+			try(Statement stmt = con.createStatement()){
+				return findLocalInfileClass(stmt)!=null;
+			}
+		}
+
+		@Override
+		public long bulkLoad(Connection con, InsertStatement insert, InputStream data) throws SQLException{
+			String sql = "LOAD DATA LOCAL INFILE 'stream' " + (insert.isReplace() ? "REPLACE " : insert.isIgnore() ? "IGNORE " : "")
+					+ "INTO TABLE " + insert.getTable() + columnList(insert);
+			try(Statement stmt = con.createStatement()){
+				setLocalInfileInputStream(stmt, data);
+				return stmt.executeUpdate(sql);
+			}
+		}
+
+		private static void setLocalInfileInputStream(Statement stmt, InputStream data) throws SQLException{
+			Class<?> c = findLocalInfileClass(stmt);
+			if(c==null)throw new SQLFeatureNotSupportedException("LOAD DATA LOCAL INFILEにはMySQL Connector/J 5.1.3以降が必要です。");
+			try{
+				c.getMethod("setLocalInfileInputStream", InputStream.class).invoke(c.isInstance(stmt) ? stmt : stmt.unwrap(c), data);
+			} catch (Exception e) {
+				throw unwrapException(e);
+			}
+		}
+
+		/**
+		 * @return setLocalInfileInputStream()を持つステートメントのクラス。ドライバが対応していない場合はnull
+		 */
+		private static Class<?> findLocalInfileClass(Statement stmt) throws SQLException{
+			for(String name : STATEMENT_CLASSES){
+				Class<?> c;
+				try{
+					c = Class.forName(name);
+				} catch (ClassNotFoundException e) {
+					continue;
+				}
+				if(!c.isInstance(stmt) && !isWrapperFor(stmt, c))continue;
+				try{
+					c.getMethod("setLocalInfileInputStream", InputStream.class);
+					return c;
+				} catch (NoSuchMethodException e) {
+					return null;
+				}
+			}
+			return null;
+		}
+
+		private static boolean isWrapperFor(Statement stmt, Class<?> c) throws SQLException{
+			try{
+				return stmt.isWrapperFor(c);
+			} catch (AbstractMethodError e) {
+				// JDBC4に対応していないドライバ
+				return false;
+			}
+		}
+
+		@Override
+		protected void writeBytes(ByteArrayOutputStream out, byte[] value){
+			// タブ・改行・\・NUL以外はそのまま取り込まれる
+			for(byte b : value){
+				switch(b){
+				case '\\': out.write('\\'); out.write('\\'); break;
+				case '\t': out.write('\\'); out.write('t'); break;
+				case '\n': out.write('\\'); out.write('n'); break;
+				case 0: out.write('\\'); out.write('0'); break;
+				default: out.write(b);
+				}
+			}
+		}
+
+		@Override
+		protected String escape(char c){
+			if(c==0)return "\\0";
+			return super.escape(c);
+		}
+
+		/**
+		 * SHOW CREATE TABLEの結果から、KEY・FULLTEXT KEY・SPATIAL KEYと、FOREIGN KEYを含むCONSTRAINTの行を取り出す。
+		 * 定義にはその行をそのまま使うため、プレフィックス長やインデックスの種類も元のとおりに作成し直される
+		 */
+		@Override
+		public List<DeferredIndexes.Definition> getDeferrableIndexes(Connection con, String table) throws SQLException{
+			List<DeferredIndexes.Definition> list = new ArrayList<DeferredIndexes.Definition>();
+			String ddl;
+			try(Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery("SHOW CREATE TABLE " + table)){
+				if(!rs.next())throw new SQLException("テーブル" + table + "の定義が取得できませんでした。");
+				ddl = rs.getString(2);
+			}
+			for(String line : ddl.split("\n")){
+				line = line.trim();
+				if(line.endsWith(","))line = line.substring(0, line.length() - 1);
+				boolean index = line.startsWith("KEY ") || line.startsWith("FULLTEXT KEY ") || line.startsWith("SPATIAL KEY ");
+				boolean foreignKey = line.startsWith("CONSTRAINT ") && line.contains(" FOREIGN KEY ");
+				if(!index && !foreignKey)continue;
+				int from = line.indexOf('`');
+				int to = line.indexOf('`', from + 1);
+				// 名前に`を含む場合は``とエスケープされている
+				while(to>0 && to + 1 < line.length() && line.charAt(to + 1)=='`')to = line.indexOf('`', to + 2);
+				if(from<0 || to<0)throw new SQLException("インデックスの定義を解析できませんでした。" + line);
+				list.add(new DeferredIndexes.Definition(line.substring(from + 1, to).replace("``", "`"), foreignKey, line));
+			}
+			return list;
+		}
+
+		/**
+		 * 外部キーとインデックスを、それぞれ1つのALTER TABLEでまとめて削除する
+		 */
+		@Override
+		public List<String> getDropIndexSql(String table, List<DeferredIndexes.Definition> definitions){
+			StringBuilder fk = new StringBuilder();
+			StringBuilder index = new StringBuilder();
+			for(DeferredIndexes.Definition d : definitions){
+				StringBuilder sb = d.isForeignKey() ? fk : index;
+				sb.append(sb.length()==0 ? "ALTER TABLE " + table + " " : ", ").append(d.isForeignKey() ? "DROP FOREIGN KEY " : "DROP INDEX ").append(quote(d.getName()));
+			}
+			return joinNotEmpty(fk, index);
+		}
+
+		/**
+		 * インデックスと外部キーを、それぞれ1つのALTER TABLEでまとめて作成する。
+		 * 1つのALTER TABLEにまとめたインデックスは、テーブルの1回の走査で作成される
+		 */
+		@Override
+		public List<String> getCreateIndexSql(String table, List<DeferredIndexes.Definition> definitions){
+			StringBuilder index = new StringBuilder();
+			StringBuilder fk = new StringBuilder();
+			for(DeferredIndexes.Definition d : definitions){
+				StringBuilder sb = d.isForeignKey() ? fk : index;
+				sb.append(sb.length()==0 ? "ALTER TABLE " + table + " ADD " : ", ADD ").append(d.getDefinition());
+			}
+			return joinNotEmpty(index, fk);
+		}
+
+		@Override
+		public List<String> getDisableChecksSql(){
+			return Arrays.asList("SET foreign_key_checks = 0", "SET unique_checks = 0");
+		}
+
+		private static String quote(String name){
+			return "`" + name.replace("`", "``") + "`";
+		}
+
+		private static List<String> joinNotEmpty(StringBuilder... sqls){
+			List<String> list = new ArrayList<String>();
+			for(StringBuilder sb : sqls)if(sb.length()>0)list.add(sb.toString());
+			return list;
+		}
+	}
+
+	/**
+	 * PostgreSQL。COPY FROM STDINで一括ロードする。
+	 * PostgreSQL JDBCドライバのCopyManagerを使用する。
+	 * REPLACE、INSERT IGNOREに相当する指定はできないため、一括ロードの対象外とする。
+	 * @author kikisoftware
+	 */
+	public static class PostgreSQL extends TargetDialect {
+		@Override
+		public String getDriverClassName(){
+			return "org.postgresql.Driver";
+		}
+
+		@Override
+		public boolean supportsBulkLoad(InsertStatement insert){
+			return insert.isPlainValues() && !insert.isReplace() && !insert.isIgnore();
+		}
+
+		/**
+		 * コネクションがPGConnectionである事を判定する
+		 */
+		@Override
+		public boolean isBulkLoadAvailable(Connection con) throws SQLException{
+			try{
+				Class<?> pgcon = Class.forName("org.postgresql.PGConnection");
+				return pgcon.isInstance(con) || con.isWrapperFor(pgcon);
+			} catch (ClassNotFoundException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public long bulkLoad(Connection con, InsertStatement insert, InputStream data) throws SQLException{
+			String sql = "COPY " + insert.getTable() + columnList(insert) + " FROM STDIN";
+			try{
+				Class<?> pgcon = Class.forName("org.postgresql.PGConnection");
+				Object copy = pgcon.getMethod("getCopyAPI").invoke(con.unwrap(pgcon));
+				return (Long)copy.getClass().getMethod("copyIn", String.class, InputStream.class).invoke(copy, sql, data);
+			} catch (ClassNotFoundException e) {
+				throw new SQLFeatureNotSupportedException("COPY FROM STDINにはPostgreSQL JDBCドライバが必要です。", e);
+			} catch (SQLException e) {
+				throw e;
+			} catch (Exception e) {
+				throw unwrapException(e);
+			}
+		}
+
+		@Override
+		protected String formatBoolean(Boolean value){
+			return value ? "t" : "f";
+		}
+
+		@Override
+		protected void writeBytes(ByteArrayOutputStream out, byte[] value){
+			// bytea の16進形式。COPYのテキスト形式では\自体もエスケープが必要
+			out.write('\\');
+			out.write('\\');
+			out.write('x');
+			writeHex(out, value);
+		}
+
+		/**
+		 * 一意でないインデックスはpg_get_indexdef()、外部キーはpg_get_constraintdef()で定義を取得する。
+		 * インデックス名はスキーマで修飾する
+		 */
+		@Override
+		public List<DeferredIndexes.Definition> getDeferrableIndexes(Connection con, String table) throws SQLException{
+			List<DeferredIndexes.Definition> list = new ArrayList<DeferredIndexes.Definition>();
+			String indexSql = "SELECT quote_ident(n.nspname) || '.' || quote_ident(c.relname), pg_get_indexdef(i.indexrelid) FROM pg_index i"
+					+ " JOIN pg_class c ON c.oid = i.indexrelid JOIN pg_namespace n ON n.oid = c.relnamespace"
+					+ " WHERE i.indrelid = CAST(? AS regclass) AND NOT i.indisunique AND NOT i.indisprimary ORDER BY 1";
+			String fkSql = "SELECT quote_ident(conname), pg_get_constraintdef(oid) FROM pg_constraint WHERE conrelid = CAST(? AS regclass) AND contype = 'f' ORDER BY 1";
+			String[] sqls = {indexSql, fkSql};
+			for(int k = 0; k < sqls.length; k++){
+				try(PreparedStatement ps = con.prepareStatement(sqls[k])){
+					ps.setString(1, table);
+					try(ResultSet rs = ps.executeQuery()){
+						while(rs.next())list.add(new DeferredIndexes.Definition(rs.getString(1), k==1, rs.getString(2)));
+					}
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public List<String> getDropIndexSql(String table, List<DeferredIndexes.Definition> definitions){
+			List<String> list = new ArrayList<String>();
+			for(DeferredIndexes.Definition d : definitions){
+				list.add(d.isForeignKey() ? "ALTER TABLE " + table + " DROP CONSTRAINT " + d.getName() : "DROP INDEX " + d.getName());
+			}
+			return list;
+		}
+
+		@Override
+		public List<String> getCreateIndexSql(String table, List<DeferredIndexes.Definition> definitions){
+			List<String> list = new ArrayList<String>();
+			for(DeferredIndexes.Definition d : definitions){
+				list.add(d.isForeignKey() ? "ALTER TABLE " + table + " ADD CONSTRAINT " + d.getName() + " " + d.getDefinition() : d.getDefinition());
+			}
+			return list;
+		}
+
+		/**
+		 * 外部キーのトリガーを無効にする。スーパーユーザー権限が必要。一意性のチェックは無効にできない
+		 */
+		@Override
+		public List<String> getDisableChecksSql(){
+			return Collections.singletonList("SET session_replication_role = replica");
+		}
+	}
+}
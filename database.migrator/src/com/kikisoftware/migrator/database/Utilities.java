@@ -1,15 +1,26 @@
 package com.kikisoftware.migrator.database;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 
 /**
  * 全てのベースクラスとして、完全に共通的なユーティリティ関数を定義
@@ -19,19 +30,30 @@ public abstract class Utilities extends Consts {
 	/** Loggerを定義。代入は実装クラスで行う事 **/
 	public static Logger log_;
 
-	private static java.util.ResourceBundle prop;
-	private static Map<String, String> setting;
+	/** 現在のコンフィグ。reload()・setResourceString()で丸ごと差し替える **/
+	private static final AtomicReference<Config> config = new AtomicReference<Config>();
+	/** スレッドごとに割り当てたコンフィグ。割り当てがない場合はconfigを使う **/
+	private static final ThreadLocal<Config> boundConfig = new ThreadLocal<Config>();
+	/** ログ出力位置の判定に使うクラス名 **/
+	private static final String FQCN = Utilities.class.getName();
+	/** 非同期ログ出力。log.asyncBufferSizeが0の場合はnullで、同期的に出力する **/
+	private static final AsyncLogWriter asyncLog;
+
+	/** コンフィグファイルlog.asyncBufferSizeの値を取得する。デフォルトは8192。0なら非同期にしない。
+	Loggerの準備前に呼び出されるため、設定がない場合もログ出力しない
+	@return 設定された非同期ログ出力のバッファ件数 **/
+	public static int getLogAsyncBufferSize() {String wk = getResourceString("log.asyncBufferSize", null, "", false); return wk.equals("") ? 8192 : Integer.parseInt(wk);}
 
 	/**
 	 * コンフィグファイルdatabasemigrator.propertiesを再読み込みする
 	 */
 	public static void reload() {
-		java.util.ResourceBundle.clearCache();
-		prop = java.util.ResourceBundle.getBundle("databasemigrator");
-		setting = new HashMap<String, String>();
+		config.set(Config.load("databasemigrator"));
 	}
 	static {
 		reload();
+		int size = getLogAsyncBufferSize();
+		asyncLog = size>0 ? new AsyncLogWriter(size) : null;
 	}
 	
 	/**
@@ -44,22 +66,50 @@ public abstract class Utilities extends Consts {
 	}
 	
 	/**
-	 * ログ出力を行う。Loggerを指定し、システム全体で同期的に出力する
+	 * ログ出力を行う。Loggerを指定し、非同期ログ出力が有効ならバッファに積んで書き込みスレッドで出力する
 	 * @param log Logger (NotNull)
 	 * @param level 出力ログレベル (NotNull)
 	 * @param msg 出力するログメッセージ (NullAllowed)
 	 */
-	public static synchronized void outLog(Logger log, Level level, String msg){
+	public static void outLog(Logger log, Level level, String msg){
 		outLog(log, level, new String[]{msg});
 	}
 
 	/**
-	 * 文字列配列を改行区切りでログ出力を行う。Loggerを指定し、システム全体で同期的に出力する
-	 * @param log Logger (NotNull)
+	 * 指定のログレベルが出力されるかを判定する。
+	 * 1行ごとに出力するログなど、メッセージの組み立てが重い場合は先に判定してから組み立てる事
+	 * @param log Logger。nullの場合はルートLoggerで判定する (NullAllowed)
+	 * @param level 出力ログレベル。nullだと出力なし (NullAllowed)
+	 * @return 出力される場合true
+	 */
+	public static boolean isLogEnabled(Logger log, Level level){
+		if(level==null)return false;
+		if(log==null)log = Logger.getRootLogger();
+		if(level.equals(Level.DEBUG) || level.equals(Level.INFO) || level.equals(Level.WARN) || level.equals(Level.ERROR) || level.equals(Level.FATAL)){
+			return log.isEnabledFor(level);
+		}
+		return true;
+	}
+
+	/**
+	 * 非同期ログ出力のバッファに残ったログが書き出されるまで待つ
+	 * @param timeoutMillis 最大待ち時間（ミリ秒）
+	 * @return 全て書き出された場合、または非同期ログ出力でない場合true
+	 */
+	public static boolean flushLog(long timeoutMillis){
+		return asyncLog==null || asyncLog.flush(timeoutMillis);
+	}
+
+	/**
+	 * 文字列配列を改行区切りでログ出力を行う。Loggerを指定し、非同期ログ出力が有効ならバッファに積んで書き込みスレッドで出力する。
+	 * 非同期ログ出力が無効な場合は、システム全体で同期的に出力する
+	 * @param log Logger。実装クラスがlog_を代入する前など、nullの場合はルートLoggerに出力する (NullAllowed)
 	 * @param level 出力ログレベル。nullだと出力なし (NullAllowed)
 	 * @param msgs 出力するログメッセージ配列 (NotNull)
 	 */
-	public static synchronized void outLog(Logger log, Level level, String[] msgs){
+	public static void outLog(Logger log, Level level, String[] msgs){
+		if(log==null)log = Logger.getRootLogger();
+		if(!isLogEnabled(log, level))return;
 		String msg = null;
 		if(msgs.length==1){
 			msg = msgs[0];
@@ -72,30 +122,22 @@ public abstract class Utilities extends Consts {
 			}
 			msg = sb.toString();
 		}
-		if(level==null){
-
-		}
-		else if(level.equals(Level.OFF)){
+		if(level.equals(Level.OFF)){
 			System.out.println(msg);
+			return;
 		}
-		else if(level.equals(Level.DEBUG)){
-			log.debug(msg);
-		}
-		else if(level.equals(Level.INFO)){
-			log.info(msg);
-		}
-		else if(level.equals(Level.WARN)){
-			log.warn(msg);
-		}
-		else if(level.equals(Level.ERROR)){
-			log.error(msg);
+		else if(!level.equals(Level.DEBUG) && !level.equals(Level.INFO) && !level.equals(Level.WARN) && !level.equals(Level.ERROR) && !level.equals(Level.FATAL)){
+			System.out.println("["+level.toString()+"]" + msg);
+			level = Level.FATAL;
+			if(!log.isEnabledFor(level))return;
 		}
-		else if(level.equals(Level.FATAL)){
-			log.fatal(msg);
+		if(asyncLog!=null){
+			// 出力時刻は呼び出し時点とする
+			asyncLog.append(log, new LoggingEvent(FQCN, log, System.currentTimeMillis(), level, msg, null));
+			return;
 		}
-		else{
-			System.out.println("["+level.toString()+"]" + msg);
-			log.fatal(msg);
+		synchronized(Utilities.class){
+			log.log(FQCN, level, msg, null);
 		}
 	}
 
@@ -154,6 +196,24 @@ public abstract class Utilities extends Consts {
 		return re;*/
 	}
 
+	/**
+	 * ファイルを書き込む。一時ファイルに書き出して同期した後に置き換えるため、途中で中断されても前回の内容が残る
+	 * @param path ファイルパス (NotNull)
+	 * @param data 書き込む内容 (NotNull)
+	 * @throws IOException 書き込みエラー
+	 */
+	public static void writeFileAtomically(Path path, byte[] data) throws IOException{
+		Path dir = path.toAbsolutePath().getParent();
+		if(dir!=null)Files.createDirectories(dir);
+		Path tmp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+		try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			while(buf.hasRemaining())ch.write(buf);
+			ch.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
 	/**
 	 * コンフィグファイルから指定のキーの値を指定の置換を行って取得する。
 	 * @param key コンフィグキー (NotNull)
@@ -163,17 +223,47 @@ public abstract class Utilities extends Consts {
 	 * @return コンフィグのキーに対応するバリュー値
 	 */
 	public static String getResourceString(String key, String pre, String aft, boolean replace){
-		if(setting.containsKey(key))return setting.get(key);
-		String wk = "";
-		try {
-			wk = prop.getString(key);
-			if(replace && pre!=null)wk = wk.replace(pre, aft);
-		} catch (Exception e) {
-		}
-		setting.put(key, wk);
+		String wk = getConfig().getRaw(key);
+		if(replace && pre!=null)wk = wk.replace(pre, aft);
 		return wk;
 	}
 	
+	/**
+	 * コンフィグの値をプログラムから上書きする。ベンチマークなどで設定を切り替えながら実行する場合に使う。
+	 * 上書きした値を含むコンフィグに差し替えるため、既に生成済みの処理クラスには反映されない。
+	 * 上書きした値はreload()で破棄される
+	 * @param key コンフィグキー (NotNull)
+	 * @param value 設定する値 (NotNull)
+	 */
+	public static void setResourceString(String key, String value){
+		Config current;
+		do{
+			current = config.get();
+		}while(!config.compareAndSet(current, current.withOverride(key, value)));
+	}
+
+	/**
+	 * @return 現在のスレッドのコンフィグ。スレッドに割り当てがない場合は全体のコンフィグ
+	 */
+	public static Config getConfig(){
+		Config bound = boundConfig.get();
+		return bound!=null ? bound : config.get();
+	}
+
+	/**
+	 * 現在のスレッドにコンフィグを割り当てる。割り当て中にスレッド上で生成・実行した処理クラスはこのコンフィグを使う。
+	 * 処理ごとに設定を変える場合は、getConfig().withOverrides()で生成したコンフィグを割り当て、
+	 * 終了後に戻り値で元に戻す事
+	 * @param c 割り当てるコンフィグ。nullなら割り当てを解除する (NullAllowed)
+	 * @return 元の割り当て (NullAllowed)
+	 */
+	public static Config bindConfig(Config c){
+		Config previous = boundConfig.get();
+		if(c==null)boundConfig.remove();
+		else boundConfig.set(c);
+		return previous;
+	}
+
 	/**
 	 * コンフィグファイルから指定のキーの値を取得する。
 	 * @param key コンフィグキー (NotNull)
@@ -191,21 +281,99 @@ public abstract class Utilities extends Consts {
 	 * @return コンフィグのキーに対応するバリュー値
 	 */
 	public static String getResourceString(String key, String def, Level level){
-		String wk = getResourceString(key, null, "", false);
-		if(wk==null || wk.equals("")){
-			if(level!=null && level.equals(Level.FATAL)){
-				outLog(log_, level, key+" setting is illegal ["+wk+"].");
-				System.exit(ERR_CODE_CONFIG_SETTING);
-			}
-			else{
-				outLog(log_, level, key+" setting is illegal ["+wk+"]. useing default value ["+def+"]");
+		return getConfig().getString(key, def, level);
+	}
+
+	/**
+	 * コンフィグファイルから指定のキーの値を整数として取得する。解析結果はコンフィグごとに保持する
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level ログレベル (NullAllowed)
+	 * @return コンフィグのキーに対応するバリュー値
+	 */
+	public static int getResourceInt(String key, String def, Level level){
+		return getConfig().getInt(key, def, level);
+	}
+
+	/**
+	 * コンフィグファイルから指定のキーの値を整数として取得する。解析結果はコンフィグごとに保持する
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level ログレベル (NullAllowed)
+	 * @return コンフィグのキーに対応するバリュー値
+	 */
+	public static long getResourceLong(String key, String def, Level level){
+		return getConfig().getLong(key, def, level);
+	}
+
+	/**
+	 * コンフィグファイルから指定のキーの値を真偽値として取得する。解析結果はコンフィグごとに保持する
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level ログレベル (NullAllowed)
+	 * @return コンフィグのキーに対応するバリュー値
+	 */
+	public static boolean getResourceBoolean(String key, String def, Level level){
+		return getConfig().getBoolean(key, def, level);
+	}
+
+	/**
+	 * コンフィグファイルから指定のキーの値を列挙型の定数として取得する。解析結果はコンフィグごとに保持する
+	 * @param type 列挙型 (NotNull)
+	 * @param key コンフィグキー (NotNull)
+	 * @param def デフォルト値 (NotNull)
+	 * @param level ログレベル (NullAllowed)
+	 * @return コンフィグのキーに対応するバリュー値
+	 */
+	public static <E extends Enum<E>> E getResourceEnum(Class<E> type, String key, String def, Level level){
+		return getConfig().getEnum(type, key, def, level);
+	}
+	
+	/**
+	 * 読み込みモードに応じて、元データ取得用のStatementを生成する。
+	 * Bufferedはフェッチサイズを指定するだけで、MySQLでは全件がメモリに読み込まれる。
+	 * Streamは1行ずつサーバーから受け取る。読み込み中は同じコネクションで他のSQLを実行できない。
+	 * Cursorはサーバー側カーソルからフェッチサイズずつ受け取る。接続URLにuseCursorFetch=trueの指定が必要。
+	 * @param con 元データ側のコネクション (NotNull)
+	 * @param sql 実行するSQL (NotNull)
+	 * @param mode 読み込みモード (NotNull)
+	 * @param chunkSize フェッチサイズ
+	 * @return 生成したStatement。CursorではPreparedStatementとなる
+	 * @throws SQLException DBエラー
+	 */
+	public static Statement createSourceStatement(Connection con, String sql, READ_MODE mode, int chunkSize) throws SQLException{
+		Statement stmt;
+		if(mode == READ_MODE.Cursor){
+			String url = con.getMetaData().getURL();
+			if(url!=null && !url.contains("useCursorFetch=true")){
+				outLog(log_, Level.WARN, "読み込みモードCursorでは接続URLにuseCursorFetch=trueを指定してください。指定がない場合は全件がメモリに読み込まれます。");
 			}
-			wk = def;
-			setting.put(key, def);
+			stmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(chunkSize);
 		}
-		return wk;
+		else if(mode == READ_MODE.Stream){
+			stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(Integer.MIN_VALUE);
+		}
+		else{
+			stmt = con.createStatement();
+			stmt.setFetchSize(chunkSize);
+		}
+		return stmt;
 	}
-	
+
+	/**
+	 * createSourceStatement()で生成したStatementでSQLを実行する
+	 * @param stmt createSourceStatement()で生成したStatement (NotNull)
+	 * @param sql 生成時に指定したSQL (NotNull)
+	 * @return 実行結果
+	 * @throws SQLException DBエラー
+	 */
+	public static ResultSet executeSourceQuery(Statement stmt, String sql) throws SQLException{
+		if(stmt instanceof PreparedStatement)return ((PreparedStatement)stmt).executeQuery();
+		return stmt.executeQuery(sql);
+	}
+
 	/**
 	 * jarファイルのあるディレクトリの絶対パスを取得する
 	 * @return jarファイルのあるディレクトリの絶対パス